@@ -0,0 +1,111 @@
+package com.headstartech.burro;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Latency from {@link BatchingWorkQueue#add(Object)} until the item has been processed.
+ *
+ * Each invocation adds an item and waits until the processor has seen it, JMH reports the latency percentiles. The
+ * batch parameters default to a few representative points, pass other values with {@code -p} to sweep them.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BatchingWorkQueueLatencyBenchmark {
+
+    private static final int CAPACITY = 65536;
+
+    @Param({BenchmarkQueues.ARRAY_BLOCKING_QUEUE, BenchmarkQueues.LINKED_BLOCKING_QUEUE, BenchmarkQueues.MPSC_ARRAY_BLOCKING_QUEUE})
+    public String queueType;
+
+    @Param({"8"})
+    public int minBatchSize;
+
+    @Param({"100"})
+    public int maxBatchSize;
+
+    @Param({"1", "50"})
+    public int maxWriteDelay;
+
+    @Param({"false", "true"})
+    public boolean signalOnAdd;
+
+    private BatchingWorkQueue<LatencyItem> workQueue;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        MutableBatchingWorkQueueConfiguration configuration = new MutableBatchingWorkQueueConfiguration("benchmark",
+                minBatchSize, maxBatchSize, 0, maxWriteDelay, false, 1);
+        configuration.setSignalOnAdd(signalOnAdd);
+        workQueue = new BatchingWorkQueue<LatencyItem>(configuration, BenchmarkQueues.<LatencyItem>newQueue(queueType, CAPACITY), new LatencyWorkProcessor());
+        workQueue.start();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        workQueue.shutdown();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void addAndWait1Producer() {
+        addAndWait();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void addAndWait8Producers() {
+        addAndWait();
+    }
+
+    private void addAndWait() {
+        LatencyItem item = new LatencyItem(Thread.currentThread());
+        if (!workQueue.add(item)) {
+            throw new IllegalStateException("Queue full");
+        }
+        while (!item.processed) {
+            LockSupport.park(item);
+        }
+    }
+
+    private static class LatencyItem {
+
+        private final Thread producer;
+        private volatile boolean processed;
+
+        LatencyItem(Thread producer) {
+            this.producer = producer;
+        }
+    }
+
+    private static class LatencyWorkProcessor implements WorkProcessor<Collection<LatencyItem>> {
+
+        @Override
+        public void process(Collection<LatencyItem> work) {
+            for (LatencyItem item : work) {
+                item.processed = true;
+                LockSupport.unpark(item.producer);
+            }
+        }
+    }
+}
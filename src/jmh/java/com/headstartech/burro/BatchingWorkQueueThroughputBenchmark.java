@@ -0,0 +1,118 @@
+package com.headstartech.burro;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Throughput of {@link BatchingWorkQueue#add(Object, long, TimeUnit)} with a varying number of producers.
+ *
+ * The average batch fill ratio (items per batch relative to maxBatchSize) is logged when each trial ends. The batch
+ * parameters default to a few representative points, pass other values with {@code -p} to sweep them.
+ * {@link WorkQueueThroughputBenchmark} compares the other work queue implementations.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BatchingWorkQueueThroughputBenchmark {
+
+    private static final Logger logger = LoggerFactory.getLogger(BatchingWorkQueueThroughputBenchmark.class);
+
+    private static final int CAPACITY = 65536;
+
+    @Param({BenchmarkQueues.ARRAY_BLOCKING_QUEUE, BenchmarkQueues.LINKED_BLOCKING_QUEUE, BenchmarkQueues.MPSC_ARRAY_BLOCKING_QUEUE})
+    public String queueType;
+
+    @Param({"100"})
+    public int minBatchSize;
+
+    @Param({"1000", "10000"})
+    public int maxBatchSize;
+
+    @Param({"0"})
+    public int minWriteDelay;
+
+    @Param({"10"})
+    public int maxWriteDelay;
+
+    @Param({"false"})
+    public boolean signalOnAdd;
+
+    private BatchingWorkQueue<Object> workQueue;
+    private CountingWorkProcessor processor;
+    private final Object item = new Object();
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        MutableBatchingWorkQueueConfiguration configuration = new MutableBatchingWorkQueueConfiguration("benchmark",
+                minBatchSize, maxBatchSize, minWriteDelay, maxWriteDelay, false, 1);
+        configuration.setSignalOnAdd(signalOnAdd);
+        processor = new CountingWorkProcessor();
+        workQueue = new BatchingWorkQueue<Object>(configuration, BenchmarkQueues.newQueue(queueType, CAPACITY), processor);
+        workQueue.start();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        workQueue.shutdown();
+        long batches = processor.batches.get();
+        long items = processor.items.get();
+        double averageBatchSize = batches == 0 ? 0.0 : (double) items / batches;
+        logger.info("Trial finished: batches={}, items={}, averageBatchSize={}, batchFillRatio={}",
+                batches, items, String.format("%.1f", averageBatchSize), String.format("%.3f", averageBatchSize / maxBatchSize));
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean add1Producer() throws InterruptedException {
+        return add();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean add4Producers() throws InterruptedException {
+        return add();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public boolean add16Producers() throws InterruptedException {
+        return add();
+    }
+
+    private boolean add() throws InterruptedException {
+        return workQueue.add(item, 1, TimeUnit.SECONDS);
+    }
+
+    private static class CountingWorkProcessor implements WorkProcessor<Collection<Object>> {
+
+        private final AtomicLong batches = new AtomicLong();
+        private final AtomicLong items = new AtomicLong();
+
+        @Override
+        public void process(Collection<Object> work) {
+            batches.incrementAndGet();
+            items.addAndGet(work.size());
+        }
+    }
+}
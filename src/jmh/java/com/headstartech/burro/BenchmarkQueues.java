@@ -0,0 +1,28 @@
+package com.headstartech.burro;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Creates the queue implementations compared by the benchmarks.
+ */
+final class BenchmarkQueues {
+
+    static final String ARRAY_BLOCKING_QUEUE = "ArrayBlockingQueue";
+    static final String LINKED_BLOCKING_QUEUE = "LinkedBlockingQueue";
+    static final String MPSC_ARRAY_BLOCKING_QUEUE = "MpscArrayBlockingQueue";
+
+    private BenchmarkQueues() {}
+
+    static <T> BlockingQueue<T> newQueue(String queueType, int capacity) {
+        if (ARRAY_BLOCKING_QUEUE.equals(queueType)) {
+            return new ArrayBlockingQueue<T>(capacity);
+        } else if (LINKED_BLOCKING_QUEUE.equals(queueType)) {
+            return new LinkedBlockingQueue<T>(capacity);
+        } else if (MPSC_ARRAY_BLOCKING_QUEUE.equals(queueType)) {
+            return new MpscArrayBlockingQueue<T>(capacity);
+        }
+        throw new IllegalArgumentException(String.format("Unknown queue type: %s", queueType));
+    }
+}
@@ -0,0 +1,165 @@
+package com.headstartech.burro;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of adding items to each work queue implementation, at a single representative configuration.
+ *
+ * Each queue is fed through its own add method, the long queue with primitive values and the off-heap queue by
+ * writing records in place. Items of the coalescing queue share 1024 keys, so part of them are merged.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WorkQueueThroughputBenchmark {
+
+    static final String BATCHING_WORK_QUEUE = "BatchingWorkQueue";
+    static final String PRODUCER_BUFFERS = "ProducerBuffers";
+    static final String LONG_BATCHING_WORK_QUEUE = "LongBatchingWorkQueue";
+    static final String OFF_HEAP_BATCHING_WORK_QUEUE = "OffHeapBatchingWorkQueue";
+    static final String PRIORITY_BATCHING_WORK_QUEUE = "PriorityBatchingWorkQueue";
+    static final String COALESCING_BATCHING_WORK_QUEUE = "CoalescingBatchingWorkQueue";
+
+    private static final int CAPACITY = 65536;
+    private static final int KEYS = 1024;
+
+    @Param({BATCHING_WORK_QUEUE, PRODUCER_BUFFERS, LONG_BATCHING_WORK_QUEUE, OFF_HEAP_BATCHING_WORK_QUEUE,
+            PRIORITY_BATCHING_WORK_QUEUE, COALESCING_BATCHING_WORK_QUEUE})
+    public String workQueueType;
+
+    private AbstractWorkQueue<?> workQueue;
+    private Producer producer;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        MutableBatchingWorkQueueConfiguration configuration = new MutableBatchingWorkQueueConfiguration("benchmark",
+                100, 1000, 0, 10, false, 1);
+        if (BATCHING_WORK_QUEUE.equals(workQueueType) || PRODUCER_BUFFERS.equals(workQueueType)) {
+            if (PRODUCER_BUFFERS.equals(workQueueType)) {
+                configuration.setProducerBufferSize(64);
+            }
+            final BatchingWorkQueue<Long> queue = new BatchingWorkQueue<Long>(configuration, CAPACITY, new NoOpWorkProcessor<Long>());
+            producer = new Producer() {
+                @Override
+                boolean add(long value) throws InterruptedException {
+                    return queue.add(value, 1, TimeUnit.SECONDS);
+                }
+            };
+            workQueue = queue;
+        } else if (LONG_BATCHING_WORK_QUEUE.equals(workQueueType)) {
+            final LongBatchingWorkQueue queue = new LongBatchingWorkQueue(configuration, CAPACITY, new LongWorkProcessor() {
+                @Override
+                public void process(long[] values, int length) {
+                }
+            });
+            producer = new Producer() {
+                @Override
+                boolean add(long value) throws InterruptedException {
+                    return queue.add(value, 1, TimeUnit.SECONDS);
+                }
+            };
+            workQueue = queue;
+        } else if (OFF_HEAP_BATCHING_WORK_QUEUE.equals(workQueueType)) {
+            final OffHeapBatchingWorkQueue queue = new OffHeapBatchingWorkQueue(configuration, CAPACITY, 8, new RecordWorkProcessor() {
+                @Override
+                public void process(RecordCursor batch) {
+                }
+            });
+            producer = new Producer() {
+                @Override
+                boolean add(long value) throws InterruptedException {
+                    RecordWriter writer = queue.claim(1, TimeUnit.SECONDS);
+                    if (writer == null) {
+                        return false;
+                    }
+                    writer.putLong(0, value).commit();
+                    return true;
+                }
+            };
+            workQueue = queue;
+        } else if (PRIORITY_BATCHING_WORK_QUEUE.equals(workQueueType)) {
+            final PriorityBatchingWorkQueue<Long> queue = new PriorityBatchingWorkQueue<Long>(configuration,
+                    Arrays.asList(new PriorityLane(configuration, CAPACITY, 4), new PriorityLane(configuration, CAPACITY, 1)),
+                    new NoOpWorkProcessor<Long>());
+            producer = new Producer() {
+                @Override
+                boolean add(long value) throws InterruptedException {
+                    return queue.add(value, (int) (value & 1), 1, TimeUnit.SECONDS);
+                }
+            };
+            workQueue = queue;
+        } else if (COALESCING_BATCHING_WORK_QUEUE.equals(workQueueType)) {
+            final CoalescingBatchingWorkQueue<Long, Long> queue = new CoalescingBatchingWorkQueue<Long, Long>(configuration, CAPACITY, new KeyExtractor<Long, Long>() {
+                @Override
+                public Long getKey(Long item) {
+                    return item % KEYS;
+                }
+            }, new NoOpWorkProcessor<Long>());
+            producer = new Producer() {
+                @Override
+                boolean add(long value) throws InterruptedException {
+                    return queue.add(value, 1, TimeUnit.SECONDS);
+                }
+            };
+            workQueue = queue;
+        } else {
+            throw new IllegalArgumentException(String.format("Unknown work queue type: %s", workQueueType));
+        }
+        workQueue.start();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        workQueue.shutdown();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean add1Producer(ProducerState state) throws InterruptedException {
+        return producer.add(state.next++);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean add4Producers(ProducerState state) throws InterruptedException {
+        return producer.add(state.next++);
+    }
+
+    @State(Scope.Thread)
+    public static class ProducerState {
+
+        private long next;
+    }
+
+    private abstract static class Producer {
+
+        abstract boolean add(long value) throws InterruptedException;
+    }
+
+    private static class NoOpWorkProcessor<T> implements WorkProcessor<Collection<T>> {
+
+        @Override
+        public void process(Collection<T> work) {
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package com.headstartech.burro;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Base class of the configurations of the queues, adding the settings beyond {@link BatchingWorkQueueConfiguration}
+ * with their defaults, so implementations only override the settings they use. New settings are added here with a
+ * default, not to the interface.
+ *
+ * A queue created with a configuration not extending this class uses the defaults for these settings.
+ */
+public abstract class AbstractBatchingWorkQueueConfiguration implements BatchingWorkQueueConfiguration {
+
+
+    /**
+     * Indicates if adding items should wake up the worker, instead of the worker polling the queue.
+     *
+     * When enabled, the worker is woken up as soon as the queue holds {@link BatchingWorkQueueConfiguration#getMinBatchSize()} items or the oldest
+     * item has waited {@link BatchingWorkQueueConfiguration#getMaxWriteDelay()} milliseconds. {@link BatchingWorkQueueConfiguration#getSleepIntervalWhenEmpty()} is not used.
+     * Read when the queue is created.
+     *
+     * @return {@code true} if adding items wakes up the worker, {@code false} otherwise
+     */
+    public boolean isSignalOnAdd() {
+        return false;
+    }
+
+    /**
+     * The number of workers processing items from the queue concurrently.
+     *
+     * With more than one worker, batches may be processed out of order. Read when the queue is created.
+     *
+     * @return number of workers processing items from the queue
+     */
+    public int getParallelism() {
+        return 1;
+    }
+
+    /**
+     * Indicates if each batch is passed to the processor as a new collection.
+     *
+     * By default the collection passed to the processor is reused for the next batch, so the processor must not
+     * retain it (or iterate it from another thread) after returning. Enable for processors which retain the
+     * collection.
+     *
+     * @return {@code true} if each batch is passed as a new collection, {@code false} if the collection is reused
+     */
+    public boolean isCopyBatches() {
+        return false;
+    }
+
+    /**
+     * The maximum number of batches each worker has passed to an {@link AsyncWorkProcessor} without them being
+     * completed. When reached, the worker waits for a batch to complete before draining the next one.
+     * Read when the queue is created.
+     *
+     * @return maximum number of batches in flight per worker
+     */
+    public int getMaxInFlightBatches() {
+        return 1;
+    }
+
+    /**
+     * The factory creating the worker threads, e.g. {@link WorkerThreadFactories#virtualThreadFactory()}, or
+     * {@code null} for daemon platform threads. The queue names the created threads. Read when the queue is started.
+     *
+     * @return factory creating the worker threads, or {@code null}
+     */
+    public ThreadFactory getThreadFactory() {
+        return null;
+    }
+
+    /**
+     * The number of times a failed batch is retried, on a separate retry lane so other batches are not held up.
+     * The first retry is made after {@link #getRetryBackoff()} ms, the delay doubles for each retry up to
+     * {@link #getMaxRetryBackoff()} ms. Read when the queue is created.
+     *
+     * @return number of retries of a failed batch
+     */
+    public int getMaxRetries() {
+        return 0;
+    }
+
+    /**
+     * The number of milliseconds before the first retry of a failed batch. Read when the queue is created.
+     *
+     * @return milliseconds before the first retry
+     */
+    public int getRetryBackoff() {
+        return 100;
+    }
+
+    /**
+     * The max number of milliseconds between retries of a failed batch. Read when the queue is created.
+     *
+     * @return max milliseconds between retries
+     */
+    public int getMaxRetryBackoff() {
+        return 10000;
+    }
+
+    /**
+     * Indicates if a batch still failing after {@link #getMaxRetries()} retries is split in halves, each processed
+     * once more and split again if failing, to isolate the items causing the failure. Read when the queue is created.
+     *
+     * @return {@code true} if failed batches are split, {@code false} otherwise
+     */
+    public boolean isSplitFailedBatches() {
+        return false;
+    }
+
+    /**
+     * Total weight of the items in the queue for a batch to be processed, like {@link BatchingWorkQueueConfiguration#getMinBatchSize()} but
+     * measured by the weigher of the queue. A batch is processed when either of them is reached. 0 to only use the
+     * number of items.
+     *
+     * @return the min weight of a batch
+     */
+    public long getMinBatchWeight() {
+        return 0;
+    }
+
+    /**
+     * Max total weight of the items in a batch, measured by the weigher of the queue. A batch holds at least one
+     * item, also if the item is heavier.
+     *
+     * @return the max weight of a batch
+     */
+    public long getMaxBatchWeight() {
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * Max total weight of the items in the queue, measured by the weigher of the queue. Items are not added while the
+     * queue is full by weight, but an item heavier than the max is added to an empty queue.
+     *
+     * @return the max weight of the queue
+     */
+    public long getMaxQueueWeight() {
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * Max number of batches processed per second, with bursts of up to a second's worth of batches. While the limit
+     * is reached, items keep accumulating in the queue and are processed in larger batches. 0 for no limit.
+     *
+     * @return the max number of batches per second
+     */
+    public double getMaxBatchesPerSecond() {
+        return 0;
+    }
+
+    /**
+     * Max number of items processed per second, on average. A batch is processed as soon as the limit allows one more
+     * item, and may exceed it, the next batch then waits until the excess has been paid back. While the limit is
+     * reached, items keep accumulating in the queue. 0 for no limit.
+     *
+     * @return the max number of items per second
+     */
+    public double getMaxItemsPerSecond() {
+        return 0;
+    }
+
+    /**
+     * Number of items each producer thread stages in a buffer of its own before adding them to the queue at once,
+     * to avoid contention between many producers. 0 to add items directly to the queue. Not supported with a
+     * {@link BatchingScheduler} or by durable and coalescing queues.
+     *
+     * @return the size of the producer buffers
+     */
+    public int getProducerBufferSize() {
+        return 0;
+    }
+
+    /**
+     * Max number of milliseconds an item stays in a producer buffer before a worker adds it to the queue. The time in
+     * the buffer counts towards the max write delay.
+     *
+     * @return the max time in a producer buffer, in milliseconds
+     */
+    public int getProducerBufferLinger() {
+        return 1;
+    }
+
+    /**
+     * Returns the configuration if it extends this class, otherwise a view of it using the defaults for the settings
+     * of this class.
+     */
+    static AbstractBatchingWorkQueueConfiguration of(BatchingWorkQueueConfiguration configuration) {
+        if (configuration instanceof AbstractBatchingWorkQueueConfiguration) {
+            return (AbstractBatchingWorkQueueConfiguration) configuration;
+        }
+        return new DefaultsConfiguration(configuration);
+    }
+
+    private static class DefaultsConfiguration extends AbstractBatchingWorkQueueConfiguration {
+
+        private final BatchingWorkQueueConfiguration configuration;
+
+        DefaultsConfiguration(BatchingWorkQueueConfiguration configuration) {
+            this.configuration = configuration;
+        }
+
+        @Override
+        public int getMaxWriteDelay() {
+            return configuration.getMaxWriteDelay();
+        }
+
+        @Override
+        public int getMinWriteDelay() {
+            return configuration.getMinWriteDelay();
+        }
+
+        @Override
+        public int getMinBatchSize() {
+            return configuration.getMinBatchSize();
+        }
+
+        @Override
+        public int getMaxBatchSize() {
+            return configuration.getMaxBatchSize();
+        }
+
+        @Override
+        public boolean isWaitForCompletionOnShutdown() {
+            return configuration.isWaitForCompletionOnShutdown();
+        }
+
+        @Override
+        public String getQueueName() {
+            return configuration.getQueueName();
+        }
+
+        @Override
+        public int getSleepIntervalWhenEmpty() {
+            return configuration.getSleepIntervalWhenEmpty();
+        }
+    }
+}
@@ -3,6 +3,11 @@ package com.headstartech.burro;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -16,6 +21,9 @@ public abstract class AbstractWorkQueue<T> implements WorkQueue<T> {
 
     private volatile State state;
     private final String queueName;
+    private final DefaultWorkQueueMetrics metrics = new DefaultWorkQueueMetrics();
+    private final List<WorkQueueMetricsListener> metricsListeners = new CopyOnWriteArrayList<WorkQueueMetricsListener>();
+    private final WorkQueueMetricsListener metricsListener = new DispatchingMetricsListener();
 
     AbstractWorkQueue(String queueName) {
         state = State.CREATED;
@@ -26,8 +34,55 @@ public abstract class AbstractWorkQueue<T> implements WorkQueue<T> {
 
     protected abstract boolean addToQueue(T item, long duration, TimeUnit unit) throws InterruptedException;
 
+    /**
+     * Adds items to the queue, in order, until an item can't be added. Adds the items one by one, queues able to
+     * add many items at once should override this method.
+     *
+     * @return the number of items added
+     */
+    protected int addAllToQueue(List<? extends T> items) {
+        int added = 0;
+        while (added < items.size() && addToQueue(items.get(added))) {
+            ++added;
+        }
+        return added;
+    }
+
+    /**
+     * Adds items to the queue, in order, until an item can't be added within the duration. Adds the items one by
+     * one, queues able to add many items at once should override this method.
+     *
+     * @return the number of items added
+     */
+    protected int addAllToQueue(List<? extends T> items, long duration, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(duration);
+        int added = 0;
+        while (added < items.size() && addToQueue(items.get(added), Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+            ++added;
+        }
+        return added;
+    }
+
+    /**
+     * Adds an item to the queue, completing the handle when the item has been processed.
+     * Queues supporting {@link #addAndTrack(Object)} must override this method.
+     */
+    protected boolean addToQueue(T item, CompletionHandle handle) {
+        throw new UnsupportedOperationException("The work queue doesn't support tracking items.");
+    }
+
+    /**
+     * Adds an item to the queue, completing the handle when the item has been processed.
+     * Queues supporting {@link #addAndTrack(Object, long, TimeUnit)} must override this method.
+     */
+    protected boolean addToQueue(T item, CompletionHandle handle, long duration, TimeUnit unit) throws InterruptedException {
+        throw new UnsupportedOperationException("The work queue doesn't support tracking items.");
+    }
+
     protected abstract int queueRemainingCapacity();
 
+    protected abstract int queueSize();
+
     protected abstract void onStarting();
 
     protected abstract void onShuttingDown();
@@ -40,16 +95,95 @@ public abstract class AbstractWorkQueue<T> implements WorkQueue<T> {
         return queueName;
     }
 
+    /**
+     * The listener to notify of queue events. Notifies the listener collecting the queue statistics and any
+     * listeners added with {@link #addMetricsListener(WorkQueueMetricsListener)}.
+     *
+     * @return the listener to notify of queue events
+     */
+    protected WorkQueueMetricsListener getMetricsListener() {
+        return metricsListener;
+    }
+
+    /**
+     * Adds a listener notified of queue events, in addition to the listener collecting the queue statistics.
+     *
+     * @param listener the listener
+     */
+    public void addMetricsListener(WorkQueueMetricsListener listener) {
+        if (listener == null) {
+            throw new NullPointerException("listener");
+        }
+        metricsListeners.add(listener);
+    }
+
     @Override
     public boolean add(T item) {
         validateAdd();
-        return addToQueue(item);
+        return recordAdd(addToQueue(item));
     }
 
     @Override
     public boolean add(T item, long duration, TimeUnit unit) throws InterruptedException {
         validateAdd();
-        return addToQueue(item, duration, unit);
+        return recordAdd(addToQueue(item, duration, unit));
+    }
+
+    /**
+     * Adds items to the queue, in iteration order, until an item can't be added. Will return immediately.
+     *
+     * @param items items to add
+     * @return the number of items added, the first ones of {@code items}
+     */
+    public int addAll(Collection<? extends T> items) {
+        validateAdd();
+        List<? extends T> list = asList(items);
+        return recordAddAll(addAllToQueue(list), list.size());
+    }
+
+    /**
+     * Adds items to the queue, in iteration order, until an item can't be added within the duration.
+     *
+     * @param items items to add
+     * @param duration duration to wait, for all items
+     * @param unit unit for duration
+     * @return the number of items added, the first ones of {@code items}
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public int addAll(Collection<? extends T> items, long duration, TimeUnit unit) throws InterruptedException {
+        validateAdd();
+        List<? extends T> list = asList(items);
+        return recordAddAll(addAllToQueue(list, duration, unit), list.size());
+    }
+
+    /**
+     * Adds an item to the queue, returning a handle completed when the item has been processed. Will return
+     * immediately.
+     *
+     * @param item item to add
+     * @return handle completed when the item has been processed, {@code null} if the item was not added
+     * @throws UnsupportedOperationException if the queue doesn't support tracking items
+     */
+    public CompletionHandle addAndTrack(T item) {
+        validateAdd();
+        CompletionHandle handle = new CompletionHandle();
+        return recordAdd(addToQueue(item, handle)) ? handle : null;
+    }
+
+    /**
+     * Adds an item to the queue, returning a handle completed when the item has been processed.
+     *
+     * @param item item to add
+     * @param duration duration to wait
+     * @param unit unit for duration
+     * @return handle completed when the item has been processed, {@code null} if the item was not added
+     * @throws InterruptedException if interrupted while waiting
+     * @throws UnsupportedOperationException if the queue doesn't support tracking items
+     */
+    public CompletionHandle addAndTrack(T item, long duration, TimeUnit unit) throws InterruptedException {
+        validateAdd();
+        CompletionHandle handle = new CompletionHandle();
+        return recordAdd(addToQueue(item, handle, duration, unit)) ? handle : null;
     }
 
     @Override
@@ -57,6 +191,15 @@ public abstract class AbstractWorkQueue<T> implements WorkQueue<T> {
         return queueRemainingCapacity();
     }
 
+    /**
+     * Returns a snapshot of the queue statistics.
+     *
+     * @return snapshot of the queue statistics
+     */
+    public WorkQueueStatistics getStatistics() {
+        return metrics.getStatistics(queueSize());
+    }
+
     @Override
     public synchronized void start() {
         if(State.SHUTTING_DOWN.equals(state) || State.SHUTDOWN.equals(state)) {
@@ -85,7 +228,36 @@ public abstract class AbstractWorkQueue<T> implements WorkQueue<T> {
         getLogger().info("Work queue shut down: queueName={}", queueName);
     }
 
-    private void validateAdd() {
+    /**
+     * Notifies the metrics listener of an added or rejected item, for add methods of subclasses not going through
+     * {@link #addToQueue(Object)}.
+     */
+    boolean recordAdd(boolean added) {
+        if (added) {
+            metricsListener.onItemAdded();
+        } else {
+            metricsListener.onItemRejected();
+        }
+        return added;
+    }
+
+    /**
+     * Notifies the metrics listener of the items added by a bulk add, and of the rest as rejected.
+     */
+    int recordAddAll(int added, int count) {
+        if (added > 0) {
+            metricsListener.onItemsAdded(added);
+        }
+        if (added < count) {
+            metricsListener.onItemsRejected(count - added);
+        }
+        return added;
+    }
+
+    /**
+     * Checks that items may be added, for add methods of subclasses not going through {@link #addToQueue(Object)}.
+     */
+    void validateAdd() {
         if(State.SHUTTING_DOWN.equals(state)) {
             throw new IllegalStateException("The work queue is shutting down.");
         }
@@ -94,4 +266,69 @@ public abstract class AbstractWorkQueue<T> implements WorkQueue<T> {
         }
     }
 
+    private static <T> List<? extends T> asList(Collection<? extends T> items) {
+        if (items instanceof List && items instanceof RandomAccess) {
+            return (List<? extends T>) items;
+        }
+        return new ArrayList<T>(items);
+    }
+
+    private class DispatchingMetricsListener implements WorkQueueMetricsListener {
+
+        @Override
+        public void onItemAdded() {
+            metrics.onItemAdded();
+            for (WorkQueueMetricsListener listener : metricsListeners) {
+                listener.onItemAdded();
+            }
+        }
+
+        @Override
+        public void onItemsAdded(int count) {
+            metrics.onItemsAdded(count);
+            for (WorkQueueMetricsListener listener : metricsListeners) {
+                listener.onItemsAdded(count);
+            }
+        }
+
+        @Override
+        public void onItemRejected() {
+            metrics.onItemRejected();
+            for (WorkQueueMetricsListener listener : metricsListeners) {
+                listener.onItemRejected();
+            }
+        }
+
+        @Override
+        public void onItemsRejected(int count) {
+            metrics.onItemsRejected(count);
+            for (WorkQueueMetricsListener listener : metricsListeners) {
+                listener.onItemsRejected(count);
+            }
+        }
+
+        @Override
+        public void onItemsDequeued(long[] waitNanos, int count) {
+            metrics.onItemsDequeued(waitNanos, count);
+            for (WorkQueueMetricsListener listener : metricsListeners) {
+                listener.onItemsDequeued(waitNanos, count);
+            }
+        }
+
+        @Override
+        public void onBatchProcessed(int batchSize, long timeInQueueNanos, long processingNanos) {
+            metrics.onBatchProcessed(batchSize, timeInQueueNanos, processingNanos);
+            for (WorkQueueMetricsListener listener : metricsListeners) {
+                listener.onBatchProcessed(batchSize, timeInQueueNanos, processingNanos);
+            }
+        }
+
+        @Override
+        public void onBatchFailed(int batchSize, long timeInQueueNanos, long processingNanos, Throwable cause) {
+            metrics.onBatchFailed(batchSize, timeInQueueNanos, processingNanos, cause);
+            for (WorkQueueMetricsListener listener : metricsListeners) {
+                listener.onBatchFailed(batchSize, timeInQueueNanos, processingNanos, cause);
+            }
+        }
+    }
 }
@@ -3,16 +3,25 @@ package com.headstartech.burro;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
 /**
  * Implementing basic lifecycle behaviour for a {@link WorkQueueWorker}.
+ *
+ * Waits use a {@link Lock} rather than an object monitor, so a worker running on a virtual thread unmounts from its
+ * carrier thread while waiting.
  */
 public abstract class AbstractWorkQueueWorker implements WorkQueueWorker {
 
     private static final Logger logger = LoggerFactory.getLogger(AbstractWorkQueueWorker.class);
 
-    private final Object haltedLock = new Object();
-    private final Object finishedLock = new Object();
+    private final Lock haltedLock = new ReentrantLock();
+    private final Condition haltedOrSignalled = haltedLock.newCondition();
     private volatile boolean halted;
+    private boolean signalled;
 
     protected boolean isHalted() {
         return halted;
@@ -37,15 +46,63 @@ public abstract class AbstractWorkQueueWorker implements WorkQueueWorker {
 
     @Override
     public void shutdown() {
-        synchronized (haltedLock) {
+        haltedLock.lock();
+        try {
             halted = true;
-            haltedLock.notifyAll();
+            haltedOrSignalled.signalAll();
+        } finally {
+            haltedLock.unlock();
         }
     }
 
     protected void waitUntilTimeoutOrHalted(long timeout) throws InterruptedException {
-        synchronized (haltedLock) {
-            haltedLock.wait(timeout);
+        haltedLock.lock();
+        try {
+            if (!halted) {
+                await(timeout);
+            }
+        } finally {
+            haltedLock.unlock();
+        }
+    }
+
+    /**
+     * Wakes up the worker if it's waiting in {@link #waitUntilTimeoutOrSignalled(long)}. A signal sent while the worker
+     * isn't waiting is remembered, so the next wait returns immediately.
+     */
+    protected void signal() {
+        haltedLock.lock();
+        try {
+            signalled = true;
+            haltedOrSignalled.signalAll();
+        } finally {
+            haltedLock.unlock();
+        }
+    }
+
+    /**
+     * Waits until signalled, halted or the timeout has passed. A timeout of {@code 0} waits without timeout.
+     *
+     * @param timeout max number of milliseconds to wait
+     * @throws InterruptedException if interrupted while waiting
+     */
+    protected void waitUntilTimeoutOrSignalled(long timeout) throws InterruptedException {
+        haltedLock.lock();
+        try {
+            if (!signalled && !halted) {
+                await(timeout);
+            }
+            signalled = false;
+        } finally {
+            haltedLock.unlock();
+        }
+    }
+
+    private void await(long timeout) throws InterruptedException {
+        if (timeout == 0) {
+            haltedOrSignalled.await();
+        } else {
+            haltedOrSignalled.await(timeout, TimeUnit.MILLISECONDS);
         }
     }
 
@@ -0,0 +1,170 @@
+package com.headstartech.burro;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adjusts the batch size and write delay of a {@link MutableBatchingWorkQueueConfiguration} to keep the latency of the
+ * queue below a target.
+ *
+ * Register it on the queue with {@link AbstractWorkQueue#addMetricsListener(WorkQueueMetricsListener)}. For each
+ * evaluation interval the controller compares the 99th percentile of the time from enqueue to completion (time in
+ * queue plus processing time of each batch) with the target, and the number of added items with the number of
+ * processed items:
+ * <ul>
+ * <li>if the queue is growing, the batch size is doubled to increase throughput</li>
+ * <li>if the latency is above the target, the min batch size and max write delay are halved</li>
+ * <li>if the latency is below half the target, the min batch size and max write delay are increased by a quarter, to
+ * get larger batches</li>
+ * </ul>
+ * The max batch size is also capped so that processing a single batch, at the observed processing time per item,
+ * stays within the target. All values are kept within the configured bounds.
+ */
+public class AdaptiveBatchingController implements WorkQueueMetricsListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(AdaptiveBatchingController.class);
+
+    private final MutableBatchingWorkQueueConfiguration configuration;
+    private final long targetLatencyNanos;
+    private final int batchSizeFloor;
+    private final int batchSizeCeiling;
+    private final int maxWriteDelayCeiling;
+    private final long evaluationIntervalNanos;
+
+    private final StripedCounter addedCount = new StripedCounter();
+    private long lastAddedCount;
+    private long windowStart = System.nanoTime();
+    private Histogram windowLatency = new Histogram();
+    private long windowItems;
+    private long windowProcessingNanos;
+
+    /**
+     * @param configuration the configuration to adjust
+     * @param targetLatency target for the 99th percentile of the time from enqueue to completion, in milliseconds
+     * @param batchSizeFloor lower bound for the min batch size
+     * @param batchSizeCeiling upper bound for the max batch size
+     * @param maxWriteDelayCeiling upper bound for the max write delay, in milliseconds
+     * @param evaluationInterval number of milliseconds between adjustments
+     */
+    public AdaptiveBatchingController(MutableBatchingWorkQueueConfiguration configuration, int targetLatency, int batchSizeFloor, int batchSizeCeiling, int maxWriteDelayCeiling, int evaluationInterval) {
+        checkArgument(targetLatency > 0, "targetLatency must be > 0");
+        checkArgument(batchSizeFloor >= 1, "batchSizeFloor must be >= 1");
+        checkArgument(batchSizeCeiling >= batchSizeFloor, "batchSizeCeiling must be >= batchSizeFloor");
+        checkArgument(maxWriteDelayCeiling >= configuration.getMinWriteDelay(), "maxWriteDelayCeiling must be >= minWriteDelay");
+        checkArgument(evaluationInterval > 0, "evaluationInterval must be > 0");
+        this.configuration = configuration;
+        this.targetLatencyNanos = TimeUnit.MILLISECONDS.toNanos(targetLatency);
+        this.batchSizeFloor = batchSizeFloor;
+        this.batchSizeCeiling = batchSizeCeiling;
+        this.maxWriteDelayCeiling = maxWriteDelayCeiling;
+        this.evaluationIntervalNanos = TimeUnit.MILLISECONDS.toNanos(evaluationInterval);
+    }
+
+    @Override
+    public void onItemAdded() {
+        addedCount.increment();
+    }
+
+    @Override
+    public void onItemsAdded(int count) {
+        addedCount.add(count);
+    }
+
+    @Override
+    public void onItemRejected() {
+    }
+
+    @Override
+    public void onItemsRejected(int count) {
+    }
+
+    @Override
+    public void onItemsDequeued(long[] waitNanos, int count) {
+    }
+
+    @Override
+    public void onBatchProcessed(int batchSize, long timeInQueueNanos, long processingNanos) {
+        batchCompleted(batchSize, timeInQueueNanos, processingNanos);
+    }
+
+    @Override
+    public void onBatchFailed(int batchSize, long timeInQueueNanos, long processingNanos, Throwable cause) {
+        batchCompleted(batchSize, timeInQueueNanos, processingNanos);
+    }
+
+    private synchronized void batchCompleted(int batchSize, long timeInQueueNanos, long processingNanos) {
+        windowLatency.record(timeInQueueNanos + processingNanos);
+        windowItems += batchSize;
+        windowProcessingNanos += processingNanos;
+        if (System.nanoTime() - windowStart >= evaluationIntervalNanos) {
+            evaluate();
+        }
+    }
+
+    /**
+     * Adjusts the configuration based on the batches completed since the last evaluation, and starts a new window.
+     */
+    synchronized void evaluate() {
+        long added = addedCount.sum();
+        long windowAdded = added - lastAddedCount;
+        HistogramSnapshot latency = windowLatency.snapshot();
+        if (latency.getCount() > 0) {
+            adjust(latency.getPercentile(99), windowAdded > windowItems + windowItems / 10, (double) windowProcessingNanos / Math.max(1, windowItems));
+        }
+        lastAddedCount = added;
+        windowStart = System.nanoTime();
+        windowLatency = new Histogram();
+        windowItems = 0;
+        windowProcessingNanos = 0;
+    }
+
+    private void adjust(long latencyNanos, boolean growing, double processingNanosPerItem) {
+        int minBatchSize = configuration.getMinBatchSize();
+        int maxBatchSize = configuration.getMaxBatchSize();
+        int maxWriteDelay = configuration.getMaxWriteDelay();
+
+        if (growing) {
+            maxBatchSize = maxBatchSize * 2;
+        }
+        if (latencyNanos > targetLatencyNanos) {
+            minBatchSize = minBatchSize / 2;
+            maxWriteDelay = maxWriteDelay / 2;
+        } else if (!growing && latencyNanos < targetLatencyNanos / 2) {
+            minBatchSize = minBatchSize + Math.max(1, minBatchSize / 4);
+            maxWriteDelay = maxWriteDelay + Math.max(1, maxWriteDelay / 4);
+        }
+        if (processingNanosPerItem > 0) {
+            maxBatchSize = (int) Math.min(maxBatchSize, targetLatencyNanos / processingNanosPerItem);
+        }
+
+        maxBatchSize = clamp(maxBatchSize, batchSizeFloor, batchSizeCeiling);
+        minBatchSize = clamp(minBatchSize, batchSizeFloor, maxBatchSize);
+        maxWriteDelay = clamp(maxWriteDelay, configuration.getMinWriteDelay(), maxWriteDelayCeiling);
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("Adjusting configuration: queueName={}, latencyNanos={}, growing={}, minBatchSize={}, maxBatchSize={}, maxWriteDelay={}",
+                    configuration.getQueueName(), latencyNanos, growing, minBatchSize, maxBatchSize, maxWriteDelay);
+        }
+        // keep minBatchSize <= maxBatchSize while updating
+        if (maxBatchSize >= configuration.getMaxBatchSize()) {
+            configuration.setMaxBatchSize(maxBatchSize);
+            configuration.setMinBatchSize(minBatchSize);
+        } else {
+            configuration.setMinBatchSize(minBatchSize);
+            configuration.setMaxBatchSize(maxBatchSize);
+        }
+        configuration.setMaxWriteDelay(maxWriteDelay);
+    }
+
+    private static int clamp(int value, int min, int max) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    private static void checkArgument(boolean expression, Object errorMessage) {
+        if (!expression) {
+            throw new IllegalArgumentException(String.valueOf(errorMessage));
+        }
+    }
+}
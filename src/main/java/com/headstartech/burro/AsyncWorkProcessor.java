@@ -0,0 +1,18 @@
+package com.headstartech.burro;
+
+/**
+ * Processor completing the work asynchronously.
+ *
+ * {@link #process(Object, CompletionCallback)} should start processing the work and return, the callback must be
+ * called exactly once when processing has completed or failed. The callback may be called from any thread.
+ */
+public interface AsyncWorkProcessor<T> {
+
+    /**
+     * Starts processing the work.
+     *
+     * @param work the work to process
+     * @param callback callback to call when processing has completed or failed
+     */
+    void process(T work, CompletionCallback callback);
+}
@@ -0,0 +1,121 @@
+package com.headstartech.burro;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Batching thresholds and batch dispatch for a single queue drained by a worker thread, shared by
+ * {@link RingQueueWorker} and the lanes of {@link PriorityQueueWorker}.
+ *
+ * A batch is due when the queue holds the min batch size or its oldest item has waited the max write delay, and at
+ * least the min write delay has passed since the last batch. Dispatching a batch takes its items from the queue,
+ * hands them to the processor, and reports the wait of the items and the outcome to the metrics listener. Subclasses
+ * take the items from their queue and hand them to their processor.
+ */
+abstract class BatchDispatcher {
+
+    private static final Logger logger = LoggerFactory.getLogger(BatchDispatcher.class);
+
+    private static final long NONE = Long.MIN_VALUE;
+
+    private final AbstractBatchingWorkQueueConfiguration configuration;
+    private final WorkQueueMetricsListener metricsListener;
+    private long[] enqueueTimes = new long[16];
+    // System.nanoTime()
+    private long lastDispatch = NONE;
+
+    BatchDispatcher(AbstractBatchingWorkQueueConfiguration configuration, WorkQueueMetricsListener metricsListener) {
+        this.configuration = configuration;
+        this.metricsListener = metricsListener;
+    }
+
+    abstract int queueSize();
+
+    /**
+     * @param now {@link System#nanoTime()}, returned if the queue is empty
+     * @return the {@link System#nanoTime()} the oldest item was added
+     */
+    abstract long oldestEnqueueTime(long now);
+
+    /**
+     * Takes the items of the next batch from the queue.
+     *
+     * @param limit the max number of items
+     * @param enqueueTimes receives the {@link System#nanoTime()} each item was added
+     * @return the number of items taken
+     */
+    abstract int takeBatch(int limit, long[] enqueueTimes);
+
+    /**
+     * Hands the items taken by {@link #takeBatch(int, long[])} to the processor.
+     */
+    abstract void processBatch(int count);
+
+    /**
+     * Called after the items taken by {@link #takeBatch(int, long[])} have been processed.
+     */
+    void batchProcessed(int count) {}
+
+    /**
+     * Called after processing the items taken by {@link #takeBatch(int, long[])} failed.
+     */
+    void batchFailed(int count, Throwable cause) {}
+
+    /**
+     * Called after the items taken by {@link #takeBatch(int, long[])} have been processed, even if processing failed.
+     */
+    void releaseBatch(int count) {}
+
+    /**
+     * Must only be called if items are pending.
+     *
+     * @param now {@link System#nanoTime()}
+     * @return the {@link System#nanoTime()} the next batch is due
+     */
+    long dueTime(long now) {
+        long due = queueSize() >= configuration.getMinBatchSize() ? now : oldestEnqueueTime(now) + TimeUnit.MILLISECONDS.toNanos(configuration.getMaxWriteDelay());
+        return lastDispatch == NONE ? due : Math.max(due, lastDispatch + TimeUnit.MILLISECONDS.toNanos(configuration.getMinWriteDelay()));
+    }
+
+    /**
+     * Takes a batch from the queue and processes it.
+     *
+     * @param limit the max number of items
+     * @return the number of items taken
+     */
+    int dispatchBatch(int limit) {
+        if (enqueueTimes.length < limit) {
+            enqueueTimes = new long[limit];
+        }
+        int taken = takeBatch(limit, enqueueTimes);
+        long now = System.nanoTime();
+        lastDispatch = now;
+        if (taken == 0) {
+            return 0;
+        }
+        for (int i = 0; i < taken; ++i) {
+            enqueueTimes[i] = now - enqueueTimes[i];
+        }
+        long timeInQueueNanos = enqueueTimes[0];
+        metricsListener.onItemsDequeued(enqueueTimes, taken);
+        if (logger.isDebugEnabled()) {
+            logger.debug("Processing items...: queueName={}, itemCount={}, queueSize={}", configuration.getQueueName(), taken, queueSize());
+        }
+        long processingStart = System.nanoTime();
+        try {
+            processBatch(taken);
+            batchProcessed(taken);
+            metricsListener.onBatchProcessed(taken, timeInQueueNanos, System.nanoTime() - processingStart);
+        } catch (Throwable t) {
+            // an error must not end the worker thread, the queue would stop draining
+            batchFailed(taken, t);
+            logger.warn(String.format("Exception caught when processing items: queueName=%s", configuration.getQueueName()), t);
+            metricsListener.onBatchFailed(taken, timeInQueueNanos, System.nanoTime() - processingStart, t);
+        } finally {
+            releaseBatch(taken);
+        }
+        return taken;
+    }
+}
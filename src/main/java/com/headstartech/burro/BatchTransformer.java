@@ -0,0 +1,18 @@
+package com.headstartech.burro;
+
+import java.util.Collection;
+
+/**
+ * Processes a batch of a {@link Pipeline} stage, returning the items handed to the next stage.
+ */
+public interface BatchTransformer<T, R> {
+
+    /**
+     * Processes a batch. The batch is only valid until the method returns, see {@link BatchingWorkQueue}, the
+     * returned collection is handed to the next stage before the next batch is processed.
+     *
+     * @param batch the batch
+     * @return the items for the next stage, {@code null} or empty if none
+     */
+    Collection<R> transform(Collection<T> batch);
+}
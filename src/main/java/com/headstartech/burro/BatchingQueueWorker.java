@@ -3,10 +3,14 @@ package com.headstartech.burro;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Worker for a {@link BatchingWorkQueue}.
@@ -16,23 +20,103 @@ class BatchingQueueWorker<T> extends AbstractWorkQueueWorker {
 
     private static final Logger logger = LoggerFactory.getLogger(BatchingQueueWorker.class);
 
-    private final BatchingWorkQueueConfiguration configuration;
-    private final WorkProcessor<Collection<T>> processor;
-    private long lastProcessing = System.currentTimeMillis();
-    private long lastWorkDone = System.currentTimeMillis();
+    private static final long NONE = Long.MIN_VALUE;
+    private static final long NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final AbstractBatchingWorkQueueConfiguration configuration;
+    private final AsyncWorkProcessor<Collection<T>> processor;
+    // System.nanoTime()
+    private long lastProcessing = System.nanoTime();
+    private long lastWorkDone = System.nanoTime();
     private final BlockingQueue<T> queue;
+    // the queue if it records the time each item was added, otherwise null
+    private final MpscArrayBlockingQueue<T> stampedQueue;
+    private long[] enqueueTimes = new long[16];
     private final String queueName;
+    private final PendingItems pendingItems;
+    private final int maxInFlightBatches;
+    private final BlockingQueue<InFlightBatch> inFlightBatches;
+    private final WorkQueueMetricsListener metricsListener;
+    private final RetryLane<T> retryLane;
+    private final QueueWeight<T> queueWeight;
+    private final RateLimiter rateLimiter;
+    // set when a batch is due but the rate limit is reached
+    private long rateLimitDelay;
+    // item drained but too heavy for the batch, the first item of the next batch
+    private T carryOver;
+    private volatile long carryOverEnqueueTime = NONE;
+    private CompletionHandle carryOverHandle;
+    private volatile ProducerBuffers<T> producerBuffers;
+    private volatile boolean waiting;
+    private volatile Runnable batchReleasedListener;
 
 
-    public BatchingQueueWorker(BatchingWorkQueueConfiguration configuration, WorkProcessor<Collection<T>> processor, BlockingQueue<T> queue) {
+    /**
+     * @param pendingItems pending items of the queue, updated by the producers, or {@code null} to poll the queue
+     * @param metricsListener listener notified of processed batches
+     * @param retryLane lane taking over failed batches
+     * @param queueWeight weight of the items in the queue
+     * @param rateLimiter rate limiter shared by the workers of the queue
+     */
+    public BatchingQueueWorker(AbstractBatchingWorkQueueConfiguration configuration, AsyncWorkProcessor<Collection<T>> processor, BlockingQueue<T> queue, PendingItems pendingItems, WorkQueueMetricsListener metricsListener, RetryLane<T> retryLane, QueueWeight<T> queueWeight, RateLimiter rateLimiter) {
         this.configuration = configuration;
         this.processor = processor;
         this.queue = queue;
+        this.stampedQueue = queue instanceof MpscArrayBlockingQueue ? (MpscArrayBlockingQueue<T>) queue : null;
         this.queueName = configuration.getQueueName();
+        this.pendingItems = pendingItems;
+        this.metricsListener = metricsListener;
+        this.retryLane = retryLane;
+        this.queueWeight = queueWeight;
+        this.rateLimiter = rateLimiter;
+        this.maxInFlightBatches = configuration.getMaxInFlightBatches();
+        this.inFlightBatches = new ArrayBlockingQueue<InFlightBatch>(maxInFlightBatches);
+        for (int i = 0; i < maxInFlightBatches; ++i) {
+            inFlightBatches.add(new InFlightBatch());
+        }
+    }
+
+    /**
+     * Called by producers after items have been added to the queue (and registered in the pending items).
+     * Wakes up the worker if it's waiting and there's enough items for a batch, or the first items arrived
+     * and the worker must start waiting for the max write delay.
+     *
+     * @param addedCount number of added items
+     * @param pendingCount number of pending items, including the added ones
+     * @return {@code true} if the worker was signalled, {@code false} otherwise
+     */
+    boolean itemsAdded(int addedCount, int pendingCount) {
+        if (waiting && (pendingCount <= addedCount || isMinBatchReached(pendingCount))) {
+            signal();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Sets the producer buffers flushed by the worker when they have lingered, {@code null} if none.
+     */
+    void setProducerBuffers(ProducerBuffers<T> producerBuffers) {
+        this.producerBuffers = producerBuffers;
+    }
+
+    /**
+     * Called by producers when their buffer receives its first item. Wakes up the worker if it's waiting, so it
+     * flushes the buffer when it has lingered.
+     *
+     * @return {@code true} if the worker was signalled, {@code false} otherwise
+     */
+    boolean itemBuffered() {
+        if (waiting) {
+            signal();
+            return true;
+        }
+        return false;
     }
 
     @Override
     protected void doWork() throws InterruptedException {
+        flushProducerBuffers();
         processItems(false);
         waitForMoreWork();
     }
@@ -40,59 +124,412 @@ class BatchingQueueWorker<T> extends AbstractWorkQueueWorker {
     @Override
     protected void doShutdownWork() {
         logger.debug("Starting shutdown work...");
-;       processItems(true);
+        try {
+            processItems(true);
+            awaitInFlightBatches();
+        } catch (InterruptedException e) {
+            logger.warn("Interrupted during shutdown work: queueName={}", queueName);
+            Thread.currentThread().interrupt();
+        }
         logger.debug("Finished shutdown work");
     }
 
+    private void awaitInFlightBatches() throws InterruptedException {
+        List<InFlightBatch> completed = new ArrayList<InFlightBatch>(maxInFlightBatches);
+        while (completed.size() < maxInFlightBatches) {
+            logger.debug("Waiting for batches in flight: queueName={}, inFlightCount={}", queueName, maxInFlightBatches - completed.size());
+            completed.add(inFlightBatches.take());
+        }
+        inFlightBatches.addAll(completed);
+    }
+
     private void waitForMoreWork() throws InterruptedException {
+        if (rateLimitDelay > 0) {
+            // keep accumulating items until the rate limit allows the batch
+            long delay = rateLimitDelay;
+            rateLimitDelay = 0;
+            logger.debug("Rate limit reached, sleeping...: queueName={}, delay={}", queueName, delay);
+            waitUntilTimeoutOrHalted(delay);
+            return;
+        }
         int minDelay = configuration.getMinWriteDelay();
         if (minDelay > 0) {
             logger.debug("Sleeping...: queueName={}, minDelay={}", queueName, minDelay);
             waitUntilTimeoutOrHalted(minDelay);
         }
-        if (configuration.getSleepIntervalWhenEmpty() > 0) {
-            while (!isHalted() && getQueue().isEmpty()) {
-                int sleepIntervalWhenEmpty = configuration.getSleepIntervalWhenEmpty();
+        if (pendingItems != null) {
+            waitForSignal();
+        } else if (configuration.getSleepIntervalWhenEmpty() > 0) {
+            while (!isHalted() && isQueueEmpty()) {
+                long sleepIntervalWhenEmpty = configuration.getSleepIntervalWhenEmpty();
+                long lingerDue = flushProducerBuffers();
+                if (!isQueueEmpty()) {
+                    break;
+                }
+                if (lingerDue != NONE) {
+                    sleepIntervalWhenEmpty = Math.min(sleepIntervalWhenEmpty, untilMillis(lingerDue));
+                }
                 logger.debug("Queue empty, sleeping...: queueName={}, sleepIntervalWhenEmpty={}", queueName, sleepIntervalWhenEmpty);
                 waitUntilTimeoutOrHalted(sleepIntervalWhenEmpty);
             }
         }
     }
 
-    private void processItems(boolean forceDoWorkOnShutdown) {
-        lastProcessing = System.currentTimeMillis();
-        if (!forceDoWorkOnShutdown) {
-            int queueSize = getQueue().size();
-            if(queueSize >= configuration.getMinBatchSize()) {
-                logger.debug("Queue size greater than or equals to minBatchSize: queueName={}, queueSize={}, minBatchSize={}", queueName, queueSize, configuration.getMinBatchSize());
-            } else if(configuration.getMaxWriteDelay() < (lastProcessing - lastWorkDone)) {
-                logger.debug("More than maxDelay ms has passed since last time items were processed: queueName={}, maxDelay={}, timePassed={}", queueName, configuration.getMaxWriteDelay(), lastProcessing - lastWorkDone);
-            } else {
-                return;
+    private void waitForSignal() throws InterruptedException {
+        waiting = true;
+        try {
+            while (!isHalted()) {
+                long lingerDue = flushProducerBuffers();
+                int pendingCount = pendingItems.count();
+                long timeout = 0;
+                if (isMinBatchReached(pendingCount)) {
+                    return;
+                } else if (pendingCount > 0) {
+                    long now = System.nanoTime();
+                    long remaining = oldestItemTime(now) + TimeUnit.MILLISECONDS.toNanos(configuration.getMaxWriteDelay()) - now;
+                    if (remaining <= 0) {
+                        return;
+                    }
+                    // rounded up, not to wake up before the oldest item is due
+                    timeout = (remaining + NANOS_PER_MILLI - 1) / NANOS_PER_MILLI;
+                }
+                if (lingerDue != NONE) {
+                    timeout = timeout == 0 ? untilMillis(lingerDue) : Math.min(timeout, untilMillis(lingerDue));
+                }
+                logger.debug("Waiting for items...: queueName={}, pendingCount={}, timeout={}", queueName, pendingCount, timeout);
+                waitUntilTimeoutOrSignalled(timeout);
             }
+        } finally {
+            waiting = false;
         }
+    }
 
-        lastWorkDone = System.currentTimeMillis();
+    /**
+     * Flushes the producer buffers that have lingered.
+     *
+     * @return the {@link System#nanoTime()} the next buffer should be flushed, {@link #NONE} if none
+     */
+    private long flushProducerBuffers() {
+        ProducerBuffers<T> buffers = producerBuffers;
+        return buffers != null ? buffers.flushLingering(System.nanoTime()) : NONE;
+    }
+
+    /**
+     * @return the number of milliseconds until the {@link System#nanoTime()} deadline, rounded up, at least 1
+     */
+    private static long untilMillis(long deadline) {
+        return Math.max((deadline - System.nanoTime() + NANOS_PER_MILLI - 1) / NANOS_PER_MILLI, 1);
+    }
 
-        if(getQueue().isEmpty()) {
+    private void processItems(boolean forceDoWorkOnShutdown) throws InterruptedException {
+        if (!forceDoWorkOnShutdown && !isBatchDue()) {
             return;
         }
 
+        long waitingSince = lastWorkDone;
+        lastWorkDone = System.nanoTime();
+
+        if(isQueueEmpty()) {
+            return;
+        }
+        if (stampedQueue != null || pendingItems != null) {
+            waitingSince = oldestItemTime(lastWorkDone);
+        }
+
         do {
-            List<T> itemsToProcess = new LinkedList<T>();
-            getQueue().drainTo(itemsToProcess, configuration.getMaxBatchSize());
-            try {
-                if (logger.isDebugEnabled()) {
-                    logger.debug("Processing items...: queueName={}, itemCount={}, queueSize={}, maxBatchSize={}", queueName, itemsToProcess.size(), getQueue().size(), configuration.getMaxBatchSize());
+            // wait while maxInFlightBatches batches are being processed, items keep accumulating in the queue
+            dispatchBatch(inFlightBatches.take(), waitingSince);
+        } while(forceDoWorkOnShutdown && !isQueueEmpty());
+    }
+
+    /**
+     * Processes a batch if one is due, without waiting for a batch in flight to complete. Used when the worker is run
+     * by a {@link BatchingScheduler} instead of its own thread.
+     *
+     * @return {@code true} if a batch was dispatched to the processor
+     */
+    boolean processItemsNow() {
+        if (!isBatchDue()) {
+            return false;
+        }
+        InFlightBatch inFlightBatch = inFlightBatches.poll();
+        if (inFlightBatch == null) {
+            return false;
+        }
+        lastWorkDone = System.nanoTime();
+        if (isQueueEmpty()) {
+            inFlightBatches.offer(inFlightBatch);
+            return false;
+        }
+        return dispatchBatch(inFlightBatch, oldestItemTime(lastWorkDone));
+    }
+
+    /**
+     * @return {@code true} if not all batches are in flight
+     */
+    boolean hasIdleBatch() {
+        return !inFlightBatches.isEmpty();
+    }
+
+    /**
+     * Sets a listener called each time a batch in flight completes and is returned to the pool.
+     */
+    void setBatchReleasedListener(Runnable batchReleasedListener) {
+        this.batchReleasedListener = batchReleasedListener;
+    }
+
+    /**
+     * @param count number of items in the queue
+     * @return {@code true} if the items are enough for a batch, by number or by weight
+     */
+    boolean isMinBatchReached(int count) {
+        return queueWeight.isMinBatchReached(count);
+    }
+
+    /**
+     * The time the oldest item in the queue was added. Exact if the queue records the time each item was added,
+     * otherwise estimated from the pending items, or {@code now} if there are none.
+     *
+     * @param now {@link System#nanoTime()}
+     * @return the {@link System#nanoTime()} the oldest item was added
+     */
+    long oldestItemTime(long now) {
+        if (stampedQueue != null) {
+            long carryOverTime = carryOverEnqueueTime;
+            return carryOverTime != NONE ? carryOverTime : stampedQueue.oldestEnqueueTime(now);
+        }
+        return pendingItems != null ? pendingItems.oldestItemTime(now) : now;
+    }
+
+    /**
+     * @return the number of milliseconds until the rate limit allows a batch, 0 if it allows one now
+     */
+    long getRateLimitDelay() {
+        return rateLimiter.delay();
+    }
+
+    private boolean isBatchDue() {
+        lastProcessing = System.nanoTime();
+        int queueSize = queueSize();
+        long maxDelay = TimeUnit.MILLISECONDS.toNanos(configuration.getMaxWriteDelay());
+        if(isMinBatchReached(queueSize)) {
+            logger.debug("Queue size or weight greater than or equals to min batch: queueName={}, queueSize={}, minBatchSize={}", queueName, queueSize, configuration.getMinBatchSize());
+        } else if(stampedQueue == null && pendingItems == null && maxDelay < (lastProcessing - lastWorkDone)) {
+            logger.debug("More than maxDelay ms has passed since last time items were processed: queueName={}, maxDelay={}, timePassed={}", queueName, configuration.getMaxWriteDelay(), TimeUnit.NANOSECONDS.toMillis(lastProcessing - lastWorkDone));
+        } else if((stampedQueue != null || pendingItems != null) && queueSize > 0 && maxDelay <= (lastProcessing - oldestItemTime(lastProcessing))) {
+            logger.debug("Oldest item has waited at least maxDelay ms: queueName={}, maxDelay={}, timePassed={}", queueName, configuration.getMaxWriteDelay(), TimeUnit.NANOSECONDS.toMillis(lastProcessing - oldestItemTime(lastProcessing)));
+        } else {
+            return false;
+        }
+        long delay = rateLimiter.delay();
+        if (delay > 0) {
+            logger.debug("Batch due but rate limit reached: queueName={}, queueSize={}, delay={}", queueName, queueSize, delay);
+            rateLimitDelay = delay;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Drains a batch and passes it to the processor. Other workers may have drained the queue since it was checked,
+     * if nothing is drained the in flight batch is returned to the pool.
+     *
+     * @return {@code true} if a batch was dispatched to the processor
+     */
+    private boolean dispatchBatch(InFlightBatch inFlightBatch, long waitingSince) {
+        int maxBatchSize = configuration.getMaxBatchSize();
+        int limit = maxBatchSize;
+        if (stampedQueue != null) {
+            limit = Math.min(maxBatchSize, Math.max(queueSize(), enqueueTimes.length));
+            if (enqueueTimes.length < limit) {
+                enqueueTimes = new long[limit];
+            }
+        }
+        List<T> itemsToProcess = configuration.isCopyBatches() ? new ArrayList<T>(Math.min(limit, queueSize())) : inFlightBatch.batch;
+        // the handles of tracked items are kept in the queue along with the items
+        CompletionHandle[] handles = stampedQueue != null ? inFlightBatch.handles(limit) : null;
+        int drained;
+        if (queueWeight.isEnabled()) {
+            drained = drainByWeight(itemsToProcess, limit, handles);
+        } else if (stampedQueue != null) {
+            drained = stampedQueue.drainTo(itemsToProcess, limit, enqueueTimes, handles);
+        } else {
+            drained = getQueue().drainTo(itemsToProcess, limit);
+        }
+        if (drained == 0) {
+            inFlightBatches.offer(inFlightBatch);
+            return false;
+        }
+        long now = System.nanoTime();
+        long timeInQueueNanos = now - waitingSince;
+        boolean tracked = false;
+        if (stampedQueue != null) {
+            for (int i = 0; i < drained; ++i) {
+                enqueueTimes[i] = now - enqueueTimes[i];
+                if (handles[i] != null) {
+                    tracked = true;
                 }
-                processor.process(itemsToProcess);
-            } catch (Throwable t) {
-                logger.warn(String.format("Exception caught when processing items: queueName=%s", queueName), t);
             }
-        } while(forceDoWorkOnShutdown && !getQueue().isEmpty());
+            timeInQueueNanos = enqueueTimes[0];
+            metricsListener.onItemsDequeued(enqueueTimes, drained);
+        }
+        if (pendingItems != null) {
+            pendingItems.removed(drained);
+        }
+        rateLimiter.acquire(drained);
+        if (logger.isDebugEnabled()) {
+            logger.debug("Processing items...: queueName={}, itemCount={}, queueSize={}, maxBatchSize={}", queueName, itemsToProcess.size(), queueSize(), maxBatchSize);
+        }
+        inFlightBatch.dispatch(itemsToProcess, drained, timeInQueueNanos, tracked);
+        return true;
+    }
+
+    /**
+     * Drains items until the batch holds max batch size items or the next item would exceed the max batch weight.
+     * The next item is then kept as the first item of the next batch.
+     */
+    private int drainByWeight(List<T> items, int maxBatchSize, CompletionHandle[] handles) {
+        long maxBatchWeight = configuration.getMaxBatchWeight();
+        long batchWeight = 0;
+        int drained = 0;
+        while (drained < maxBatchSize) {
+            T item;
+            if (carryOver != null) {
+                item = carryOver;
+                if (stampedQueue != null) {
+                    enqueueTimes[drained] = carryOverEnqueueTime;
+                    handles[drained] = carryOverHandle;
+                }
+            } else {
+                item = stampedQueue != null ? stampedQueue.poll(enqueueTimes, handles, drained) : getQueue().poll();
+            }
+            if (item == null) {
+                break;
+            }
+            long weight = queueWeight.weigh(item);
+            if (drained > 0 && batchWeight + weight > maxBatchWeight) {
+                carryOver = item;
+                if (stampedQueue != null) {
+                    carryOverEnqueueTime = enqueueTimes[drained];
+                    carryOverHandle = handles[drained];
+                    handles[drained] = null;
+                }
+                break;
+            }
+            carryOver = null;
+            carryOverEnqueueTime = NONE;
+            carryOverHandle = null;
+            items.add(item);
+            batchWeight += weight;
+            ++drained;
+        }
+        queueWeight.release(batchWeight);
+        return drained;
+    }
+
+    // the carried over item is still counted as queued
+    private int queueSize() {
+        return carryOver != null ? getQueue().size() + 1 : getQueue().size();
+    }
+
+    private boolean isQueueEmpty() {
+        return carryOver == null && getQueue().isEmpty();
     }
 
     private BlockingQueue<T> getQueue() {
         return queue;
     }
+
+    /**
+     * A batch passed to the processor, returned to the pool of in flight batches when completed.
+     */
+    private class InFlightBatch implements CompletionCallback {
+
+        private final ReusableBatch<T> batch = new ReusableBatch<T>();
+        private final AtomicBoolean done = new AtomicBoolean(true);
+        // the handle of each item, null if not tracked
+        private CompletionHandle[] handles = new CompletionHandle[0];
+        private List<T> items;
+        private int batchSize;
+        private boolean tracked;
+        private long timeInQueueNanos;
+        private long processingStart;
+
+        /**
+         * @return the array receiving the handles of the items of the next batch, holding at least {@code size} values
+         */
+        CompletionHandle[] handles(int size) {
+            if (handles.length < size) {
+                handles = new CompletionHandle[size];
+            }
+            return handles;
+        }
+
+        void dispatch(List<T> items, int batchSize, long timeInQueueNanos, boolean tracked) {
+            this.items = items;
+            this.batchSize = batchSize;
+            this.tracked = tracked;
+            this.timeInQueueNanos = timeInQueueNanos;
+            this.processingStart = System.nanoTime();
+            done.set(false);
+            try {
+                processor.process(items, this);
+            } catch (Throwable t) {
+                failed(t);
+            }
+        }
+
+        @Override
+        public void completed() {
+            if (done.compareAndSet(false, true)) {
+                long processingNanos = System.nanoTime() - processingStart;
+                int batchSize = this.batchSize;
+                long timeInQueueNanos = this.timeInQueueNanos;
+                if (tracked) {
+                    CompletionHandle.completeAll(handles, batchSize);
+                }
+                release();
+                metricsListener.onBatchProcessed(batchSize, timeInQueueNanos, processingNanos);
+            }
+        }
+
+        @Override
+        public void failed(Throwable cause) {
+            if (done.compareAndSet(false, true)) {
+                long processingNanos = System.nanoTime() - processingStart;
+                int batchSize = this.batchSize;
+                long timeInQueueNanos = this.timeInQueueNanos;
+                if (retryLane.isEnabled()) {
+                    long processingStart = this.processingStart;
+                    // the batch is reused, the lane gets a copy
+                    List<T> failedItems = new ArrayList<T>(items);
+                    CompletionHandle[] failedHandles = null;
+                    if (tracked) {
+                        failedHandles = Arrays.copyOf(handles, batchSize);
+                        Arrays.fill(handles, 0, batchSize, null);
+                    }
+                    release();
+                    logger.debug("Batch failed, passing it to the retry lane: queueName={}, itemCount={}", queueName, batchSize);
+                    retryLane.failed(failedItems, failedHandles, cause, timeInQueueNanos, processingStart);
+                    return;
+                }
+                if (tracked) {
+                    CompletionHandle.completeAllExceptionally(handles, batchSize, cause);
+                }
+                release();
+                logger.warn(String.format("Exception caught when processing items: queueName=%s", queueName), cause);
+                metricsListener.onBatchFailed(batchSize, timeInQueueNanos, processingNanos, cause);
+            }
+        }
+
+        private void release() {
+            items = null;
+            batch.clear();
+            inFlightBatches.offer(this);
+            Runnable listener = batchReleasedListener;
+            if (listener != null) {
+                listener.run();
+            }
+        }
+    }
 }
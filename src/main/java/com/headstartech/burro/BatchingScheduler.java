@@ -0,0 +1,248 @@
+package com.headstartech.burro;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs the batch processing of many {@link BatchingWorkQueue}s on a small fixed pool of threads, instead of a thread
+ * per queue.
+ *
+ * A queue is run on the pool when enough items for a batch have been added, or when its oldest item has waited
+ * {@link BatchingWorkQueueConfiguration#getMaxWriteDelay()} ms, which is tracked by a single timer thread. Idle
+ * queues cost neither threads nor wakeups. Each run processes at most one batch, so busy queues take turns.
+ *
+ * The scheduler must be started before the queues using it, and shut down after them.
+ */
+public class BatchingScheduler {
+
+    private static final Logger logger = LoggerFactory.getLogger(BatchingScheduler.class);
+
+    private static final long NONE = Long.MIN_VALUE;
+    private static final int WHEEL_SIZE = 512;
+
+    private final String name;
+    private final int threadCount;
+    private final TimerWheel timerWheel;
+    private volatile ExecutorService executor;
+
+    /**
+     * Creates a scheduler with a timer precision of 1 ms.
+     *
+     * @param name the name, used as prefix of the thread names
+     * @param threadCount the number of threads processing batches
+     */
+    public BatchingScheduler(String name, int threadCount) {
+        this(name, threadCount, 1);
+    }
+
+    /**
+     * @param name the name, used as prefix of the thread names
+     * @param threadCount the number of threads processing batches
+     * @param tickDuration the precision of the max write delay timer, in milliseconds
+     */
+    public BatchingScheduler(String name, int threadCount, int tickDuration) {
+        checkArgument(threadCount >= 1, "threadCount must be >= 1");
+        checkArgument(tickDuration >= 1, "tickDuration must be >= 1");
+        this.name = name;
+        this.threadCount = threadCount;
+        this.timerWheel = new TimerWheel(tickDuration, WHEEL_SIZE);
+    }
+
+    public synchronized void start() {
+        if (executor != null) {
+            throw new IllegalStateException("Scheduler already started");
+        }
+        logger.info("Starting scheduler: name={}, threadCount={}", name, threadCount);
+        executor = Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+            private final AtomicInteger threadNumber = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, String.format("%s-worker-%d", name, threadNumber.getAndIncrement()));
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        timerWheel.start(String.format("%s-timer", name));
+    }
+
+    /**
+     * Shuts down the scheduler. Batches already submitted are processed, but queues still using the scheduler will
+     * not process any more batches.
+     */
+    public synchronized void shutdown() {
+        logger.info("Shutting down scheduler: name={}", name);
+        timerWheel.stop();
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Registers the worker of a queue. The worker is not run until {@link ScheduledQueue#start()}.
+     */
+    ScheduledQueue register(AbstractBatchingWorkQueueConfiguration configuration, BatchingQueueWorker<?> worker, PendingItems pendingItems) {
+        final ScheduledQueue scheduledQueue = new ScheduledQueue(configuration, worker, pendingItems);
+        worker.setBatchReleasedListener(new Runnable() {
+            @Override
+            public void run() {
+                scheduledQueue.reschedule();
+            }
+        });
+        return scheduledQueue;
+    }
+
+    private static void checkArgument(boolean expression, Object errorMessage) {
+        if (!expression) {
+            throw new IllegalArgumentException(String.valueOf(errorMessage));
+        }
+    }
+
+    /**
+     * A queue worker run by the scheduler. At most one run of the worker is submitted to the pool at a time.
+     */
+    class ScheduledQueue implements Runnable {
+
+        private final AbstractBatchingWorkQueueConfiguration configuration;
+        private final BatchingQueueWorker<?> worker;
+        private final PendingItems pendingItems;
+        private final Object runLock = new Object();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        // deadline of the earliest armed timer, in System.nanoTime()
+        private final AtomicLong timerDeadline = new AtomicLong(NONE);
+        private volatile long lastDispatch = NONE;
+        private volatile boolean started;
+        private volatile boolean halted;
+
+        ScheduledQueue(AbstractBatchingWorkQueueConfiguration configuration, BatchingQueueWorker<?> worker, PendingItems pendingItems) {
+            this.configuration = configuration;
+            this.worker = worker;
+            this.pendingItems = pendingItems;
+        }
+
+        void start() {
+            started = true;
+            // items may have been added before the start
+            reschedule();
+        }
+
+        /**
+         * Called by producers after items have been added to the queue (and registered in the pending items).
+         *
+         * @param addedCount number of added items
+         * @param pendingCount number of pending items, including the added ones
+         */
+        void itemsAdded(int addedCount, int pendingCount) {
+            if (started && (pendingCount <= addedCount || worker.isMinBatchReached(pendingCount))) {
+                reschedule();
+            }
+        }
+
+        /**
+         * Stops scheduling the worker and processes the remaining items, on the calling thread if {@code wait} is
+         * {@code true}, otherwise on the pool, or on the calling thread if the pool has been shut down.
+         */
+        void shutdown(boolean wait) {
+            halted = true;
+            Runnable shutdownWork = new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (runLock) {
+                        worker.doShutdownWork();
+                    }
+                }
+            };
+            if (wait) {
+                shutdownWork.run();
+                return;
+            }
+            try {
+                executor.execute(shutdownWork);
+            } catch (RejectedExecutionException e) {
+                // the pool has been shut down, the remaining items are processed on the calling thread
+                logger.warn("Scheduler shut down, processing remaining items on the calling thread: queueName={}", configuration.getQueueName());
+                shutdownWork.run();
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                synchronized (runLock) {
+                    long now = System.nanoTime();
+                    if (!halted && (lastDispatch == NONE || now - lastDispatch >= TimeUnit.MILLISECONDS.toNanos(configuration.getMinWriteDelay())) && worker.processItemsNow()) {
+                        lastDispatch = now;
+                    }
+                }
+            } finally {
+                scheduled.set(false);
+            }
+            // items added during the run may not have been able to schedule a new run
+            reschedule();
+        }
+
+        /**
+         * Submits a run if a batch is due, otherwise arms a timer for when it will be due. Does nothing if all
+         * batches are in flight, a run is then scheduled when one completes.
+         */
+        void reschedule() {
+            if (!started || halted || !worker.hasIdleBatch()) {
+                return;
+            }
+            int pendingCount = pendingItems.count();
+            if (pendingCount <= 0) {
+                // the next added item schedules the worker
+                return;
+            }
+            long now = System.nanoTime();
+            long due = worker.isMinBatchReached(pendingCount) ? now : worker.oldestItemTime(now) + TimeUnit.MILLISECONDS.toNanos(configuration.getMaxWriteDelay());
+            if (lastDispatch != NONE) {
+                due = Math.max(due, lastDispatch + TimeUnit.MILLISECONDS.toNanos(configuration.getMinWriteDelay()));
+            }
+            due = Math.max(due, now + TimeUnit.MILLISECONDS.toNanos(worker.getRateLimitDelay()));
+            if (due <= now) {
+                schedule();
+            } else {
+                scheduleTimer(due);
+            }
+        }
+
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                try {
+                    executor.execute(this);
+                } catch (RejectedExecutionException e) {
+                    scheduled.set(false);
+                    logger.warn("Scheduler shut down, not processing items: queueName={}", configuration.getQueueName());
+                }
+            }
+        }
+
+        private void scheduleTimer(final long deadline) {
+            long current;
+            do {
+                current = timerDeadline.get();
+                if (current != NONE && current <= deadline) {
+                    // an earlier timer runs the worker, which arms a new timer if needed
+                    return;
+                }
+            } while (!timerDeadline.compareAndSet(current, deadline));
+            timerWheel.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    timerDeadline.compareAndSet(deadline, NONE);
+                    schedule();
+                }
+            }, deadline);
+        }
+    }
+}
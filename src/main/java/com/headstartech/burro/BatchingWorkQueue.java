@@ -3,40 +3,418 @@ package com.headstartech.burro;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * {@link WorkQueue} processing the items in batches.
+ *
+ * The collection passed to the processor is only valid until {@link WorkProcessor#process(Object)} returns (or, for
+ * an {@link AsyncWorkProcessor}, until the callback is called), it's reused for the next batch. Processors retaining
+ * the collection must copy it, or enable {@link AbstractBatchingWorkQueueConfiguration#isCopyBatches()}.
+ *
+ * Tracking items requires a {@link MpscArrayBlockingQueue}, which keeps the handle of each tracked item along with
+ * the item.
  */
 public class BatchingWorkQueue<T> extends AbstractWorkQueue<T> {
 
     private final Logger logger = LoggerFactory.getLogger(BatchingWorkQueue.class);
 
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final AbstractBatchingWorkQueueConfiguration configuration;
     private final boolean shutdownWait;
-    private Thread queueWorkerThread;
-    private String queueWorkerThreadName;
+    private final List<Thread> queueWorkerThreads = new ArrayList<Thread>();
 
     private final BlockingQueue<T> queue;
-    private final BatchingQueueWorker<T> worker;
+    private final PendingItems pendingItems;
+    private final RetryLane<T> retryLane;
+    private final QueueWeight<T> queueWeight;
+    private final ProducerBuffers<T> producerBuffers;
+    private final List<BatchingQueueWorker<T>> workers = new ArrayList<BatchingQueueWorker<T>>();
+    private final BatchingScheduler.ScheduledQueue scheduledQueue;
+    private boolean started;
+
+    /**
+     * Creates a work queue backed by a {@link MpscArrayBlockingQueue}.
+     *
+     * @param configuration the configuration
+     * @param capacity the capacity of the queue
+     * @param processor the processor
+     */
+    public BatchingWorkQueue(BatchingWorkQueueConfiguration configuration, int capacity, WorkProcessor<Collection<T>> processor) {
+        this(configuration, new MpscArrayBlockingQueue<T>(capacity), processor);
+    }
 
     public BatchingWorkQueue(BatchingWorkQueueConfiguration configuration, BlockingQueue<T> queue, WorkProcessor<Collection<T>> processor) {
+        this(configuration, queue, new SynchronousWorkProcessor<Collection<T>>(processor));
+    }
+
+    /**
+     * Creates a work queue backed by a {@link MpscArrayBlockingQueue}, processing up to
+     * {@link AbstractBatchingWorkQueueConfiguration#getMaxInFlightBatches()} batches per worker concurrently.
+     *
+     * @param configuration the configuration
+     * @param capacity the capacity of the queue
+     * @param processor the processor
+     */
+    public BatchingWorkQueue(BatchingWorkQueueConfiguration configuration, int capacity, AsyncWorkProcessor<Collection<T>> processor) {
+        this(configuration, new MpscArrayBlockingQueue<T>(capacity), processor);
+    }
+
+    /**
+     * Creates a work queue processing up to {@link AbstractBatchingWorkQueueConfiguration#getMaxInFlightBatches()} batches per
+     * worker concurrently. On shutdown, the workers wait for the batches in flight to complete.
+     *
+     * @param configuration the configuration
+     * @param queue the queue
+     * @param processor the processor
+     */
+    public BatchingWorkQueue(BatchingWorkQueueConfiguration configuration, BlockingQueue<T> queue, AsyncWorkProcessor<Collection<T>> processor) {
         super(configuration.getQueueName());
+        this.configuration = AbstractBatchingWorkQueueConfiguration.of(configuration);
         this.queue = queue;
         this.shutdownWait = configuration.isWaitForCompletionOnShutdown();
-        worker = new BatchingQueueWorker<T>(configuration, processor, queue);
+        // a MpscArrayBlockingQueue records the time each item was added itself
+        this.pendingItems = this.configuration.isSignalOnAdd() ? new PendingItems(!(queue instanceof MpscArrayBlockingQueue)) : null;
+        this.retryLane = new RetryLane<T>(this.configuration, processor, getMetricsListener());
+        this.queueWeight = new QueueWeight<T>(this.configuration);
+        // shared, the limits apply to the queue
+        RateLimiter rateLimiter = new RateLimiter(this.configuration);
+        this.producerBuffers = this.configuration.getProducerBufferSize() > 0 ? new ProducerBuffers<T>(this, this.configuration.getProducerBufferSize(), this.configuration.getProducerBufferLinger()) : null;
+        for (int i = 0; i < this.configuration.getParallelism(); ++i) {
+            BatchingQueueWorker<T> worker = new BatchingQueueWorker<T>(this.configuration, processor, queue, pendingItems, getMetricsListener(), retryLane, queueWeight, rateLimiter);
+            worker.setProducerBuffers(producerBuffers);
+            workers.add(worker);
+        }
+        this.scheduledQueue = null;
+    }
+
+    /**
+     * Creates a work queue run by a scheduler shared with other queues, instead of its own worker threads.
+     * {@link AbstractBatchingWorkQueueConfiguration#getParallelism()} must be 1.
+     *
+     * @param configuration the configuration
+     * @param queue the queue
+     * @param processor the processor
+     * @param scheduler the scheduler
+     */
+    public BatchingWorkQueue(BatchingWorkQueueConfiguration configuration, BlockingQueue<T> queue, WorkProcessor<Collection<T>> processor, BatchingScheduler scheduler) {
+        this(configuration, queue, new SynchronousWorkProcessor<Collection<T>>(processor), scheduler);
+    }
+
+    /**
+     * Creates a work queue run by a scheduler shared with other queues, instead of its own worker threads, processing
+     * up to {@link AbstractBatchingWorkQueueConfiguration#getMaxInFlightBatches()} batches concurrently.
+     * {@link AbstractBatchingWorkQueueConfiguration#getParallelism()} must be 1.
+     *
+     * @param configuration the configuration
+     * @param queue the queue
+     * @param processor the processor
+     * @param scheduler the scheduler
+     */
+    public BatchingWorkQueue(BatchingWorkQueueConfiguration configuration, BlockingQueue<T> queue, AsyncWorkProcessor<Collection<T>> processor, BatchingScheduler scheduler) {
+        super(configuration.getQueueName());
+        this.configuration = AbstractBatchingWorkQueueConfiguration.of(configuration);
+        if (this.configuration.getParallelism() != 1) {
+            throw new IllegalArgumentException("parallelism must be 1 when using a scheduler");
+        }
+        if (this.configuration.getProducerBufferSize() > 0) {
+            throw new IllegalArgumentException("producer buffers are not supported when using a scheduler");
+        }
+        this.queue = queue;
+        this.shutdownWait = this.configuration.isWaitForCompletionOnShutdown();
+        // the scheduler relies on the producers registering added items
+        this.pendingItems = new PendingItems(!(queue instanceof MpscArrayBlockingQueue));
+        this.retryLane = new RetryLane<T>(this.configuration, processor, getMetricsListener());
+        this.queueWeight = new QueueWeight<T>(this.configuration);
+        this.producerBuffers = null;
+        BatchingQueueWorker<T> worker = new BatchingQueueWorker<T>(this.configuration, processor, queue, pendingItems, getMetricsListener(), retryLane, queueWeight, new RateLimiter(this.configuration));
+        workers.add(worker);
+        this.scheduledQueue = scheduler.register(this.configuration, worker, pendingItems);
+    }
+
+    /**
+     * Sets the processor of the items in batches failing for good, after any retries. Without a dead-letter
+     * processor, the items are dropped. Must be set before the queue is started.
+     *
+     * @param deadLetterProcessor the processor of failed items
+     */
+    public void setDeadLetterProcessor(WorkProcessor<Collection<T>> deadLetterProcessor) {
+        retryLane.setDeadLetterProcessor(deadLetterProcessor);
+    }
+
+    /**
+     * Sets the weigher of the items, used for {@link AbstractBatchingWorkQueueConfiguration#getMinBatchWeight()},
+     * {@link AbstractBatchingWorkQueueConfiguration#getMaxBatchWeight()} and
+     * {@link AbstractBatchingWorkQueueConfiguration#getMaxQueueWeight()}. Without a weigher, the weight settings are not used.
+     * Must be set before items are added.
+     *
+     * @param weigher the weigher
+     */
+    public void setWeigher(Weigher<? super T> weigher) {
+        queueWeight.setWeigher(weigher);
+    }
 
+    /**
+     * @return the total weight of the items in the queue, 0 without a weigher
+     */
+    public long getQueueWeight() {
+        return queueWeight.get();
     }
 
     @Override
     protected boolean addToQueue(T item) {
-        return queue.offer(item);
+        return producerBuffers != null ? producerBuffers.add(item) : offer(item);
     }
 
     @Override
     protected boolean addToQueue(T item, long duration, TimeUnit unit) throws InterruptedException {
-        return queue.offer(item, duration, unit);
+        return producerBuffers != null ? producerBuffers.add(item, duration, unit) : offer(item, duration, unit);
+    }
+
+    /**
+     * Adds an item to the queue, bypassing the producer buffers.
+     */
+    boolean offer(T item) {
+        return offer(item, null);
+    }
+
+    /**
+     * Adds an item to the queue, bypassing the producer buffers.
+     *
+     * @param handle the handle of the item, or {@code null} if not tracked
+     */
+    boolean offer(T item, CompletionHandle handle) {
+        if (!queueWeight.isEnabled()) {
+            return itemAdded(offerToQueue(item, handle));
+        }
+        long weight = queueWeight.weigh(item);
+        if (!queueWeight.tryAcquire(weight)) {
+            return false;
+        }
+        return itemAdded(offerWeighed(item, handle, weight));
+    }
+
+    /**
+     * Adds an item to the queue, bypassing the producer buffers.
+     */
+    boolean offer(T item, long duration, TimeUnit unit) throws InterruptedException {
+        return offer(item, null, duration, unit);
+    }
+
+    /**
+     * Adds an item to the queue, bypassing the producer buffers.
+     *
+     * @param handle the handle of the item, or {@code null} if not tracked
+     */
+    boolean offer(T item, CompletionHandle handle, long duration, TimeUnit unit) throws InterruptedException {
+        if (!queueWeight.isEnabled()) {
+            return itemAdded(offerToQueue(item, handle, duration, unit));
+        }
+        long weight = queueWeight.weigh(item);
+        long deadline = System.nanoTime() + unit.toNanos(duration);
+        while (!queueWeight.tryAcquire(weight)) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            LockSupport.parkNanos(Math.min(MAX_PARK_NANOS, remaining));
+        }
+        boolean added = false;
+        try {
+            added = offerToQueue(item, handle, Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } finally {
+            if (!added) {
+                queueWeight.release(weight);
+            }
+        }
+        return itemAdded(added);
+    }
+
+    /**
+     * Adds the items with a single reservation of capacity if the queue is a {@link MpscArrayBlockingQueue} and no
+     * weigher is set, otherwise one by one.
+     */
+    @Override
+    protected int addAllToQueue(List<? extends T> items) {
+        if (producerBuffers != null) {
+            return producerBuffers.addAll(items);
+        }
+        if (!isBulkOfferSupported()) {
+            return super.addAllToQueue(items);
+        }
+        return publishAll(items, System.nanoTime());
+    }
+
+    @Override
+    protected int addAllToQueue(List<? extends T> items, long duration, TimeUnit unit) throws InterruptedException {
+        if (producerBuffers != null) {
+            return producerBuffers.addAll(items, duration, unit);
+        }
+        if (!isBulkOfferSupported()) {
+            return super.addAllToQueue(items, duration, unit);
+        }
+        return publishAll(items, System.nanoTime(), duration, unit);
+    }
+
+    /**
+     * Adds items to the queue, bypassing the producer buffers.
+     *
+     * @param enqueueTime the {@link System#nanoTime()} the items count as added
+     * @return the number of items added
+     */
+    int publishAll(List<? extends T> items, long enqueueTime) {
+        if (!isBulkOfferSupported()) {
+            int added = 0;
+            while (added < items.size() && offer(items.get(added))) {
+                ++added;
+            }
+            return added;
+        }
+        int added = ((MpscArrayBlockingQueue<T>) queue).offerAll(items, 0, enqueueTime);
+        itemsAdded(added, enqueueTime);
+        return added;
+    }
+
+    /**
+     * Adds items to the queue like {@link #publishAll(List, long)}, waiting for room in the queue.
+     */
+    int publishAll(List<? extends T> items, long enqueueTime, long duration, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(duration);
+        if (!isBulkOfferSupported()) {
+            int added = 0;
+            while (added < items.size() && offer(items.get(added), Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+                ++added;
+            }
+            return added;
+        }
+        MpscArrayBlockingQueue<T> mpscQueue = (MpscArrayBlockingQueue<T>) queue;
+        int added = 0;
+        while (true) {
+            int n = mpscQueue.offerAll(items, added, enqueueTime);
+            // signalled for each run, the worker must drain the queue to make room for the rest
+            itemsAdded(n, enqueueTime);
+            added += n;
+            if (added == items.size()) {
+                return added;
+            }
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return added;
+            }
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            LockSupport.parkNanos(Math.min(MAX_PARK_NANOS, remaining));
+        }
+    }
+
+    private boolean isBulkOfferSupported() {
+        return queue instanceof MpscArrayBlockingQueue && !queueWeight.isEnabled();
+    }
+
+    private boolean offerWeighed(T item, CompletionHandle handle, long weight) {
+        boolean added = false;
+        try {
+            added = offerToQueue(item, handle);
+        } finally {
+            if (!added) {
+                queueWeight.release(weight);
+            }
+        }
+        return added;
+    }
+
+    private boolean offerToQueue(T item, CompletionHandle handle) {
+        return handle == null ? queue.offer(item) : ((MpscArrayBlockingQueue<T>) queue).offer(item, handle);
+    }
+
+    private boolean offerToQueue(T item, CompletionHandle handle, long duration, TimeUnit unit) throws InterruptedException {
+        return handle == null ? queue.offer(item, duration, unit) : ((MpscArrayBlockingQueue<T>) queue).offer(item, handle, duration, unit);
+    }
+
+    @Override
+    protected boolean addToQueue(T item, CompletionHandle handle) {
+        checkTrackingSupported();
+        return producerBuffers != null ? producerBuffers.add(item, handle) : offer(item, handle);
+    }
+
+    @Override
+    protected boolean addToQueue(T item, CompletionHandle handle, long duration, TimeUnit unit) throws InterruptedException {
+        checkTrackingSupported();
+        return producerBuffers != null ? producerBuffers.add(item, handle, duration, unit) : offer(item, handle, duration, unit);
+    }
+
+    private void checkTrackingSupported() {
+        if (!(queue instanceof MpscArrayBlockingQueue)) {
+            throw new UnsupportedOperationException("Tracking items requires a MpscArrayBlockingQueue.");
+        }
+    }
+
+    /**
+     * Completes the handles of the tracked items in the queue exceptionally.
+     */
+    private void failTrackedItems(Throwable cause) {
+        if (queue instanceof MpscArrayBlockingQueue) {
+            for (CompletionHandle handle : ((MpscArrayBlockingQueue<T>) queue).trackedHandles()) {
+                handle.completeExceptionally(cause);
+            }
+        }
+    }
+
+    /**
+     * Registers an item added to the queue, signalling the worker if needed.
+     *
+     * @param added whether the item was added
+     * @return {@code added}
+     */
+    boolean itemAdded(boolean added) {
+        if (added) {
+            itemsAdded(1, System.nanoTime());
+        }
+        return added;
+    }
+
+    /**
+     * Registers items added to the queue, signalling the worker if needed.
+     *
+     * @param count number of added items
+     * @param enqueueTime the {@link System#nanoTime()} the items count as added
+     */
+    void itemsAdded(int count, long enqueueTime) {
+        if (count > 0 && pendingItems != null) {
+            int pendingCount = pendingItems.added(enqueueTime, count);
+            if (scheduledQueue != null) {
+                scheduledQueue.itemsAdded(count, pendingCount);
+                return;
+            }
+            for (BatchingQueueWorker<T> worker : workers) {
+                if (worker.itemsAdded(count, pendingCount)) {
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Called by producers when their buffer receives its first item, signals a worker to flush the buffer when it has
+     * lingered.
+     */
+    void itemBuffered() {
+        for (BatchingQueueWorker<T> worker : workers) {
+            if (worker.itemBuffered()) {
+                break;
+            }
+        }
     }
 
     @Override
@@ -44,34 +422,79 @@ public class BatchingWorkQueue<T> extends AbstractWorkQueue<T> {
         return queue.remainingCapacity();
     }
 
+    @Override
+    protected int queueSize() {
+        return queue.size();
+    }
+
     @Override
     protected void onStarting() {
-        queueWorkerThreadName = String.format("%s-worker", getQueueName());
-        logger.info("Starting worker thread: queueName={}, queueWorkerThreadName={}",  getQueueName(), queueWorkerThreadName);
-        queueWorkerThread = new Thread(worker, queueWorkerThreadName);
-        queueWorkerThread.setDaemon(true);
-        queueWorkerThread.start();
+        started = true;
+        ThreadFactory threadFactory = configuration.getThreadFactory();
+        if (scheduledQueue != null) {
+            logger.info("Starting scheduled worker: queueName={}", getQueueName());
+            scheduledQueue.start();
+            return;
+        }
+        for (int i = 0; i < workers.size(); ++i) {
+            String queueWorkerThreadName = workers.size() == 1 ? String.format("%s-worker", getQueueName()) : String.format("%s-worker-%d", getQueueName(), i);
+            logger.info("Starting worker thread: queueName={}, queueWorkerThreadName={}",  getQueueName(), queueWorkerThreadName);
+            Thread queueWorkerThread;
+            if (threadFactory == null) {
+                queueWorkerThread = new Thread(workers.get(i), queueWorkerThreadName);
+                queueWorkerThread.setDaemon(true);
+            } else {
+                queueWorkerThread = threadFactory.newThread(workers.get(i));
+                queueWorkerThread.setName(queueWorkerThreadName);
+            }
+            queueWorkerThread.start();
+            queueWorkerThreads.add(queueWorkerThread);
+        }
     }
 
     @Override
     protected void onShuttingDown() {
-        try {
-            worker.shutdown();
-        } catch(RuntimeException e) {
-            logger.warn("Exception caught when shutting down: queueName={}", getQueueName(), e);
+        if (!started) {
+            // never started, the items will not be processed
+            failTrackedItems(new IllegalStateException("The work queue was shut down without being started."));
+        }
+        if (producerBuffers != null) {
+            // before the workers, which process the flushed items
+            producerBuffers.close(started);
+        }
+        if (scheduledQueue != null) {
+            if (started) {
+                scheduledQueue.shutdown(shutdownWait);
+            }
+        } else {
+            shutdownWorkers();
+        }
+        // after the workers, batches failing during the shutdown work are passed to the lane
+        retryLane.shutdown(shutdownWait);
+    }
+
+    private void shutdownWorkers() {
+        for (BatchingQueueWorker<T> worker : workers) {
+            try {
+                worker.shutdown();
+            } catch (RuntimeException e) {
+                logger.warn("Exception caught when shutting down: queueName={}", getQueueName(), e);
+            }
         }
         if(shutdownWait) {
             boolean interrupted = false;
             try {
-                while (queueWorkerThread.isAlive()) {
-                    try {
-                        logger.debug("Waiting for queue worker thread to finish: queueName={}, queueWorkerThreadName={}", getQueueName(), queueWorkerThreadName);
-                        queueWorkerThread.join(1000);
-                    } catch (InterruptedException e) {
-                        interrupted = true;
+                for (Thread queueWorkerThread : queueWorkerThreads) {
+                    while (queueWorkerThread.isAlive()) {
+                        try {
+                            logger.debug("Waiting for queue worker thread to finish: queueName={}, queueWorkerThreadName={}", getQueueName(), queueWorkerThread.getName());
+                            queueWorkerThread.join(1000);
+                        } catch (InterruptedException e) {
+                            interrupted = true;
+                        }
                     }
+                    logger.debug("Queue worker thread finished: queueName={}, queueWorkerThreadName={}", getQueueName(), queueWorkerThread.getName());
                 }
-                logger.debug("Queue worker thread finished: queueName={}, queueWorkerThreadName={}", getQueueName(), queueWorkerThreadName);
             } finally {
                 if(interrupted) {
                     Thread.currentThread().interrupt();
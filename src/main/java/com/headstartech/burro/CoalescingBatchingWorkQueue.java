@@ -0,0 +1,123 @@
+package com.headstartech.burro;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link BatchingWorkQueue} holding at most one item per key. An item added while an item with the same key is
+ * waiting in the queue is merged into it, so only one item per key is passed to the processor per batch.
+ *
+ * Items are merged by last-write-wins unless an {@link ItemMerger} is given. A merged item keeps the position of the
+ * item it was merged into, and the time it has waited. The capacity bounds the number of keys in the queue, an item
+ * is merged into a waiting item also when the queue is full. Merged items are not tracked individually, so
+ * {@link #addAndTrack(Object)} and a weigher are not supported.
+ *
+ * The parallelism must be 1 and failed batches can't be retried, a merged item processed on another worker or
+ * retried could overwrite a newer item of the same key processed in the meantime.
+ *
+ * @param <T> the type of the items
+ * @param <K> the type of the keys, must not be {@code null}
+ */
+public class CoalescingBatchingWorkQueue<T, K> extends BatchingWorkQueue<T> {
+
+    private static final Logger logger = LoggerFactory.getLogger(CoalescingBatchingWorkQueue.class);
+
+    private final CoalescingBlockingQueue<T, K> queue;
+
+    /**
+     * Creates a queue keeping the last added item of each key.
+     *
+     * @param configuration the configuration
+     * @param capacity the max number of keys in the queue
+     * @param keyExtractor extracts the key of an item
+     * @param processor the processor
+     */
+    public CoalescingBatchingWorkQueue(BatchingWorkQueueConfiguration configuration, int capacity, KeyExtractor<T, K> keyExtractor, WorkProcessor<Collection<T>> processor) {
+        this(configuration, capacity, keyExtractor, new LastWriteWins<T>(), processor);
+    }
+
+    /**
+     * @param configuration the configuration
+     * @param capacity the max number of keys in the queue
+     * @param keyExtractor extracts the key of an item
+     * @param merger merges an added item into the waiting item with the same key
+     * @param processor the processor
+     */
+    public CoalescingBatchingWorkQueue(BatchingWorkQueueConfiguration configuration, int capacity, KeyExtractor<T, K> keyExtractor, ItemMerger<T> merger, WorkProcessor<Collection<T>> processor) {
+        this(configuration, new CoalescingBlockingQueue<T, K>(capacity, keyExtractor, merger), processor);
+    }
+
+    private CoalescingBatchingWorkQueue(BatchingWorkQueueConfiguration configuration, CoalescingBlockingQueue<T, K> queue, WorkProcessor<Collection<T>> processor) {
+        super(configuration, queue, processor);
+        AbstractBatchingWorkQueueConfiguration coalescingConfiguration = AbstractBatchingWorkQueueConfiguration.of(configuration);
+        if (coalescingConfiguration.getParallelism() != 1) {
+            // a batch on another worker could be processed after a newer batch with the same keys
+            throw new IllegalArgumentException("parallelism must be 1 for a coalescing queue");
+        }
+        if (coalescingConfiguration.getMaxRetries() > 0 || coalescingConfiguration.isSplitFailedBatches()) {
+            // a retried batch would be processed after newer batches with the same keys
+            throw new IllegalArgumentException("retries and splitting failed batches are not supported by a coalescing queue");
+        }
+        if (coalescingConfiguration.getProducerBufferSize() > 0) {
+            // buffered items would be added without being merged
+            throw new IllegalArgumentException("producer buffers are not supported by a coalescing queue");
+        }
+        this.queue = queue;
+    }
+
+    /**
+     * Not supported, the weight of an item changes when merged.
+     */
+    @Override
+    public void setWeigher(Weigher<? super T> weigher) {
+        throw new UnsupportedOperationException("weigher is not supported by a coalescing queue");
+    }
+
+    @Override
+    protected boolean addToQueue(T item) {
+        return added(queue.offerOrMerge(item));
+    }
+
+    @Override
+    protected boolean addToQueue(T item, long duration, TimeUnit unit) throws InterruptedException {
+        return added(queue.offerOrMerge(item, duration, unit));
+    }
+
+    @Override
+    protected boolean addToQueue(T item, CompletionHandle handle) {
+        throw new UnsupportedOperationException("tracking items is not supported by a coalescing queue");
+    }
+
+    @Override
+    protected boolean addToQueue(T item, CompletionHandle handle, long duration, TimeUnit unit) {
+        throw new UnsupportedOperationException("tracking items is not supported by a coalescing queue");
+    }
+
+    @Override
+    protected Logger getLogger() {
+        return logger;
+    }
+
+    private boolean added(CoalescingBlockingQueue.OfferResult result) {
+        switch (result) {
+            case ADDED:
+                return itemAdded(true);
+            case MERGED:
+                // the queue holds as many items as before, the worker has already been signalled
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static class LastWriteWins<T> implements ItemMerger<T> {
+
+        @Override
+        public T merge(T pending, T added) {
+            return added;
+        }
+    }
+}
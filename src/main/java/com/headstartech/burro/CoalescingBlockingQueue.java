@@ -0,0 +1,245 @@
+package com.headstartech.burro;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * {@link BlockingQueue} holding at most one item per key, an item added while an item with the same key is pending
+ * is merged into it.
+ *
+ * The pending items are kept in a concurrent map by key, the keys in a ring buffer in the order they were first
+ * added. A merged item keeps the position of the pending item. Producers reserve a slot with a compare-and-set on the
+ * size before inserting a new key, merging is a compare-and-set on the map entry, so neither takes a lock. The
+ * capacity bounds the number of keys, merging into a pending item succeeds also when the queue is full.
+ */
+class CoalescingBlockingQueue<E, K> extends AbstractQueue<E> implements BlockingQueue<E> {
+
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    enum OfferResult {
+        ADDED, MERGED, REJECTED
+    }
+
+    private final int capacity;
+    private final KeyExtractor<E, K> keyExtractor;
+    private final ItemMerger<E> merger;
+    private final ConcurrentMap<K, E> pending;
+    private final MpscArrayBlockingQueue<K> keys;
+    // reserved slots, a key is inserted in the map after reserving and polled from the ring before releasing
+    private final AtomicInteger size = new AtomicInteger();
+
+    /**
+     * @param capacity the max number of keys
+     * @param keyExtractor extracts the key of an item, keys must not be {@code null}
+     * @param merger merges items with the same key
+     */
+    CoalescingBlockingQueue(int capacity, KeyExtractor<E, K> keyExtractor, ItemMerger<E> merger) {
+        this.capacity = capacity;
+        this.keyExtractor = keyExtractor;
+        this.merger = merger;
+        this.keys = new MpscArrayBlockingQueue<K>(capacity);
+        this.pending = new ConcurrentHashMap<K, E>(Math.min(capacity, 1024));
+    }
+
+    /**
+     * Adds the item, or merges it into the pending item with the same key.
+     *
+     * @param e the item
+     * @return whether the item was added, merged or rejected since the queue is full
+     */
+    OfferResult offerOrMerge(E e) {
+        if (e == null) {
+            throw new NullPointerException();
+        }
+        K key = keyExtractor.getKey(e);
+        if (key == null) {
+            throw new NullPointerException("key");
+        }
+        for (;;) {
+            E existing = pending.get(key);
+            if (existing != null) {
+                if (pending.replace(key, existing, merger.merge(existing, e))) {
+                    return OfferResult.MERGED;
+                }
+                // taken by a consumer or merged by another producer
+                continue;
+            }
+            if (!reserve()) {
+                return OfferResult.REJECTED;
+            }
+            if (pending.putIfAbsent(key, e) == null) {
+                // can't fail, a slot is reserved
+                keys.offer(key);
+                return OfferResult.ADDED;
+            }
+            // inserted by another producer, merge into it
+            size.decrementAndGet();
+        }
+    }
+
+    @Override
+    public boolean offer(E e) {
+        return offerOrMerge(e) != OfferResult.REJECTED;
+    }
+
+    @Override
+    public E poll() {
+        K key = keys.poll();
+        return key != null ? removeKey(key) : null;
+    }
+
+    @Override
+    public E peek() {
+        K key = keys.peek();
+        return key != null ? pending.get(key) : null;
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c, int maxElements) {
+        if (c == null) {
+            throw new NullPointerException();
+        }
+        if (c == this) {
+            throw new IllegalArgumentException();
+        }
+        List<K> drained = new ArrayList<K>(Math.max(0, Math.min(maxElements, size.get())));
+        int n = keys.drainTo(drained, maxElements);
+        for (K key : drained) {
+            c.add(removeKey(key));
+        }
+        return n;
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public void put(E e) throws InterruptedException {
+        while (!offer(e)) {
+            backOff(Long.MAX_VALUE);
+        }
+    }
+
+    @Override
+    public boolean offer(E e, long timeout, TimeUnit unit) throws InterruptedException {
+        return offerOrMerge(e, timeout, unit) != OfferResult.REJECTED;
+    }
+
+    /**
+     * Adds the item, or merges it into the pending item with the same key, waiting up to the timeout for a slot.
+     */
+    OfferResult offerOrMerge(E e, long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        OfferResult result;
+        while ((result = offerOrMerge(e)) == OfferResult.REJECTED) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                break;
+            }
+            backOff(remaining);
+        }
+        return result;
+    }
+
+    @Override
+    public E take() throws InterruptedException {
+        E e;
+        while ((e = poll()) == null) {
+            backOff(Long.MAX_VALUE);
+        }
+        return e;
+    }
+
+    @Override
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        E e;
+        while ((e = poll()) == null) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return null;
+            }
+            backOff(remaining);
+        }
+        return e;
+    }
+
+    @Override
+    public int size() {
+        return keys.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return keys.isEmpty();
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return capacity - size.get();
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        List<E> snapshot = new ArrayList<E>();
+        for (K key : keys) {
+            E e = pending.get(key);
+            if (e != null) {
+                snapshot.add(e);
+            }
+        }
+        final Iterator<E> it = snapshot.iterator();
+        return new Iterator<E>() {
+            @Override
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+
+            @Override
+            public E next() {
+                return it.next();
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    private boolean reserve() {
+        int current;
+        do {
+            current = size.get();
+            if (current >= capacity) {
+                return false;
+            }
+        } while (!size.compareAndSet(current, current + 1));
+        return true;
+    }
+
+    // the key has been polled from the ring, only the caller can remove the item
+    private E removeKey(K key) {
+        E e = pending.remove(key);
+        size.decrementAndGet();
+        return e;
+    }
+
+    private static void backOff(long maxNanos) throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        LockSupport.parkNanos(Math.min(MAX_PARK_NANOS, maxNanos));
+    }
+}
@@ -0,0 +1,19 @@
+package com.headstartech.burro;
+
+/**
+ * Callback for an {@link AsyncWorkProcessor}.
+ */
+public interface CompletionCallback {
+
+    /**
+     * Called when the work has been processed.
+     */
+    void completed();
+
+    /**
+     * Called when processing the work failed.
+     *
+     * @param cause the cause of the failure
+     */
+    void failed(Throwable cause);
+}
@@ -0,0 +1,205 @@
+package com.headstartech.burro;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Handle for an item added with {@link AbstractWorkQueue#addAndTrack(Object)}, completed when the batch containing the item
+ * has been processed, or completed exceptionally if processing the batch failed.
+ *
+ * The handle can't be cancelled. Waits use a {@link Lock} rather than an object monitor, so a virtual thread unmounts
+ * from its carrier thread while waiting.
+ */
+public class CompletionHandle implements Future<Void> {
+
+    private final Lock lock = new ReentrantLock();
+    private final Condition completed = lock.newCondition();
+    // guarded by lock
+    private boolean done;
+    private Throwable cause;
+    private List<CompletionCallback> callbacks;
+
+    /**
+     * Adds a callback called when the handle is completed. Called immediately, by the calling thread, if the handle
+     * is already completed. Otherwise called by the thread completing the handle.
+     *
+     * @param callback the callback
+     */
+    public void addCallback(CompletionCallback callback) {
+        lock.lock();
+        try {
+            if (!done) {
+                if (callbacks == null) {
+                    callbacks = new ArrayList<CompletionCallback>(1);
+                }
+                callbacks.add(callback);
+                return;
+            }
+        } finally {
+            lock.unlock();
+        }
+        notifyCallback(callback);
+    }
+
+    /**
+     * Indicates if processing the item failed.
+     *
+     * @return {@code true} if the handle was completed exceptionally, {@code false} otherwise
+     */
+    public boolean isCompletedExceptionally() {
+        lock.lock();
+        try {
+            return done && cause != null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The cause of the failure, if the handle was completed exceptionally.
+     *
+     * @return the cause of the failure, or {@code null}
+     */
+    public Throwable getCause() {
+        lock.lock();
+        try {
+            return cause;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return false;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return false;
+    }
+
+    @Override
+    public boolean isDone() {
+        lock.lock();
+        try {
+            return done;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Void get() throws InterruptedException, ExecutionException {
+        lock.lock();
+        try {
+            while (!done) {
+                completed.await();
+            }
+            return result();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Void get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        long remaining = unit.toNanos(timeout);
+        lock.lock();
+        try {
+            while (!done) {
+                if (remaining <= 0) {
+                    throw new TimeoutException();
+                }
+                remaining = completed.awaitNanos(remaining);
+            }
+            return result();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void complete() {
+        complete(null);
+    }
+
+    /**
+     * Completes the handles of the items of a batch and clears them.
+     *
+     * @param handles the handle of each item, {@code null} if not tracked
+     * @param count the number of items
+     */
+    static void completeAll(CompletionHandle[] handles, int count) {
+        for (int i = 0; i < count; ++i) {
+            if (handles[i] != null) {
+                handles[i].complete();
+                handles[i] = null;
+            }
+        }
+    }
+
+    /**
+     * Completes the handles of the items of a failed batch exceptionally and clears them.
+     *
+     * @param handles the handle of each item, {@code null} if not tracked
+     * @param count the number of items
+     * @param cause the cause of the failure
+     */
+    static void completeAllExceptionally(CompletionHandle[] handles, int count, Throwable cause) {
+        for (int i = 0; i < count; ++i) {
+            if (handles[i] != null) {
+                handles[i].completeExceptionally(cause);
+                handles[i] = null;
+            }
+        }
+    }
+
+    void completeExceptionally(Throwable cause) {
+        complete(cause == null ? new IllegalStateException("Processing failed") : cause);
+    }
+
+    private void complete(Throwable cause) {
+        List<CompletionCallback> callbacksToNotify;
+        lock.lock();
+        try {
+            if (done) {
+                return;
+            }
+            this.done = true;
+            this.cause = cause;
+            callbacksToNotify = callbacks;
+            callbacks = null;
+            completed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        if (callbacksToNotify != null) {
+            for (CompletionCallback callback : callbacksToNotify) {
+                notifyCallback(callback);
+            }
+        }
+    }
+
+    private void notifyCallback(CompletionCallback callback) {
+        Throwable failure = getCause();
+        if (failure == null) {
+            callback.completed();
+        } else {
+            callback.failed(failure);
+        }
+    }
+
+    private Void result() throws ExecutionException {
+        if (cause != null) {
+            throw new ExecutionException(cause);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,72 @@
+package com.headstartech.burro;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free {@link WorkQueueMetricsListener} collecting the {@link WorkQueueStatistics} of a queue.
+ */
+public class DefaultWorkQueueMetrics implements WorkQueueMetricsListener {
+
+    private final StripedCounter addedCount = new StripedCounter();
+    private final StripedCounter rejectedCount = new StripedCounter();
+    private final AtomicLong failedBatchCount = new AtomicLong();
+    private final AtomicLong failedItemCount = new AtomicLong();
+    private final Histogram batchSize = new Histogram();
+    private final Histogram timeInQueue = new Histogram();
+    private final Histogram itemWaitTime = new Histogram();
+    private final Histogram processingTime = new Histogram();
+
+    @Override
+    public void onItemAdded() {
+        addedCount.increment();
+    }
+
+    @Override
+    public void onItemsAdded(int count) {
+        addedCount.add(count);
+    }
+
+    @Override
+    public void onItemRejected() {
+        rejectedCount.increment();
+    }
+
+    @Override
+    public void onItemsRejected(int count) {
+        rejectedCount.add(count);
+    }
+
+    @Override
+    public void onItemsDequeued(long[] waitNanos, int count) {
+        for (int i = 0; i < count; ++i) {
+            itemWaitTime.record(waitNanos[i]);
+        }
+    }
+
+    @Override
+    public void onBatchProcessed(int batchSize, long timeInQueueNanos, long processingNanos) {
+        this.batchSize.record(batchSize);
+        timeInQueue.record(timeInQueueNanos);
+        processingTime.record(processingNanos);
+    }
+
+    @Override
+    public void onBatchFailed(int batchSize, long timeInQueueNanos, long processingNanos, Throwable cause) {
+        // only counted as failed, the histograms describe processed batches
+        failedBatchCount.incrementAndGet();
+        failedItemCount.addAndGet(batchSize);
+    }
+
+    /**
+     * Returns a snapshot of the statistics.
+     *
+     * @param queueSize the current number of items in the queue
+     * @return snapshot of the statistics
+     */
+    public WorkQueueStatistics getStatistics(int queueSize) {
+        HistogramSnapshot batchSizeSnapshot = batchSize.snapshot();
+        return new WorkQueueStatistics(System.nanoTime(), addedCount.sum(), rejectedCount.sum(), queueSize,
+                batchSizeSnapshot.getCount(), failedBatchCount.get(), failedItemCount.get(),
+                batchSizeSnapshot, timeInQueue.snapshot(), processingTime.snapshot(), itemWaitTime.snapshot());
+    }
+}
@@ -0,0 +1,364 @@
+package com.headstartech.burro;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * {@link BatchingWorkQueue} writing the added items to a write-ahead log, so items not processed when the process
+ * crashes are processed again when the queue is created next time.
+ *
+ * Items are serialized and appended to memory-mapped log segments in the queue directory. A record is appended
+ * before the item is added to the in-memory queue and survives a crash of the process as soon as the add returns.
+ * The segments are forced to the storage device every sync interval (group commit), so a crash of the operating
+ * system loses at most the items added during the last interval. A batch is acknowledged in the log when the
+ * processor returns normally, or when the dead-letter processor has accepted the items of a failed batch. Items of
+ * batches not acknowledged are recovered when the queue is created, and processed once it's started, which gives
+ * at-least-once processing.
+ *
+ * The parallelism must be 1 and failed batches can't be retried, the batches are acknowledged in the order the items
+ * were added. Failed batches can be passed to a dead-letter processor. The log is acknowledged up to a position, so
+ * once a batch has failed without being accepted by a dead-letter processor, the log is not acknowledged any further:
+ * that batch and all later ones are recovered when the queue is created next time, and the log segments are kept
+ * until then.
+ *
+ * Appending to the log and adding to the queue is done holding a lock shared by all producers, so the log and the
+ * queue hold the items in the same order. Adding to a durable queue doesn't scale with the number of producers, the
+ * bulk adds take the lock once per call. Tracked items are appended like the others, items recovered from the log are
+ * not tracked.
+ */
+public class DurableBatchingWorkQueue<T> extends BatchingWorkQueue<T> {
+
+    private static final Logger logger = LoggerFactory.getLogger(DurableBatchingWorkQueue.class);
+
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+    public static final int DEFAULT_SYNC_INTERVAL = 10;
+
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final WriteAheadLog log;
+    private final ItemSerializer<T> serializer;
+    private final int syncInterval;
+    private final AcknowledgingWorkProcessor<T> acknowledgingProcessor;
+    // appending to the log and adding to the queue is atomic, so the order is the same
+    private final Lock appendLock = new ReentrantLock();
+
+    /**
+     * Creates a queue with segments of {@value #DEFAULT_SEGMENT_SIZE} bytes, synced every
+     * {@value #DEFAULT_SYNC_INTERVAL} ms.
+     *
+     * @param configuration the configuration
+     * @param capacity the capacity of the queue
+     * @param directory the directory of the log, used by this queue only
+     * @param serializer the serializer of the items
+     * @param processor the processor
+     * @throws IOException if the log couldn't be opened
+     */
+    public DurableBatchingWorkQueue(BatchingWorkQueueConfiguration configuration, int capacity, File directory, ItemSerializer<T> serializer, WorkProcessor<Collection<T>> processor) throws IOException {
+        this(configuration, capacity, directory, DEFAULT_SEGMENT_SIZE, DEFAULT_SYNC_INTERVAL, serializer, processor);
+    }
+
+    /**
+     * @param configuration the configuration
+     * @param capacity the capacity of the queue
+     * @param directory the directory of the log, used by this queue only
+     * @param segmentSize the size of the log segment files, in bytes
+     * @param syncInterval the number of milliseconds between forcing the log to the storage device
+     * @param serializer the serializer of the items
+     * @param processor the processor
+     * @throws IOException if the log couldn't be opened
+     */
+    public DurableBatchingWorkQueue(BatchingWorkQueueConfiguration configuration, int capacity, File directory, int segmentSize, int syncInterval, ItemSerializer<T> serializer, WorkProcessor<Collection<T>> processor) throws IOException {
+        this(configuration, capacity, openLog(AbstractBatchingWorkQueueConfiguration.of(configuration), directory, segmentSize, syncInterval), syncInterval, serializer, processor);
+    }
+
+    private DurableBatchingWorkQueue(BatchingWorkQueueConfiguration configuration, int capacity, WriteAheadLog log, int syncInterval, ItemSerializer<T> serializer, WorkProcessor<Collection<T>> processor) {
+        this(configuration, capacity, log, syncInterval, serializer, new AcknowledgingWorkProcessor<T>(log, configuration.getQueueName(), processor));
+    }
+
+    private DurableBatchingWorkQueue(BatchingWorkQueueConfiguration configuration, int capacity, WriteAheadLog log, int syncInterval, ItemSerializer<T> serializer, AcknowledgingWorkProcessor<T> acknowledgingProcessor) {
+        super(configuration, new MpscArrayBlockingQueue<T>(Math.max(capacity, log.getRecoveredRecords().size())), acknowledgingProcessor);
+        this.acknowledgingProcessor = acknowledgingProcessor;
+        this.log = log;
+        this.serializer = serializer;
+        this.syncInterval = syncInterval;
+        for (byte[] payload : log.getRecoveredRecords()) {
+            super.addToQueue(serializer.deserialize(payload));
+        }
+    }
+
+    @Override
+    protected boolean addToQueue(T item) {
+        return appendToQueue(item, null);
+    }
+
+    @Override
+    protected boolean addToQueue(T item, long duration, TimeUnit unit) throws InterruptedException {
+        return appendToQueue(item, null, duration, unit);
+    }
+
+    @Override
+    protected boolean addToQueue(T item, CompletionHandle handle) {
+        return appendToQueue(item, handle);
+    }
+
+    @Override
+    protected boolean addToQueue(T item, CompletionHandle handle, long duration, TimeUnit unit) throws InterruptedException {
+        return appendToQueue(item, handle, duration, unit);
+    }
+
+    private boolean appendToQueue(T item, CompletionHandle handle) {
+        byte[] payload = serializer.serialize(item);
+        appendLock.lock();
+        try {
+            return queueRemainingCapacity() > 0 && append(item, handle, payload);
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    private boolean appendToQueue(T item, CompletionHandle handle, long duration, TimeUnit unit) throws InterruptedException {
+        byte[] payload = serializer.serialize(item);
+        long deadline = System.nanoTime() + unit.toNanos(duration);
+        if (!appendLock.tryLock(duration, unit)) {
+            return false;
+        }
+        try {
+            // wait for capacity before appending, an item in the log must be added to the queue
+            while (queueRemainingCapacity() == 0) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                LockSupport.parkNanos(Math.min(MAX_PARK_NANOS, remaining));
+            }
+            return append(item, handle, payload);
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    @Override
+    protected int addAllToQueue(List<? extends T> items) {
+        List<byte[]> payloads = serialize(items);
+        appendLock.lock();
+        try {
+            return appendAll(items, payloads, 0);
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    @Override
+    protected int addAllToQueue(List<? extends T> items, long duration, TimeUnit unit) throws InterruptedException {
+        List<byte[]> payloads = serialize(items);
+        long deadline = System.nanoTime() + unit.toNanos(duration);
+        if (!appendLock.tryLock(duration, unit)) {
+            return 0;
+        }
+        try {
+            int added = 0;
+            while (true) {
+                added += appendAll(items, payloads, added);
+                if (added == items.size()) {
+                    return added;
+                }
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return added;
+                }
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                LockSupport.parkNanos(Math.min(MAX_PARK_NANOS, remaining));
+            }
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * Sets the processor of the items in failed batches. The batch is acknowledged in the log when the dead-letter
+     * processor returns normally.
+     *
+     * @param deadLetterProcessor the processor of failed items
+     */
+    @Override
+    public void setDeadLetterProcessor(WorkProcessor<Collection<T>> deadLetterProcessor) {
+        super.setDeadLetterProcessor(acknowledgingProcessor.acknowledging(deadLetterProcessor));
+    }
+
+    /**
+     * Not supported, an item appended to the log must be added to the queue, it can't be rejected by weight.
+     */
+    @Override
+    public void setWeigher(Weigher<? super T> weigher) {
+        throw new UnsupportedOperationException("weigher is not supported by a durable queue");
+    }
+
+    @Override
+    protected void onStarting() {
+        super.onStarting();
+        log.startSync(syncInterval, String.format("%s-wal-sync", getQueueName()));
+    }
+
+    @Override
+    protected void onShuttingDown() {
+        super.onShuttingDown();
+        log.close();
+    }
+
+    @Override
+    protected Logger getLogger() {
+        return logger;
+    }
+
+    /**
+     * @param handle the handle of the item, or {@code null} if not tracked
+     */
+    private boolean append(T item, CompletionHandle handle, byte[] payload) {
+        try {
+            log.append(payload);
+        } catch (IOException e) {
+            throw new IllegalStateException(String.format("Failed to append item to write-ahead log: queueName=%s", getQueueName()), e);
+        }
+        // can't fail, only producers holding the append lock add to the queue
+        return handle == null ? super.addToQueue(item) : super.addToQueue(item, handle);
+    }
+
+    /**
+     * Appends as many of the items as there is room for in the queue, then adds them to the queue at once. Must be
+     * called holding the append lock.
+     *
+     * @return the number of items added, starting at {@code fromIndex}
+     */
+    private int appendAll(List<? extends T> items, List<byte[]> payloads, int fromIndex) {
+        int n = Math.min(queueRemainingCapacity(), items.size() - fromIndex);
+        if (n <= 0) {
+            return 0;
+        }
+        int appended = 0;
+        try {
+            for (; appended < n; ++appended) {
+                log.append(payloads.get(fromIndex + appended));
+            }
+        } catch (IOException e) {
+            // the items already in the log must be added to the queue
+            super.addAllToQueue(items.subList(fromIndex, fromIndex + appended));
+            throw new IllegalStateException(String.format("Failed to append item to write-ahead log: queueName=%s", getQueueName()), e);
+        }
+        // can't fail, only producers holding the append lock add to the queue
+        return super.addAllToQueue(items.subList(fromIndex, fromIndex + n));
+    }
+
+    private List<byte[]> serialize(List<? extends T> items) {
+        List<byte[]> payloads = new ArrayList<byte[]>(items.size());
+        for (T item : items) {
+            payloads.add(serializer.serialize(item));
+        }
+        return payloads;
+    }
+
+    private static WriteAheadLog openLog(AbstractBatchingWorkQueueConfiguration configuration, File directory, int segmentSize, int syncInterval) throws IOException {
+        if (configuration.getParallelism() != 1) {
+            throw new IllegalArgumentException("parallelism must be 1 for a durable queue");
+        }
+        if (configuration.getMaxRetries() > 0 || configuration.isSplitFailedBatches()) {
+            // retried batches would be acknowledged out of order
+            throw new IllegalArgumentException("retries and splitting failed batches are not supported by a durable queue");
+        }
+        if (configuration.getProducerBufferSize() > 0) {
+            // buffered items would be added to the queue in another order than appended to the log
+            throw new IllegalArgumentException("producer buffers are not supported by a durable queue");
+        }
+        if (segmentSize < 64) {
+            throw new IllegalArgumentException("segmentSize must be >= 64");
+        }
+        if (syncInterval < 1) {
+            throw new IllegalArgumentException("syncInterval must be >= 1");
+        }
+        return new WriteAheadLog(directory, segmentSize);
+    }
+
+    /**
+     * Acknowledges each batch in the log when it has been processed, or accepted by the dead-letter processor.
+     *
+     * Only called by the single worker, a failed batch is passed to the dead-letter processor before the next batch
+     * is processed.
+     */
+    private static class AcknowledgingWorkProcessor<T> implements WorkProcessor<Collection<T>> {
+
+        private final WriteAheadLog log;
+        private final String queueName;
+        private final WorkProcessor<Collection<T>> processor;
+        // the records of the failed batch being passed to the dead-letter processor, 0 if none
+        private volatile int failedCount;
+        // set when a failed batch was not acknowledged, the log can't be acknowledged past it
+        private volatile boolean stopped;
+
+        AcknowledgingWorkProcessor(WriteAheadLog log, String queueName, WorkProcessor<Collection<T>> processor) {
+            this.log = log;
+            this.queueName = queueName;
+            this.processor = processor;
+        }
+
+        @Override
+        public void process(Collection<T> work) {
+            int size = work.size();
+            if (failedCount > 0) {
+                stop();
+            }
+            boolean processed = false;
+            try {
+                processor.process(work);
+                processed = true;
+            } finally {
+                if (!processed) {
+                    failedCount = size;
+                }
+            }
+            acknowledge(size);
+        }
+
+        /**
+         * @return a dead-letter processor acknowledging the failed batch when it returns normally
+         */
+        WorkProcessor<Collection<T>> acknowledging(final WorkProcessor<Collection<T>> deadLetterProcessor) {
+            return new WorkProcessor<Collection<T>>() {
+                @Override
+                public void process(Collection<T> work) {
+                    deadLetterProcessor.process(work);
+                    int size = failedCount;
+                    failedCount = 0;
+                    acknowledge(size);
+                }
+            };
+        }
+
+        private void acknowledge(int count) {
+            if (!stopped) {
+                log.acknowledge(count);
+            }
+        }
+
+        private void stop() {
+            failedCount = 0;
+            if (!stopped) {
+                stopped = true;
+                logger.warn("Failed batch not acknowledged, the log is not acknowledged until the queue is created again: queueName={}", queueName);
+            }
+        }
+    }
+}
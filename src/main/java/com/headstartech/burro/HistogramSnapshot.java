@@ -0,0 +1,89 @@
+package com.headstartech.burro;
+
+/**
+ * Immutable snapshot of a {@link Histogram}.
+ */
+public class HistogramSnapshot {
+
+    private final long[] bucketCounts;
+    private final long[] bucketUpperBounds;
+    private final long count;
+    private final long sum;
+    private final long min;
+    private final long max;
+
+    HistogramSnapshot(long[] bucketCounts, long[] bucketUpperBounds, long count, long sum, long min, long max) {
+        this.bucketCounts = bucketCounts;
+        this.bucketUpperBounds = bucketUpperBounds;
+        this.count = count;
+        this.sum = sum;
+        this.min = min;
+        this.max = max;
+    }
+
+    /**
+     * The number of recorded values.
+     *
+     * @return number of recorded values
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * The smallest recorded value, {@code 0} if no values have been recorded.
+     *
+     * @return smallest recorded value
+     */
+    public long getMin() {
+        return min;
+    }
+
+    /**
+     * The largest recorded value, {@code 0} if no values have been recorded.
+     *
+     * @return largest recorded value
+     */
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * The mean of the recorded values, {@code 0} if no values have been recorded.
+     *
+     * @return mean of the recorded values
+     */
+    public double getMean() {
+        return count == 0 ? 0.0 : (double) sum / count;
+    }
+
+    /**
+     * The value at the percentile, i.e. the value which {@code percentile} percent of the recorded values are less
+     * than or equal to (within the accuracy of the histogram).
+     *
+     * @param percentile the percentile, between {@code 0} and {@code 100}
+     * @return value at the percentile, {@code 0} if no values have been recorded
+     */
+    public long getPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("percentile must be between 0 and 100");
+        }
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+        long seen = 0;
+        for (int i = 0; i < bucketCounts.length; ++i) {
+            seen += bucketCounts[i];
+            if (seen >= rank) {
+                return Math.max(min, Math.min(max, bucketUpperBounds[i]));
+            }
+        }
+        return max;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("count=%d, min=%d, mean=%.1f, p50=%d, p99=%d, max=%d", count, min, getMean(), getPercentile(50), getPercentile(99), max);
+    }
+}
@@ -0,0 +1,15 @@
+package com.headstartech.burro;
+
+/**
+ * Selects the items flowing through a {@link Pipeline}.
+ */
+public interface ItemFilter<T> {
+
+    /**
+     * Returns whether the item is passed on.
+     *
+     * @param item the item
+     * @return {@code true} to pass the item on, {@code false} to drop it
+     */
+    boolean accept(T item);
+}
@@ -0,0 +1,15 @@
+package com.headstartech.burro;
+
+/**
+ * Maps an item flowing through a {@link Pipeline} to another item.
+ */
+public interface ItemMapper<T, R> {
+
+    /**
+     * Returns the mapped item.
+     *
+     * @param item the item
+     * @return the mapped item, not {@code null}
+     */
+    R map(T item);
+}
@@ -0,0 +1,17 @@
+package com.headstartech.burro;
+
+/**
+ * Merges an item added to a {@link CoalescingBatchingWorkQueue} with a pending item having the same key.
+ */
+public interface ItemMerger<T> {
+
+    /**
+     * Returns the item replacing the pending item. May be called more than once for the same items if another
+     * producer merged into the pending item concurrently, so it must not have side effects.
+     *
+     * @param pending the item waiting in the queue
+     * @param added the added item
+     * @return the merged item
+     */
+    T merge(T pending, T added);
+}
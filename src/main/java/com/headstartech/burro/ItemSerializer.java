@@ -0,0 +1,19 @@
+package com.headstartech.burro;
+
+/**
+ * Converts items to and from bytes, for queues storing items outside the heap.
+ */
+public interface ItemSerializer<T> {
+
+    /**
+     * @param item the item
+     * @return the serialized item, not empty
+     */
+    byte[] serialize(T item);
+
+    /**
+     * @param bytes bytes returned by {@link #serialize(Object)}
+     * @return the item
+     */
+    T deserialize(byte[] bytes);
+}
@@ -0,0 +1,15 @@
+package com.headstartech.burro;
+
+/**
+ * Extracts a key from an item.
+ */
+public interface KeyExtractor<T, K> {
+
+    /**
+     * Returns the key of the item.
+     *
+     * @param item the item
+     * @return the key of the item
+     */
+    K getKey(T item);
+}
@@ -0,0 +1,49 @@
+package com.headstartech.burro;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link WorkProcessor} splitting a batch into one batch per key, keeping the order of the items for each key.
+ */
+class KeyGroupingWorkProcessor<T, K> implements WorkProcessor<Collection<T>> {
+
+    private final KeyExtractor<T, K> keyExtractor;
+    private final WorkProcessor<Collection<T>> processor;
+
+    KeyGroupingWorkProcessor(KeyExtractor<T, K> keyExtractor, WorkProcessor<Collection<T>> processor) {
+        this.keyExtractor = keyExtractor;
+        this.processor = processor;
+    }
+
+    @Override
+    public void process(Collection<T> work) {
+        Map<K, List<T>> itemsByKey = new LinkedHashMap<K, List<T>>();
+        for (T item : work) {
+            K key = keyExtractor.getKey(item);
+            List<T> items = itemsByKey.get(key);
+            if (items == null) {
+                items = new ArrayList<T>();
+                itemsByKey.put(key, items);
+            }
+            items.add(item);
+        }
+        RuntimeException failure = null;
+        for (List<T> items : itemsByKey.values()) {
+            try {
+                processor.process(items);
+            } catch (RuntimeException e) {
+                // process the remaining keys before failing
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package com.headstartech.burro;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * {@link WorkQueue} processing {@code long} values in batches, without boxing them.
+ *
+ * The values are kept in a primitive ring buffer and handed to a {@link LongWorkProcessor} as a slice of an array
+ * reused for every batch, so adding and processing values with {@link #add(long)} and
+ * {@link #addAll(long[], int, int)} doesn't allocate. Values added as {@link Long} through the {@link WorkQueue}
+ * methods are unboxed. Other primitive values can be carried as {@code long}, such as a {@code double} with
+ * {@link Double#doubleToRawLongBits(double)}.
+ *
+ * The queue name, {@link BatchingWorkQueueConfiguration#getMinBatchSize()},
+ * {@link BatchingWorkQueueConfiguration#getMaxBatchSize()}, {@link BatchingWorkQueueConfiguration#getMinWriteDelay()},
+ * {@link BatchingWorkQueueConfiguration#getMaxWriteDelay()},
+ * {@link BatchingWorkQueueConfiguration#isWaitForCompletionOnShutdown()} and
+ * {@link AbstractBatchingWorkQueueConfiguration#getThreadFactory()} are read from the configuration, the batches are
+ * processed by a single worker. Tracking items is not supported.
+ */
+public class LongBatchingWorkQueue extends AbstractWorkQueue<Long> {
+
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final Logger logger = LoggerFactory.getLogger(LongBatchingWorkQueue.class);
+
+    private final AbstractBatchingWorkQueueConfiguration configuration;
+    private final MpscLongArrayQueue queue;
+    private final PendingItems pendingItems = new PendingItems();
+    private final LongQueueWorker worker;
+    private Thread workerThread;
+
+    /**
+     * @param configuration the configuration of the queue
+     * @param capacity the capacity of the queue
+     * @param processor the processor
+     */
+    public LongBatchingWorkQueue(BatchingWorkQueueConfiguration configuration, int capacity, LongWorkProcessor processor) {
+        super(configuration.getQueueName());
+        this.configuration = AbstractBatchingWorkQueueConfiguration.of(configuration);
+        this.queue = new MpscLongArrayQueue(capacity);
+        this.worker = new LongQueueWorker(this.configuration, queue, capacity, processor, pendingItems, getMetricsListener());
+    }
+
+    /**
+     * Adds a value. Will return immediately (return value indicates success/failure).
+     *
+     * @param value value to add
+     * @return {@code true} if value was added, {@code false} otherwise
+     */
+    public boolean add(long value) {
+        validateAdd();
+        return recordAdd(offer(value));
+    }
+
+    /**
+     * Adds a value.
+     *
+     * @param value value to add
+     * @param duration duration to wait
+     * @param unit unit for duration
+     * @return {@code true} if value was added, {@code false} otherwise
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean add(long value, long duration, TimeUnit unit) throws InterruptedException {
+        validateAdd();
+        return recordAdd(offer(value, duration, unit));
+    }
+
+    /**
+     * Adds values, in order, until the queue is full. Will return immediately.
+     *
+     * @param values the values
+     * @param offset the index of the first value to add
+     * @param length the number of values to add
+     * @return the number of values added, starting at {@code offset}
+     */
+    public int addAll(long[] values, int offset, int length) {
+        checkRange(values, offset, length);
+        validateAdd();
+        return recordAddAll(valuesAdded(queue.offerAll(values, offset, length)), length);
+    }
+
+    /**
+     * Adds values, in order, waiting for room in the queue.
+     *
+     * @param values the values
+     * @param offset the index of the first value to add
+     * @param length the number of values to add
+     * @param duration duration to wait
+     * @param unit unit for duration
+     * @return the number of values added, starting at {@code offset}
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public int addAll(long[] values, int offset, int length, long duration, TimeUnit unit) throws InterruptedException {
+        checkRange(values, offset, length);
+        validateAdd();
+        long deadline = System.nanoTime() + unit.toNanos(duration);
+        int added = 0;
+        try {
+            while (true) {
+                // signalled for each run, the worker must drain the queue to make room for the rest
+                added += valuesAdded(queue.offerAll(values, offset + added, length - added));
+                if (added == length) {
+                    return added;
+                }
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return added;
+                }
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                LockSupport.parkNanos(Math.min(MAX_PARK_NANOS, remaining));
+            }
+        } finally {
+            recordAddAll(added, length);
+        }
+    }
+
+    @Override
+    protected boolean addToQueue(Long item) {
+        return offer(item.longValue());
+    }
+
+    @Override
+    protected boolean addToQueue(Long item, long duration, TimeUnit unit) throws InterruptedException {
+        return offer(item.longValue(), duration, unit);
+    }
+
+    @Override
+    protected int queueRemainingCapacity() {
+        return queue.remainingCapacity();
+    }
+
+    @Override
+    protected int queueSize() {
+        return queue.size();
+    }
+
+    @Override
+    protected void onStarting() {
+        String workerThreadName = String.format("%s-worker", getQueueName());
+        logger.info("Starting worker thread: queueName={}, queueWorkerThreadName={}", getQueueName(), workerThreadName);
+        ThreadFactory threadFactory = configuration.getThreadFactory();
+        if (threadFactory == null) {
+            workerThread = new Thread(worker, workerThreadName);
+            workerThread.setDaemon(true);
+        } else {
+            workerThread = threadFactory.newThread(worker);
+            workerThread.setName(workerThreadName);
+        }
+        workerThread.start();
+    }
+
+    @Override
+    protected void onShuttingDown() {
+        if (workerThread == null) {
+            // never started, the values will not be processed
+            return;
+        }
+        worker.shutdown();
+        if (configuration.isWaitForCompletionOnShutdown()) {
+            boolean interrupted = false;
+            try {
+                while (workerThread.isAlive()) {
+                    try {
+                        logger.debug("Waiting for queue worker thread to finish: queueName={}, queueWorkerThreadName={}", getQueueName(), workerThread.getName());
+                        workerThread.join(1000);
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            } finally {
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    @Override
+    protected Logger getLogger() {
+        return logger;
+    }
+
+    private boolean offer(long value) {
+        return valuesAdded(queue.offer(value) ? 1 : 0) == 1;
+    }
+
+    private boolean offer(long value, long duration, TimeUnit unit) throws InterruptedException {
+        return valuesAdded(queue.offer(value, duration, unit) ? 1 : 0) == 1;
+    }
+
+    private int valuesAdded(int n) {
+        if (n > 0) {
+            worker.itemsAdded(n, pendingItems.added(System.nanoTime(), n));
+        }
+        return n;
+    }
+
+    private static void checkRange(long[] values, int offset, int length) {
+        if (offset < 0 || length < 0 || offset > values.length - length) {
+            throw new IndexOutOfBoundsException(String.format("offset=%d, length=%d, values.length=%d", offset, length, values.length));
+        }
+    }
+}
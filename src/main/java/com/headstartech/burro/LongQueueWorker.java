@@ -0,0 +1,49 @@
+package com.headstartech.burro;
+
+/**
+ * Worker for a {@link LongBatchingWorkQueue}.
+ *
+ * The values are drained into an array owned by the worker, reused for every batch, see {@link RingQueueWorker}.
+ */
+class LongQueueWorker extends RingQueueWorker {
+
+    private final MpscLongArrayQueue queue;
+    private final LongWorkProcessor processor;
+    private long[] batch;
+
+    LongQueueWorker(AbstractBatchingWorkQueueConfiguration configuration, MpscLongArrayQueue queue, int capacity, LongWorkProcessor processor, PendingItems pendingItems, WorkQueueMetricsListener metricsListener) {
+        super(configuration, capacity, pendingItems, metricsListener);
+        this.queue = queue;
+        this.processor = processor;
+        this.batch = new long[maxBatchSize()];
+    }
+
+    @Override
+    int queueSize() {
+        return queue.size();
+    }
+
+    @Override
+    boolean isQueueEmpty() {
+        return queue.isEmpty();
+    }
+
+    @Override
+    long oldestEnqueueTime(long now) {
+        return queue.oldestEnqueueTime(now);
+    }
+
+    @Override
+    int takeBatch(int limit, long[] enqueueTimes) {
+        if (batch.length < limit) {
+            // the max batch size of the configuration has been raised
+            batch = new long[limit];
+        }
+        return queue.drainTo(batch, enqueueTimes, limit);
+    }
+
+    @Override
+    void processBatch(int count) {
+        processor.process(batch, count);
+    }
+}
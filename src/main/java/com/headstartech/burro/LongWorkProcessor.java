@@ -0,0 +1,15 @@
+package com.headstartech.burro;
+
+/**
+ * Processes a batch of a {@link LongBatchingWorkQueue}.
+ */
+public interface LongWorkProcessor {
+
+    /**
+     * Processes a batch. The array is reused for the next batch, so it's only valid until the method returns.
+     *
+     * @param values the values of the batch, starting at index 0
+     * @param length the number of values in the batch, the length of {@code values} may be larger
+     */
+    void process(long[] values, int length);
+}
@@ -0,0 +1,450 @@
+package com.headstartech.burro;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded {@link BlockingQueue} backed by a ring buffer, optimized for many producers and a single consumer.
+ *
+ * Producers claim a slot with a single compare-and-set on the producer sequence and never take a lock, a bulk add
+ * claims the slots of all its items with one compare-and-set. Consumers
+ * take a lock only to serialize among themselves, which is uncontended with a single consumer, and
+ * {@link #drainTo(Collection, int)} moves a whole run of items while publishing the consumer sequence once.
+ * The producer and consumer sequences are padded to avoid false sharing.
+ *
+ * Each item is stamped with {@link System#nanoTime()} when added, in an array parallel to the ring buffer, so the
+ * worker of a {@link BatchingWorkQueue} knows the exact age of the oldest item and the time each item waited. The
+ * {@link CompletionHandle} of a tracked item is kept in another parallel array, so the worker completes the handles
+ * of a batch without looking them up.
+ *
+ * Blocking operations spin and then park with a short back-off, the queue is meant to be used with
+ * {@link #offer(Object)} and {@link #drainTo(Collection, int)}. The iterator returns a snapshot and does not
+ * support removal.
+ */
+public class MpscArrayBlockingQueue<E> extends AbstractQueue<E> implements BlockingQueue<E> {
+
+    // indices into the padded sequence array, at least 64 bytes apart
+    private static final int PRODUCER_INDEX = 8;
+    private static final int PRODUCER_LIMIT = 16;
+    private static final int CONSUMER_INDEX = 24;
+    private static final int SEQUENCES_LENGTH = 32;
+
+    private static final int SPINS = 100;
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final int capacity;
+    private final int mask;
+    private final AtomicReferenceArray<E> buffer;
+    private final AtomicLongArray enqueueTimes;
+    private final AtomicReferenceArray<CompletionHandle> handles;
+    private final AtomicLongArray sequences = new AtomicLongArray(SEQUENCES_LENGTH);
+    // not a monitor, so a consumer on a virtual thread is not pinned to its carrier thread
+    private final Lock consumerLock = new ReentrantLock();
+
+    public MpscArrayBlockingQueue(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be >= 1");
+        }
+        if (capacity > (1 << 30)) {
+            throw new IllegalArgumentException("capacity must be <= 2^30");
+        }
+        this.capacity = capacity;
+        int bufferSize = Integer.highestOneBit(capacity);
+        if (bufferSize < capacity) {
+            bufferSize <<= 1;
+        }
+        this.mask = bufferSize - 1;
+        this.buffer = new AtomicReferenceArray<E>(bufferSize);
+        this.enqueueTimes = new AtomicLongArray(bufferSize);
+        this.handles = new AtomicReferenceArray<CompletionHandle>(bufferSize);
+        sequences.set(PRODUCER_LIMIT, capacity);
+    }
+
+    @Override
+    public boolean offer(E e) {
+        return offer(e, null);
+    }
+
+    /**
+     * Adds a tracked item like {@link #offer(Object)}, the handle is returned with the item when drained.
+     *
+     * @param e the item
+     * @param handle the handle of the item, or {@code null}
+     * @return {@code true} if the item was added, {@code false} if the queue is full
+     */
+    boolean offer(E e, CompletionHandle handle) {
+        if (e == null) {
+            throw new NullPointerException();
+        }
+        long producerIndex;
+        do {
+            producerIndex = sequences.get(PRODUCER_INDEX);
+            if (producerIndex >= sequences.get(PRODUCER_LIMIT)) {
+                long producerLimit = sequences.get(CONSUMER_INDEX) + capacity;
+                if (producerIndex >= producerLimit) {
+                    return false;
+                }
+                sequences.lazySet(PRODUCER_LIMIT, producerLimit);
+            }
+        } while (!sequences.compareAndSet(PRODUCER_INDEX, producerIndex, producerIndex + 1));
+        int offset = (int) producerIndex & mask;
+        // published by the item
+        enqueueTimes.lazySet(offset, System.nanoTime());
+        handles.lazySet(offset, handle);
+        buffer.lazySet(offset, e);
+        return true;
+    }
+
+    /**
+     * Adds as many of the items as there is room for, claiming their slots with a single compare-and-set.
+     *
+     * @param items the items, must not contain {@code null}
+     * @param fromIndex the index of the first item to add
+     * @return the number of items added, starting at {@code fromIndex}
+     */
+    int offerAll(List<? extends E> items, int fromIndex) {
+        return offerAll(items, fromIndex, System.nanoTime());
+    }
+
+    /**
+     * Adds items like {@link #offerAll(List, int)}, stamping them with the given time instead of the current time.
+     *
+     * @param items the items, must not contain {@code null}
+     * @param fromIndex the index of the first item to add
+     * @param enqueueTime the {@link System#nanoTime()} the items count as added
+     * @return the number of items added, starting at {@code fromIndex}
+     */
+    int offerAll(List<? extends E> items, int fromIndex, long enqueueTime) {
+        int count = items.size() - fromIndex;
+        // checked before claiming, a claimed slot must be published
+        for (int i = fromIndex; i < items.size(); ++i) {
+            if (items.get(i) == null) {
+                throw new NullPointerException();
+            }
+        }
+        if (count <= 0) {
+            return 0;
+        }
+        long producerIndex;
+        int n;
+        do {
+            producerIndex = sequences.get(PRODUCER_INDEX);
+            long producerLimit = sequences.get(PRODUCER_LIMIT);
+            if (producerIndex + count > producerLimit) {
+                producerLimit = sequences.get(CONSUMER_INDEX) + capacity;
+                if (producerIndex >= producerLimit) {
+                    return 0;
+                }
+                sequences.lazySet(PRODUCER_LIMIT, producerLimit);
+            }
+            n = (int) Math.min(count, producerLimit - producerIndex);
+        } while (!sequences.compareAndSet(PRODUCER_INDEX, producerIndex, producerIndex + n));
+        for (int i = 0; i < n; ++i) {
+            int offset = (int) (producerIndex + i) & mask;
+            enqueueTimes.lazySet(offset, enqueueTime);
+            handles.lazySet(offset, null);
+            buffer.lazySet(offset, items.get(fromIndex + i));
+        }
+        return n;
+    }
+
+    @Override
+    public E poll() {
+        consumerLock.lock();
+        try {
+            long consumerIndex = sequences.get(CONSUMER_INDEX);
+            E e = take(consumerIndex);
+            if (e != null) {
+                handles.lazySet((int) consumerIndex & mask, null);
+                sequences.lazySet(CONSUMER_INDEX, consumerIndex + 1);
+            }
+            return e;
+        } finally {
+            consumerLock.unlock();
+        }
+    }
+
+    /**
+     * Retrieves and removes the head of the queue like {@link #poll()}, also returning the time it was added and its
+     * handle.
+     *
+     * @param enqueueTimes receives the {@link System#nanoTime()} the item was added
+     * @param handles receives the handle of the item, {@code null} if not tracked
+     * @param index the index in {@code enqueueTimes} and {@code handles}
+     * @return the head of the queue, or {@code null} if the queue is empty
+     */
+    E poll(long[] enqueueTimes, CompletionHandle[] handles, int index) {
+        consumerLock.lock();
+        try {
+            long consumerIndex = sequences.get(CONSUMER_INDEX);
+            E e = take(consumerIndex);
+            if (e != null) {
+                int offset = (int) consumerIndex & mask;
+                enqueueTimes[index] = this.enqueueTimes.get(offset);
+                handles[index] = this.handles.get(offset);
+                this.handles.lazySet(offset, null);
+                sequences.lazySet(CONSUMER_INDEX, consumerIndex + 1);
+            }
+            return e;
+        } finally {
+            consumerLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the time the head of the queue was added.
+     *
+     * @param now {@link System#nanoTime()}, returned if the queue is empty
+     * @return the {@link System#nanoTime()} the head of the queue was added
+     */
+    long oldestEnqueueTime(long now) {
+        consumerLock.lock();
+        try {
+            long consumerIndex = sequences.get(CONSUMER_INDEX);
+            int offset = (int) consumerIndex & mask;
+            E e = buffer.get(offset);
+            while (e == null && consumerIndex != sequences.get(PRODUCER_INDEX)) {
+                e = buffer.get(offset);
+            }
+            return e != null ? enqueueTimes.get(offset) : now;
+        } finally {
+            consumerLock.unlock();
+        }
+    }
+
+    @Override
+    public E peek() {
+        consumerLock.lock();
+        try {
+            long consumerIndex = sequences.get(CONSUMER_INDEX);
+            int offset = (int) consumerIndex & mask;
+            E e = buffer.get(offset);
+            while (e == null && consumerIndex != sequences.get(PRODUCER_INDEX)) {
+                e = buffer.get(offset);
+            }
+            return e;
+        } finally {
+            consumerLock.unlock();
+        }
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c, int maxElements) {
+        return drainTo(c, maxElements, null, null);
+    }
+
+    /**
+     * Drains items like {@link #drainTo(Collection, int)}, also returning the time each item was added and the
+     * handles of the tracked items.
+     *
+     * @param c the collection to add the items to
+     * @param maxElements the max number of items to drain
+     * @param enqueueTimes receives the {@link System#nanoTime()} each item was added, must hold
+     *                     {@code maxElements} values, or {@code null}
+     * @param handles receives the handle of each item, {@code null} if not tracked, must hold {@code maxElements}
+     *                values, or {@code null}
+     * @return the number of drained items
+     */
+    int drainTo(Collection<? super E> c, int maxElements, long[] enqueueTimes, CompletionHandle[] handles) {
+        if (c == null) {
+            throw new NullPointerException();
+        }
+        if (c == this) {
+            throw new IllegalArgumentException();
+        }
+        consumerLock.lock();
+        try {
+            long consumerIndex = sequences.get(CONSUMER_INDEX);
+            int n = 0;
+            try {
+                while (n < maxElements) {
+                    E e = take(consumerIndex + n);
+                    if (e == null) {
+                        break;
+                    }
+                    // the slot is not reused until the consumer sequence is published
+                    int offset = (int) (consumerIndex + n) & mask;
+                    if (enqueueTimes != null) {
+                        enqueueTimes[n] = this.enqueueTimes.get(offset);
+                    }
+                    if (handles != null) {
+                        handles[n] = this.handles.get(offset);
+                    }
+                    // the handle is not kept reachable by the queue once taken
+                    this.handles.lazySet(offset, null);
+                    c.add(e);
+                    ++n;
+                }
+            } finally {
+                sequences.lazySet(CONSUMER_INDEX, consumerIndex + n);
+            }
+            return n;
+        } finally {
+            consumerLock.unlock();
+        }
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public void put(E e) throws InterruptedException {
+        for (int attempt = 0; !offer(e); ++attempt) {
+            backOff(attempt, Long.MAX_VALUE);
+        }
+    }
+
+    @Override
+    public boolean offer(E e, long timeout, TimeUnit unit) throws InterruptedException {
+        return offer(e, null, timeout, unit);
+    }
+
+    /**
+     * Adds a tracked item like {@link #offer(Object, long, TimeUnit)}, the handle is returned with the item when
+     * drained.
+     */
+    boolean offer(E e, CompletionHandle handle, long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (int attempt = 0; !offer(e, handle); ++attempt) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+            backOff(attempt, remaining);
+        }
+        return true;
+    }
+
+    @Override
+    public E take() throws InterruptedException {
+        E e;
+        for (int attempt = 0; (e = poll()) == null; ++attempt) {
+            backOff(attempt, Long.MAX_VALUE);
+        }
+        return e;
+    }
+
+    @Override
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        E e;
+        for (int attempt = 0; (e = poll()) == null; ++attempt) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return null;
+            }
+            backOff(attempt, remaining);
+        }
+        return e;
+    }
+
+    @Override
+    public int size() {
+        // read the consumer index first, so the difference is never negative
+        long consumerIndex = sequences.get(CONSUMER_INDEX);
+        long producerIndex = sequences.get(PRODUCER_INDEX);
+        return (int) Math.min(producerIndex - consumerIndex, capacity);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return sequences.get(CONSUMER_INDEX) == sequences.get(PRODUCER_INDEX);
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return capacity - size();
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        List<E> snapshot = new ArrayList<E>();
+        long consumerIndex = sequences.get(CONSUMER_INDEX);
+        long producerIndex = sequences.get(PRODUCER_INDEX);
+        for (long i = consumerIndex; i < producerIndex; ++i) {
+            E e = buffer.get((int) i & mask);
+            if (e != null) {
+                snapshot.add(e);
+            }
+        }
+        final Iterator<E> it = snapshot.iterator();
+        return new Iterator<E>() {
+            @Override
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+
+            @Override
+            public E next() {
+                return it.next();
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * Returns the handles of the tracked items in the queue, for failing them when the queue is not going to be
+     * drained.
+     */
+    List<CompletionHandle> trackedHandles() {
+        List<CompletionHandle> snapshot = new ArrayList<CompletionHandle>();
+        long consumerIndex = sequences.get(CONSUMER_INDEX);
+        long producerIndex = sequences.get(PRODUCER_INDEX);
+        for (long i = consumerIndex; i < producerIndex; ++i) {
+            int offset = (int) i & mask;
+            CompletionHandle handle = buffer.get(offset) != null ? handles.get(offset) : null;
+            if (handle != null) {
+                snapshot.add(handle);
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Takes the item at the index, waiting for a producer that has claimed the slot but not yet published the item.
+     * Must be called holding the consumer lock.
+     *
+     * @return the item, or {@code null} if the index has not been claimed by a producer
+     */
+    private E take(long index) {
+        int offset = (int) index & mask;
+        E e = buffer.get(offset);
+        if (e == null) {
+            if (index >= sequences.get(PRODUCER_INDEX)) {
+                return null;
+            }
+            do {
+                e = buffer.get(offset);
+            } while (e == null);
+        }
+        buffer.lazySet(offset, null);
+        return e;
+    }
+
+    private static void backOff(int attempt, long maxNanos) throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        if (attempt < SPINS) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(Math.min(MAX_PARK_NANOS, maxNanos));
+        }
+    }
+}
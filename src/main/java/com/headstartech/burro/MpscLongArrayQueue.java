@@ -0,0 +1,202 @@
+package com.headstartech.burro;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded queue of {@code long} values backed by a primitive ring buffer, for many producers and a single consumer.
+ *
+ * Producers claim slots like {@link MpscArrayBlockingQueue}, with a single compare-and-set on the producer sequence,
+ * write the value and its {@link System#nanoTime()} stamp to plain arrays, and publish the slot by storing its
+ * sequence number. The consumer drains runs of values into an array it owns, so neither side allocates.
+ *
+ * Only a single thread may call {@link #drainTo(long[], long[], int)} and {@link #oldestEnqueueTime(long)}.
+ */
+class MpscLongArrayQueue {
+
+    // indices into the padded sequence array, at least 64 bytes apart
+    private static final int PRODUCER_INDEX = 8;
+    private static final int PRODUCER_LIMIT = 16;
+    private static final int CONSUMER_INDEX = 24;
+    private static final int SEQUENCES_LENGTH = 32;
+
+    private static final int SPINS = 100;
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final int capacity;
+    private final int mask;
+    private final long[] values;
+    private final long[] enqueueTimes;
+    // the index + 1 of the value last published in each slot
+    private final AtomicLongArray published;
+    private final AtomicLongArray sequences = new AtomicLongArray(SEQUENCES_LENGTH);
+
+    MpscLongArrayQueue(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be >= 1");
+        }
+        if (capacity > (1 << 30)) {
+            throw new IllegalArgumentException("capacity must be <= 2^30");
+        }
+        this.capacity = capacity;
+        int bufferSize = Integer.highestOneBit(capacity);
+        if (bufferSize < capacity) {
+            bufferSize <<= 1;
+        }
+        this.mask = bufferSize - 1;
+        this.values = new long[bufferSize];
+        this.enqueueTimes = new long[bufferSize];
+        this.published = new AtomicLongArray(bufferSize);
+        sequences.set(PRODUCER_LIMIT, capacity);
+    }
+
+    /**
+     * Adds a value if there is room.
+     *
+     * @return {@code true} if the value was added, {@code false} if the queue is full
+     */
+    boolean offer(long value) {
+        return offerAll(value, null, 0, 1, System.nanoTime()) == 1;
+    }
+
+    /**
+     * Adds a value, waiting for room if the queue is full.
+     *
+     * @return {@code true} if the value was added, {@code false} if the queue is still full after the timeout
+     * @throws InterruptedException if interrupted while waiting
+     */
+    boolean offer(long value, long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (int attempt = 0; !offer(value); ++attempt) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+            backOff(attempt, remaining);
+        }
+        return true;
+    }
+
+    /**
+     * Adds as many of the values as there is room for, claiming their slots with a single compare-and-set.
+     *
+     * @param values the values
+     * @param offset the index of the first value to add
+     * @param length the number of values to add
+     * @return the number of values added, starting at {@code offset}
+     */
+    int offerAll(long[] values, int offset, int length) {
+        return offerAll(0, values, offset, length, System.nanoTime());
+    }
+
+    /**
+     * Drains up to {@code maxValues} values, oldest first, publishing the consumer sequence once.
+     *
+     * @param values receives the values, must hold {@code maxValues} values
+     * @param enqueueTimes receives the {@link System#nanoTime()} each value was added, must hold {@code maxValues}
+     *                     values
+     * @param maxValues the max number of values to drain
+     * @return the number of drained values
+     */
+    int drainTo(long[] values, long[] enqueueTimes, int maxValues) {
+        long consumerIndex = sequences.get(CONSUMER_INDEX);
+        int n = 0;
+        while (n < maxValues && awaitPublished(consumerIndex + n)) {
+            // the slot is not reused until the consumer sequence is published
+            int offset = (int) (consumerIndex + n) & mask;
+            values[n] = this.values[offset];
+            enqueueTimes[n] = this.enqueueTimes[offset];
+            ++n;
+        }
+        sequences.lazySet(CONSUMER_INDEX, consumerIndex + n);
+        return n;
+    }
+
+    /**
+     * Returns the time the head of the queue was added.
+     *
+     * @param now {@link System#nanoTime()}, returned if the queue is empty
+     * @return the {@link System#nanoTime()} the head of the queue was added
+     */
+    long oldestEnqueueTime(long now) {
+        long consumerIndex = sequences.get(CONSUMER_INDEX);
+        return awaitPublished(consumerIndex) ? enqueueTimes[(int) consumerIndex & mask] : now;
+    }
+
+    int size() {
+        // read the consumer index first, so the difference is never negative
+        long consumerIndex = sequences.get(CONSUMER_INDEX);
+        long producerIndex = sequences.get(PRODUCER_INDEX);
+        return (int) Math.min(producerIndex - consumerIndex, capacity);
+    }
+
+    boolean isEmpty() {
+        return sequences.get(CONSUMER_INDEX) == sequences.get(PRODUCER_INDEX);
+    }
+
+    int remainingCapacity() {
+        return capacity - size();
+    }
+
+    /**
+     * Adds {@code value} if {@code values} is {@code null}, the values of the array otherwise.
+     */
+    private int offerAll(long value, long[] values, int offset, int length, long enqueueTime) {
+        if (length <= 0) {
+            return 0;
+        }
+        long producerIndex;
+        int n;
+        do {
+            producerIndex = sequences.get(PRODUCER_INDEX);
+            long producerLimit = sequences.get(PRODUCER_LIMIT);
+            if (producerIndex + length > producerLimit) {
+                producerLimit = sequences.get(CONSUMER_INDEX) + capacity;
+                if (producerIndex >= producerLimit) {
+                    return 0;
+                }
+                sequences.lazySet(PRODUCER_LIMIT, producerLimit);
+            }
+            n = (int) Math.min(length, producerLimit - producerIndex);
+        } while (!sequences.compareAndSet(PRODUCER_INDEX, producerIndex, producerIndex + n));
+        for (int i = 0; i < n; ++i) {
+            long index = producerIndex + i;
+            int slot = (int) index & mask;
+            this.values[slot] = values == null ? value : values[offset + i];
+            enqueueTimes[slot] = enqueueTime;
+            // publishes the plain writes above
+            published.lazySet(slot, index + 1);
+        }
+        return n;
+    }
+
+    /**
+     * Waits for a producer that has claimed the slot of the index but not yet published its value.
+     *
+     * @return {@code true} if the value of the index is published, {@code false} if the index has not been claimed
+     */
+    private boolean awaitPublished(long index) {
+        int slot = (int) index & mask;
+        if (published.get(slot) != index + 1) {
+            if (index >= sequences.get(PRODUCER_INDEX)) {
+                return false;
+            }
+            while (published.get(slot) != index + 1) {
+                // spin, the producer is between claiming and publishing
+            }
+        }
+        return true;
+    }
+
+    private static void backOff(int attempt, long maxNanos) throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        if (attempt < SPINS) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(Math.min(MAX_PARK_NANOS, maxNanos));
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package com.headstartech.burro;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded ring of fixed-size records in a direct {@link ByteBuffer}, for many producers and a single consumer.
+ *
+ * Producers claim a record with a single compare-and-set on the producer sequence, like
+ * {@link MpscArrayBlockingQueue}, write its fields in place and commit it by storing its sequence number. The consumer
+ * reads runs of committed records in place, and releases them once processed, so no record is copied or allocated.
+ * A run never wraps around the end of the buffer, so its records are contiguous. A claimed record may be aborted
+ * instead, it stays in its run as a tombstone to be skipped by the consumer.
+ *
+ * The consumer waits a bounded time for a claimed record to be committed, then treats it and the records after it as
+ * not available yet.
+ *
+ * The buffer is only accessed with absolute gets and puts, its position and limit are never changed. Only a single
+ * thread may call {@link #available(long[], int)}, {@link #release(int)} and {@link #oldestEnqueueTime(long)}.
+ */
+class MpscRecordBuffer {
+
+    // indices into the padded sequence array, at least 64 bytes apart
+    private static final int PRODUCER_INDEX = 8;
+    private static final int PRODUCER_LIMIT = 16;
+    private static final int CONSUMER_INDEX = 24;
+    private static final int SEQUENCES_LENGTH = 32;
+
+    private static final long NONE = Long.MIN_VALUE;
+    private static final int SPINS = 100;
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long MAX_COMMIT_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final int capacity;
+    private final int mask;
+    private final int recordSize;
+    private final ByteBuffer buffer;
+    private final long[] enqueueTimes;
+    // the index + 1 of the record last committed in each slot, negated if the record was aborted
+    private final AtomicLongArray committed;
+    private final AtomicLongArray sequences = new AtomicLongArray(SEQUENCES_LENGTH);
+
+    MpscRecordBuffer(int capacity, int recordSize) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be >= 1");
+        }
+        if (capacity > (1 << 30)) {
+            throw new IllegalArgumentException("capacity must be <= 2^30");
+        }
+        if (recordSize < 1) {
+            throw new IllegalArgumentException("recordSize must be >= 1");
+        }
+        this.capacity = capacity;
+        int bufferSize = Integer.highestOneBit(capacity);
+        if (bufferSize < capacity) {
+            bufferSize <<= 1;
+        }
+        if ((long) bufferSize * recordSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("capacity * recordSize must be < 2^31, capacity rounded up to a power of 2");
+        }
+        this.mask = bufferSize - 1;
+        this.recordSize = recordSize;
+        this.buffer = ByteBuffer.allocateDirect(bufferSize * recordSize).order(ByteOrder.nativeOrder());
+        this.enqueueTimes = new long[bufferSize];
+        this.committed = new AtomicLongArray(bufferSize);
+        sequences.set(PRODUCER_LIMIT, capacity);
+    }
+
+    ByteBuffer buffer() {
+        return buffer;
+    }
+
+    int recordSize() {
+        return recordSize;
+    }
+
+    /**
+     * @return the offset in the buffer of the record of the index
+     */
+    int offset(long index) {
+        return ((int) index & mask) * recordSize;
+    }
+
+    /**
+     * Claims a record if there is room. The record must be committed with {@link #commit(long)} or aborted with
+     * {@link #abort(long)}, the consumer waits for it.
+     *
+     * @return the index of the claimed record, {@code -1} if the buffer is full
+     */
+    long claim() {
+        long producerIndex;
+        do {
+            producerIndex = sequences.get(PRODUCER_INDEX);
+            if (producerIndex >= sequences.get(PRODUCER_LIMIT)) {
+                long producerLimit = sequences.get(CONSUMER_INDEX) + capacity;
+                if (producerIndex >= producerLimit) {
+                    return -1;
+                }
+                sequences.lazySet(PRODUCER_LIMIT, producerLimit);
+            }
+        } while (!sequences.compareAndSet(PRODUCER_INDEX, producerIndex, producerIndex + 1));
+        return producerIndex;
+    }
+
+    /**
+     * Claims a record, waiting for room if the buffer is full.
+     *
+     * @return the index of the claimed record, {@code -1} if the buffer is still full after the timeout
+     * @throws InterruptedException if interrupted while waiting
+     */
+    long claim(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        long index;
+        for (int attempt = 0; (index = claim()) < 0; ++attempt) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return -1;
+            }
+            backOff(attempt, remaining);
+        }
+        return index;
+    }
+
+    /**
+     * Commits a claimed record, stamping it with the current time.
+     */
+    void commit(long index) {
+        int slot = (int) index & mask;
+        enqueueTimes[slot] = System.nanoTime();
+        // publishes the stamp and the fields written to the buffer
+        committed.lazySet(slot, index + 1);
+    }
+
+    /**
+     * Aborts a claimed record, the consumer skips it.
+     */
+    void abort(long index) {
+        int slot = (int) index & mask;
+        enqueueTimes[slot] = System.nanoTime();
+        committed.lazySet(slot, -(index + 1));
+    }
+
+    /**
+     * @return {@code true} if the available record of the index was aborted
+     */
+    boolean isAborted(long index) {
+        return committed.get((int) index & mask) == -(index + 1);
+    }
+
+    /**
+     * @return the index of the oldest record not released
+     */
+    long consumerIndex() {
+        return sequences.get(CONSUMER_INDEX);
+    }
+
+    /**
+     * Returns the number of committed or aborted records from the consumer index, up to the end of the buffer.
+     *
+     * @param enqueueTimes receives the {@link System#nanoTime()} each record was committed, must hold
+     *                     {@code maxRecords} values
+     * @param maxRecords the max number of records
+     * @return the number of records
+     */
+    int available(long[] enqueueTimes, int maxRecords) {
+        long consumerIndex = sequences.get(CONSUMER_INDEX);
+        int limit = Math.min(maxRecords, mask + 1 - ((int) consumerIndex & mask));
+        int n = 0;
+        while (n < limit && awaitCommitted(consumerIndex + n)) {
+            enqueueTimes[n] = this.enqueueTimes[(int) (consumerIndex + n) & mask];
+            ++n;
+        }
+        return n;
+    }
+
+    /**
+     * Releases records from the consumer index, their slots may be claimed again.
+     */
+    void release(int n) {
+        sequences.lazySet(CONSUMER_INDEX, sequences.get(CONSUMER_INDEX) + n);
+    }
+
+    /**
+     * Returns the time the oldest record was committed.
+     *
+     * @param now {@link System#nanoTime()}, returned if the buffer is empty
+     * @return the {@link System#nanoTime()} the oldest record was committed
+     */
+    long oldestEnqueueTime(long now) {
+        long consumerIndex = sequences.get(CONSUMER_INDEX);
+        return awaitCommitted(consumerIndex) ? enqueueTimes[(int) consumerIndex & mask] : now;
+    }
+
+    /**
+     * @return the number of claimed records not released, including records not committed yet
+     */
+    int size() {
+        // read the consumer index first, so the difference is never negative
+        long consumerIndex = sequences.get(CONSUMER_INDEX);
+        long producerIndex = sequences.get(PRODUCER_INDEX);
+        return (int) Math.min(producerIndex - consumerIndex, capacity);
+    }
+
+    boolean isEmpty() {
+        return sequences.get(CONSUMER_INDEX) == sequences.get(PRODUCER_INDEX);
+    }
+
+    int remainingCapacity() {
+        return capacity - size();
+    }
+
+    /**
+     * Waits a bounded time for a producer that has claimed the record of the index but not yet committed it.
+     *
+     * @return {@code true} if the record of the index is committed or aborted, {@code false} if it has not been
+     * claimed or is still not committed after the wait
+     */
+    private boolean awaitCommitted(long index) {
+        int slot = (int) index & mask;
+        if (!isPublished(slot, index)) {
+            if (index >= sequences.get(PRODUCER_INDEX)) {
+                return false;
+            }
+            long deadline = NONE;
+            for (int attempt = 0; !isPublished(slot, index); ++attempt) {
+                // the producer is writing the record
+                if (attempt >= SPINS) {
+                    long now = System.nanoTime();
+                    if (deadline == NONE) {
+                        deadline = now + MAX_COMMIT_WAIT_NANOS;
+                    } else if (now - deadline >= 0) {
+                        return false;
+                    }
+                    Thread.yield();
+                }
+            }
+        }
+        return true;
+    }
+
+    private boolean isPublished(int slot, long index) {
+        long value = committed.get(slot);
+        return value == index + 1 || value == -(index + 1);
+    }
+
+    private static void backOff(int attempt, long maxNanos) throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        if (attempt < SPINS) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(Math.min(MAX_PARK_NANOS, maxNanos));
+        }
+    }
+}
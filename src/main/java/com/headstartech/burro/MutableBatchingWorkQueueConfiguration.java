@@ -1,10 +1,11 @@
 package com.headstartech.burro;
 
+import java.util.concurrent.ThreadFactory;
 
 /**
- * Mutable (and thread-safe) implementation of {@link BatchingWorkQueueConfiguration}.
+ * Mutable (and thread-safe) implementation of {@link AbstractBatchingWorkQueueConfiguration}.
  */
-public class MutableBatchingWorkQueueConfiguration implements BatchingWorkQueueConfiguration {
+public class MutableBatchingWorkQueueConfiguration extends AbstractBatchingWorkQueueConfiguration {
 
     private final String queueName;
     private volatile int minBatchSize;
@@ -13,6 +14,22 @@ public class MutableBatchingWorkQueueConfiguration implements BatchingWorkQueueC
     private volatile int minWriteDelay;
     private volatile boolean waitForCompletionOnShutdown;
     private volatile int sleepIntervalWhenEmpty;
+    private volatile boolean signalOnAdd;
+    private volatile int parallelism = 1;
+    private volatile boolean copyBatches;
+    private volatile int maxInFlightBatches = 1;
+    private volatile ThreadFactory threadFactory;
+    private volatile int maxRetries;
+    private volatile int retryBackoff = 100;
+    private volatile int maxRetryBackoff = 10000;
+    private volatile boolean splitFailedBatches;
+    private volatile long minBatchWeight;
+    private volatile long maxBatchWeight = Long.MAX_VALUE;
+    private volatile long maxQueueWeight = Long.MAX_VALUE;
+    private volatile double maxBatchesPerSecond;
+    private volatile double maxItemsPerSecond;
+    private volatile int producerBufferSize;
+    private volatile int producerBufferLinger = 1;
 
     public MutableBatchingWorkQueueConfiguration(String queueName, int minBatchSize, int maxBatchSize, int minWriteDelay, int maxWriteDelay, boolean waitForCompletionOnShutdown, int sleepIntervalWhenEmpty) {
         this.queueName = queueName;
@@ -52,6 +69,70 @@ public class MutableBatchingWorkQueueConfiguration implements BatchingWorkQueueC
         return maxBatchSize;
     }
 
+    public boolean isSignalOnAdd() {
+        return signalOnAdd;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public boolean isCopyBatches() {
+        return copyBatches;
+    }
+
+    public int getMaxInFlightBatches() {
+        return maxInFlightBatches;
+    }
+
+    public ThreadFactory getThreadFactory() {
+        return threadFactory;
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    public int getRetryBackoff() {
+        return retryBackoff;
+    }
+
+    public int getMaxRetryBackoff() {
+        return maxRetryBackoff;
+    }
+
+    public boolean isSplitFailedBatches() {
+        return splitFailedBatches;
+    }
+
+    public long getMinBatchWeight() {
+        return minBatchWeight;
+    }
+
+    public long getMaxBatchWeight() {
+        return maxBatchWeight;
+    }
+
+    public long getMaxQueueWeight() {
+        return maxQueueWeight;
+    }
+
+    public double getMaxBatchesPerSecond() {
+        return maxBatchesPerSecond;
+    }
+
+    public double getMaxItemsPerSecond() {
+        return maxItemsPerSecond;
+    }
+
+    public int getProducerBufferSize() {
+        return producerBufferSize;
+    }
+
+    public int getProducerBufferLinger() {
+        return producerBufferLinger;
+    }
+
     public void setMinBatchSize(int minBatchSize) {
         checkArgument(minBatchSize >=1, "minBatchSize must be >= 1");
         checkArgument(minBatchSize <= maxBatchSize, "minBatchSize must be <= maxBatchSize");
@@ -85,6 +166,82 @@ public class MutableBatchingWorkQueueConfiguration implements BatchingWorkQueueC
         this.sleepIntervalWhenEmpty = sleepIntervalWhenEmpty;
     }
 
+    public void setSignalOnAdd(boolean signalOnAdd) {
+        this.signalOnAdd = signalOnAdd;
+    }
+
+    public void setParallelism(int parallelism) {
+        checkArgument(parallelism >= 1, "parallelism must be >= 1");
+        this.parallelism = parallelism;
+    }
+
+    public void setCopyBatches(boolean copyBatches) {
+        this.copyBatches = copyBatches;
+    }
+
+    public void setMaxInFlightBatches(int maxInFlightBatches) {
+        checkArgument(maxInFlightBatches >= 1, "maxInFlightBatches must be >= 1");
+        this.maxInFlightBatches = maxInFlightBatches;
+    }
+
+    public void setThreadFactory(ThreadFactory threadFactory) {
+        this.threadFactory = threadFactory;
+    }
+
+    public void setMaxRetries(int maxRetries) {
+        checkArgument(maxRetries >= 0, "maxRetries must be >= 0");
+        this.maxRetries = maxRetries;
+    }
+
+    public void setRetryBackoff(int retryBackoff) {
+        checkArgument(retryBackoff >= 0, "retryBackoff must be >= 0");
+        this.retryBackoff = retryBackoff;
+    }
+
+    public void setMaxRetryBackoff(int maxRetryBackoff) {
+        checkArgument(maxRetryBackoff >= 0, "maxRetryBackoff must be >= 0");
+        this.maxRetryBackoff = maxRetryBackoff;
+    }
+
+    public void setSplitFailedBatches(boolean splitFailedBatches) {
+        this.splitFailedBatches = splitFailedBatches;
+    }
+
+    public void setMinBatchWeight(long minBatchWeight) {
+        checkArgument(minBatchWeight >= 0, "minBatchWeight must be >= 0");
+        this.minBatchWeight = minBatchWeight;
+    }
+
+    public void setMaxBatchWeight(long maxBatchWeight) {
+        checkArgument(maxBatchWeight >= 1, "maxBatchWeight must be >= 1");
+        this.maxBatchWeight = maxBatchWeight;
+    }
+
+    public void setMaxQueueWeight(long maxQueueWeight) {
+        checkArgument(maxQueueWeight >= 1, "maxQueueWeight must be >= 1");
+        this.maxQueueWeight = maxQueueWeight;
+    }
+
+    public void setMaxBatchesPerSecond(double maxBatchesPerSecond) {
+        checkArgument(maxBatchesPerSecond >= 0, "maxBatchesPerSecond must be >= 0");
+        this.maxBatchesPerSecond = maxBatchesPerSecond;
+    }
+
+    public void setMaxItemsPerSecond(double maxItemsPerSecond) {
+        checkArgument(maxItemsPerSecond >= 0, "maxItemsPerSecond must be >= 0");
+        this.maxItemsPerSecond = maxItemsPerSecond;
+    }
+
+    public void setProducerBufferSize(int producerBufferSize) {
+        checkArgument(producerBufferSize >= 0, "producerBufferSize must be >= 0");
+        this.producerBufferSize = producerBufferSize;
+    }
+
+    public void setProducerBufferLinger(int producerBufferLinger) {
+        checkArgument(producerBufferLinger >= 1, "producerBufferLinger must be >= 1");
+        this.producerBufferLinger = producerBufferLinger;
+    }
+
     private static void checkArgument(boolean expression, Object errorMessage) {
         if (!expression) {
             throw new IllegalArgumentException(String.valueOf(errorMessage));
@@ -0,0 +1,212 @@
+package com.headstartech.burro;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link WorkQueue} processing fixed-size records in batches, stored off-heap in a direct {@link ByteBuffer} ring.
+ *
+ * Producers {@link #claim()} a record, write its fields in place with the returned {@link RecordWriter} and commit it,
+ * or abort it if writing fails, see {@link RecordWriter}.
+ * The worker hands each batch to a {@link RecordWorkProcessor} as a {@link RecordCursor} over the contiguous records
+ * of the batch, read in place, and releases the records once processed. Neither side allocates per record. A batch
+ * ends at the end of the ring, so a batch may be smaller than the min batch size when the ring wraps around.
+ *
+ * Records added as {@link ByteBuffer} through the {@link WorkQueue} methods are copied from the remaining bytes of the
+ * buffer, which must be the record size, without changing its position.
+ *
+ * The queue name, {@link BatchingWorkQueueConfiguration#getMinBatchSize()},
+ * {@link BatchingWorkQueueConfiguration#getMaxBatchSize()}, {@link BatchingWorkQueueConfiguration#getMinWriteDelay()},
+ * {@link BatchingWorkQueueConfiguration#getMaxWriteDelay()},
+ * {@link BatchingWorkQueueConfiguration#isWaitForCompletionOnShutdown()} and
+ * {@link AbstractBatchingWorkQueueConfiguration#getThreadFactory()} are read from the configuration, the batches are
+ * processed by a single worker. Tracking items is not supported.
+ */
+public class OffHeapBatchingWorkQueue extends AbstractWorkQueue<ByteBuffer> {
+
+    private final Logger logger = LoggerFactory.getLogger(OffHeapBatchingWorkQueue.class);
+
+    private final AbstractBatchingWorkQueueConfiguration configuration;
+    private final MpscRecordBuffer records;
+    private final PendingItems pendingItems = new PendingItems();
+    private final RecordQueueWorker worker;
+    private final ThreadLocal<RecordWriter> writer = new ThreadLocal<RecordWriter>();
+    private Thread workerThread;
+
+    /**
+     * @param configuration the configuration of the queue
+     * @param capacity the capacity of the queue, in records
+     * @param recordSize the size of a record, in bytes
+     * @param processor the processor
+     */
+    public OffHeapBatchingWorkQueue(BatchingWorkQueueConfiguration configuration, int capacity, int recordSize, RecordWorkProcessor processor) {
+        super(configuration.getQueueName());
+        this.configuration = AbstractBatchingWorkQueueConfiguration.of(configuration);
+        this.records = new MpscRecordBuffer(capacity, recordSize);
+        this.worker = new RecordQueueWorker(this.configuration, records, capacity, processor, pendingItems, getMetricsListener());
+    }
+
+    /**
+     * Claims a record. Will return immediately (return value indicates success/failure).
+     *
+     * @return the writer of the calling thread positioned on the claimed record, {@code null} if the queue is full
+     * @throws IllegalStateException if the calling thread has claimed a record not committed or aborted yet
+     */
+    public RecordWriter claim() {
+        RecordWriter recordWriter = validateClaim();
+        long index = records.claim();
+        return claimed(recordWriter, index);
+    }
+
+    /**
+     * Claims a record.
+     *
+     * @param duration duration to wait
+     * @param unit unit for duration
+     * @return the writer of the calling thread positioned on the claimed record, {@code null} if the queue is full
+     * @throws InterruptedException if interrupted while waiting
+     * @throws IllegalStateException if the calling thread has claimed a record not committed or aborted yet
+     */
+    public RecordWriter claim(long duration, TimeUnit unit) throws InterruptedException {
+        RecordWriter recordWriter = validateClaim();
+        long index = records.claim(duration, unit);
+        return claimed(recordWriter, index);
+    }
+
+    /**
+     * Commits a record claimed by a writer.
+     */
+    void commit(long index) {
+        publish(index);
+        recordAdd(true);
+    }
+
+    /**
+     * Aborts a record claimed by a writer, the worker skips it.
+     */
+    void abort(long index) {
+        records.abort(index);
+        // the aborted record is released with its batch
+        worker.itemsAdded(1, pendingItems.added(System.nanoTime()));
+    }
+
+    @Override
+    protected boolean addToQueue(ByteBuffer item) {
+        checkRecord(item);
+        return copy(item, records.claim());
+    }
+
+    @Override
+    protected boolean addToQueue(ByteBuffer item, long duration, TimeUnit unit) throws InterruptedException {
+        checkRecord(item);
+        return copy(item, records.claim(duration, unit));
+    }
+
+    @Override
+    protected int queueRemainingCapacity() {
+        return records.remainingCapacity();
+    }
+
+    @Override
+    protected int queueSize() {
+        return records.size();
+    }
+
+    @Override
+    protected void onStarting() {
+        String workerThreadName = String.format("%s-worker", getQueueName());
+        logger.info("Starting worker thread: queueName={}, queueWorkerThreadName={}", getQueueName(), workerThreadName);
+        ThreadFactory threadFactory = configuration.getThreadFactory();
+        if (threadFactory == null) {
+            workerThread = new Thread(worker, workerThreadName);
+            workerThread.setDaemon(true);
+        } else {
+            workerThread = threadFactory.newThread(worker);
+            workerThread.setName(workerThreadName);
+        }
+        workerThread.start();
+    }
+
+    @Override
+    protected void onShuttingDown() {
+        if (workerThread == null) {
+            // never started, the records will not be processed
+            return;
+        }
+        worker.shutdown();
+        if (configuration.isWaitForCompletionOnShutdown()) {
+            boolean interrupted = false;
+            try {
+                while (workerThread.isAlive()) {
+                    try {
+                        logger.debug("Waiting for queue worker thread to finish: queueName={}, queueWorkerThreadName={}", getQueueName(), workerThread.getName());
+                        workerThread.join(1000);
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            } finally {
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    @Override
+    protected Logger getLogger() {
+        return logger;
+    }
+
+    private RecordWriter validateClaim() {
+        validateAdd();
+        RecordWriter recordWriter = writer.get();
+        if (recordWriter == null) {
+            recordWriter = new RecordWriter(records.recordSize());
+            writer.set(recordWriter);
+        } else if (recordWriter.isClaimed()) {
+            throw new IllegalStateException("The record claimed by the thread has not been committed or aborted.");
+        }
+        return recordWriter;
+    }
+
+    private RecordWriter claimed(RecordWriter recordWriter, long index) {
+        if (index < 0) {
+            recordAdd(false);
+            return null;
+        }
+        return recordWriter.claimed(this, records.buffer(), index, records.offset(index));
+    }
+
+    /**
+     * Copies the item to the claimed record and commits it, recorded as added by {@link AbstractWorkQueue}.
+     */
+    private boolean copy(ByteBuffer item, long index) {
+        if (index < 0) {
+            return false;
+        }
+        ByteBuffer buffer = records.buffer();
+        int offset = records.offset(index);
+        int position = item.position();
+        for (int i = 0; i < records.recordSize(); ++i) {
+            buffer.put(offset + i, item.get(position + i));
+        }
+        publish(index);
+        return true;
+    }
+
+    private void publish(long index) {
+        records.commit(index);
+        worker.itemsAdded(1, pendingItems.added(System.nanoTime()));
+    }
+
+    private void checkRecord(ByteBuffer item) {
+        if (item.remaining() != records.recordSize()) {
+            throw new IllegalArgumentException(String.format("The item must have %d bytes remaining, the record size", records.recordSize()));
+        }
+    }
+}
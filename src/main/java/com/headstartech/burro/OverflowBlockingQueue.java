@@ -0,0 +1,337 @@
+package com.headstartech.burro;
+
+import java.nio.ByteBuffer;
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * {@link BlockingQueue} spilling items to off-heap memory when a primary queue is full, to absorb bursts without
+ * growing the heap or blocking the producers.
+ *
+ * Items are added to the primary queue until it's full. From then on, items are serialized into direct byte buffers
+ * allocated in chunks, until the overflow is empty again, so the items of each producer are taken in the order they
+ * were added. Consumers take items from the primary queue first, then from the overflow. Chunks are allocated up to
+ * the max overflow size, and one emptied chunk is kept for reuse.
+ *
+ * The overflow is guarded by a lock, adding to the primary queue is lock-free if the primary queue is. Blocking
+ * operations, only blocking when the overflow is full (or for takes, when the queue is empty), park with a short
+ * back-off. The iterator returns a snapshot and does not support removal.
+ */
+public class OverflowBlockingQueue<E> extends AbstractQueue<E> implements BlockingQueue<E> {
+
+    public static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final BlockingQueue<E> primary;
+    private final ItemSerializer<E> serializer;
+    private final int chunkSize;
+    private final int maxChunks;
+    private final Object overflowLock = new Object();
+
+    // guarded by overflowLock
+    private final Deque<ByteBuffer> chunks = new ArrayDeque<ByteBuffer>();
+    private ByteBuffer spareChunk;
+    private int readPosition;
+    // the bytes and number of all items written to the overflow, for estimating the remaining capacity
+    private long writtenBytes;
+    private long writtenCount;
+    private volatile int overflowSize;
+
+    /**
+     * Creates a queue allocating overflow chunks of {@value #DEFAULT_CHUNK_SIZE} bytes.
+     *
+     * @param primary the primary queue
+     * @param serializer the serializer of the items spilled to the overflow
+     * @param maxOverflowBytes the max number of bytes allocated for the overflow
+     */
+    public OverflowBlockingQueue(BlockingQueue<E> primary, ItemSerializer<E> serializer, long maxOverflowBytes) {
+        this(primary, serializer, maxOverflowBytes, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * @param primary the primary queue
+     * @param serializer the serializer of the items spilled to the overflow
+     * @param maxOverflowBytes the max number of bytes allocated for the overflow
+     * @param chunkSize the number of bytes allocated at a time, the max size of a serialized item is 4 bytes less
+     */
+    public OverflowBlockingQueue(BlockingQueue<E> primary, ItemSerializer<E> serializer, long maxOverflowBytes, int chunkSize) {
+        if (chunkSize < 8) {
+            throw new IllegalArgumentException("chunkSize must be >= 8");
+        }
+        if (maxOverflowBytes < chunkSize) {
+            throw new IllegalArgumentException("maxOverflowBytes must be >= chunkSize");
+        }
+        this.primary = primary;
+        this.serializer = serializer;
+        this.chunkSize = chunkSize;
+        this.maxChunks = (int) Math.min(Integer.MAX_VALUE, maxOverflowBytes / chunkSize);
+    }
+
+    /**
+     * @return the number of items in the overflow
+     */
+    public int overflowSize() {
+        return overflowSize;
+    }
+
+    @Override
+    public boolean offer(E e) {
+        if (e == null) {
+            throw new NullPointerException();
+        }
+        if (overflowSize == 0 && primary.offer(e)) {
+            return true;
+        }
+        byte[] bytes = serializer.serialize(e);
+        if (bytes.length > chunkSize - 4) {
+            throw new IllegalArgumentException(String.format("Serialized item larger than chunk: length=%d, chunkSize=%d", bytes.length, chunkSize));
+        }
+        synchronized (overflowLock) {
+            // the primary queue may have been drained, but items added after the overflowed ones must not overtake them
+            if (overflowSize == 0 && primary.offer(e)) {
+                return true;
+            }
+            return write(bytes);
+        }
+    }
+
+    @Override
+    public E poll() {
+        E e = primary.poll();
+        if (e == null && overflowSize > 0) {
+            synchronized (overflowLock) {
+                e = primary.poll();
+                if (e == null && overflowSize > 0) {
+                    e = serializer.deserialize(read());
+                }
+            }
+        }
+        return e;
+    }
+
+    @Override
+    public E peek() {
+        E e = primary.peek();
+        if (e == null && overflowSize > 0) {
+            synchronized (overflowLock) {
+                e = primary.peek();
+                if (e == null && overflowSize > 0) {
+                    e = serializer.deserialize(bytesAt(readChunk(), readPosition));
+                }
+            }
+        }
+        return e;
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c, int maxElements) {
+        if (c == null) {
+            throw new NullPointerException();
+        }
+        if (c == this) {
+            throw new IllegalArgumentException();
+        }
+        int n = primary.drainTo(c, maxElements);
+        if (n < maxElements && overflowSize > 0) {
+            synchronized (overflowLock) {
+                n += primary.drainTo(c, maxElements - n);
+                while (n < maxElements && overflowSize > 0) {
+                    c.add(serializer.deserialize(read()));
+                    ++n;
+                }
+            }
+        }
+        return n;
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public void put(E e) throws InterruptedException {
+        while (!offer(e)) {
+            backOff(Long.MAX_VALUE);
+        }
+    }
+
+    @Override
+    public boolean offer(E e, long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!offer(e)) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+            backOff(remaining);
+        }
+        return true;
+    }
+
+    @Override
+    public E take() throws InterruptedException {
+        E e;
+        while ((e = poll()) == null) {
+            backOff(Long.MAX_VALUE);
+        }
+        return e;
+    }
+
+    @Override
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        E e;
+        while ((e = poll()) == null) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return null;
+            }
+            backOff(remaining);
+        }
+        return e;
+    }
+
+    @Override
+    public int size() {
+        return primary.size() + overflowSize;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return overflowSize == 0 && primary.isEmpty();
+    }
+
+    /**
+     * The remaining capacity of the primary queue plus an estimate of the number of items fitting in the overflow,
+     * from the free overflow bytes and the average size of the items written to the overflow so far. Only the
+     * remaining capacity of the primary queue until an item has been written to the overflow.
+     */
+    @Override
+    public int remainingCapacity() {
+        long overflowCapacity = 0;
+        synchronized (overflowLock) {
+            if (writtenCount > 0) {
+                ByteBuffer tail = chunks.peekLast();
+                long freeBytes = (long) (maxChunks - chunks.size()) * chunkSize + (tail != null ? tail.remaining() : 0);
+                overflowCapacity = freeBytes / (writtenBytes / writtenCount);
+            }
+        }
+        return (int) Math.min(Integer.MAX_VALUE, primary.remainingCapacity() + overflowCapacity);
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        List<E> snapshot = new ArrayList<E>(primary);
+        synchronized (overflowLock) {
+            int position = readPosition;
+            for (ByteBuffer chunk : chunks) {
+                while (position < chunk.position()) {
+                    byte[] bytes = bytesAt(chunk, position);
+                    snapshot.add(serializer.deserialize(bytes));
+                    position += 4 + bytes.length;
+                }
+                position = 0;
+            }
+        }
+        final Iterator<E> it = snapshot.iterator();
+        return new Iterator<E>() {
+            @Override
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+
+            @Override
+            public E next() {
+                return it.next();
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    // must be called holding the overflow lock
+    private boolean write(byte[] bytes) {
+        ByteBuffer tail = chunks.peekLast();
+        if (tail == null || tail.remaining() < 4 + bytes.length) {
+            if (chunks.size() >= maxChunks) {
+                return false;
+            }
+            if (spareChunk != null) {
+                tail = spareChunk;
+                spareChunk = null;
+            } else {
+                tail = ByteBuffer.allocateDirect(chunkSize);
+            }
+            chunks.addLast(tail);
+        }
+        tail.putInt(bytes.length);
+        tail.put(bytes);
+        writtenBytes += 4 + bytes.length;
+        ++writtenCount;
+        ++overflowSize;
+        return true;
+    }
+
+    // must be called holding the overflow lock, with items in the overflow
+    private byte[] read() {
+        ByteBuffer head = readChunk();
+        byte[] bytes = bytesAt(head, readPosition);
+        readPosition += 4 + bytes.length;
+        --overflowSize;
+        if (readPosition == head.position() && chunks.size() > 1) {
+            recycle(chunks.removeFirst());
+        } else if (overflowSize == 0) {
+            // keep the last chunk for the next overflow
+            for (ByteBuffer chunk : chunks) {
+                recycle(chunk);
+            }
+            chunks.clear();
+        }
+        return bytes;
+    }
+
+    // must be called holding the overflow lock, with items in the overflow
+    private ByteBuffer readChunk() {
+        ByteBuffer head = chunks.peekFirst();
+        if (readPosition == head.position()) {
+            // the rest of the chunk is unused, the next item is in the next chunk
+            recycle(chunks.removeFirst());
+            head = chunks.peekFirst();
+        }
+        return head;
+    }
+
+    private void recycle(ByteBuffer chunk) {
+        chunk.clear();
+        readPosition = 0;
+        spareChunk = chunk;
+    }
+
+    private static byte[] bytesAt(ByteBuffer chunk, int position) {
+        byte[] bytes = new byte[chunk.getInt(position)];
+        ByteBuffer buffer = chunk.duplicate();
+        buffer.position(position + 4);
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    private static void backOff(long maxNanos) throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        LockSupport.parkNanos(Math.min(MAX_PARK_NANOS, maxNanos));
+    }
+}
@@ -0,0 +1,124 @@
+package com.headstartech.burro;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Configuration for a single partition of a {@link PartitionedBatchingWorkQueue}.
+ * Delegates to the configuration of the partitioned queue, using a partition specific queue name and a single worker,
+ * without retrying failed batches.
+ */
+class PartitionConfiguration extends AbstractBatchingWorkQueueConfiguration {
+
+    private final AbstractBatchingWorkQueueConfiguration configuration;
+    private final String queueName;
+
+    PartitionConfiguration(AbstractBatchingWorkQueueConfiguration configuration, int partition) {
+        this.configuration = configuration;
+        this.queueName = String.format("%s-%d", configuration.getQueueName(), partition);
+    }
+
+    @Override
+    public int getMaxWriteDelay() {
+        return configuration.getMaxWriteDelay();
+    }
+
+    @Override
+    public int getMinWriteDelay() {
+        return configuration.getMinWriteDelay();
+    }
+
+    @Override
+    public int getMinBatchSize() {
+        return configuration.getMinBatchSize();
+    }
+
+    @Override
+    public int getMaxBatchSize() {
+        return configuration.getMaxBatchSize();
+    }
+
+    @Override
+    public boolean isWaitForCompletionOnShutdown() {
+        return configuration.isWaitForCompletionOnShutdown();
+    }
+
+    @Override
+    public String getQueueName() {
+        return queueName;
+    }
+
+    @Override
+    public int getSleepIntervalWhenEmpty() {
+        return configuration.getSleepIntervalWhenEmpty();
+    }
+
+    @Override
+    public boolean isSignalOnAdd() {
+        return configuration.isSignalOnAdd();
+    }
+
+    @Override
+    public boolean isCopyBatches() {
+        return configuration.isCopyBatches();
+    }
+
+    @Override
+    public int getMaxInFlightBatches() {
+        return configuration.getMaxInFlightBatches();
+    }
+
+    @Override
+    public int getParallelism() {
+        return 1;  // more than one worker would break the ordering within a key
+    }
+
+    @Override
+    public ThreadFactory getThreadFactory() {
+        return configuration.getThreadFactory();
+    }
+
+    @Override
+    public int getMaxRetries() {
+        return 0;  // retried batches would be processed after later batches of the same keys
+    }
+
+    @Override
+    public boolean isSplitFailedBatches() {
+        return false;
+    }
+
+    @Override
+    public long getMinBatchWeight() {
+        return configuration.getMinBatchWeight();
+    }
+
+    @Override
+    public long getMaxBatchWeight() {
+        return configuration.getMaxBatchWeight();
+    }
+
+    @Override
+    public long getMaxQueueWeight() {
+        return configuration.getMaxQueueWeight();
+    }
+
+    @Override
+    public double getMaxBatchesPerSecond() {
+        return configuration.getMaxBatchesPerSecond();
+    }
+
+    @Override
+    public double getMaxItemsPerSecond() {
+        return configuration.getMaxItemsPerSecond();
+    }
+
+    @Override
+    public int getProducerBufferSize() {
+        return configuration.getProducerBufferSize();
+    }
+
+    @Override
+    public int getProducerBufferLinger() {
+        return configuration.getProducerBufferLinger();
+    }
+}
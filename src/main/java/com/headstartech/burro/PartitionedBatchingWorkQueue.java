@@ -0,0 +1,138 @@
+package com.headstartech.burro;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link WorkQueue} processing the items in batches grouped by key.
+ *
+ * Items are hashed by key into a number of partitions. Each partition is a {@link BatchingWorkQueue} with its own
+ * queue, batching thresholds and worker, so partitions are processed in parallel. The items of a batch are split by
+ * key before being passed to the processor, each collection holding the items of a single key in the order they were
+ * added. Keys hashed to the same partition share a worker.
+ *
+ * Failed batches are not retried, which would process them after later batches of the same keys.
+ */
+public class PartitionedBatchingWorkQueue<T, K> extends AbstractWorkQueue<T> {
+
+    private final Logger logger = LoggerFactory.getLogger(PartitionedBatchingWorkQueue.class);
+
+    private final KeyExtractor<T, K> keyExtractor;
+    private final List<BatchingWorkQueue<T>> partitions;
+
+    /**
+     * @param configuration configuration used by each partition
+     * @param partitionCount number of partitions
+     * @param partitionCapacity capacity of the queue of each partition
+     * @param keyExtractor extracts the key of an item
+     * @param processor processor called with the items of a single key
+     */
+    public PartitionedBatchingWorkQueue(BatchingWorkQueueConfiguration configuration, int partitionCount, int partitionCapacity, KeyExtractor<T, K> keyExtractor, WorkProcessor<Collection<T>> processor) {
+        super(configuration.getQueueName());
+        if (partitionCount < 1) {
+            throw new IllegalArgumentException("partitionCount must be >= 1");
+        }
+        AbstractBatchingWorkQueueConfiguration partitionedConfiguration = AbstractBatchingWorkQueueConfiguration.of(configuration);
+        if (partitionedConfiguration.getMaxRetries() > 0 || partitionedConfiguration.isSplitFailedBatches()) {
+            // retried batches would be processed after later batches of the same keys
+            throw new IllegalArgumentException("retries and splitting failed batches are not supported by a partitioned queue");
+        }
+        this.keyExtractor = keyExtractor;
+        WorkProcessor<Collection<T>> keyGroupingProcessor = new KeyGroupingWorkProcessor<T, K>(keyExtractor, processor);
+        partitions = new ArrayList<BatchingWorkQueue<T>>(partitionCount);
+        for (int i = 0; i < partitionCount; ++i) {
+            BatchingWorkQueue<T> partition = new BatchingWorkQueue<T>(new PartitionConfiguration(partitionedConfiguration, i), partitionCapacity, keyGroupingProcessor);
+            partition.addMetricsListener(getMetricsListener());  // items are added to the partitions directly, only batch events are forwarded
+            partitions.add(partition);
+        }
+    }
+
+    /**
+     * Sets the weigher of the items of all partitions. The weight settings of the configuration apply to each
+     * partition.
+     *
+     * @param weigher the weigher
+     * @see BatchingWorkQueue#setWeigher(Weigher)
+     */
+    public void setWeigher(Weigher<? super T> weigher) {
+        for (BatchingWorkQueue<T> partition : partitions) {
+            partition.setWeigher(weigher);
+        }
+    }
+
+    @Override
+    protected boolean addToQueue(T item) {
+        return getPartition(item).addToQueue(item);
+    }
+
+    @Override
+    protected boolean addToQueue(T item, long duration, TimeUnit unit) throws InterruptedException {
+        return getPartition(item).addToQueue(item, duration, unit);
+    }
+
+    @Override
+    protected boolean addToQueue(T item, CompletionHandle handle) {
+        return getPartition(item).addToQueue(item, handle);
+    }
+
+    @Override
+    protected boolean addToQueue(T item, CompletionHandle handle, long duration, TimeUnit unit) throws InterruptedException {
+        return getPartition(item).addToQueue(item, handle, duration, unit);
+    }
+
+    @Override
+    protected int queueRemainingCapacity() {
+        long remainingCapacity = 0;
+        for (BatchingWorkQueue<T> partition : partitions) {
+            remainingCapacity += partition.queueRemainingCapacity();
+        }
+        return (int) Math.min(remainingCapacity, Integer.MAX_VALUE);
+    }
+
+    @Override
+    protected int queueSize() {
+        int size = 0;
+        for (BatchingWorkQueue<T> partition : partitions) {
+            size += partition.queueSize();
+        }
+        return size;
+    }
+
+    @Override
+    protected void onStarting() {
+        for (BatchingWorkQueue<T> partition : partitions) {
+            partition.start();
+        }
+    }
+
+    @Override
+    protected void onShuttingDown() {
+        for (BatchingWorkQueue<T> partition : partitions) {
+            try {
+                partition.shutdown();
+            } catch (RuntimeException e) {
+                logger.warn("Exception caught when shutting down partition: queueName={}", partition.getQueueName(), e);
+            }
+        }
+    }
+
+    @Override
+    protected Logger getLogger() {
+        return logger;
+    }
+
+    private BatchingWorkQueue<T> getPartition(T item) {
+        K key = keyExtractor.getKey(item);
+        if (key == null) {
+            return partitions.get(0);
+        }
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return partitions.get((h & Integer.MAX_VALUE) % partitions.size());
+    }
+}
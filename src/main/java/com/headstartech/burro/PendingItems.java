@@ -0,0 +1,169 @@
+package com.headstartech.burro;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Keeps track of the number of items waiting in a queue and, optionally, the time the oldest of them was added.
+ *
+ * Producers call {@link #added(long, int)} after items have been put in the queue, the workers call
+ * {@link #removed(int)} after they have drained items. The count may be briefly off while an item
+ * has been put in the queue but not yet counted.
+ *
+ * The times are recorded as marks, each holding the sequence number of the first item added at its time. Items added
+ * within a millisecond of the last mark share its time, so the time of the oldest item is exact to within a
+ * millisecond, the resolution of the write delays. The items are assumed to be drained in the order they are
+ * registered. When the marks are exhausted, items are given the time of the newest mark, so a batch may be due early
+ * but never late.
+ */
+class PendingItems {
+
+    private static final long NONE = Long.MIN_VALUE;
+    private static final long MARK_GRANULARITY_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final int MAX_MARKS = 256;
+
+    private final AtomicInteger count = new AtomicInteger();
+    // null if the times are not recorded
+    private final Marks marks;
+
+    PendingItems() {
+        this(false);
+    }
+
+    /**
+     * @param recordTimes whether to record the time the items are added, for {@link #oldestItemTime(long)}
+     */
+    PendingItems(boolean recordTimes) {
+        this.marks = recordTimes ? new Marks() : null;
+    }
+
+    /**
+     * Registers an added item.
+     *
+     * @param now {@link System#nanoTime()}
+     * @return the number of pending items, including the added one
+     */
+    int added(long now) {
+        return added(now, 1);
+    }
+
+    /**
+     * Registers added items.
+     *
+     * @param now {@link System#nanoTime()}
+     * @param n number of added items
+     * @return the number of pending items, including the added ones
+     */
+    int added(long now, int n) {
+        if (marks != null) {
+            // before counting, a worker seeing the items finds their time
+            marks.added(now, n);
+        }
+        return count.addAndGet(n);
+    }
+
+    /**
+     * Registers removed items.
+     *
+     * @param n number of removed items
+     */
+    void removed(int n) {
+        count.addAndGet(-n);
+        if (marks != null) {
+            marks.removed(n);
+        }
+    }
+
+    int count() {
+        return count.get();
+    }
+
+    /**
+     * The time the oldest pending item was added. Only meaningful when {@link #count()} is greater than zero.
+     *
+     * @param now {@link System#nanoTime()}, returned if no time is known
+     * @return the time the oldest pending item was added
+     * @throws IllegalStateException if the times are not recorded
+     */
+    long oldestItemTime(long now) {
+        if (marks == null) {
+            throw new IllegalStateException("The times of the pending items are not recorded.");
+        }
+        return marks.oldestItemTime(now);
+    }
+
+    /**
+     * Ring of marks, from the mark of the oldest pending item to the newest mark.
+     */
+    private static class Marks {
+
+        private final AtomicLong addedSequence = new AtomicLong();
+        private final long[] sequences = new long[MAX_MARKS];
+        private final long[] times = new long[MAX_MARKS];
+        // System.nanoTime() of the newest mark, or of the last attempt when the marks are exhausted
+        private volatile long lastMarkTime = NONE;
+        // a lock rather than a monitor, producers may run on virtual threads
+        private final Lock lock = new ReentrantLock();
+        // guarded by lock
+        private int head;
+        private int size;
+        private long removedSequence;
+
+        void added(long now, int n) {
+            long last = lastMarkTime;
+            if (last == NONE || now - last >= MARK_GRANULARITY_NANOS) {
+                lock.lock();
+                try {
+                    last = lastMarkTime;
+                    if (last == NONE || now - last >= MARK_GRANULARITY_NANOS) {
+                        lastMarkTime = now;
+                        if (size < MAX_MARKS) {
+                            // the sequence is taken holding the lock, so the marks are in sequence order
+                            int tail = (head + size) & (MAX_MARKS - 1);
+                            sequences[tail] = addedSequence.getAndAdd(n);
+                            times[tail] = now;
+                            ++size;
+                            return;
+                        }
+                    }
+                } finally {
+                    lock.unlock();
+                }
+            }
+            addedSequence.getAndAdd(n);
+        }
+
+        void removed(int n) {
+            lock.lock();
+            try {
+                removedSequence += n;
+                advance();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        long oldestItemTime(long now) {
+            lock.lock();
+            try {
+                advance();
+                return size > 0 ? times[head] : now;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Drops the marks before the mark of the oldest pending item.
+         */
+        private void advance() {
+            while (size > 1 && sequences[(head + 1) & (MAX_MARKS - 1)] <= removedSequence) {
+                head = (head + 1) & (MAX_MARKS - 1);
+                --size;
+            }
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.headstartech.burro;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link WorkQueue} processing the items in a chain of {@link BatchingWorkQueue} stages, built by a
+ * {@link PipelineBuilder}.
+ *
+ * The remaining capacity is the smallest remaining capacity of the stages, so producers see the backpressure of a
+ * full stage further down the pipeline. The stages are started last to first, and shut down first to last, each
+ * stage processing its remaining items into the next one. The stages should wait for completion on shutdown.
+ * Tracking items is not supported.
+ */
+public class Pipeline<I> extends AbstractWorkQueue<I> {
+
+    private final Logger logger = LoggerFactory.getLogger(Pipeline.class);
+
+    private final StageInput<I> input;
+    private final List<BatchingWorkQueue<?>> stages;
+
+    Pipeline(String name, StageInput<I> input, List<BatchingWorkQueue<?>> stages) {
+        super(name);
+        this.input = input;
+        this.stages = new ArrayList<BatchingWorkQueue<?>>(stages);
+    }
+
+    /**
+     * Returns a snapshot of the statistics of each stage.
+     *
+     * @return the statistics of the stages, first to last
+     */
+    public List<WorkQueueStatistics> getStageStatistics() {
+        List<WorkQueueStatistics> statistics = new ArrayList<WorkQueueStatistics>(stages.size());
+        for (BatchingWorkQueue<?> stage : stages) {
+            statistics.add(stage.getStatistics());
+        }
+        return statistics;
+    }
+
+    @Override
+    protected boolean addToQueue(I item) {
+        return input.add(item);
+    }
+
+    @Override
+    protected boolean addToQueue(I item, long duration, TimeUnit unit) throws InterruptedException {
+        return input.add(item, duration, unit);
+    }
+
+    @Override
+    protected int addAllToQueue(List<? extends I> items) {
+        return input.addAll(items);
+    }
+
+    @Override
+    protected int addAllToQueue(List<? extends I> items, long duration, TimeUnit unit) throws InterruptedException {
+        return input.addAll(items, duration, unit);
+    }
+
+    @Override
+    protected int queueRemainingCapacity() {
+        int remainingCapacity = Integer.MAX_VALUE;
+        for (BatchingWorkQueue<?> stage : stages) {
+            remainingCapacity = Math.min(remainingCapacity, stage.queueRemainingCapacity());
+        }
+        return remainingCapacity;
+    }
+
+    @Override
+    protected int queueSize() {
+        int size = 0;
+        for (BatchingWorkQueue<?> stage : stages) {
+            size += stage.queueSize();
+        }
+        return size;
+    }
+
+    @Override
+    protected void onStarting() {
+        for (int i = stages.size() - 1; i >= 0; --i) {
+            stages.get(i).start();
+        }
+    }
+
+    @Override
+    protected void onShuttingDown() {
+        for (BatchingWorkQueue<?> stage : stages) {
+            try {
+                stage.shutdown();
+            } catch (RuntimeException e) {
+                logger.warn("Exception caught when shutting down stage: queueName={}", stage.getQueueName(), e);
+            }
+        }
+    }
+
+    @Override
+    protected Logger getLogger() {
+        return logger;
+    }
+}
@@ -0,0 +1,326 @@
+package com.headstartech.burro;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Builds a {@link Pipeline}, a chain of {@link BatchingWorkQueue} stages.
+ *
+ * Items added to the pipeline flow through the item operations ({@link #map(ItemMapper)},
+ * {@link #filter(ItemFilter)}) into the queue of the first stage. Each stage processes its batches with a
+ * {@link BatchTransformer}, and the returned items flow through the following item operations into the queue of the
+ * next stage, added all at once. The last stage processes its batches with a {@link WorkProcessor}.
+ *
+ * Item operations are applied by the thread handing the items to the next stage: the producer before the first stage,
+ * the worker of the previous stage otherwise, so they don't cost a stage of their own. A stage waits for room in the
+ * queue of the next stage, so a full stage fills the stages before it, up to the producers.
+ *
+ * The items are not handed to the next stage as a batch: each stage forms its batches by its own thresholds, so the
+ * items returned by a stage are added to the queue of the next one with a bulk
+ * {@link AbstractWorkQueue#addAll(Collection)}, claiming their slots at once. A stage handing items to a next stage
+ * can't retry failed batches, which would hand the items already added to the next stage again. A batch whose items
+ * can't all be handed off, because the next stage has been shut down, fails.
+ *
+ * @param <I> the type of the items added to the pipeline
+ * @param <T> the type of the items at the current end of the pipeline
+ */
+public class PipelineBuilder<I, T> {
+
+    private final String name;
+    private final Port<I> entry;
+    private final List<BatchingWorkQueue<?>> stages;
+    private final Outlet<T> outlet;
+
+    private PipelineBuilder(String name, Port<I> entry, List<BatchingWorkQueue<?>> stages, Outlet<T> outlet) {
+        this.name = name;
+        this.entry = entry;
+        this.stages = stages;
+        this.outlet = outlet;
+    }
+
+    /**
+     * Starts building a pipeline.
+     *
+     * @param name the name of the pipeline
+     * @param <I> the type of the items added to the pipeline
+     * @return the builder
+     */
+    public static <I> PipelineBuilder<I, I> create(String name) {
+        Port<I> entry = new Port<I>();
+        return new PipelineBuilder<I, I>(name, entry, new ArrayList<BatchingWorkQueue<?>>(), entry);
+    }
+
+    /**
+     * Maps each item.
+     *
+     * @param mapper the mapper
+     * @param <R> the type of the mapped items
+     * @return the builder
+     */
+    public <R> PipelineBuilder<I, R> map(final ItemMapper<? super T, ? extends R> mapper) {
+        return next(new Outlet<R>() {
+            @Override
+            void connect(StageInput<R> input) {
+                outlet.connect(new MappingInput<T, R>(mapper, input));
+            }
+        });
+    }
+
+    /**
+     * Drops the items not accepted by the filter.
+     *
+     * @param filter the filter
+     * @return the builder
+     */
+    public PipelineBuilder<I, T> filter(final ItemFilter<? super T> filter) {
+        return next(new Outlet<T>() {
+            @Override
+            void connect(StageInput<T> input) {
+                outlet.connect(new FilteringInput<T>(filter, input));
+            }
+        });
+    }
+
+    /**
+     * Adds a stage, handing the items returned by the transformer to the next stage.
+     *
+     * @param configuration the configuration of the stage
+     * @param capacity the capacity of the queue of the stage
+     * @param transformer the transformer of the batches
+     * @param <R> the type of the items returned by the transformer
+     * @return the builder
+     * @throws IllegalArgumentException if the configuration retries or splits failed batches
+     */
+    public <R> PipelineBuilder<I, R> stage(BatchingWorkQueueConfiguration configuration, int capacity, BatchTransformer<T, R> transformer) {
+        AbstractBatchingWorkQueueConfiguration stageConfiguration = AbstractBatchingWorkQueueConfiguration.of(configuration);
+        if (stageConfiguration.getMaxRetries() > 0 || stageConfiguration.isSplitFailedBatches()) {
+            // a retried batch would hand the items already added to the next stage again
+            throw new IllegalArgumentException("retries and splitting failed batches are only supported by the last stage");
+        }
+        Port<R> output = new Port<R>();
+        addStage(new BatchingWorkQueue<T>(configuration, capacity, new TransformingWorkProcessor<T, R>(configuration.getQueueName(), transformer, output)));
+        return next(output);
+    }
+
+    /**
+     * Adds the last stage and builds the pipeline.
+     *
+     * @param configuration the configuration of the stage
+     * @param capacity the capacity of the queue of the stage
+     * @param processor the processor of the batches
+     * @return the pipeline
+     */
+    public Pipeline<I> build(BatchingWorkQueueConfiguration configuration, int capacity, WorkProcessor<Collection<T>> processor) {
+        addStage(new BatchingWorkQueue<T>(configuration, capacity, processor));
+        return new Pipeline<I>(name, entry.input, stages);
+    }
+
+    private <R> PipelineBuilder<I, R> next(Outlet<R> nextOutlet) {
+        return new PipelineBuilder<I, R>(name, entry, stages, nextOutlet);
+    }
+
+    private void addStage(BatchingWorkQueue<T> stage) {
+        outlet.connect(new QueueInput<T>(stage));
+        stages.add(stage);
+    }
+
+    /**
+     * The current end of the pipeline, connected to the input of the next stage when it's added.
+     */
+    private abstract static class Outlet<T> {
+
+        abstract void connect(StageInput<T> input);
+    }
+
+    /**
+     * The entry of the pipeline, or the output of a stage.
+     */
+    private static class Port<T> extends Outlet<T> {
+
+        private StageInput<T> input;
+
+        @Override
+        void connect(StageInput<T> input) {
+            if (this.input != null) {
+                throw new IllegalStateException("A builder can only be continued once");
+            }
+            this.input = input;
+        }
+    }
+
+    private static class QueueInput<T> implements StageInput<T> {
+
+        private final AbstractWorkQueue<T> queue;
+
+        QueueInput(AbstractWorkQueue<T> queue) {
+            this.queue = queue;
+        }
+
+        @Override
+        public boolean add(T item) {
+            return queue.add(item);
+        }
+
+        @Override
+        public boolean add(T item, long duration, TimeUnit unit) throws InterruptedException {
+            return queue.add(item, duration, unit);
+        }
+
+        @Override
+        public int addAll(List<? extends T> items) {
+            return queue.addAll(items);
+        }
+
+        @Override
+        public int addAll(List<? extends T> items, long duration, TimeUnit unit) throws InterruptedException {
+            return queue.addAll(items, duration, unit);
+        }
+    }
+
+    private static class MappingInput<T, R> implements StageInput<T> {
+
+        private final ItemMapper<? super T, ? extends R> mapper;
+        private final StageInput<R> input;
+
+        MappingInput(ItemMapper<? super T, ? extends R> mapper, StageInput<R> input) {
+            this.mapper = mapper;
+            this.input = input;
+        }
+
+        @Override
+        public boolean add(T item) {
+            return input.add(mapper.map(item));
+        }
+
+        @Override
+        public boolean add(T item, long duration, TimeUnit unit) throws InterruptedException {
+            return input.add(mapper.map(item), duration, unit);
+        }
+
+        @Override
+        public int addAll(List<? extends T> items) {
+            return input.addAll(map(items));
+        }
+
+        @Override
+        public int addAll(List<? extends T> items, long duration, TimeUnit unit) throws InterruptedException {
+            return input.addAll(map(items), duration, unit);
+        }
+
+        private List<R> map(List<? extends T> items) {
+            List<R> mapped = new ArrayList<R>(items.size());
+            for (T item : items) {
+                mapped.add(mapper.map(item));
+            }
+            return mapped;
+        }
+    }
+
+    private static class FilteringInput<T> implements StageInput<T> {
+
+        private final ItemFilter<? super T> filter;
+        private final StageInput<T> input;
+
+        FilteringInput(ItemFilter<? super T> filter, StageInput<T> input) {
+            this.filter = filter;
+            this.input = input;
+        }
+
+        @Override
+        public boolean add(T item) {
+            return !filter.accept(item) || input.add(item);
+        }
+
+        @Override
+        public boolean add(T item, long duration, TimeUnit unit) throws InterruptedException {
+            return !filter.accept(item) || input.add(item, duration, unit);
+        }
+
+        @Override
+        public int addAll(List<? extends T> items) {
+            int[] indexes = new int[items.size()];
+            List<T> accepted = filter(items, indexes);
+            return consumed(items, indexes, accepted.size(), input.addAll(accepted));
+        }
+
+        @Override
+        public int addAll(List<? extends T> items, long duration, TimeUnit unit) throws InterruptedException {
+            int[] indexes = new int[items.size()];
+            List<T> accepted = filter(items, indexes);
+            return consumed(items, indexes, accepted.size(), input.addAll(accepted, duration, unit));
+        }
+
+        /**
+         * @param indexes receives the index in {@code items} of each accepted item
+         */
+        private List<T> filter(List<? extends T> items, int[] indexes) {
+            List<T> accepted = new ArrayList<T>(items.size());
+            for (int i = 0; i < items.size(); ++i) {
+                T item = items.get(i);
+                if (filter.accept(item)) {
+                    indexes[accepted.size()] = i;
+                    accepted.add(item);
+                }
+            }
+            return accepted;
+        }
+
+        /**
+         * @return the number of items before the first accepted item not added, dropped items count as added
+         */
+        private static int consumed(List<?> items, int[] indexes, int acceptedCount, int added) {
+            return added == acceptedCount ? items.size() : indexes[added];
+        }
+    }
+
+    /**
+     * Processes the batches of a stage, handing the transformed items to the next stage.
+     */
+    private static class TransformingWorkProcessor<T, R> implements WorkProcessor<Collection<T>> {
+
+        private static final Logger logger = LoggerFactory.getLogger(TransformingWorkProcessor.class);
+
+        private static final long HANDOFF_WAIT_MILLIS = 1000;
+
+        private final String stageName;
+        private final BatchTransformer<T, R> transformer;
+        private final Port<R> output;
+
+        TransformingWorkProcessor(String stageName, BatchTransformer<T, R> transformer, Port<R> output) {
+            this.stageName = stageName;
+            this.transformer = transformer;
+            this.output = output;
+        }
+
+        @Override
+        public void process(Collection<T> batch) {
+            Collection<R> transformed = transformer.transform(batch);
+            if (transformed == null || transformed.isEmpty()) {
+                return;
+            }
+            List<R> items = transformed instanceof List && transformed instanceof RandomAccess ? (List<R>) transformed : new ArrayList<R>(transformed);
+            int added = 0;
+            try {
+                // ends when the next stage has taken all items, or throws once it has been shut down
+                while (true) {
+                    added += output.input.addAll(items.subList(added, items.size()), HANDOFF_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+                    if (added == items.size()) {
+                        return;
+                    }
+                    logger.debug("Waiting for room in next stage: stageName={}, itemCount={}", stageName, items.size() - added);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(String.format("Interrupted while handing items to next stage: stageName=%s, itemCount=%d", stageName, items.size() - added), e);
+            } catch (IllegalStateException e) {
+                throw new IllegalStateException(String.format("Next stage shut down, items not handed off: stageName=%s, itemCount=%d", stageName, items.size() - added), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package com.headstartech.burro;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link WorkQueue} processing the items in batches, with priority lanes sharing a worker.
+ *
+ * Each lane has its own queue and batching thresholds, see {@link PriorityLane}. The worker processes a batch from a
+ * single lane at a time, and picks between lanes having a batch due by their weights, so latency-sensitive items are
+ * not held behind bulk traffic while lower priority lanes still get their share. Lane 0 has the highest priority.
+ * Items added without a priority are added to the last lane. On shutdown, the lanes are drained in priority order.
+ *
+ * The queue name, {@link BatchingWorkQueueConfiguration#isWaitForCompletionOnShutdown()},
+ * {@link AbstractBatchingWorkQueueConfiguration#isCopyBatches()} and {@link AbstractBatchingWorkQueueConfiguration#getThreadFactory()}
+ * are read from the configuration of the queue.
+ */
+public class PriorityBatchingWorkQueue<T> extends AbstractWorkQueue<T> {
+
+    private final Logger logger = LoggerFactory.getLogger(PriorityBatchingWorkQueue.class);
+
+    private final AbstractBatchingWorkQueueConfiguration configuration;
+    private final List<PriorityQueueWorker.Lane<T>> lanes;
+    private final PriorityQueueWorker<T> worker;
+    private Thread workerThread;
+
+    /**
+     * @param configuration the configuration of the queue
+     * @param lanes the lanes, in priority order
+     * @param processor the processor
+     */
+    public PriorityBatchingWorkQueue(BatchingWorkQueueConfiguration configuration, List<PriorityLane> lanes, WorkProcessor<Collection<T>> processor) {
+        super(configuration.getQueueName());
+        if (lanes.isEmpty()) {
+            throw new IllegalArgumentException("lanes must not be empty");
+        }
+        this.configuration = AbstractBatchingWorkQueueConfiguration.of(configuration);
+        this.lanes = new ArrayList<PriorityQueueWorker.Lane<T>>(lanes.size());
+        for (PriorityLane lane : lanes) {
+            this.lanes.add(new PriorityQueueWorker.Lane<T>(lane));
+        }
+        this.worker = new PriorityQueueWorker<T>(this.configuration, this.lanes, processor, getMetricsListener());
+    }
+
+    /**
+     * Adds an item to a lane. Will return immediately (return value indicates success/failure).
+     *
+     * @param item item to add
+     * @param priority the index of the lane, 0 is the highest priority
+     * @return {@code true} if item was added, {@code false} otherwise
+     */
+    public boolean add(T item, int priority) {
+        validateAdd();
+        PriorityQueueWorker.Lane<T> lane = getLane(priority);
+        return recordAdd(itemAdded(lane, lane.getQueue().offer(item)));
+    }
+
+    /**
+     * Adds an item to a lane.
+     *
+     * @param item item to add
+     * @param priority the index of the lane, 0 is the highest priority
+     * @param duration duration to wait
+     * @param unit unit for duration
+     * @return {@code true} if item was added, {@code false} otherwise
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean add(T item, int priority, long duration, TimeUnit unit) throws InterruptedException {
+        validateAdd();
+        PriorityQueueWorker.Lane<T> lane = getLane(priority);
+        return recordAdd(itemAdded(lane, lane.getQueue().offer(item, duration, unit)));
+    }
+
+    @Override
+    protected boolean addToQueue(T item) {
+        PriorityQueueWorker.Lane<T> lane = getLowestPriorityLane();
+        return itemAdded(lane, lane.getQueue().offer(item));
+    }
+
+    @Override
+    protected boolean addToQueue(T item, long duration, TimeUnit unit) throws InterruptedException {
+        PriorityQueueWorker.Lane<T> lane = getLowestPriorityLane();
+        return itemAdded(lane, lane.getQueue().offer(item, duration, unit));
+    }
+
+    @Override
+    protected boolean addToQueue(T item, CompletionHandle handle) {
+        PriorityQueueWorker.Lane<T> lane = getLowestPriorityLane();
+        return itemAdded(lane, lane.getQueue().offer(item, handle));
+    }
+
+    @Override
+    protected boolean addToQueue(T item, CompletionHandle handle, long duration, TimeUnit unit) throws InterruptedException {
+        PriorityQueueWorker.Lane<T> lane = getLowestPriorityLane();
+        return itemAdded(lane, lane.getQueue().offer(item, handle, duration, unit));
+    }
+
+    @Override
+    protected int queueRemainingCapacity() {
+        long remainingCapacity = 0;
+        for (PriorityQueueWorker.Lane<T> lane : lanes) {
+            remainingCapacity += lane.getQueue().remainingCapacity();
+        }
+        return (int) Math.min(remainingCapacity, Integer.MAX_VALUE);
+    }
+
+    @Override
+    protected int queueSize() {
+        int size = 0;
+        for (PriorityQueueWorker.Lane<T> lane : lanes) {
+            size += lane.getQueue().size();
+        }
+        return size;
+    }
+
+    @Override
+    protected void onStarting() {
+        String workerThreadName = String.format("%s-worker", getQueueName());
+        logger.info("Starting worker thread: queueName={}, queueWorkerThreadName={}", getQueueName(), workerThreadName);
+        ThreadFactory threadFactory = configuration.getThreadFactory();
+        if (threadFactory == null) {
+            workerThread = new Thread(worker, workerThreadName);
+            workerThread.setDaemon(true);
+        } else {
+            workerThread = threadFactory.newThread(worker);
+            workerThread.setName(workerThreadName);
+        }
+        workerThread.start();
+    }
+
+    @Override
+    protected void onShuttingDown() {
+        if (workerThread == null) {
+            // never started, the items will not be processed
+            Throwable cause = new IllegalStateException("The work queue was shut down without being started.");
+            for (PriorityQueueWorker.Lane<T> lane : lanes) {
+                for (CompletionHandle handle : lane.getQueue().trackedHandles()) {
+                    handle.completeExceptionally(cause);
+                }
+            }
+            return;
+        }
+        worker.shutdown();
+        if (configuration.isWaitForCompletionOnShutdown()) {
+            boolean interrupted = false;
+            try {
+                while (workerThread.isAlive()) {
+                    try {
+                        logger.debug("Waiting for queue worker thread to finish: queueName={}, queueWorkerThreadName={}", getQueueName(), workerThread.getName());
+                        workerThread.join(1000);
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            } finally {
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    @Override
+    protected Logger getLogger() {
+        return logger;
+    }
+
+    private boolean itemAdded(PriorityQueueWorker.Lane<T> lane, boolean added) {
+        if (added) {
+            worker.itemAdded(lane, lane.getPendingItems().added(System.nanoTime()));
+        }
+        return added;
+    }
+
+    private PriorityQueueWorker.Lane<T> getLane(int priority) {
+        if (priority < 0 || priority >= lanes.size()) {
+            throw new IllegalArgumentException(String.format("priority must be >= 0 and < %d", lanes.size()));
+        }
+        return lanes.get(priority);
+    }
+
+    private PriorityQueueWorker.Lane<T> getLowestPriorityLane() {
+        return lanes.get(lanes.size() - 1);
+    }
+}
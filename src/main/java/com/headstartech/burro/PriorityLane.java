@@ -0,0 +1,44 @@
+package com.headstartech.burro;
+
+/**
+ * A lane of a {@link PriorityBatchingWorkQueue}, with its own queue and batching thresholds.
+ *
+ * The min and max batch size and write delay are read from the configuration of the lane, the other settings of the
+ * lane configuration are not used. The weight is the share of the batches processed from the lane when several
+ * lanes have a batch due.
+ */
+public class PriorityLane {
+
+    private final AbstractBatchingWorkQueueConfiguration configuration;
+    private final int capacity;
+    private final int weight;
+
+    /**
+     * @param configuration the batching thresholds of the lane
+     * @param capacity the capacity of the queue of the lane
+     * @param weight the weight of the lane, >= 1
+     */
+    public PriorityLane(BatchingWorkQueueConfiguration configuration, int capacity, int weight) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be >= 1");
+        }
+        if (weight < 1) {
+            throw new IllegalArgumentException("weight must be >= 1");
+        }
+        this.configuration = AbstractBatchingWorkQueueConfiguration.of(configuration);
+        this.capacity = capacity;
+        this.weight = weight;
+    }
+
+    public AbstractBatchingWorkQueueConfiguration getConfiguration() {
+        return configuration;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getWeight() {
+        return weight;
+    }
+}
@@ -0,0 +1,206 @@
+package com.headstartech.burro;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Worker for a {@link PriorityBatchingWorkQueue}.
+ *
+ * Processes a batch from a lane when it's due by the thresholds of the lane, see {@link BatchDispatcher}. When several
+ * lanes have a batch due, one of them is picked by smooth weighted round-robin, so each lane gets
+ * a share of the batches proportional to its weight and no lane is starved. Ties go to the lane with the highest
+ * priority.
+ */
+class PriorityQueueWorker<T> extends AbstractWorkQueueWorker {
+
+    private static final Logger logger = LoggerFactory.getLogger(PriorityQueueWorker.class);
+
+    private static final long NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final String queueName;
+    private final boolean copyBatches;
+    private final List<LaneDispatcher> dispatchers;
+    private final WorkProcessor<Collection<T>> processor;
+    // the handle of each item of the batch, null if not tracked
+    private CompletionHandle[] handles = new CompletionHandle[16];
+    private volatile boolean waiting;
+
+    PriorityQueueWorker(AbstractBatchingWorkQueueConfiguration configuration, List<Lane<T>> lanes, WorkProcessor<Collection<T>> processor, WorkQueueMetricsListener metricsListener) {
+        this.queueName = configuration.getQueueName();
+        this.copyBatches = configuration.isCopyBatches();
+        this.processor = processor;
+        this.dispatchers = new ArrayList<LaneDispatcher>(lanes.size());
+        for (Lane<T> lane : lanes) {
+            dispatchers.add(new LaneDispatcher(lane, metricsListener));
+        }
+    }
+
+    /**
+     * Called by producers after an item has been added to a lane (and registered in its pending items).
+     *
+     * @param lane the lane
+     * @param pendingCount number of pending items of the lane, including the added one
+     */
+    void itemAdded(Lane<T> lane, int pendingCount) {
+        if (waiting && (pendingCount == 1 || pendingCount >= lane.configuration.getMinBatchSize())) {
+            signal();
+        }
+    }
+
+    @Override
+    protected void doWork() throws InterruptedException {
+        LaneDispatcher dispatcher = nextDueLane(System.nanoTime());
+        if (dispatcher != null) {
+            dispatcher.dispatchBatch();
+            return;
+        }
+        waitForMoreWork();
+    }
+
+    @Override
+    protected void doShutdownWork() {
+        logger.debug("Starting shutdown work...");
+        // highest priority first
+        for (LaneDispatcher dispatcher : dispatchers) {
+            while (!dispatcher.lane.queue.isEmpty()) {
+                dispatcher.dispatchBatch();
+            }
+        }
+        logger.debug("Finished shutdown work");
+    }
+
+    private void waitForMoreWork() throws InterruptedException {
+        waiting = true;
+        try {
+            // a producer not seeing the worker waiting has counted its item before the lanes are checked
+            long now = System.nanoTime();
+            long timeout = 0;
+            for (LaneDispatcher dispatcher : dispatchers) {
+                if (dispatcher.lane.pendingItems.count() > 0) {
+                    // rounded up, not to wake up before the lane is due
+                    long untilDue = Math.max((dispatcher.dueTime(now) - now + NANOS_PER_MILLI - 1) / NANOS_PER_MILLI, 1);
+                    timeout = timeout == 0 ? untilDue : Math.min(timeout, untilDue);
+                }
+            }
+            logger.debug("Waiting for items...: queueName={}, timeout={}", queueName, timeout);
+            waitUntilTimeoutOrSignalled(timeout);
+        } finally {
+            waiting = false;
+        }
+    }
+
+    private LaneDispatcher nextDueLane(long now) {
+        LaneDispatcher next = null;
+        int totalWeight = 0;
+        for (LaneDispatcher dispatcher : dispatchers) {
+            if (dispatcher.isDue(now)) {
+                dispatcher.currentWeight += dispatcher.lane.weight;
+                totalWeight += dispatcher.lane.weight;
+                if (next == null || dispatcher.currentWeight > next.currentWeight) {
+                    next = dispatcher;
+                }
+            }
+        }
+        if (next != null) {
+            next.currentWeight -= totalWeight;
+        }
+        return next;
+    }
+
+    /**
+     * A lane of the queue.
+     */
+    static class Lane<T> {
+
+        private final AbstractBatchingWorkQueueConfiguration configuration;
+        private final int weight;
+        private final MpscArrayBlockingQueue<T> queue;
+        private final PendingItems pendingItems = new PendingItems();
+        private final ReusableBatch<T> batch = new ReusableBatch<T>();
+
+        Lane(PriorityLane lane) {
+            this.configuration = lane.getConfiguration();
+            this.weight = lane.getWeight();
+            this.queue = new MpscArrayBlockingQueue<T>(lane.getCapacity());
+        }
+
+        MpscArrayBlockingQueue<T> getQueue() {
+            return queue;
+        }
+
+        PendingItems getPendingItems() {
+            return pendingItems;
+        }
+    }
+
+    /**
+     * Dispatches the batches of a lane, with the scheduling state of the lane. Only accessed by the worker.
+     */
+    private class LaneDispatcher extends BatchDispatcher {
+
+        private final Lane<T> lane;
+        private int currentWeight;
+        // the items of the batch being dispatched
+        private List<T> items;
+
+        LaneDispatcher(Lane<T> lane, WorkQueueMetricsListener metricsListener) {
+            super(lane.configuration, metricsListener);
+            this.lane = lane;
+        }
+
+        boolean isDue(long now) {
+            return !lane.queue.isEmpty() && now >= dueTime(now);
+        }
+
+        void dispatchBatch() {
+            dispatchBatch(Math.min(lane.configuration.getMaxBatchSize(), Math.max(lane.queue.size(), 1)));
+        }
+
+        @Override
+        int queueSize() {
+            return lane.queue.size();
+        }
+
+        @Override
+        long oldestEnqueueTime(long now) {
+            return lane.queue.oldestEnqueueTime(now);
+        }
+
+        @Override
+        int takeBatch(int limit, long[] enqueueTimes) {
+            if (handles.length < limit) {
+                handles = new CompletionHandle[limit];
+            }
+            items = copyBatches ? new ArrayList<T>(Math.min(limit, lane.queue.size())) : lane.batch;
+            int drained = lane.queue.drainTo(items, limit, enqueueTimes, handles);
+            lane.pendingItems.removed(drained);
+            return drained;
+        }
+
+        @Override
+        void processBatch(int count) {
+            processor.process(items);
+        }
+
+        @Override
+        void batchProcessed(int count) {
+            CompletionHandle.completeAll(handles, count);
+        }
+
+        @Override
+        void batchFailed(int count, Throwable cause) {
+            CompletionHandle.completeAllExceptionally(handles, count, cause);
+        }
+
+        @Override
+        void releaseBatch(int count) {
+            lane.batch.clear();
+            items = null;
+        }
+    }
+}
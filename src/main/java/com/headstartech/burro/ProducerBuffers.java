@@ -0,0 +1,303 @@
+package com.headstartech.burro;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Producer-local staging buffers of a {@link BatchingWorkQueue}, so many producers add items to the shared queue in
+ * chunks instead of one by one.
+ *
+ * Each producer thread adds items to a buffer of its own, which the producer flushes to the queue when it's full.
+ * A buffer whose oldest item has lingered is flushed by a worker of the queue. The items of a flush are added to the
+ * queue as if added when the oldest of them was buffered, so the max write delay is measured from then.
+ *
+ * Each buffer is guarded by a lock, only contended while a worker or the shutdown flushes it. Workers skip buffers in
+ * use by their producer. Buffers of threads that have terminated are dropped once empty. A buffer doesn't refer back
+ * to the queue, so the buffers kept by long-lived producer threads don't keep a discarded queue reachable.
+ */
+class ProducerBuffers<T> {
+
+    private static final Logger logger = LoggerFactory.getLogger(ProducerBuffers.class);
+
+    private static final long NONE = Long.MIN_VALUE;
+    private static final long CLOSE_FLUSH_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final BatchingWorkQueue<T> queue;
+    private final int bufferSize;
+    private final long lingerNanos;
+    private final List<Buffer<T>> buffers = new CopyOnWriteArrayList<Buffer<T>>();
+    private final ThreadLocal<Buffer<T>> localBuffer = new ThreadLocal<Buffer<T>>();
+    private volatile boolean closed;
+
+    ProducerBuffers(BatchingWorkQueue<T> queue, int bufferSize, int linger) {
+        this.queue = queue;
+        this.bufferSize = bufferSize;
+        this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(linger);
+    }
+
+    /**
+     * Adds an item to the buffer of the calling thread, flushing the buffer if it's full.
+     *
+     * @return {@code true} if the item was added, {@code false} if the buffer is full and the queue has no room
+     */
+    boolean add(T item) {
+        Buffer<T> buffer = localBuffer();
+        buffer.lock.lock();
+        try {
+            if (closed) {
+                return queue.offer(item);
+            }
+            if (buffer.items.size() >= bufferSize) {
+                flush(buffer);
+                if (buffer.items.size() >= bufferSize) {
+                    return false;
+                }
+            }
+            add(buffer, item);
+            if (buffer.items.size() >= bufferSize) {
+                flush(buffer);
+            }
+            return true;
+        } finally {
+            buffer.lock.unlock();
+        }
+    }
+
+    /**
+     * Adds an item to the buffer of the calling thread, waiting for room in the queue if the buffer is full.
+     *
+     * @return {@code true} if the item was added, {@code false} if the buffer is still full after the duration
+     */
+    boolean add(T item, long duration, TimeUnit unit) throws InterruptedException {
+        Buffer<T> buffer = localBuffer();
+        buffer.lock.lock();
+        try {
+            if (closed) {
+                return queue.offer(item, duration, unit);
+            }
+            if (buffer.items.size() >= bufferSize) {
+                flush(buffer, unit.toNanos(duration));
+                if (buffer.items.size() >= bufferSize) {
+                    return false;
+                }
+            }
+            add(buffer, item);
+            if (buffer.items.size() >= bufferSize) {
+                flush(buffer);
+            }
+            return true;
+        } finally {
+            buffer.lock.unlock();
+        }
+    }
+
+    /**
+     * Adds a tracked item directly to the queue, after the items in the buffer of the calling thread, to keep the
+     * order of the producer. The handle is kept with the item in the queue.
+     *
+     * @return {@code true} if the item was added, {@code false} if the buffer couldn't be flushed or the queue is full
+     */
+    boolean add(T item, CompletionHandle handle) {
+        Buffer<T> buffer = localBuffer();
+        buffer.lock.lock();
+        try {
+            flush(buffer);
+            return buffer.items.isEmpty() && queue.offer(item, handle);
+        } finally {
+            buffer.lock.unlock();
+        }
+    }
+
+    /**
+     * Adds a tracked item directly to the queue like {@link #add(Object, CompletionHandle)}, waiting for room in the
+     * queue.
+     */
+    boolean add(T item, CompletionHandle handle, long duration, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(duration);
+        Buffer<T> buffer = localBuffer();
+        buffer.lock.lock();
+        try {
+            flush(buffer, unit.toNanos(duration));
+            if (!buffer.items.isEmpty()) {
+                return false;
+            }
+            return queue.offer(item, handle, Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } finally {
+            buffer.lock.unlock();
+        }
+    }
+
+    /**
+     * Adds items directly to the queue, after the items in the buffer of the calling thread, to keep the order of the
+     * producer.
+     *
+     * @return the number of items added, 0 if the buffer couldn't be flushed
+     */
+    int addAll(List<? extends T> items) {
+        Buffer<T> buffer = localBuffer();
+        buffer.lock.lock();
+        try {
+            flush(buffer);
+            return buffer.items.isEmpty() ? queue.publishAll(items, System.nanoTime()) : 0;
+        } finally {
+            buffer.lock.unlock();
+        }
+    }
+
+    /**
+     * Adds items directly to the queue like {@link #addAll(List)}, waiting for room in the queue.
+     */
+    int addAll(List<? extends T> items, long duration, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(duration);
+        Buffer<T> buffer = localBuffer();
+        buffer.lock.lock();
+        try {
+            flush(buffer, unit.toNanos(duration));
+            if (!buffer.items.isEmpty()) {
+                return 0;
+            }
+            long now = System.nanoTime();
+            return queue.publishAll(items, now, Math.max(0, deadline - now), TimeUnit.NANOSECONDS);
+        } finally {
+            buffer.lock.unlock();
+        }
+    }
+
+    /**
+     * Flushes the buffers whose oldest item has lingered. Called by the workers.
+     *
+     * @param now {@link System#nanoTime()}
+     * @return the {@link System#nanoTime()} the next buffer should be flushed, {@code Long.MIN_VALUE} if all buffers
+     * are empty
+     */
+    long flushLingering(long now) {
+        long next = NONE;
+        for (Buffer<T> buffer : buffers) {
+            long firstItemTime = buffer.firstItemTime;
+            if (firstItemTime == NONE) {
+                Thread owner = buffer.owner.get();
+                if (owner == null || !owner.isAlive()) {
+                    buffers.remove(buffer);
+                }
+                continue;
+            }
+            long due = firstItemTime + lingerNanos;
+            if (due - now <= 0) {
+                // the producer flushes the buffer itself when full, or it's retried when the queue has room
+                due = now + lingerNanos;
+                if (buffer.lock.tryLock()) {
+                    try {
+                        flush(buffer);
+                    } finally {
+                        buffer.lock.unlock();
+                    }
+                    if (buffer.firstItemTime == NONE) {
+                        continue;
+                    }
+                }
+            }
+            if (next == NONE || due - next < 0) {
+                next = due;
+            }
+        }
+        return next;
+    }
+
+    /**
+     * Flushes all buffers, items are added directly to the queue from then on.
+     *
+     * @param wait {@code true} to wait for room in the queue, {@code false} to drop the items not fitting
+     */
+    void close(boolean wait) {
+        closed = true;
+        boolean interrupted = false;
+        try {
+            for (Buffer<T> buffer : buffers) {
+                buffer.lock.lock();
+                try {
+                    flush(buffer);
+                    while (wait && !buffer.items.isEmpty()) {
+                        logger.debug("Waiting for room in queue to flush producer buffer: queueName={}, itemCount={}", queue.getQueueName(), buffer.items.size());
+                        try {
+                            flush(buffer, CLOSE_FLUSH_NANOS);
+                        } catch (InterruptedException e) {
+                            interrupted = true;
+                        }
+                    }
+                    if (!buffer.items.isEmpty()) {
+                        logger.warn("Queue full, dropping items in producer buffer: queueName={}, itemCount={}", queue.getQueueName(), buffer.items.size());
+                        removed(buffer, buffer.items.size());
+                    }
+                } finally {
+                    buffer.lock.unlock();
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private Buffer<T> localBuffer() {
+        Buffer<T> buffer = localBuffer.get();
+        if (buffer == null) {
+            buffer = new Buffer<T>(Thread.currentThread(), bufferSize);
+            buffers.add(buffer);
+            localBuffer.set(buffer);
+        }
+        return buffer;
+    }
+
+    private void add(Buffer<T> buffer, T item) {
+        buffer.items.add(item);
+        if (buffer.firstItemTime == NONE) {
+            buffer.firstItemTime = System.nanoTime();
+            queue.itemBuffered();
+        }
+    }
+
+    private void flush(Buffer<T> buffer) {
+        if (!buffer.items.isEmpty()) {
+            removed(buffer, queue.publishAll(buffer.items, buffer.firstItemTime));
+        }
+    }
+
+    private void flush(Buffer<T> buffer, long timeoutNanos) throws InterruptedException {
+        if (!buffer.items.isEmpty()) {
+            removed(buffer, queue.publishAll(buffer.items, buffer.firstItemTime, timeoutNanos, TimeUnit.NANOSECONDS));
+        }
+    }
+
+    private void removed(Buffer<T> buffer, int n) {
+        buffer.items.subList(0, n).clear();
+        if (buffer.items.isEmpty()) {
+            buffer.firstItemTime = NONE;
+        }
+    }
+
+    /**
+     * The buffer of a producer thread. Must be accessed holding its lock, except {@link #firstItemTime}.
+     */
+    private static class Buffer<T> {
+
+        private final Lock lock = new ReentrantLock();
+        private final WeakReference<Thread> owner;
+        private final List<T> items;
+        // System.nanoTime() the oldest item was buffered
+        private volatile long firstItemTime = NONE;
+
+        Buffer(Thread owner, int bufferSize) {
+            this.owner = new WeakReference<Thread>(owner);
+            this.items = new ArrayList<T>(bufferSize);
+        }
+    }
+}
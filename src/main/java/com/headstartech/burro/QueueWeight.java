@@ -0,0 +1,79 @@
+package com.headstartech.burro;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps track of the total weight of the items in a queue, measured by a {@link Weigher}.
+ *
+ * Producers acquire the weight of an item before adding it to the queue, bounded by
+ * {@link AbstractBatchingWorkQueueConfiguration#getMaxQueueWeight()}. The worker releases the weight of the items it has
+ * drained. Without a weigher, nothing is tracked.
+ */
+class QueueWeight<T> {
+
+    private final AbstractBatchingWorkQueueConfiguration configuration;
+    private final AtomicLong weight = new AtomicLong();
+    private volatile Weigher<? super T> weigher;
+
+    QueueWeight(AbstractBatchingWorkQueueConfiguration configuration) {
+        this.configuration = configuration;
+    }
+
+    void setWeigher(Weigher<? super T> weigher) {
+        this.weigher = weigher;
+    }
+
+    boolean isEnabled() {
+        return weigher != null;
+    }
+
+    /**
+     * Must only be called if {@link #isEnabled()}.
+     */
+    long weigh(T item) {
+        int w = weigher.weigh(item);
+        if (w < 0) {
+            throw new IllegalStateException(String.format("Negative weight: weight=%d", w));
+        }
+        return w;
+    }
+
+    /**
+     * Acquires the weight of an item to be added to the queue.
+     *
+     * @param w the weight of the item
+     * @return {@code true} if acquired, {@code false} if the queue is full by weight
+     */
+    boolean tryAcquire(long w) {
+        long maxWeight = configuration.getMaxQueueWeight();
+        long current;
+        do {
+            current = weight.get();
+            // an item heavier than the max is accepted by an empty queue
+            if (current > 0 && current + w > maxWeight) {
+                return false;
+            }
+        } while (!weight.compareAndSet(current, current + w));
+        return true;
+    }
+
+    void release(long w) {
+        weight.addAndGet(-w);
+    }
+
+    long get() {
+        return weight.get();
+    }
+
+    /**
+     * @param count number of items in the queue
+     * @return {@code true} if the items in the queue are enough for a batch, by number or by weight
+     */
+    boolean isMinBatchReached(int count) {
+        if (count >= configuration.getMinBatchSize()) {
+            return true;
+        }
+        long minBatchWeight = configuration.getMinBatchWeight();
+        return minBatchWeight > 0 && weigher != null && count > 0 && weight.get() >= minBatchWeight;
+    }
+}
@@ -0,0 +1,93 @@
+package com.headstartech.burro;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Token buckets limiting the batches and items processed per second by a {@link BatchingWorkQueue}.
+ *
+ * The rates are read from the configuration each time, so they can be changed at runtime, and a rate of 0 disables
+ * the bucket. Each bucket holds up to a second's worth of tokens, at least one. A batch may be processed when both
+ * buckets hold at least one token, and takes one batch token and a token per item. The item bucket may go into
+ * debt, so a batch is never limited in size by the rate, only delayed.
+ */
+class RateLimiter {
+
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final AbstractBatchingWorkQueueConfiguration configuration;
+    // taken by the workers, which may run on virtual threads
+    private final Lock lock = new ReentrantLock();
+    // guarded by lock, full until first refilled
+    private double batchTokens = Double.MAX_VALUE;
+    private double itemTokens = Double.MAX_VALUE;
+    private long lastRefill = System.nanoTime();
+
+    RateLimiter(AbstractBatchingWorkQueueConfiguration configuration) {
+        this.configuration = configuration;
+    }
+
+    /**
+     * @return the number of milliseconds until a batch may be processed, 0 if one may be processed now
+     */
+    long delay() {
+        double batchRate = configuration.getMaxBatchesPerSecond();
+        double itemRate = configuration.getMaxItemsPerSecond();
+        if (batchRate == 0 && itemRate == 0) {
+            return 0;
+        }
+        lock.lock();
+        try {
+            refill(batchRate, itemRate);
+            return Math.max(delay(batchTokens, batchRate), delay(itemTokens, itemRate));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Takes the tokens of a processed batch.
+     *
+     * @param itemCount number of items in the batch
+     */
+    void acquire(int itemCount) {
+        double batchRate = configuration.getMaxBatchesPerSecond();
+        double itemRate = configuration.getMaxItemsPerSecond();
+        if (batchRate == 0 && itemRate == 0) {
+            return;
+        }
+        lock.lock();
+        try {
+            refill(batchRate, itemRate);
+            if (batchRate > 0) {
+                batchTokens -= 1;
+            }
+            if (itemRate > 0) {
+                itemTokens -= itemCount;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void refill(double batchRate, double itemRate) {
+        long now = System.nanoTime();
+        double elapsedSeconds = (now - lastRefill) / NANOS_PER_SECOND;
+        lastRefill = now;
+        batchTokens = refill(batchTokens, batchRate, elapsedSeconds);
+        itemTokens = refill(itemTokens, itemRate, elapsedSeconds);
+    }
+
+    private static double refill(double tokens, double rate, double elapsedSeconds) {
+        double capacity = Math.max(1, rate);
+        return Math.min(capacity, tokens + elapsedSeconds * rate);
+    }
+
+    private static long delay(double tokens, double rate) {
+        if (rate == 0 || tokens >= 1) {
+            return 0;
+        }
+        return (long) Math.ceil((1 - tokens) / rate * 1000);
+    }
+}
@@ -0,0 +1,122 @@
+package com.headstartech.burro;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Flyweight reading the records of a batch of an {@link OffHeapBatchingWorkQueue} in place.
+ *
+ * The records of a batch are contiguous in the buffer of the queue. The cursor starts before the first record,
+ * {@link #next()} moves it to the next one, skipping aborted records, and the fields of the current record are read by
+ * their offset in the record. Values are in the native byte order.
+ */
+public final class RecordCursor {
+
+    private final MpscRecordBuffer records;
+    private final ByteBuffer buffer;
+    private final int recordSize;
+    private long firstIndex;
+    private int start;
+    // number of records in the buffer, including aborted records
+    private int length;
+    private int abortedCount;
+    private int index;
+    private int offset;
+
+    RecordCursor(MpscRecordBuffer records) {
+        this.records = records;
+        this.buffer = records.buffer();
+        this.recordSize = records.recordSize();
+    }
+
+    /**
+     * Positions the cursor before the first record of a batch.
+     *
+     * @param firstIndex the index of the first record in the record buffer
+     * @param length the number of records, including aborted records
+     */
+    void reset(long firstIndex, int length) {
+        this.firstIndex = firstIndex;
+        this.start = records.offset(firstIndex);
+        this.length = length;
+        abortedCount = 0;
+        for (int i = 0; i < length; ++i) {
+            if (records.isAborted(firstIndex + i)) {
+                ++abortedCount;
+            }
+        }
+        rewind();
+    }
+
+    /**
+     * @return the number of records of the batch
+     */
+    public int size() {
+        return length - abortedCount;
+    }
+
+    /**
+     * @return the size of a record, in bytes
+     */
+    public int recordSize() {
+        return recordSize;
+    }
+
+    /**
+     * Moves the cursor to the next record.
+     *
+     * @return {@code true} if the cursor is on a record, {@code false} if there are no more records
+     */
+    public boolean next() {
+        do {
+            if (index + 1 >= length) {
+                index = length;
+                return false;
+            }
+            ++index;
+        } while (abortedCount > 0 && records.isAborted(firstIndex + index));
+        offset = start + index * recordSize;
+        return true;
+    }
+
+    /**
+     * Positions the cursor before the first record again.
+     */
+    public void rewind() {
+        index = -1;
+        offset = start - recordSize;
+    }
+
+    public byte getByte(int field) {
+        return buffer.get(position(field, 1));
+    }
+
+    public short getShort(int field) {
+        return buffer.getShort(position(field, 2));
+    }
+
+    public int getInt(int field) {
+        return buffer.getInt(position(field, 4));
+    }
+
+    public long getLong(int field) {
+        return buffer.getLong(position(field, 8));
+    }
+
+    public float getFloat(int field) {
+        return buffer.getFloat(position(field, 4));
+    }
+
+    public double getDouble(int field) {
+        return buffer.getDouble(position(field, 8));
+    }
+
+    private int position(int field, int width) {
+        if (index < 0 || index >= length) {
+            throw new IllegalStateException("The cursor is not on a record.");
+        }
+        if (field < 0 || field > recordSize - width) {
+            throw new IndexOutOfBoundsException(String.format("field=%d, width=%d, recordSize=%d", field, width, recordSize));
+        }
+        return offset + field;
+    }
+}
@@ -0,0 +1,55 @@
+package com.headstartech.burro;
+
+/**
+ * Worker for an {@link OffHeapBatchingWorkQueue}.
+ *
+ * The records of a batch are read in place through a cursor reused for every batch, and released once processed,
+ * see {@link RingQueueWorker}. Aborted records are skipped, a batch of aborted records only is not processed.
+ */
+class RecordQueueWorker extends RingQueueWorker {
+
+    private final MpscRecordBuffer records;
+    private final RecordWorkProcessor processor;
+    private final RecordCursor cursor;
+
+    RecordQueueWorker(AbstractBatchingWorkQueueConfiguration configuration, MpscRecordBuffer records, int capacity, RecordWorkProcessor processor, PendingItems pendingItems, WorkQueueMetricsListener metricsListener) {
+        super(configuration, capacity, pendingItems, metricsListener);
+        this.records = records;
+        this.processor = processor;
+        this.cursor = new RecordCursor(records);
+    }
+
+    @Override
+    int queueSize() {
+        return records.size();
+    }
+
+    @Override
+    boolean isQueueEmpty() {
+        return records.isEmpty();
+    }
+
+    @Override
+    long oldestEnqueueTime(long now) {
+        return records.oldestEnqueueTime(now);
+    }
+
+    @Override
+    int takeBatch(int limit, long[] enqueueTimes) {
+        int n = records.available(enqueueTimes, limit);
+        cursor.reset(records.consumerIndex(), n);
+        return n;
+    }
+
+    @Override
+    void processBatch(int count) {
+        if (cursor.size() > 0) {
+            processor.process(cursor);
+        }
+    }
+
+    @Override
+    void releaseBatch(int count) {
+        records.release(count);
+    }
+}
@@ -0,0 +1,15 @@
+package com.headstartech.burro;
+
+/**
+ * Processes a batch of an {@link OffHeapBatchingWorkQueue}.
+ */
+public interface RecordWorkProcessor {
+
+    /**
+     * Processes a batch. The cursor reads the records in place and is reused for the next batch, so it's only valid
+     * until the method returns.
+     *
+     * @param batch cursor over the records of the batch, positioned before the first record
+     */
+    void process(RecordCursor batch);
+}
@@ -0,0 +1,134 @@
+package com.headstartech.burro;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Flyweight writing a record claimed in an {@link OffHeapBatchingWorkQueue} in place.
+ *
+ * Each producer thread has a writer of its own, returned by {@link OffHeapBatchingWorkQueue#claim()} positioned on the
+ * claimed record. The fields are written by their offset in the record, and {@link #commit()} hands the record to the
+ * worker. A thread must commit or abort its record before claiming the next one. The record is not cleared when
+ * claimed, all fields must be written. Values are in the native byte order.
+ *
+ * A claimed record holds back the records claimed after it until committed, so a producer failing to write it must
+ * {@link #abort()} it, the worker then skips it:
+ * <pre>
+ * RecordWriter writer = queue.claim();
+ * if (writer != null) {
+ *     try {
+ *         writer.putLong(ID, id).putDouble(VALUE, value);
+ *     } catch (RuntimeException e) {
+ *         writer.abort();
+ *         throw e;
+ *     }
+ *     writer.commit();
+ * }
+ * </pre>
+ *
+ * The writer refers to the queue only while a record is claimed, so the writers kept by long-lived producer threads
+ * don't keep a discarded queue and its buffer reachable.
+ */
+public final class RecordWriter {
+
+    private static final long NONE = -1;
+
+    private final int recordSize;
+    // set while a record is claimed
+    private OffHeapBatchingWorkQueue queue;
+    private ByteBuffer buffer;
+    private long index = NONE;
+    private int offset;
+
+    RecordWriter(int recordSize) {
+        this.recordSize = recordSize;
+    }
+
+    boolean isClaimed() {
+        return index != NONE;
+    }
+
+    /**
+     * Positions the writer on a claimed record.
+     */
+    RecordWriter claimed(OffHeapBatchingWorkQueue queue, ByteBuffer buffer, long index, int offset) {
+        this.queue = queue;
+        this.buffer = buffer;
+        this.index = index;
+        this.offset = offset;
+        return this;
+    }
+
+    public RecordWriter putByte(int field, byte value) {
+        buffer.put(position(field, 1), value);
+        return this;
+    }
+
+    public RecordWriter putShort(int field, short value) {
+        buffer.putShort(position(field, 2), value);
+        return this;
+    }
+
+    public RecordWriter putInt(int field, int value) {
+        buffer.putInt(position(field, 4), value);
+        return this;
+    }
+
+    public RecordWriter putLong(int field, long value) {
+        buffer.putLong(position(field, 8), value);
+        return this;
+    }
+
+    public RecordWriter putFloat(int field, float value) {
+        buffer.putFloat(position(field, 4), value);
+        return this;
+    }
+
+    public RecordWriter putDouble(int field, double value) {
+        buffer.putDouble(position(field, 8), value);
+        return this;
+    }
+
+    /**
+     * Commits the record, it will be processed by the worker. The writer may not be used until the next claim.
+     */
+    public void commit() {
+        OffHeapBatchingWorkQueue claimedQueue = queue;
+        long claimedIndex = release();
+        claimedQueue.commit(claimedIndex);
+    }
+
+    /**
+     * Aborts the record, it will be skipped by the worker. The writer may not be used until the next claim.
+     */
+    public void abort() {
+        OffHeapBatchingWorkQueue claimedQueue = queue;
+        long claimedIndex = release();
+        claimedQueue.abort(claimedIndex);
+    }
+
+    /**
+     * Releases the claimed record from the writer.
+     *
+     * @return the index of the record
+     */
+    private long release() {
+        if (index == NONE) {
+            throw new IllegalStateException("No record has been claimed.");
+        }
+        long claimedIndex = index;
+        queue = null;
+        buffer = null;
+        index = NONE;
+        return claimedIndex;
+    }
+
+    private int position(int field, int width) {
+        if (index == NONE) {
+            throw new IllegalStateException("No record has been claimed.");
+        }
+        if (field < 0 || field > recordSize - width) {
+            throw new IndexOutOfBoundsException(String.format("field=%d, width=%d, recordSize=%d", field, width, recordSize));
+        }
+        return offset + field;
+    }
+}
@@ -0,0 +1,228 @@
+package com.headstartech.burro;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Retries failed batches of a {@link BatchingWorkQueue} on a thread of its own, so the workers keep processing
+ * other batches meanwhile.
+ *
+ * A failed batch is retried with exponential backoff, then optionally split in halves to isolate the failing items.
+ * Batches failing for good are passed to the dead-letter processor, if any. The tracked items and the metrics are
+ * completed with the final outcome of each (part of a) batch. The thread is started on the first failure and stops
+ * when idle.
+ */
+class RetryLane<T> {
+
+    private static final Logger logger = LoggerFactory.getLogger(RetryLane.class);
+
+    private final String queueName;
+    private final AsyncWorkProcessor<Collection<T>> processor;
+    private final WorkQueueMetricsListener metricsListener;
+    private final int maxRetries;
+    private final int retryBackoff;
+    private final int maxRetryBackoff;
+    private final boolean splitFailedBatches;
+    private final ScheduledThreadPoolExecutor executor;
+    // batches scheduled and not yet done, the executor is shut down when none is left
+    private final AtomicInteger pendingBatches = new AtomicInteger();
+    private volatile boolean shuttingDown;
+    private volatile WorkProcessor<Collection<T>> deadLetterProcessor;
+
+    RetryLane(AbstractBatchingWorkQueueConfiguration configuration, AsyncWorkProcessor<Collection<T>> processor, WorkQueueMetricsListener metricsListener) {
+        this.queueName = configuration.getQueueName();
+        this.processor = processor;
+        this.metricsListener = metricsListener;
+        this.maxRetries = configuration.getMaxRetries();
+        this.retryBackoff = configuration.getRetryBackoff();
+        this.maxRetryBackoff = configuration.getMaxRetryBackoff();
+        this.splitFailedBatches = configuration.isSplitFailedBatches();
+        final ThreadFactory threadFactory = configuration.getThreadFactory();
+        this.executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t;
+                if (threadFactory == null) {
+                    t = new Thread(r);
+                    t.setDaemon(true);
+                } else {
+                    t = threadFactory.newThread(r);
+                }
+                t.setName(String.format("%s-retry", queueName));
+                return t;
+            }
+        });
+        executor.setKeepAliveTime(1, TimeUnit.MINUTES);
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    void setDeadLetterProcessor(WorkProcessor<Collection<T>> deadLetterProcessor) {
+        this.deadLetterProcessor = deadLetterProcessor;
+    }
+
+    /**
+     * @return {@code true} if failed batches are handled by the lane, {@code false} if they are dropped
+     */
+    boolean isEnabled() {
+        return maxRetries > 0 || splitFailedBatches || deadLetterProcessor != null;
+    }
+
+    /**
+     * Takes over a batch that failed its first attempt.
+     *
+     * @param items the items, not reused by the caller
+     * @param handles the handle of each item, {@code null} if not tracked, or {@code null} if no item is tracked
+     * @param cause the cause of the failure
+     * @param timeInQueueNanos time the items waited in the queue
+     * @param processingStart {@link System#nanoTime()} of the first attempt
+     */
+    void failed(List<T> items, CompletionHandle[] handles, Throwable cause, long timeInQueueNanos, long processingStart) {
+        failed(new RetryBatch(items, handles, 0, timeInQueueNanos, processingStart), cause);
+    }
+
+    /**
+     * Stops the lane once the batches waiting to be retried are done, including their further retries and splits.
+     * Batches failing after the lane has stopped are passed to the dead-letter processor. If {@code wait} is
+     * {@code true}, waits for the lane to stop.
+     */
+    void shutdown(boolean wait) {
+        shuttingDown = true;
+        if (pendingBatches.get() == 0) {
+            executor.shutdown();
+        }
+        if (wait) {
+            boolean interrupted = false;
+            try {
+                while (!executor.isTerminated()) {
+                    try {
+                        logger.debug("Waiting for batches to be retried: queueName={}", queueName);
+                        executor.awaitTermination(1, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            } finally {
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    private void failed(RetryBatch batch, Throwable cause) {
+        if (batch.attempt < maxRetries) {
+            long backoff = Math.min(maxRetryBackoff, (long) retryBackoff << Math.min(batch.attempt, 30));
+            logger.debug("Retrying batch: queueName={}, itemCount={}, attempt={}, backoff={}", queueName, batch.items.size(), batch.attempt + 1, backoff);
+            schedule(new RetryBatch(batch.items, batch.handles, batch.attempt + 1, batch.timeInQueueNanos, batch.processingStart), backoff, cause);
+        } else if (splitFailedBatches && batch.items.size() > 1) {
+            int half = batch.items.size() / 2;
+            logger.debug("Splitting batch: queueName={}, itemCount={}", queueName, batch.items.size());
+            // the halves are not retried again, only split further
+            CompletionHandle[] firstHandles = batch.handles != null ? Arrays.copyOfRange(batch.handles, 0, half) : null;
+            CompletionHandle[] secondHandles = batch.handles != null ? Arrays.copyOfRange(batch.handles, half, batch.handles.length) : null;
+            schedule(new RetryBatch(new ArrayList<T>(batch.items.subList(0, half)), firstHandles, maxRetries, batch.timeInQueueNanos, batch.processingStart), 0, cause);
+            schedule(new RetryBatch(new ArrayList<T>(batch.items.subList(half, batch.items.size())), secondHandles, maxRetries, batch.timeInQueueNanos, batch.processingStart), 0, cause);
+        } else {
+            deadLetter(batch, cause);
+        }
+    }
+
+    private void schedule(RetryBatch batch, long delay, Throwable cause) {
+        pendingBatches.incrementAndGet();
+        try {
+            executor.schedule(batch, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // shut down
+            pendingBatches.decrementAndGet();
+            deadLetter(batch, cause);
+        }
+    }
+
+    /**
+     * Called when a scheduled batch is done, after scheduling its further retries or splits.
+     */
+    private void batchDone() {
+        if (pendingBatches.decrementAndGet() == 0 && shuttingDown) {
+            executor.shutdown();
+        }
+    }
+
+    private void deadLetter(RetryBatch batch, Throwable cause) {
+        WorkProcessor<Collection<T>> processor = deadLetterProcessor;
+        if (processor != null) {
+            logger.warn(String.format("Batch failed, passing items to dead-letter processor: queueName=%s, itemCount=%d", queueName, batch.items.size()), cause);
+            try {
+                processor.process(batch.items);
+            } catch (RuntimeException e) {
+                logger.error(String.format("Exception caught in dead-letter processor, items dropped: queueName=%s, itemCount=%d", queueName, batch.items.size()), e);
+            }
+        } else {
+            logger.warn(String.format("Batch failed, items dropped: queueName=%s, itemCount=%d", queueName, batch.items.size()), cause);
+        }
+        if (batch.handles != null) {
+            CompletionHandle.completeAllExceptionally(batch.handles, batch.handles.length, cause);
+        }
+        metricsListener.onBatchFailed(batch.items.size(), batch.timeInQueueNanos, System.nanoTime() - batch.processingStart, cause);
+    }
+
+    /**
+     * An attempt to process (part of) a failed batch.
+     */
+    private class RetryBatch implements Runnable, CompletionCallback {
+
+        private final List<T> items;
+        // the handle of each item, or null if no item is tracked
+        private final CompletionHandle[] handles;
+        private final int attempt;
+        private final long timeInQueueNanos;
+        private final long processingStart;
+        private final AtomicBoolean done = new AtomicBoolean();
+
+        RetryBatch(List<T> items, CompletionHandle[] handles, int attempt, long timeInQueueNanos, long processingStart) {
+            this.items = items;
+            this.handles = handles;
+            this.attempt = attempt;
+            this.timeInQueueNanos = timeInQueueNanos;
+            this.processingStart = processingStart;
+        }
+
+        @Override
+        public void run() {
+            try {
+                processor.process(items, this);
+            } catch (Throwable t) {
+                failed(t);
+            }
+        }
+
+        @Override
+        public void completed() {
+            if (done.compareAndSet(false, true)) {
+                if (handles != null) {
+                    CompletionHandle.completeAll(handles, handles.length);
+                }
+                metricsListener.onBatchProcessed(items.size(), timeInQueueNanos, System.nanoTime() - processingStart);
+                batchDone();
+            }
+        }
+
+        @Override
+        public void failed(Throwable cause) {
+            if (done.compareAndSet(false, true)) {
+                RetryLane.this.failed(this, cause);
+                batchDone();
+            }
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.headstartech.burro;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * Array backed list used to pass batches to a processor without allocating a new collection for each batch.
+ *
+ * The list is cleared and filled again for the next batch, so it must not be retained after the processor returns.
+ */
+class ReusableBatch<T> extends AbstractList<T> implements RandomAccess {
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private Object[] items;
+    private int size;
+
+    ReusableBatch() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    ReusableBatch(int initialCapacity) {
+        items = new Object[Math.max(1, initialCapacity)];
+    }
+
+    @Override
+    public boolean add(T item) {
+        if (size == items.length) {
+            items = Arrays.copyOf(items, size * 2);
+        }
+        items[size++] = item;
+        return true;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException(String.format("index=%d, size=%d", index, size));
+        }
+        return (T) items[index];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public void clear() {
+        // release the references so processed items can be garbage collected
+        Arrays.fill(items, 0, size, null);
+        size = 0;
+    }
+}
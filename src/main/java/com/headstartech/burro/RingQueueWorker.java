@@ -0,0 +1,170 @@
+package com.headstartech.burro;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Worker processing batches from a ring buffer of primitive values or records, without allocating per batch.
+ *
+ * Processes a batch when it's due by the thresholds of the configuration, see {@link BatchDispatcher}. Subclasses take
+ * the items of a batch from their ring buffer and hand them to their processor.
+ *
+ * An item claimed by a producer but not committed yet holds back the items after it. On shutdown, the worker gives
+ * up on such an item after a while, leaving it and the items after it unprocessed.
+ */
+abstract class RingQueueWorker extends AbstractWorkQueueWorker {
+
+    private static final Logger logger = LoggerFactory.getLogger(RingQueueWorker.class);
+
+    private static final long NONE = Long.MIN_VALUE;
+    private static final long NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long SHUTDOWN_COMMIT_WAIT_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final AbstractBatchingWorkQueueConfiguration configuration;
+    private final int capacity;
+    private final PendingItems pendingItems;
+    private final BatchDispatcher dispatcher;
+    private volatile boolean waiting;
+
+    RingQueueWorker(AbstractBatchingWorkQueueConfiguration configuration, int capacity, PendingItems pendingItems, WorkQueueMetricsListener metricsListener) {
+        this.configuration = configuration;
+        this.capacity = capacity;
+        this.pendingItems = pendingItems;
+        this.dispatcher = new RingDispatcher(configuration, metricsListener);
+    }
+
+    /**
+     * Called by producers after items have been added to the queue (and registered in the pending items).
+     *
+     * @param addedCount number of added items
+     * @param pendingCount number of pending items, including the added ones
+     */
+    void itemsAdded(int addedCount, int pendingCount) {
+        if (waiting && (pendingCount <= addedCount || pendingCount >= configuration.getMinBatchSize())) {
+            signal();
+        }
+    }
+
+    /**
+     * @return the max number of items of a batch, the max batch size of the configuration bounded by the capacity
+     */
+    int maxBatchSize() {
+        return Math.min(configuration.getMaxBatchSize(), capacity);
+    }
+
+    abstract int queueSize();
+
+    abstract boolean isQueueEmpty();
+
+    /**
+     * @param now {@link System#nanoTime()}, returned if the queue is empty
+     * @return the {@link System#nanoTime()} the oldest item was added
+     */
+    abstract long oldestEnqueueTime(long now);
+
+    /**
+     * Takes the items of the next batch from the queue.
+     *
+     * @param limit the max number of items
+     * @param enqueueTimes receives the {@link System#nanoTime()} each item was added
+     * @return the number of items taken
+     */
+    abstract int takeBatch(int limit, long[] enqueueTimes);
+
+    /**
+     * Hands the items taken by {@link #takeBatch(int, long[])} to the processor.
+     */
+    abstract void processBatch(int count);
+
+    /**
+     * Called after the items taken by {@link #takeBatch(int, long[])} have been processed, even if processing failed.
+     */
+    void releaseBatch(int count) {}
+
+    @Override
+    protected void doWork() throws InterruptedException {
+        long now = System.nanoTime();
+        if (!isQueueEmpty() && now >= dispatcher.dueTime(now) && dispatcher.dispatchBatch(maxBatchSize()) > 0) {
+            return;
+        }
+        // nothing taken if the oldest item is not committed yet, its commit signals the worker
+        waitForMoreWork();
+    }
+
+    @Override
+    protected void doShutdownWork() {
+        logger.debug("Starting shutdown work...");
+        long stalledSince = NONE;
+        while (!isQueueEmpty()) {
+            if (dispatcher.dispatchBatch(maxBatchSize()) > 0) {
+                stalledSince = NONE;
+                continue;
+            }
+            long now = System.nanoTime();
+            if (stalledSince == NONE) {
+                stalledSince = now;
+            } else if (now - stalledSince >= SHUTDOWN_COMMIT_WAIT_NANOS) {
+                logger.warn("Item claimed but never committed, leaving the remaining items unprocessed: queueName={}, itemCount={}", configuration.getQueueName(), queueSize());
+                break;
+            }
+        }
+        logger.debug("Finished shutdown work");
+    }
+
+    private void waitForMoreWork() throws InterruptedException {
+        waiting = true;
+        try {
+            // a producer not seeing the worker waiting has counted its items before the count is checked
+            long timeout = 0;
+            if (pendingItems.count() > 0) {
+                long now = System.nanoTime();
+                // rounded up, not to wake up before the batch is due
+                timeout = Math.max((dispatcher.dueTime(now) - now + NANOS_PER_MILLI - 1) / NANOS_PER_MILLI, 1);
+            }
+            if (logger.isDebugEnabled()) {
+                logger.debug("Waiting for items...: queueName={}, timeout={}", configuration.getQueueName(), timeout);
+            }
+            waitUntilTimeoutOrSignalled(timeout);
+        } finally {
+            waiting = false;
+        }
+    }
+
+    /**
+     * Dispatches the batches taken from the ring buffer by the subclass.
+     */
+    private class RingDispatcher extends BatchDispatcher {
+
+        RingDispatcher(AbstractBatchingWorkQueueConfiguration configuration, WorkQueueMetricsListener metricsListener) {
+            super(configuration, metricsListener);
+        }
+
+        @Override
+        int queueSize() {
+            return RingQueueWorker.this.queueSize();
+        }
+
+        @Override
+        long oldestEnqueueTime(long now) {
+            return RingQueueWorker.this.oldestEnqueueTime(now);
+        }
+
+        @Override
+        int takeBatch(int limit, long[] enqueueTimes) {
+            return RingQueueWorker.this.takeBatch(limit, enqueueTimes);
+        }
+
+        @Override
+        void processBatch(int count) {
+            RingQueueWorker.this.processBatch(count);
+        }
+
+        @Override
+        void releaseBatch(int count) {
+            RingQueueWorker.this.releaseBatch(count);
+            pendingItems.removed(count);
+        }
+    }
+}
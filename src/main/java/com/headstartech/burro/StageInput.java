@@ -0,0 +1,26 @@
+package com.headstartech.burro;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The input of a {@link Pipeline} stage, possibly behind item operations applied to the items on their way.
+ *
+ * Items dropped by a filter count as added.
+ */
+interface StageInput<T> {
+
+    boolean add(T item);
+
+    boolean add(T item, long duration, TimeUnit unit) throws InterruptedException;
+
+    /**
+     * @return the number of items added, the first ones of {@code items}
+     */
+    int addAll(List<? extends T> items);
+
+    /**
+     * @return the number of items added, the first ones of {@code items}
+     */
+    int addAll(List<? extends T> items, long duration, TimeUnit unit) throws InterruptedException;
+}
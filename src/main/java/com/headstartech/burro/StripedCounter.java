@@ -0,0 +1,39 @@
+package com.headstartech.burro;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counter spreading updates from different threads over padded cells, to avoid contention between producers.
+ */
+class StripedCounter {
+
+    // cells are 8 longs (64 bytes) apart
+    private static final int CELL_SHIFT = 3;
+
+    private final AtomicLongArray cells;
+    private final int mask;
+
+    StripedCounter() {
+        int stripes = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() * 2 - 1) << 1);
+        this.mask = stripes - 1;
+        this.cells = new AtomicLongArray((stripes + 1) << CELL_SHIFT);
+    }
+
+    void increment() {
+        add(1);
+    }
+
+    void add(long n) {
+        long id = Thread.currentThread().getId();
+        int stripe = (int) (id ^ (id >>> 16)) & mask;
+        cells.getAndAdd((stripe + 1) << CELL_SHIFT, n);
+    }
+
+    long sum() {
+        long sum = 0;
+        for (int stripe = 0; stripe <= mask; ++stripe) {
+            sum += cells.get((stripe + 1) << CELL_SHIFT);
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,24 @@
+package com.headstartech.burro;
+
+/**
+ * Adapts a {@link WorkProcessor} to an {@link AsyncWorkProcessor}, completing the callback before returning.
+ */
+class SynchronousWorkProcessor<T> implements AsyncWorkProcessor<T> {
+
+    private final WorkProcessor<T> processor;
+
+    SynchronousWorkProcessor(WorkProcessor<T> processor) {
+        this.processor = processor;
+    }
+
+    @Override
+    public void process(T work, CompletionCallback callback) {
+        try {
+            processor.process(work);
+        } catch (Throwable t) {
+            callback.failed(t);
+            return;
+        }
+        callback.completed();
+    }
+}
@@ -0,0 +1,150 @@
+package com.headstartech.burro;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hashed timer wheel running tasks at a deadline, with a precision of one tick.
+ *
+ * Timeouts are added lock-free by any thread and moved into the wheel by the timer thread, which owns the wheel.
+ * The timer thread wakes up once per tick while there are timeouts, and parks when there are none, so the number of
+ * wakeups doesn't depend on the number of timeouts. Tasks are run on the timer thread and must be short.
+ */
+class TimerWheel implements Runnable {
+
+    private static final Logger logger = LoggerFactory.getLogger(TimerWheel.class);
+
+    private final long tickNanos;
+    private final int mask;
+    private final Timeout[] wheel;
+    private final ConcurrentLinkedQueue<Timeout> addedTimeouts = new ConcurrentLinkedQueue<Timeout>();
+    private volatile Thread thread;
+    private volatile boolean halted;
+    private volatile boolean idle;
+
+    // owned by the timer thread
+    private long startTime;
+    private long tick;
+    private int timeoutCount;
+
+    /**
+     * @param tickDuration duration of a tick, in milliseconds
+     * @param wheelSize number of buckets, rounded up to a power of two
+     */
+    TimerWheel(int tickDuration, int wheelSize) {
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickDuration);
+        int size = Integer.highestOneBit(wheelSize);
+        if (size < wheelSize) {
+            size <<= 1;
+        }
+        this.mask = size - 1;
+        this.wheel = new Timeout[size];
+    }
+
+    void start(String threadName) {
+        Thread t = new Thread(this, threadName);
+        t.setDaemon(true);
+        thread = t;
+        t.start();
+    }
+
+    void stop() {
+        halted = true;
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     * Schedules a task.
+     *
+     * @param task the task
+     * @param deadline the time to run the task, in {@link System#nanoTime()} nanoseconds
+     */
+    void schedule(Runnable task, long deadline) {
+        addedTimeouts.offer(new Timeout(task, deadline));
+        if (idle) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    @Override
+    public void run() {
+        startTime = System.nanoTime();
+        while (!halted) {
+            waitForTick();
+            transferAddedTimeouts();
+            expireTimeouts();
+            ++tick;
+        }
+    }
+
+    private void waitForTick() {
+        if (timeoutCount == 0 && addedTimeouts.isEmpty()) {
+            idle = true;
+            // check again after publishing idle, a timeout added concurrently unparks the thread
+            while (addedTimeouts.isEmpty() && !halted) {
+                LockSupport.park(this);
+            }
+            idle = false;
+            // the wheel is empty, skip the ticks passed while idle
+            tick = Math.max(tick, (System.nanoTime() - startTime) / tickNanos);
+        }
+        long deadline = startTime + tick * tickNanos;
+        long sleepNanos;
+        while ((sleepNanos = deadline - System.nanoTime()) > 0 && !halted) {
+            LockSupport.parkNanos(this, sleepNanos);
+        }
+    }
+
+    private void transferAddedTimeouts() {
+        Timeout timeout;
+        while ((timeout = addedTimeouts.poll()) != null) {
+            long elapsedNanos = timeout.deadline - startTime;
+            long targetTick = Math.max(tick, (elapsedNanos + tickNanos - 1) / tickNanos);
+            timeout.remainingRounds = (targetTick - tick) / wheel.length;
+            int index = (int) targetTick & mask;
+            timeout.next = wheel[index];
+            wheel[index] = timeout;
+            ++timeoutCount;
+        }
+    }
+
+    private void expireTimeouts() {
+        int index = (int) tick & mask;
+        Timeout timeout = wheel[index];
+        Timeout remaining = null;
+        while (timeout != null) {
+            Timeout next = timeout.next;
+            if (timeout.remainingRounds <= 0) {
+                --timeoutCount;
+                try {
+                    timeout.task.run();
+                } catch (RuntimeException e) {
+                    logger.warn("Exception caught when running timer task", e);
+                }
+            } else {
+                --timeout.remainingRounds;
+                timeout.next = remaining;
+                remaining = timeout;
+            }
+            timeout = next;
+        }
+        wheel[index] = remaining;
+    }
+
+    private static class Timeout {
+
+        private final Runnable task;
+        private final long deadline;
+        private long remainingRounds;
+        private Timeout next;
+
+        Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package com.headstartech.burro;
+
+/**
+ * Calculates the weight of an item, e.g. its size in bytes or the cost of processing it.
+ */
+public interface Weigher<T> {
+
+    /**
+     * Returns the weight of the item. Must be cheap and return the same weight each time it's called for an item.
+     *
+     * @param item the item
+     * @return the weight of the item, >= 0
+     */
+    int weigh(T item);
+}
@@ -0,0 +1,62 @@
+package com.headstartech.burro;
+
+/**
+ * Listener notified of work queue events, for collecting metrics.
+ *
+ * Item events are called by the producer threads and batch events by the worker threads, so implementations must be
+ * thread-safe and should be cheap.
+ */
+public interface WorkQueueMetricsListener {
+
+    /**
+     * Called when an item has been added to the queue.
+     */
+    void onItemAdded();
+
+    /**
+     * Called when items have been added to the queue by a bulk add.
+     *
+     * @param count the number of added items
+     */
+    void onItemsAdded(int count);
+
+    /**
+     * Called when an item could not be added to the queue.
+     */
+    void onItemRejected();
+
+    /**
+     * Called when items of a bulk add could not be added to the queue.
+     *
+     * @param count the number of rejected items
+     */
+    void onItemsRejected(int count);
+
+    /**
+     * Called when the worker has taken items from the queue, with the time each of them waited. Only called by queues
+     * recording the time each item was added, such as queues backed by a {@link MpscArrayBlockingQueue}.
+     *
+     * @param waitNanos the time each item waited in the queue, in nanoseconds, only valid during the call
+     * @param count the number of items, the length of {@code waitNanos} may be larger
+     */
+    void onItemsDequeued(long[] waitNanos, int count);
+
+    /**
+     * Called when a batch has been processed.
+     *
+     * @param batchSize number of items in the batch
+     * @param timeInQueueNanos time the oldest item of the batch waited in the queue, in nanoseconds
+     * @param processingNanos time spent processing the batch, in nanoseconds
+     */
+    void onBatchProcessed(int batchSize, long timeInQueueNanos, long processingNanos);
+
+    /**
+     * Called when processing a batch failed.
+     *
+     * @param batchSize number of items in the batch
+     * @param timeInQueueNanos time the oldest item of the batch waited in the queue, in nanoseconds
+     * @param processingNanos time spent processing the batch, in nanoseconds
+     * @param cause the cause of the failure
+     */
+    void onBatchFailed(int batchSize, long timeInQueueNanos, long processingNanos, Throwable cause);
+}
@@ -0,0 +1,159 @@
+package com.headstartech.burro;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Immutable snapshot of the statistics of a {@link WorkQueue}.
+ *
+ * Counters are cumulative since the queue was created, rates can be calculated from two snapshots with
+ * {@link #getAddRate(WorkQueueStatistics)}. Times are in nanoseconds.
+ */
+public class WorkQueueStatistics {
+
+    private final long timestamp;
+    private final long addedCount;
+    private final long rejectedCount;
+    private final int queueSize;
+    private final long processedBatchCount;
+    private final long failedBatchCount;
+    private final long failedItemCount;
+    private final HistogramSnapshot batchSize;
+    private final HistogramSnapshot timeInQueue;
+    private final HistogramSnapshot processingTime;
+    private final HistogramSnapshot itemWaitTime;
+
+    public WorkQueueStatistics(long timestamp, long addedCount, long rejectedCount, int queueSize, long processedBatchCount, long failedBatchCount, long failedItemCount,
+                               HistogramSnapshot batchSize, HistogramSnapshot timeInQueue, HistogramSnapshot processingTime, HistogramSnapshot itemWaitTime) {
+        this.timestamp = timestamp;
+        this.addedCount = addedCount;
+        this.rejectedCount = rejectedCount;
+        this.queueSize = queueSize;
+        this.processedBatchCount = processedBatchCount;
+        this.failedBatchCount = failedBatchCount;
+        this.failedItemCount = failedItemCount;
+        this.batchSize = batchSize;
+        this.timeInQueue = timeInQueue;
+        this.processingTime = processingTime;
+        this.itemWaitTime = itemWaitTime;
+    }
+
+    /**
+     * The time the snapshot was taken, as returned by {@link System#nanoTime()}.
+     *
+     * @return time the snapshot was taken
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * The number of items added to the queue.
+     *
+     * @return number of items added to the queue
+     */
+    public long getAddedCount() {
+        return addedCount;
+    }
+
+    /**
+     * The number of items which could not be added to the queue, because it was full.
+     *
+     * @return number of rejected items
+     */
+    public long getRejectedCount() {
+        return rejectedCount;
+    }
+
+    /**
+     * The number of items in the queue when the snapshot was taken.
+     *
+     * @return number of items in the queue
+     */
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    /**
+     * The number of batches processed, not including failed batches.
+     *
+     * @return number of processed batches
+     */
+    public long getProcessedBatchCount() {
+        return processedBatchCount;
+    }
+
+    /**
+     * The number of batches for which the processor failed.
+     *
+     * @return number of failed batches
+     */
+    public long getFailedBatchCount() {
+        return failedBatchCount;
+    }
+
+    /**
+     * The number of items in batches for which the processor failed.
+     *
+     * @return number of items in failed batches
+     */
+    public long getFailedItemCount() {
+        return failedItemCount;
+    }
+
+    /**
+     * Histogram of the number of items per processed batch.
+     *
+     * @return histogram of the number of items per batch
+     */
+    public HistogramSnapshot getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Histogram of the time the oldest item of each processed batch waited in the queue.
+     *
+     * @return histogram of the time in queue
+     */
+    public HistogramSnapshot getTimeInQueue() {
+        return timeInQueue;
+    }
+
+    /**
+     * Histogram of the time spent processing each batch, not including failed batches.
+     *
+     * @return histogram of the processing time
+     */
+    public HistogramSnapshot getProcessingTime() {
+        return processingTime;
+    }
+
+    /**
+     * Histogram of the time each item waited in the queue. Empty for queues not recording the time each item was
+     * added, see {@link WorkQueueMetricsListener#onItemsDequeued(long[], int)}.
+     *
+     * @return histogram of the item wait time
+     */
+    public HistogramSnapshot getItemWaitTime() {
+        return itemWaitTime;
+    }
+
+    /**
+     * The number of items added per second between a previous snapshot and this one.
+     *
+     * @param previous a previous snapshot of the same queue
+     * @return number of items added per second
+     */
+    public double getAddRate(WorkQueueStatistics previous) {
+        long elapsed = timestamp - previous.timestamp;
+        if (elapsed <= 0) {
+            return 0.0;
+        }
+        return (double) (addedCount - previous.addedCount) * TimeUnit.SECONDS.toNanos(1) / elapsed;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("addedCount=%d, rejectedCount=%d, queueSize=%d, processedBatchCount=%d, failedBatchCount=%d, failedItemCount=%d, batchSize=[%s], timeInQueue=[%s], processingTime=[%s], itemWaitTime=[%s]",
+                addedCount, rejectedCount, queueSize, processedBatchCount, failedBatchCount, failedItemCount, batchSize, timeInQueue, processingTime, itemWaitTime);
+    }
+}
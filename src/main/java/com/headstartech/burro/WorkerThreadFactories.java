@@ -0,0 +1,56 @@
+package com.headstartech.burro;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Thread factories for the worker threads of a {@link BatchingWorkQueue}, see
+ * {@link AbstractBatchingWorkQueueConfiguration#getThreadFactory()}.
+ */
+public final class WorkerThreadFactories {
+
+    private static final ThreadFactory VIRTUAL_THREAD_FACTORY = createVirtualThreadFactory();
+
+    private WorkerThreadFactories() {
+    }
+
+    /**
+     * @return {@code true} if the JVM supports virtual threads
+     */
+    public static boolean isVirtualThreadsSupported() {
+        return VIRTUAL_THREAD_FACTORY != null;
+    }
+
+    /**
+     * A factory creating virtual threads. Workers blocked waiting for items, or in a processor doing blocking I/O,
+     * then don't occupy a platform thread.
+     *
+     * @return factory creating virtual threads
+     * @throws UnsupportedOperationException if the JVM doesn't support virtual threads
+     */
+    public static ThreadFactory virtualThreadFactory() {
+        if (VIRTUAL_THREAD_FACTORY == null) {
+            throw new UnsupportedOperationException("Virtual threads are not supported by this JVM");
+        }
+        return VIRTUAL_THREAD_FACTORY;
+    }
+
+    // looked up reflectively, the library is compiled for Java versions without virtual threads
+    private static ThreadFactory createVirtualThreadFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Method factory = Class.forName("java.lang.Thread$Builder").getMethod("factory");
+            return (ThreadFactory) factory.invoke(builder);
+        } catch (NoSuchMethodException e) {
+            return null;
+        } catch (ClassNotFoundException e) {
+            return null;
+        } catch (IllegalAccessException e) {
+            return null;
+        } catch (InvocationTargetException e) {
+            // e.g. preview feature not enabled
+            return null;
+        }
+    }
+}
@@ -0,0 +1,322 @@
+package com.headstartech.burro;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Append only log of records in memory-mapped segment files, with a checkpoint of the acknowledged position.
+ *
+ * A record is a length, a CRC32 of the payload, and the payload. A record not fitting in the rest of a segment is
+ * written to a new segment, the rest of the old one is marked as unused. Records are acknowledged in the order they
+ * were appended, segments with only acknowledged records are deleted.
+ *
+ * Records written to the mapped segments survive a crash of the process. {@link #sync()} forces them to the storage
+ * device, to also survive a crash of the operating system. On open, the records appended after the acknowledged
+ * position are recovered, up to the first incomplete or corrupt record.
+ */
+class WriteAheadLog {
+
+    private static final Logger logger = LoggerFactory.getLogger(WriteAheadLog.class);
+
+    private static final int HEADER_SIZE = 8;
+    private static final int ROLL_MARKER = -1;
+    private static final String CHECKPOINT_FILE_NAME = "checkpoint";
+    private static final String SEGMENT_FILE_FORMAT = "segment-%020d.log";
+
+    private final File directory;
+    private final int segmentSize;
+    private final RandomAccessFile checkpointFile;
+    private final MappedByteBuffer checkpoint;
+    private final List<byte[]> recoveredRecords = new ArrayList<byte[]>();
+    private final CRC32 crc = new CRC32();
+
+    private long firstSegmentIndex;
+    private long segmentIndex;
+    private RandomAccessFile segmentFile;
+    private MappedByteBuffer segment;
+    private long writePosition;
+    private long ackedPosition;
+
+    // end positions of the appended records not yet acknowledged
+    private long[] recordEnds = new long[1024];
+    private int recordEndsHead;
+    private int recordEndsSize;
+
+    private volatile Thread syncThread;
+
+    /**
+     * Opens the log in the directory, creating it if needed, and recovers the records not acknowledged.
+     *
+     * @param directory the directory of the log files
+     * @param segmentSize the size of each segment file, in bytes
+     * @throws IOException if the log files couldn't be read or created
+     */
+    WriteAheadLog(File directory, int segmentSize) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Failed to create directory: " + directory);
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.checkpointFile = new RandomAccessFile(new File(directory, CHECKPOINT_FILE_NAME), "rw");
+        this.checkpoint = checkpointFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, 8);
+        this.ackedPosition = checkpoint.getLong(0);
+        recover();
+    }
+
+    /**
+     * @return the payloads of the records not acknowledged when the log was opened, in append order
+     */
+    List<byte[]> getRecoveredRecords() {
+        return Collections.unmodifiableList(recoveredRecords);
+    }
+
+    /**
+     * Appends a record.
+     *
+     * @param payload the payload, not empty
+     * @throws IOException if a new segment couldn't be created
+     */
+    synchronized void append(byte[] payload) throws IOException {
+        if (payload.length == 0) {
+            throw new IllegalArgumentException("payload must not be empty");
+        }
+        if (payload.length > segmentSize - HEADER_SIZE) {
+            throw new IllegalArgumentException(String.format("payload larger than segment: length=%d, segmentSize=%d", payload.length, segmentSize));
+        }
+        int offset = segmentOffset(writePosition);
+        boolean segmentFull = writePosition / segmentSize != segmentIndex;
+        if (segmentFull || offset + HEADER_SIZE + payload.length > segmentSize) {
+            if (!segmentFull && segmentSize - offset >= 4) {
+                segment.putInt(offset, ROLL_MARKER);
+            }
+            segment.force();
+            segmentFile.close();
+            openSegment(segmentIndex + 1);
+            writePosition = segmentIndex * segmentSize;
+            offset = 0;
+        }
+        crc.reset();
+        crc.update(payload, 0, payload.length);
+        ByteBuffer buffer = segment.duplicate();
+        buffer.position(offset + HEADER_SIZE);
+        buffer.put(payload);
+        segment.putInt(offset + 4, (int) crc.getValue());
+        // the length is written last, a record with a length is complete
+        segment.putInt(offset, payload.length);
+        writePosition += HEADER_SIZE + payload.length;
+        addRecordEnd(writePosition);
+    }
+
+    /**
+     * Acknowledges the oldest records not yet acknowledged.
+     *
+     * @param count the number of records
+     */
+    synchronized void acknowledge(int count) {
+        if (count <= 0) {
+            return;
+        }
+        if (count > recordEndsSize) {
+            throw new IllegalStateException(String.format("More records acknowledged than appended: count=%d, unacknowledged=%d", count, recordEndsSize));
+        }
+        recordEndsHead = (recordEndsHead + count - 1) % recordEnds.length;
+        ackedPosition = recordEnds[recordEndsHead];
+        recordEndsHead = (recordEndsHead + 1) % recordEnds.length;
+        recordEndsSize -= count;
+        checkpoint.putLong(0, ackedPosition);
+        while (firstSegmentIndex < ackedPosition / segmentSize) {
+            deleteSegment(firstSegmentIndex++);
+        }
+    }
+
+    /**
+     * Forces the appended records and the acknowledged position to the storage device.
+     */
+    void sync() {
+        MappedByteBuffer currentSegment;
+        synchronized (this) {
+            currentSegment = segment;
+        }
+        // outside the lock, appending continues while forcing
+        currentSegment.force();
+        checkpoint.force();
+    }
+
+    /**
+     * Starts a thread calling {@link #sync()} periodically.
+     *
+     * @param syncInterval the number of milliseconds between syncs
+     * @param threadName the name of the thread
+     */
+    void startSync(final int syncInterval, String threadName) {
+        Thread t = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (syncThread == Thread.currentThread()) {
+                    try {
+                        Thread.sleep(syncInterval);
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+                    sync();
+                }
+            }
+        }, threadName);
+        t.setDaemon(true);
+        syncThread = t;
+        t.start();
+    }
+
+    /**
+     * Stops the sync thread, syncs and closes the files. The mapped segments stay valid, but records appended or
+     * acknowledged after closing are not forced to the storage device.
+     */
+    synchronized void close() {
+        Thread t = syncThread;
+        syncThread = null;
+        if (t != null) {
+            t.interrupt();
+        }
+        sync();
+        closeQuietly(segmentFile);
+        closeQuietly(checkpointFile);
+    }
+
+    private void recover() throws IOException {
+        long ackedSegmentIndex = ackedPosition / segmentSize;
+        firstSegmentIndex = ackedSegmentIndex;
+        List<Long> segmentIndexes = listSegments();
+        for (Long index : segmentIndexes) {
+            if (index < ackedSegmentIndex) {
+                deleteSegment(index);
+            }
+        }
+
+        openSegment(ackedSegmentIndex);
+        long position = ackedPosition;
+        while (true) {
+            if (position / segmentSize != segmentIndex) {
+                // end of segment, the next append creates the next segment if it doesn't exist
+                if (!segmentIndexes.contains(segmentIndex + 1)) {
+                    break;
+                }
+                segmentFile.close();
+                openSegment(segmentIndex + 1);
+            }
+            int offset = segmentOffset(position);
+            int length = segmentSize - offset >= HEADER_SIZE ? segment.getInt(offset) : ROLL_MARKER;
+            if (length == ROLL_MARKER) {
+                position = (segmentIndex + 1) * segmentSize;
+                continue;
+            }
+            byte[] payload = readRecord(offset, length);
+            if (payload == null) {
+                break;
+            }
+            recoveredRecords.add(payload);
+            position += HEADER_SIZE + length;
+            addRecordEnd(position);
+        }
+        writePosition = position;
+
+        if (segmentIndexes.contains(segmentIndex) && writePosition / segmentSize == segmentIndex) {
+            // clear what follows the last complete record, it must not be mistaken for records appended later
+            byte[] zeros = new byte[4096];
+            ByteBuffer buffer = segment.duplicate();
+            buffer.position(segmentOffset(writePosition));
+            while (buffer.hasRemaining()) {
+                buffer.put(zeros, 0, Math.min(zeros.length, buffer.remaining()));
+            }
+        }
+        for (Long index : segmentIndexes) {
+            if (index > segmentIndex) {
+                deleteSegment(index);
+            }
+        }
+        logger.info("Recovered write-ahead log: directory={}, recoveredRecords={}", directory, recoveredRecords.size());
+    }
+
+    private byte[] readRecord(int offset, int length) {
+        if (length <= 0 || length > segmentSize - offset - HEADER_SIZE) {
+            return null;
+        }
+        byte[] payload = new byte[length];
+        ByteBuffer buffer = segment.duplicate();
+        buffer.position(offset + HEADER_SIZE);
+        buffer.get(payload);
+        crc.reset();
+        crc.update(payload, 0, payload.length);
+        if ((int) crc.getValue() != segment.getInt(offset + 4)) {
+            logger.warn("Corrupt record in write-ahead log, ignoring the rest of the log: directory={}, segment={}, offset={}", directory, segmentIndex, offset);
+            return null;
+        }
+        return payload;
+    }
+
+    private void openSegment(long index) throws IOException {
+        segmentFile = new RandomAccessFile(segmentFile(index), "rw");
+        segment = segmentFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        segmentIndex = index;
+    }
+
+    private List<Long> listSegments() {
+        List<Long> indexes = new ArrayList<Long>();
+        String[] names = directory.list();
+        if (names != null) {
+            for (String name : names) {
+                if (name.startsWith("segment-") && name.endsWith(".log")) {
+                    indexes.add(Long.valueOf(name.substring("segment-".length(), name.length() - ".log".length())));
+                }
+            }
+        }
+        Collections.sort(indexes);
+        return indexes;
+    }
+
+    private void deleteSegment(long index) {
+        File file = segmentFile(index);
+        if (file.exists() && !file.delete()) {
+            logger.warn("Failed to delete segment: file={}", file);
+        }
+    }
+
+    private File segmentFile(long index) {
+        return new File(directory, String.format(SEGMENT_FILE_FORMAT, index));
+    }
+
+    private int segmentOffset(long position) {
+        return (int) (position % segmentSize);
+    }
+
+    private void addRecordEnd(long position) {
+        if (recordEndsSize == recordEnds.length) {
+            long[] grown = new long[recordEnds.length * 2];
+            for (int i = 0; i < recordEndsSize; ++i) {
+                grown[i] = recordEnds[(recordEndsHead + i) % recordEnds.length];
+            }
+            recordEnds = grown;
+            recordEndsHead = 0;
+        }
+        recordEnds[(recordEndsHead + recordEndsSize) % recordEnds.length] = position;
+        ++recordEndsSize;
+    }
+
+    private static void closeQuietly(RandomAccessFile file) {
+        try {
+            file.close();
+        } catch (IOException e) {
+            logger.warn("Failed to close file", e);
+        }
+    }
+}
@@ -242,6 +242,11 @@ public class AbstractWorkQueueTest {
             return queue.remainingCapacity();
         }
 
+        @Override
+        protected int queueSize() {
+            return queue.size();
+        }
+
         @Override
         protected void onStarting() {
             workerThread = new Thread(workQueueWorker);
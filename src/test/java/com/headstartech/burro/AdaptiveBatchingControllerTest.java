@@ -0,0 +1,114 @@
+package com.headstartech.burro;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class AdaptiveBatchingControllerTest {
+
+    @Test
+    public void testLatencyAboveTarget() {
+        // given
+        MutableBatchingWorkQueueConfiguration configuration = new MutableBatchingWorkQueueConfiguration("test-queue",
+                100, 1000, 0, 200, true, 10);
+        AdaptiveBatchingController controller = new AdaptiveBatchingController(configuration, 100, 10, 1000, 1000, 3600000);
+        completeBatches(controller, 10, 100, TimeUnit.MILLISECONDS.toNanos(150));
+
+        // when
+        controller.evaluate();
+
+        // then
+        assertEquals(50, configuration.getMinBatchSize());
+        assertEquals(100, configuration.getMaxWriteDelay());
+    }
+
+    @Test
+    public void testLatencyBelowTarget() {
+        // given
+        MutableBatchingWorkQueueConfiguration configuration = new MutableBatchingWorkQueueConfiguration("test-queue",
+                100, 1000, 0, 20, true, 10);
+        AdaptiveBatchingController controller = new AdaptiveBatchingController(configuration, 100, 10, 1000, 1000, 3600000);
+        completeBatches(controller, 10, 100, TimeUnit.MILLISECONDS.toNanos(10));
+
+        // when
+        controller.evaluate();
+
+        // then
+        assertEquals(125, configuration.getMinBatchSize());
+        assertEquals(25, configuration.getMaxWriteDelay());
+    }
+
+    @Test
+    public void testQueueGrowing() {
+        // given
+        MutableBatchingWorkQueueConfiguration configuration = new MutableBatchingWorkQueueConfiguration("test-queue",
+                10, 100, 0, 20, true, 10);
+        AdaptiveBatchingController controller = new AdaptiveBatchingController(configuration, 100, 10, 1000, 1000, 3600000);
+        for (int i = 0; i < 2000; ++i) {
+            controller.onItemAdded();
+        }
+        completeBatches(controller, 10, 100, TimeUnit.MILLISECONDS.toNanos(60));
+
+        // when
+        controller.evaluate();
+
+        // then
+        assertEquals(200, configuration.getMaxBatchSize());
+        assertEquals(10, configuration.getMinBatchSize());
+        assertEquals(20, configuration.getMaxWriteDelay());
+    }
+
+    @Test
+    public void testMaxBatchSizeCappedByProcessingTime() {
+        // given
+        MutableBatchingWorkQueueConfiguration configuration = new MutableBatchingWorkQueueConfiguration("test-queue",
+                10, 1000, 0, 20, true, 10);
+        AdaptiveBatchingController controller = new AdaptiveBatchingController(configuration, 100, 10, 1000, 1000, 3600000);
+        completeBatches(controller, 10, 100, TimeUnit.MILLISECONDS.toNanos(10), TimeUnit.MILLISECONDS.toNanos(40));  // 0.4 ms per item
+
+        // when
+        controller.evaluate();
+
+        // then
+        assertEquals(250, configuration.getMaxBatchSize());
+    }
+
+    @Test
+    public void testBounds() {
+        // given
+        MutableBatchingWorkQueueConfiguration configuration = new MutableBatchingWorkQueueConfiguration("test-queue",
+                10, 100, 5, 20, true, 10);
+        AdaptiveBatchingController controller = new AdaptiveBatchingController(configuration, 100, 8, 150, 1000, 3600000);
+        for (int i = 0; i < 2000; ++i) {
+            controller.onItemAdded();
+        }
+        completeBatches(controller, 10, 100, TimeUnit.MILLISECONDS.toNanos(500), TimeUnit.MILLISECONDS.toNanos(1));
+
+        // when
+        controller.evaluate();
+
+        // then
+        assertEquals(150, configuration.getMaxBatchSize());
+        assertEquals(8, configuration.getMinBatchSize());
+        assertEquals(10, configuration.getMaxWriteDelay());
+
+        // when
+        completeBatches(controller, 10, 100, TimeUnit.MILLISECONDS.toNanos(500), TimeUnit.MILLISECONDS.toNanos(1));
+        controller.evaluate();
+
+        // then
+        assertEquals(5, configuration.getMaxWriteDelay());  // not below minWriteDelay
+    }
+
+    private static void completeBatches(AdaptiveBatchingController controller, int batchCount, int batchSize, long latencyNanos) {
+        completeBatches(controller, batchCount, batchSize, latencyNanos / 2, latencyNanos / 2);
+    }
+
+    private static void completeBatches(AdaptiveBatchingController controller, int batchCount, int batchSize, long timeInQueueNanos, long processingNanos) {
+        for (int i = 0; i < batchCount; ++i) {
+            controller.onBatchProcessed(batchSize, timeInQueueNanos, processingNanos);
+        }
+    }
+}
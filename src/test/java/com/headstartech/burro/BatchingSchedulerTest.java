@@ -0,0 +1,190 @@
+package com.headstartech.burro;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BatchingSchedulerTest {
+
+    @Test
+    public void testMinBatch() throws InterruptedException {
+        BatchingScheduler scheduler = new BatchingScheduler("test-scheduler", 2);
+        List<BatchingWorkQueue<WorkQueueItem>> workQueues = new ArrayList<BatchingWorkQueue<WorkQueueItem>>();
+        try {
+            // given
+            int queueCount = 50;
+            final CountDownLatch processedLatch = new CountDownLatch(queueCount);
+            final List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<Integer>());
+            scheduler.start();
+            for (int i = 0; i < queueCount; ++i) {
+                BatchingWorkQueueConfiguration configuration = new MutableBatchingWorkQueueConfiguration("test-queue-" + i,
+                        5,        // min batch
+                        5,        // max batch
+                        0, 60000,  // max delay
+                        true,
+                        10);
+                BatchingWorkQueue<WorkQueueItem> workQueue = new BatchingWorkQueue<WorkQueueItem>(configuration, new ArrayBlockingQueue<WorkQueueItem>(100), new WorkProcessor<Collection<WorkQueueItem>>() {
+                    @Override
+                    public void process(Collection<WorkQueueItem> work) {
+                        batchSizes.add(work.size());
+                        processedLatch.countDown();
+                    }
+                }, scheduler);
+                workQueue.start();
+                workQueues.add(workQueue);
+            }
+
+            // when
+            for (BatchingWorkQueue<WorkQueueItem> workQueue : workQueues) {
+                for (int i = 0; i < 5; ++i) {
+                    workQueue.add(new WorkQueueItem());
+                }
+            }
+
+            // then
+            assertTrue(processedLatch.await(10000, TimeUnit.MILLISECONDS));
+            assertEquals(queueCount, batchSizes.size());
+            for (Integer batchSize : batchSizes) {
+                assertEquals(5, batchSize.intValue());
+            }
+        } finally {
+            for (BatchingWorkQueue<WorkQueueItem> workQueue : workQueues) {
+                workQueue.shutdown();
+            }
+            scheduler.shutdown();
+        }
+    }
+
+    @Test
+    public void testMaxDelay() throws InterruptedException {
+        BatchingScheduler scheduler = new BatchingScheduler("test-scheduler", 1);
+        BatchingWorkQueue<WorkQueueItem> workQueue = null;
+        try {
+            // given
+            int maxDelay = 200;
+            BatchingWorkQueueConfiguration configuration = new MutableBatchingWorkQueueConfiguration("test-queue",
+                    10,        // min batch
+                    10,        // max batch
+                    0, maxDelay,  // max delay
+                    true,
+                    10);
+            final CountDownLatch processedLatch = new CountDownLatch(1);
+            final AtomicInteger processedCount = new AtomicInteger();
+            workQueue = new BatchingWorkQueue<WorkQueueItem>(configuration, new ArrayBlockingQueue<WorkQueueItem>(100), new WorkProcessor<Collection<WorkQueueItem>>() {
+                @Override
+                public void process(Collection<WorkQueueItem> work) {
+                    processedCount.addAndGet(work.size());
+                    processedLatch.countDown();
+                }
+            }, scheduler);
+            scheduler.start();
+            workQueue.start();
+
+            // when
+            long timeAdded = System.currentTimeMillis();
+            workQueue.add(new WorkQueueItem());
+            workQueue.add(new WorkQueueItem());
+
+            // then
+            assertTrue(processedLatch.await(10000, TimeUnit.MILLISECONDS));
+            long delay = System.currentTimeMillis() - timeAdded;
+            assertTrue(delay >= (maxDelay - 5));  // some margin
+            assertTrue(delay < maxDelay + 1000);
+            assertEquals(2, processedCount.get());
+        } finally {
+            if (workQueue != null) {
+                workQueue.shutdown();
+            }
+            scheduler.shutdown();
+        }
+    }
+
+    @Test
+    public void testShutdownWithItemsInQueue() throws InterruptedException {
+        BatchingScheduler scheduler = new BatchingScheduler("test-scheduler", 1);
+        try {
+            // given
+            BatchingWorkQueueConfiguration configuration = new MutableBatchingWorkQueueConfiguration("test-queue",
+                    100,        // min batch
+                    100,        // max batch
+                    0, 60000,  // max delay
+                    true,
+                    10);
+            final AtomicInteger processedCount = new AtomicInteger();
+            BatchingWorkQueue<WorkQueueItem> workQueue = new BatchingWorkQueue<WorkQueueItem>(configuration, new ArrayBlockingQueue<WorkQueueItem>(100), new WorkProcessor<Collection<WorkQueueItem>>() {
+                @Override
+                public void process(Collection<WorkQueueItem> work) {
+                    processedCount.addAndGet(work.size());
+                }
+            }, scheduler);
+            scheduler.start();
+            workQueue.start();
+            for (int i = 0; i < 25; ++i) {
+                workQueue.add(new WorkQueueItem());
+            }
+
+            // when
+            workQueue.shutdown();
+
+            // then
+            assertEquals(25, processedCount.get());
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+
+    @Test
+    public void testShutdownAfterSchedulerShutdown() {
+        // given
+        BatchingScheduler scheduler = new BatchingScheduler("test-scheduler", 1);
+        BatchingWorkQueueConfiguration configuration = new MutableBatchingWorkQueueConfiguration("test-queue",
+                100,        // min batch
+                100,        // max batch
+                0, 60000,  // max delay
+                false,
+                10);
+        final AtomicInteger processedCount = new AtomicInteger();
+        BatchingWorkQueue<WorkQueueItem> workQueue = new BatchingWorkQueue<WorkQueueItem>(configuration, new ArrayBlockingQueue<WorkQueueItem>(100), new WorkProcessor<Collection<WorkQueueItem>>() {
+            @Override
+            public void process(Collection<WorkQueueItem> work) {
+                processedCount.addAndGet(work.size());
+            }
+        }, scheduler);
+        scheduler.start();
+        workQueue.start();
+        for (int i = 0; i < 25; ++i) {
+            workQueue.add(new WorkQueueItem());
+        }
+        scheduler.shutdown();
+
+        // when
+        workQueue.shutdown();
+
+        // then
+        assertEquals(25, processedCount.get());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParallelismNotSupported() {
+        // given
+        MutableBatchingWorkQueueConfiguration configuration = new MutableBatchingWorkQueueConfiguration("test-queue", 1, 10, 0, 100, true, 10);
+        configuration.setParallelism(2);
+
+        // when
+        new BatchingWorkQueue<WorkQueueItem>(configuration, new ArrayBlockingQueue<WorkQueueItem>(100), new WorkProcessor<Collection<WorkQueueItem>>() {
+            @Override
+            public void process(Collection<WorkQueueItem> work) {
+            }
+        }, new BatchingScheduler("test-scheduler", 1));
+    }
+}
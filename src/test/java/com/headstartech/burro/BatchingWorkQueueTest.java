@@ -5,16 +5,27 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
 
 public class BatchingWorkQueueTest {
 
@@ -61,6 +72,125 @@ public class BatchingWorkQueueTest {
         }
     }
 
+    @Test
+    public void testConfigurationNotExtendingAbstractConfiguration() throws InterruptedException {
+        BatchingWorkQueue<WorkQueueItem> workQueue = null;
+        try {
+            // given
+            BatchingWorkQueueConfiguration configuration = new BatchingWorkQueueConfiguration() {
+                @Override
+                public int getMaxWriteDelay() {
+                    return 60000;
+                }
+
+                @Override
+                public int getMinWriteDelay() {
+                    return 0;
+                }
+
+                @Override
+                public int getMinBatchSize() {
+                    return 2;
+                }
+
+                @Override
+                public int getMaxBatchSize() {
+                    return 2;
+                }
+
+                @Override
+                public boolean isWaitForCompletionOnShutdown() {
+                    return true;
+                }
+
+                @Override
+                public String getQueueName() {
+                    return "test-queue";
+                }
+
+                @Override
+                public int getSleepIntervalWhenEmpty() {
+                    return 10;
+                }
+            };
+            WorkProcessorStub<WorkQueueItem> workProcessorStub = new WorkProcessorStub<WorkQueueItem>(1);
+            workQueue = new BatchingWorkQueue<WorkQueueItem>(configuration, 100, workProcessorStub);
+            workQueue.start();
+
+            // when
+            workQueue.add(new WorkQueueItem());
+            workQueue.add(new WorkQueueItem());
+
+            // then
+            assertTrue(workProcessorStub.processedLatch.await(10000, TimeUnit.MILLISECONDS));
+            assertEquals(2, workProcessorStub.processedWork.get(0).second.size());
+        } finally {
+            if (workQueue != null) {
+                workQueue.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void testNothingDrained() throws InterruptedException {
+        BatchingWorkQueue<WorkQueueItem> workQueue = null;
+        try {
+            // given
+            BatchingWorkQueueConfiguration configuration = new MutableBatchingWorkQueueConfiguration("test-queue", 1, 10, 0, 10, true, 10);
+            WorkProcessorStub<WorkQueueItem> workProcessorStub = new WorkProcessorStub<WorkQueueItem>(1);
+            workQueue = new BatchingWorkQueue<WorkQueueItem>(configuration, new FirstDrainEmptyQueue<WorkQueueItem>(100), workProcessorStub);
+            workQueue.start();
+
+            // when
+            workQueue.add(new WorkQueueItem());
+
+            // then
+            assertTrue(workProcessorStub.processedLatch.await(10000, TimeUnit.MILLISECONDS));
+            assertEquals(1, workProcessorStub.processedWork.get(0).second.size());
+        } finally {
+            if (workQueue != null) {
+                workQueue.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void testMaxDelayFromOldestItem() throws InterruptedException {
+        BatchingWorkQueue<WorkQueueItem> workQueue = null;
+        try {
+            // given
+            int maxDelay = 200;
+            BatchingWorkQueueConfiguration configuration = new MutableBatchingWorkQueueConfiguration("test-queue",
+                    10,        // min batch
+                    10,        // max batch
+                    0, maxDelay,
+                    true,
+                    10);
+
+            WorkProcessorStub<WorkQueueItem> workProcessorStub = new WorkProcessorStub<WorkQueueItem>(1);
+            workQueue = new BatchingWorkQueue<WorkQueueItem>(configuration, 100, workProcessorStub);
+            workQueue.start();
+
+            // when
+            long timeAdded = System.nanoTime();
+            workQueue.add(new WorkQueueItem());
+            Thread.sleep(100);
+            workQueue.add(new WorkQueueItem());
+
+            // then
+            assertTrue(workProcessorStub.processedLatch.await(10000, TimeUnit.MILLISECONDS));
+            long delay = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - timeAdded);
+            assertTrue(delay >= maxDelay);
+            assertTrue(delay < maxDelay + 90);  // not delayed by the second item
+            assertEquals(2, workProcessorStub.processedWork.get(0).second.size());
+            assertEquals(2, workQueue.getStatistics().getItemWaitTime().getCount());
+        } finally {
+            if(workQueue != null) {
+                workQueue.shutdown();
+            }
+        }
+    }
+
     @Test
     public void testMinDelay() throws InterruptedException {
         BatchingWorkQueue<WorkQueueItem> workQueue = null;
@@ -248,21 +378,1139 @@ public class BatchingWorkQueueTest {
         }
     }
 
-    private static class WorkProcessorStub<T> implements WorkProcessor<Collection<T>> {
+    @Test
+    public void testSignalOnAddMinBatch() throws InterruptedException {
+        BatchingWorkQueue<WorkQueueItem> workQueue = null;
+        try {
+            // given
+            MutableBatchingWorkQueueConfiguration configuration = new MutableBatchingWorkQueueConfiguration("test-queue",
+                    2,  // min batch
+                    10,
+                    0, 10000,
+                    true, 10000);
+            configuration.setSignalOnAdd(true);
 
-        private static final Logger logger = LoggerFactory.getLogger(WorkProcessorStub.class);
-        private final CountDownLatch processedLatch;
-        private final List<Pair<Date, List<T>>> processedWork = new ArrayList<Pair<Date, List<T>>>();
+            BlockingQueue<WorkQueueItem> queue = new ArrayBlockingQueue<WorkQueueItem>(100);
+            WorkProcessorStub<WorkQueueItem> workProcessorStub = new WorkProcessorStub<WorkQueueItem>(1);
+            workQueue = new BatchingWorkQueue<WorkQueueItem>(configuration, queue, workProcessorStub);
+            workQueue.start();
+            Thread.sleep(100);
 
-        WorkProcessorStub(int n) {
-            processedLatch = new CountDownLatch(n);
+            WorkQueueItem a = new WorkQueueItem();
+            WorkQueueItem b = new WorkQueueItem();
+
+            // when
+            workQueue.add(a);
+            Date timeAdded = new Date();
+            workQueue.add(b);
+
+            // then
+            workProcessorStub.processedLatch.await(10000, TimeUnit.MILLISECONDS);
+            assertEquals(1, workProcessorStub.processedWork.size());
+            Pair<Date, List<WorkQueueItem>> pair = workProcessorStub.processedWork.get(0);
+            assertTrue(pair.first.getTime() - timeAdded.getTime() <= 50);  // should be processed immediately
+            assertEquals(2, pair.second.size());
+            assertEquals(a, pair.second.get(0));
+            assertEquals(b, pair.second.get(1));
+        } finally {
+            if(workQueue != null) {
+                workQueue.shutdown();
+            }
         }
+    }
 
-        @Override
-        public void process(Collection<T> work) {
-            logger.info("Processing work");
-            processedWork.add(new Pair<Date, List<T>>(new Date(), new ArrayList<T>(work)));
-            processedLatch.countDown();
+    @Test
+    public void testSignalOnAddMaxDelay() throws InterruptedException {
+        BatchingWorkQueue<WorkQueueItem> workQueue = null;
+        try {
+            // given
+            int maxDelay = 200;
+            MutableBatchingWorkQueueConfiguration configuration = new MutableBatchingWorkQueueConfiguration("test-queue",
+                    10,  // min batch
+                    10,
+                    0, maxDelay,
+                    true, 10000);
+            configuration.setSignalOnAdd(true);
+
+            BlockingQueue<WorkQueueItem> queue = new ArrayBlockingQueue<WorkQueueItem>(100);
+            WorkProcessorStub<WorkQueueItem> workProcessorStub = new WorkProcessorStub<WorkQueueItem>(1);
+            workQueue = new BatchingWorkQueue<WorkQueueItem>(configuration, queue, workProcessorStub);
+            workQueue.start();
+            Thread.sleep(100);
+
+            WorkQueueItem a = new WorkQueueItem();
+
+            // when
+            Date timeAdded = new Date();
+            workQueue.add(a);
+
+            // then
+            workProcessorStub.processedLatch.await(10000, TimeUnit.MILLISECONDS);
+            assertEquals(1, workProcessorStub.processedWork.size());
+            Pair<Date, List<WorkQueueItem>> pair = workProcessorStub.processedWork.get(0);
+            long delay = pair.first.getTime() - timeAdded.getTime();
+            assertTrue(delay >= (maxDelay - 5));  // some margin
+            assertTrue(delay <= (maxDelay + 100));
+            assertEquals(1, pair.second.size());
+            assertEquals(a, pair.second.get(0));
+        } finally {
+            if(workQueue != null) {
+                workQueue.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void testParallelism() throws InterruptedException {
+        BatchingWorkQueue<WorkQueueItem> workQueue = null;
+        try {
+            // given
+            MutableBatchingWorkQueueConfiguration configuration = new MutableBatchingWorkQueueConfiguration("test-queue",
+                    1,  // min batch
+                    1,  // max batch
+                    0, 100,
+                    true, 10);
+            configuration.setParallelism(2);
+
+            final CountDownLatch bothProcessing = new CountDownLatch(2);
+            WorkProcessor<Collection<WorkQueueItem>> workProcessor = new WorkProcessor<Collection<WorkQueueItem>>() {
+                @Override
+                public void process(Collection<WorkQueueItem> work) {
+                    bothProcessing.countDown();
+                    try {
+                        bothProcessing.await(10000, TimeUnit.MILLISECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            };
+            BlockingQueue<WorkQueueItem> queue = new ArrayBlockingQueue<WorkQueueItem>(100);
+            workQueue = new BatchingWorkQueue<WorkQueueItem>(configuration, queue, workProcessor);
+            workQueue.add(new WorkQueueItem());
+            workQueue.add(new WorkQueueItem());
+
+            // when
+            workQueue.start();
+
+            // then
+            assertTrue(bothProcessing.await(5000, TimeUnit.MILLISECONDS));  // two batches processed concurrently
+        } finally {
+            if(workQueue != null) {
+                workQueue.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void testShutdownWithItemsInQueueAndParallelism() throws InterruptedException {
+        // given
+        MutableBatchingWorkQueueConfiguration configuration = new MutableBatchingWorkQueueConfiguration("test-queue",
+                2,  // min batch
+                2,  // max batch
+                10, 100,
+                true, 10);
+        configuration.setParallelism(3);
+
+        BlockingQueue<WorkQueueItem> queue = new ArrayBlockingQueue<WorkQueueItem>(100);
+        WorkProcessorStub<WorkQueueItem> workProcessorStub = new WorkProcessorStub<WorkQueueItem>(10);
+        BatchingWorkQueue<WorkQueueItem> workQueue = new BatchingWorkQueue<WorkQueueItem>(configuration, queue, workProcessorStub);
+        for (int i = 0; i < 20; ++i) {
+            workQueue.add(new WorkQueueItem());
+        }
+        workQueue.start();
+
+        // when
+        workQueue.shutdown();
+
+        // then
+        assertEquals(0, workProcessorStub.processedLatch.getCount());
+        int processed = 0;
+        for (Pair<Date, List<WorkQueueItem>> pair : workProcessorStub.processedWork) {
+            processed += pair.second.size();
+        }
+        assertEquals(20, processed);
+    }
+
+    @Test
+    public void testDefaultQueue() throws InterruptedException {
+        BatchingWorkQueue<WorkQueueItem> workQueue = null;
+        try {
+            // given
+            BatchingWorkQueueConfiguration configuration = new MutableBatchingWorkQueueConfiguration("test-queue",
+                    2,  // min batch
+                    2,  // max batch
+                    10, 100,
+                    true, 10);
+
+            WorkProcessorStub<WorkQueueItem> workProcessorStub = new WorkProcessorStub<WorkQueueItem>(2);
+            workQueue = new BatchingWorkQueue<WorkQueueItem>(configuration, 17, workProcessorStub);
+            assertEquals(17, workQueue.remainingCapacity());
+
+            WorkQueueItem a = new WorkQueueItem();
+            WorkQueueItem b = new WorkQueueItem();
+            WorkQueueItem c = new WorkQueueItem();
+            WorkQueueItem d = new WorkQueueItem();
+            workQueue.add(a);
+            workQueue.add(b);
+            workQueue.add(c);
+            workQueue.add(d);
+
+            // when
+            workQueue.start();
+
+            // then
+            workProcessorStub.processedLatch.await(10000, TimeUnit.MILLISECONDS);
+            assertEquals(2, workProcessorStub.processedWork.size());
+            Pair<Date, List<WorkQueueItem>> firstPair = workProcessorStub.processedWork.get(0);
+            assertEquals(a, firstPair.second.get(0));
+            assertEquals(b, firstPair.second.get(1));
+
+            Pair<Date, List<WorkQueueItem>> secondPair = workProcessorStub.processedWork.get(1);
+            assertEquals(c, secondPair.second.get(0));
+            assertEquals(d, secondPair.second.get(1));
+        } finally {
+            if(workQueue != null) {
+                workQueue.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void testBatchReused() throws InterruptedException {
+        BatchingWorkQueue<WorkQueueItem> workQueue = null;
+        try {
+            // given
+            BatchingWorkQueueConfiguration configuration = new MutableBatchingWorkQueueConfiguration("test-queue",
+                    1,  // min batch
+                    1,  // max batch
+                    10, 100,
+                    true, 10);
+
+            RetainingWorkProcessorStub<WorkQueueItem> workProcessorStub = new RetainingWorkProcessorStub<WorkQueueItem>(2);
+            workQueue = new BatchingWorkQueue<WorkQueueItem>(configuration, 10, workProcessorStub);
+            workQueue.add(new WorkQueueItem());
+            workQueue.add(new WorkQueueItem());
+
+            // when
+            workQueue.start();
+
+            // then
+            workProcessorStub.processedLatch.await(10000, TimeUnit.MILLISECONDS);
+            assertSame(workProcessorStub.processedWork.get(0), workProcessorStub.processedWork.get(1));
+            Thread.sleep(100);
+            assertTrue(workProcessorStub.processedWork.get(0).isEmpty());  // cleared after processing
+        } finally {
+            if(workQueue != null) {
+                workQueue.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void testCopyBatches() throws InterruptedException {
+        BatchingWorkQueue<WorkQueueItem> workQueue = null;
+        try {
+            // given
+            MutableBatchingWorkQueueConfiguration configuration = new MutableBatchingWorkQueueConfiguration("test-queue",
+                    1,  // min batch
+                    1,  // max batch
+                    10, 100,
+                    true, 10);
+            configuration.setCopyBatches(true);
+
+            RetainingWorkProcessorStub<WorkQueueItem> workProcessorStub = new RetainingWorkProcessorStub<WorkQueueItem>(2);
+            workQueue = new BatchingWorkQueue<WorkQueueItem>(configuration, 10, workProcessorStub);
+            WorkQueueItem a = new WorkQueueItem();
+            WorkQueueItem b = new WorkQueueItem();
+            workQueue.add(a);
+            workQueue.add(b);
+
+            // when
+            workQueue.start();
+
+            // then
+            workProcessorStub.processedLatch.await(10000, TimeUnit.MILLISECONDS);
+            assertEquals(1, workProcessorStub.processedWork.get(0).size());
+            assertEquals(a, workProcessorStub.processedWork.get(0).iterator().next());
+            assertEquals(1, workProcessorStub.processedWork.get(1).size());
+            assertEquals(b, workProcessorStub.processedWork.get(1).iterator().next());
+        } finally {
+            if(workQueue != null) {
+                workQueue.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void testStatistics() throws InterruptedException {
+        BatchingWorkQueue<WorkQueueItem> workQueue = null;
+        try {
+            // given
+            BatchingWorkQueueConfiguration configuration = new MutableBatchingWorkQueueConfiguration("test-queue",
+                    2,  // min batch
+                    2,  // max batch
+                    0, 100,
+                    true, 10);
+
+            final CountDownLatch processedLatch = new CountDownLatch(2);
+            WorkProcessor<Collection<WorkQueueItem>> workProcessor = new WorkProcessor<Collection<WorkQueueItem>>() {
+                @Override
+                public void process(Collection<WorkQueueItem> work) {
+                    processedLatch.countDown();
+                    if (processedLatch.getCount() == 0) {
+                        throw new IllegalStateException("failing second batch");
+                    }
+                }
+            };
+            workQueue = new BatchingWorkQueue<WorkQueueItem>(configuration, 4, workProcessor);
+            final CountDownLatch listenerLatch = new CountDownLatch(2);
+            workQueue.addMetricsListener(new WorkQueueMetricsListener() {
+                @Override
+                public void onItemAdded() {
+                }
+
+                @Override
+                public void onItemsAdded(int count) {
+                }
+
+                @Override
+                public void onItemRejected() {
+                }
+
+                @Override
+                public void onItemsRejected(int count) {
+                }
+
+                @Override
+                public void onItemsDequeued(long[] waitNanos, int count) {
+                }
+
+                @Override
+                public void onBatchProcessed(int batchSize, long timeInQueueNanos, long processingNanos) {
+                    listenerLatch.countDown();
+                }
+
+                @Override
+                public void onBatchFailed(int batchSize, long timeInQueueNanos, long processingNanos, Throwable cause) {
+                    listenerLatch.countDown();
+                }
+            });
+            for (int i = 0; i < 5; ++i) {
+                workQueue.add(new WorkQueueItem());
+            }
+            assertEquals(4, workQueue.getStatistics().getQueueSize());
+
+            // when
+            workQueue.start();
+
+            // then
+            assertTrue(listenerLatch.await(10000, TimeUnit.MILLISECONDS));
+            WorkQueueStatistics statistics = workQueue.getStatistics();
+            assertEquals(4, statistics.getAddedCount());
+            assertEquals(1, statistics.getRejectedCount());
+            assertEquals(0, statistics.getQueueSize());
+            assertEquals(1, statistics.getProcessedBatchCount());  // the failed batch is not counted as processed
+            assertEquals(1, statistics.getFailedBatchCount());
+            assertEquals(2, statistics.getFailedItemCount());
+            assertEquals(2, statistics.getBatchSize().getMax());
+            assertEquals(1, statistics.getProcessingTime().getCount());
+            assertEquals(1, statistics.getTimeInQueue().getCount());
+            assertEquals(4, statistics.getItemWaitTime().getCount());
+        } finally {
+            if(workQueue != null) {
+                workQueue.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void testAsyncProcessorMaxInFlightBatches() throws InterruptedException {
+        // given
+        MutableBatchingWorkQueueConfiguration configuration = new MutableBatchingWorkQueueConfiguration("test-queue",
+                1,  // min batch
+                1,  // max batch
+                0, 100,
+                true, 10);
+        configuration.setMaxInFlightBatches(2);
+
+        AsyncWorkProcessorStub<WorkQueueItem> workProcessorStub = new AsyncWorkProcessorStub<WorkQueueItem>();
+        BatchingWorkQueue<WorkQueueItem> workQueue = new BatchingWorkQueue<WorkQueueItem>(configuration, 10, workProcessorStub);
+        for (int i = 0; i < 3; ++i) {
+            workQueue.add(new WorkQueueItem());
+        }
+
+        // when
+        workQueue.start();
+
+        // then
+        Thread.sleep(200);
+        assertEquals(2, workProcessorStub.callbacks.size());  // third batch waits for a batch to complete
+        workProcessorStub.callbacks.get(0).completed();
+        Thread.sleep(200);
+        assertEquals(3, workProcessorStub.callbacks.size());
+
+        // when
+        final BatchingWorkQueue<WorkQueueItem> queueToShutdown = workQueue;
+        Thread shutdownThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                queueToShutdown.shutdown();
+            }
+        });
+        shutdownThread.start();
+
+        // then ...shutdown waits for the batches in flight
+        shutdownThread.join(200);
+        assertTrue(shutdownThread.isAlive());
+        workProcessorStub.callbacks.get(1).completed();
+        workProcessorStub.callbacks.get(2).failed(new IllegalStateException("failed"));
+        shutdownThread.join(5000);
+        assertFalse(shutdownThread.isAlive());
+        assertEquals(2, workQueue.getStatistics().getProcessedBatchCount());
+        assertEquals(1, workQueue.getStatistics().getFailedBatchCount());
+    }
+
+    @Test
+    public void testAddAndTrack() throws Exception {
+        BatchingWorkQueue<WorkQueueItem> workQueue = null;
+        try {
+            // given
+            BatchingWorkQueueConfiguration configuration = new MutableBatchingWorkQueueConfiguration("test-queue",
+                    2,  // min batch
+                    2,  // max batch
+                    0, 100,
+                    true, 10);
+
+            final WorkQueueItem failing = new WorkQueueItem();
+            WorkProcessor<Collection<WorkQueueItem>> workProcessor = new WorkProcessor<Collection<WorkQueueItem>>() {
+                @Override
+                public void process(Collection<WorkQueueItem> work) {
+                    if (work.contains(failing)) {
+                        throw new IllegalStateException("failing batch");
+                    }
+                }
+            };
+            workQueue = new BatchingWorkQueue<WorkQueueItem>(configuration, 4, workProcessor);
+            WorkQueueItem a = new WorkQueueItem();
+            WorkQueueItem b = new WorkQueueItem();
+            WorkQueueItem c = new WorkQueueItem();
+
+            // when
+            CompletionHandle handleA = workQueue.addAndTrack(a);
+            CompletionHandle handleB = workQueue.addAndTrack(b);
+            CompletionHandle handleC = workQueue.addAndTrack(c);
+            CompletionHandle handleFailing = workQueue.addAndTrack(failing);
+            CompletionHandle handleRejected = workQueue.addAndTrack(new WorkQueueItem());
+            assertFalse(handleA.isDone());
+            workQueue.start();
+
+            // then
+            handleA.get(10000, TimeUnit.MILLISECONDS);
+            handleB.get(10000, TimeUnit.MILLISECONDS);
+            try {
+                handleC.get(10000, TimeUnit.MILLISECONDS);
+                fail("Expected ExecutionException");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof IllegalStateException);
+            }
+            try {
+                handleFailing.get(10000, TimeUnit.MILLISECONDS);
+                fail("Expected ExecutionException");
+            } catch (ExecutionException e) {
+                assertTrue(handleFailing.isCompletedExceptionally());
+            }
+            assertFalse(handleA.isCompletedExceptionally());
+            assertNull(handleRejected);
+        } finally {
+            if(workQueue != null) {
+                workQueue.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void testAddAndTrackSameItemCompletedOutOfOrder() throws Exception {
+        BatchingWorkQueue<WorkQueueItem> workQueue = null;
+        try {
+            // given
+            MutableBatchingWorkQueueConfiguration configuration = new MutableBatchingWorkQueueConfiguration("test-queue", 1, 1, 0, 100, true, 10);
+            configuration.setMaxInFlightBatches(2);
+            AsyncWorkProcessorStub<WorkQueueItem> workProcessor = new AsyncWorkProcessorStub<WorkQueueItem>();
+            workQueue = new BatchingWorkQueue<WorkQueueItem>(configuration, 4, workProcessor);
+            WorkQueueItem item = new WorkQueueItem();
+            CompletionHandle first = workQueue.addAndTrack(item);
+            CompletionHandle second = workQueue.addAndTrack(item);
+            workQueue.start();
+            long deadline = System.currentTimeMillis() + 10000;
+            while (workProcessor.callbacks.size() < 2 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+
+            // when
+            workProcessor.callbacks.get(1).failed(new IllegalStateException("failing batch"));
+            workProcessor.callbacks.get(0).completed();
+
+            // then
+            assertTrue(first.isDone());
+            assertFalse(first.isCompletedExceptionally());
+            assertTrue(second.isCompletedExceptionally());
+        } finally {
+            if (workQueue != null) {
+                workQueue.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void testThreadFactory() throws InterruptedException {
+        BatchingWorkQueue<WorkQueueItem> workQueue = null;
+        try {
+            // given
+            MutableBatchingWorkQueueConfiguration configuration = new MutableBatchingWorkQueueConfiguration("test-queue",
+                    1,  // min batch
+                    1,  // max batch
+                    0, 100,
+                    true, 10);
+            final AtomicInteger createdThreads = new AtomicInteger();
+            configuration.setThreadFactory(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    createdThreads.incrementAndGet();
+                    Thread t = new Thread(r);
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            final List<String> threadNames = Collections.synchronizedList(new ArrayList<String>());
+            final CountDownLatch processedLatch = new CountDownLatch(1);
+            workQueue = new BatchingWorkQueue<WorkQueueItem>(configuration, 100, new WorkProcessor<Collection<WorkQueueItem>>() {
+                @Override
+                public void process(Collection<WorkQueueItem> work) {
+                    threadNames.add(Thread.currentThread().getName());
+                    processedLatch.countDown();
+                }
+            });
+
+            // when
+            workQueue.start();
+            workQueue.add(new WorkQueueItem());
+
+            // then
+            assertTrue(processedLatch.await(5000, TimeUnit.MILLISECONDS));
+            assertEquals(1, createdThreads.get());
+            assertEquals("test-queue-worker", threadNames.get(0));
+        } finally {
+            if(workQueue != null) {
+                workQueue.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void testVirtualThreads() throws InterruptedException {
+        assumeTrue(WorkerThreadFactories.isVirtualThreadsSupported());
+        BatchingWorkQueue<WorkQueueItem> workQueue = null;
+        try {
+            // given
+            MutableBatchingWorkQueueConfiguration configuration = new MutableBatchingWorkQueueConfiguration("test-queue",
+                    10,  // min batch
+                    10,  // max batch
+                    0, 100,
+                    true, 10);
+            configuration.setSignalOnAdd(true);
+            configuration.setThreadFactory(WorkerThreadFactories.virtualThreadFactory());
+            WorkProcessorStub<WorkQueueItem> workProcessorStub = new WorkProcessorStub<WorkQueueItem>(1);
+            workQueue = new BatchingWorkQueue<WorkQueueItem>(configuration, 100, workProcessorStub);
+
+            // when
+            workQueue.start();
+            workQueue.add(new WorkQueueItem());
+            workQueue.add(new WorkQueueItem());
+
+            // then
+            assertTrue(workProcessorStub.processedLatch.await(5000, TimeUnit.MILLISECONDS));
+            assertEquals(2, workProcessorStub.processedWork.get(0).second.size());
+        } finally {
+            if(workQueue != null) {
+                workQueue.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void testRetry() throws InterruptedException {
+        BatchingWorkQueue<WorkQueueItem> workQueue = null;
+        try {
+            // given
+            MutableBatchingWorkQueueConfiguration configuration = new MutableBatchingWorkQueueConfiguration("test-queue",
+                    2,  // min batch
+                    2,  // max batch
+                    0, 100,
+                    true, 10);
+            configuration.setMaxRetries(3);
+            configuration.setRetryBackoff(10);
+            final AtomicInteger attempts = new AtomicInteger();
+            final WorkQueueItem failing = new WorkQueueItem();
+            final List<WorkQueueItem> processed = Collections.synchronizedList(new ArrayList<WorkQueueItem>());
+            workQueue = new BatchingWorkQueue<WorkQueueItem>(configuration, 100, new WorkProcessor<Collection<WorkQueueItem>>() {
+                @Override
+                public void process(Collection<WorkQueueItem> work) {
+                    if (work.contains(failing) && attempts.incrementAndGet() < 3) {
+                        throw new IllegalStateException("failing batch");
+                    }
+                    processed.addAll(work);
+                }
+            });
+            workQueue.start();
+
+            // when
+            CompletionHandle handle = workQueue.addAndTrack(failing);
+            workQueue.add(new WorkQueueItem());
+
+            // then
+            handle.get(5000, TimeUnit.MILLISECONDS);  // completed successfully by the second retry
+            assertEquals(3, attempts.get());
+            assertEquals(2, processed.size());
+        } catch (ExecutionException e) {
+            fail("Expected the retry to succeed");
+        } catch (TimeoutException e) {
+            fail("Expected the retry to complete");
+        } finally {
+            if(workQueue != null) {
+                workQueue.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void testSplitAndDeadLetter() throws InterruptedException {
+        BatchingWorkQueue<WorkQueueItem> workQueue = null;
+        try {
+            // given
+            MutableBatchingWorkQueueConfiguration configuration = new MutableBatchingWorkQueueConfiguration("test-queue",
+                    8,  // min batch
+                    8,  // max batch
+                    0, 100,
+                    true, 10);
+            configuration.setMaxRetries(1);
+            configuration.setRetryBackoff(10);
+            configuration.setSplitFailedBatches(true);
+            final WorkQueueItem poison = new WorkQueueItem();
+            final List<WorkQueueItem> processed = Collections.synchronizedList(new ArrayList<WorkQueueItem>());
+            final List<WorkQueueItem> deadLetters = Collections.synchronizedList(new ArrayList<WorkQueueItem>());
+            final CountDownLatch deadLetterLatch = new CountDownLatch(1);
+            workQueue = new BatchingWorkQueue<WorkQueueItem>(configuration, 100, new WorkProcessor<Collection<WorkQueueItem>>() {
+                @Override
+                public void process(Collection<WorkQueueItem> work) {
+                    if (work.contains(poison)) {
+                        throw new IllegalStateException("poison item");
+                    }
+                    processed.addAll(work);
+                }
+            });
+            workQueue.setDeadLetterProcessor(new WorkProcessor<Collection<WorkQueueItem>>() {
+                @Override
+                public void process(Collection<WorkQueueItem> work) {
+                    deadLetters.addAll(work);
+                    deadLetterLatch.countDown();
+                }
+            });
+            workQueue.start();
+
+            // when
+            for (int i = 0; i < 3; ++i) {
+                workQueue.add(new WorkQueueItem());
+            }
+            workQueue.add(poison);
+            for (int i = 0; i < 4; ++i) {
+                workQueue.add(new WorkQueueItem());
+            }
+
+            // then
+            assertTrue(deadLetterLatch.await(5000, TimeUnit.MILLISECONDS));
+            workQueue.shutdown();
+            assertEquals(Collections.singletonList(poison), deadLetters);
+            assertEquals(7, processed.size());
+            assertFalse(processed.contains(poison));
+            assertEquals(1, workQueue.getStatistics().getFailedItemCount());
+        } finally {
+            if(workQueue != null) {
+                workQueue.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void testRetriesCompletedOnShutdown() throws InterruptedException {
+        BatchingWorkQueue<WorkQueueItem> workQueue = null;
+        try {
+            // given
+            MutableBatchingWorkQueueConfiguration configuration = new MutableBatchingWorkQueueConfiguration("test-queue",
+                    1,  // min batch
+                    1,  // max batch
+                    0, 100,
+                    true, 10);
+            configuration.setMaxRetries(2);
+            configuration.setRetryBackoff(50);
+            final AtomicInteger attempts = new AtomicInteger();
+            final CountDownLatch firstAttemptLatch = new CountDownLatch(1);
+            final List<WorkQueueItem> deadLetters = Collections.synchronizedList(new ArrayList<WorkQueueItem>());
+            workQueue = new BatchingWorkQueue<WorkQueueItem>(configuration, 100, new WorkProcessor<Collection<WorkQueueItem>>() {
+                @Override
+                public void process(Collection<WorkQueueItem> work) {
+                    attempts.incrementAndGet();
+                    firstAttemptLatch.countDown();
+                    throw new IllegalStateException("failing");
+                }
+            });
+            workQueue.setDeadLetterProcessor(new WorkProcessor<Collection<WorkQueueItem>>() {
+                @Override
+                public void process(Collection<WorkQueueItem> work) {
+                    deadLetters.addAll(work);
+                }
+            });
+            workQueue.start();
+            WorkQueueItem item = new WorkQueueItem();
+            workQueue.add(item);
+            assertTrue(firstAttemptLatch.await(5000, TimeUnit.MILLISECONDS));
+
+            // when
+            workQueue.shutdown();
+
+            // then
+            assertEquals(3, attempts.get());
+            assertEquals(Collections.singletonList(item), deadLetters);
+        } finally {
+            if(workQueue != null) {
+                workQueue.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void testRetryDoesNotBlockOtherBatches() throws InterruptedException {
+        BatchingWorkQueue<WorkQueueItem> workQueue = null;
+        try {
+            // given
+            MutableBatchingWorkQueueConfiguration configuration = new MutableBatchingWorkQueueConfiguration("test-queue",
+                    1,  // min batch
+                    1,  // max batch
+                    0, 100,
+                    false, 10);
+            configuration.setMaxRetries(1);
+            configuration.setRetryBackoff(60000);
+            configuration.setMaxRetryBackoff(60000);
+            final WorkQueueItem failing = new WorkQueueItem();
+            WorkProcessorStub<WorkQueueItem> workProcessorStub = new WorkProcessorStub<WorkQueueItem>(1) {
+                @Override
+                public void process(Collection<WorkQueueItem> work) {
+                    if (work.contains(failing)) {
+                        throw new IllegalStateException("failing batch");
+                    }
+                    super.process(work);
+                }
+            };
+            workQueue = new BatchingWorkQueue<WorkQueueItem>(configuration, 100, workProcessorStub);
+            workQueue.start();
+
+            // when
+            workQueue.add(failing);
+            workQueue.add(new WorkQueueItem());
+
+            // then
+            assertTrue(workProcessorStub.processedLatch.await(5000, TimeUnit.MILLISECONDS));
+        } finally {
+            if(workQueue != null) {
+                workQueue.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void testMaxBatchWeight() throws InterruptedException {
+        BatchingWorkQueue<Integer> workQueue = null;
+        try {
+            // given
+            MutableBatchingWorkQueueConfiguration configuration = new MutableBatchingWorkQueueConfiguration("test-queue",
+                    100,  // min batch
+                    100,  // max batch
+                    0, 60000,
+                    true, 10);
+            configuration.setMaxBatchWeight(10);
+            WorkProcessorStub<Integer> workProcessorStub = new WorkProcessorStub<Integer>(1);
+            workQueue = new BatchingWorkQueue<Integer>(configuration, 100, workProcessorStub);
+            workQueue.setWeigher(new IntegerWeigher());
+            int[] weights = {4, 4, 4, 20, 1, 9, 5};
+            for (int weight : weights) {
+                workQueue.add(weight);
+            }
+            assertEquals(47, workQueue.getQueueWeight());
+
+            // when
+            workQueue.start();
+            workQueue.shutdown();  // processes the remaining items
+
+            // then
+            List<List<Integer>> batches = new ArrayList<List<Integer>>();
+            for (Pair<Date, List<Integer>> pair : workProcessorStub.processedWork) {
+                batches.add(pair.second);
+            }
+            assertEquals(Arrays.asList(Arrays.asList(4, 4), Arrays.asList(4), Arrays.asList(20), Arrays.asList(1, 9), Arrays.asList(5)), batches);
+            assertEquals(0, workQueue.getQueueWeight());
+        } finally {
+            if(workQueue != null) {
+                workQueue.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void testMinBatchWeight() throws InterruptedException {
+        BatchingWorkQueue<Integer> workQueue = null;
+        try {
+            // given
+            MutableBatchingWorkQueueConfiguration configuration = new MutableBatchingWorkQueueConfiguration("test-queue",
+                    100,  // min batch
+                    100,  // max batch
+                    0, 60000,
+                    true, 10);
+            configuration.setMinBatchWeight(100);
+            configuration.setSignalOnAdd(true);
+            WorkProcessorStub<Integer> workProcessorStub = new WorkProcessorStub<Integer>(1);
+            workQueue = new BatchingWorkQueue<Integer>(configuration, 100, workProcessorStub);
+            workQueue.setWeigher(new IntegerWeigher());
+            workQueue.start();
+
+            // when
+            workQueue.add(50);
+            workQueue.add(30);
+            workQueue.add(20);
+
+            // then
+            assertTrue(workProcessorStub.processedLatch.await(5000, TimeUnit.MILLISECONDS));
+            assertEquals(Arrays.asList(50, 30, 20), workProcessorStub.processedWork.get(0).second);
+        } finally {
+            if(workQueue != null) {
+                workQueue.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void testMaxQueueWeight() throws InterruptedException {
+        // given
+        MutableBatchingWorkQueueConfiguration configuration = new MutableBatchingWorkQueueConfiguration("test-queue", 1, 10, 0, 100, true, 10);
+        configuration.setMaxQueueWeight(10);
+        BatchingWorkQueue<Integer> workQueue = new BatchingWorkQueue<Integer>(configuration, 100, new WorkProcessorStub<Integer>(1));
+        workQueue.setWeigher(new IntegerWeigher());
+        BatchingWorkQueue<Integer> heavyWorkQueue = new BatchingWorkQueue<Integer>(configuration, 100, new WorkProcessorStub<Integer>(1));
+        heavyWorkQueue.setWeigher(new IntegerWeigher());
+
+        // when
+        boolean firstAdded = workQueue.add(6);
+        boolean secondAdded = workQueue.add(4);
+        boolean thirdAdded = workQueue.add(1);
+        boolean timedAdded = workQueue.add(1, 10, TimeUnit.MILLISECONDS);
+        boolean heavyAdded = heavyWorkQueue.add(50);
+
+        // then
+        assertTrue(firstAdded);
+        assertTrue(secondAdded);
+        assertFalse(thirdAdded);
+        assertFalse(timedAdded);
+        assertTrue(heavyAdded);  // an empty queue accepts an item heavier than the max
+        assertEquals(10, workQueue.getQueueWeight());
+        assertEquals(2, workQueue.getStatistics().getQueueSize());
+    }
+
+    @Test
+    public void testMaxBatchesPerSecond() throws InterruptedException {
+        BatchingWorkQueue<WorkQueueItem> workQueue = null;
+        try {
+            // given
+            MutableBatchingWorkQueueConfiguration configuration = new MutableBatchingWorkQueueConfiguration("test-queue",
+                    1,  // min batch
+                    1000,  // max batch
+                    0, 100,
+                    true, 10);
+            configuration.setSignalOnAdd(true);
+            configuration.setMaxBatchesPerSecond(5);
+            WorkProcessorStub<WorkQueueItem> workProcessorStub = new WorkProcessorStub<WorkQueueItem>(1);
+            workQueue = new BatchingWorkQueue<WorkQueueItem>(configuration, 1000, workProcessorStub);
+            workQueue.start();
+
+            // when
+            for (int i = 0; i < 100; ++i) {
+                workQueue.add(new WorkQueueItem());
+                Thread.sleep(5);
+            }
+            workQueue.shutdown();
+
+            // then
+            int itemCount = 0;
+            for (Pair<Date, List<WorkQueueItem>> pair : workProcessorStub.processedWork) {
+                itemCount += pair.second.size();
+            }
+            assertEquals(100, itemCount);  // accumulated, not dropped
+            assertTrue(workProcessorStub.processedWork.size() <= 5 + 5 + 1 + 1);  // burst, refill during ~0.5 s, shutdown, margin
+        } finally {
+            if(workQueue != null) {
+                workQueue.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void testMaxItemsPerSecond() throws InterruptedException {
+        BatchingWorkQueue<WorkQueueItem> workQueue = null;
+        try {
+            // given
+            MutableBatchingWorkQueueConfiguration configuration = new MutableBatchingWorkQueueConfiguration("test-queue",
+                    300,  // min batch
+                    1000,  // max batch
+                    0, 60000,
+                    true, 10);
+            configuration.setSignalOnAdd(true);
+            configuration.setMaxItemsPerSecond(100);
+            WorkProcessorStub<WorkQueueItem> workProcessorStub = new WorkProcessorStub<WorkQueueItem>(1);
+            workQueue = new BatchingWorkQueue<WorkQueueItem>(configuration, 1000, workProcessorStub);
+            workQueue.start();
+            for (int i = 0; i < 300; ++i) {
+                workQueue.add(new WorkQueueItem());
+            }
+            assertTrue(workProcessorStub.processedLatch.await(5000, TimeUnit.MILLISECONDS));
+
+            // when
+            configuration.setMinBatchSize(1);
+            workQueue.add(new WorkQueueItem());
+            Thread.sleep(500);
+
+            // then
+            assertEquals(1, workProcessorStub.processedWork.size());  // 200 items in debt
+            assertEquals(300, workProcessorStub.processedWork.get(0).second.size());
+            assertEquals(1, workQueue.getStatistics().getQueueSize());
+        } finally {
+            if(workQueue != null) {
+                workQueue.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void testAddAll() throws InterruptedException {
+        BatchingWorkQueue<Integer> workQueue = null;
+        try {
+            // given
+            MutableBatchingWorkQueueConfiguration configuration = new MutableBatchingWorkQueueConfiguration("test-queue",
+                    5,  // min batch
+                    10,  // max batch
+                    0, 60000,
+                    true, 10);
+            WorkProcessorStub<Integer> workProcessorStub = new WorkProcessorStub<Integer>(1);
+            workQueue = new BatchingWorkQueue<Integer>(configuration, 5, workProcessorStub);
+
+            // when
+            int added = workQueue.addAll(Arrays.asList(0, 1, 2, 3, 4, 5, 6, 7));
+
+            // then
+            assertEquals(5, added);
+            assertEquals(0, workQueue.addAll(Arrays.asList(8)));
+            WorkQueueStatistics statistics = workQueue.getStatistics();
+            assertEquals(5, statistics.getAddedCount());
+            assertEquals(4, statistics.getRejectedCount());
+            workQueue.start();
+            assertTrue(workProcessorStub.processedLatch.await(5000, TimeUnit.MILLISECONDS));
+            assertEquals(Arrays.asList(0, 1, 2, 3, 4), workProcessorStub.processedWork.get(0).second);
+        } finally {
+            if(workQueue != null) {
+                workQueue.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void testAddAllWithWait() throws InterruptedException {
+        BatchingWorkQueue<Integer> workQueue = null;
+        try {
+            // given
+            MutableBatchingWorkQueueConfiguration configuration = new MutableBatchingWorkQueueConfiguration("test-queue",
+                    4,  // min batch
+                    4,  // max batch
+                    0, 60000,
+                    true, 10);
+            configuration.setSignalOnAdd(true);
+            RetainingWorkProcessorStub<Integer> workProcessorStub = new RetainingWorkProcessorStub<Integer>(5);
+            configuration.setCopyBatches(true);
+            workQueue = new BatchingWorkQueue<Integer>(configuration, 4, workProcessorStub);
+            workQueue.start();
+            List<Integer> items = new ArrayList<Integer>();
+            for (int i = 0; i < 20; ++i) {
+                items.add(i);
+            }
+
+            // when
+            int added = workQueue.addAll(items, 5000, TimeUnit.MILLISECONDS);
+
+            // then
+            assertEquals(20, added);
+            assertTrue(workProcessorStub.processedLatch.await(5000, TimeUnit.MILLISECONDS));
+            List<Integer> processed = new ArrayList<Integer>();
+            for (Collection<Integer> batch : workProcessorStub.processedWork) {
+                processed.addAll(batch);
+            }
+            assertEquals(items, processed);
+        } finally {
+            if(workQueue != null) {
+                workQueue.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void testProducerBufferLinger() throws InterruptedException {
+        BatchingWorkQueue<Integer> workQueue = null;
+        try {
+            // given
+            MutableBatchingWorkQueueConfiguration configuration = new MutableBatchingWorkQueueConfiguration("test-queue",
+                    3,  // min batch
+                    10,  // max batch
+                    0, 60000,
+                    true, 10);
+            configuration.setSignalOnAdd(true);
+            configuration.setProducerBufferSize(10);
+            configuration.setProducerBufferLinger(200);
+            WorkProcessorStub<Integer> workProcessorStub = new WorkProcessorStub<Integer>(1);
+            workQueue = new BatchingWorkQueue<Integer>(configuration, 100, workProcessorStub);
+            workQueue.start();
+
+            // when
+            for (int i = 0; i < 3; ++i) {
+                assertTrue(workQueue.add(i));
+            }
+
+            // then
+            assertEquals(0, workQueue.getStatistics().getQueueSize());  // still buffered
+            assertTrue(workProcessorStub.processedLatch.await(5000, TimeUnit.MILLISECONDS));
+            assertEquals(Arrays.asList(0, 1, 2), workProcessorStub.processedWork.get(0).second);
+        } finally {
+            if(workQueue != null) {
+                workQueue.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void testProducerBuffersFlushedOnShutdown() throws InterruptedException {
+        // given
+        MutableBatchingWorkQueueConfiguration configuration = new MutableBatchingWorkQueueConfiguration("test-queue",
+                1000,  // min batch
+                1000,  // max batch
+                0, 60000,
+                true, 10);
+        configuration.setSignalOnAdd(true);
+        configuration.setProducerBufferSize(100);
+        configuration.setProducerBufferLinger(60000);
+        final AtomicInteger processedCount = new AtomicInteger();
+        final BatchingWorkQueue<Integer> workQueue = new BatchingWorkQueue<Integer>(configuration, 100, new WorkProcessor<Collection<Integer>>() {
+            @Override
+            public void process(Collection<Integer> work) {
+                processedCount.addAndGet(work.size());
+            }
+        });
+        workQueue.start();
+        List<Thread> producers = new ArrayList<Thread>();
+        for (int i = 0; i < 4; ++i) {
+            Thread producer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 5; ++j) {
+                        workQueue.add(j);
+                    }
+                }
+            });
+            producer.start();
+            producers.add(producer);
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        assertEquals(0, workQueue.getStatistics().getQueueSize());
+
+        // when
+        workQueue.shutdown();
+
+        // then
+        assertEquals(20, processedCount.get());
+    }
+
+    /**
+     * Drains nothing the first time, as if another worker had drained the queue.
+     */
+    private static class FirstDrainEmptyQueue<T> extends ArrayBlockingQueue<T> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final AtomicInteger drains = new AtomicInteger();
+
+        FirstDrainEmptyQueue(int capacity) {
+            super(capacity);
+        }
+
+        @Override
+        public int drainTo(Collection<? super T> c, int maxElements) {
+            return drains.getAndIncrement() == 0 ? 0 : super.drainTo(c, maxElements);
+        }
+    }
+
+    private static class WorkProcessorStub<T> implements WorkProcessor<Collection<T>> {
+
+        private static final Logger logger = LoggerFactory.getLogger(WorkProcessorStub.class);
+        private final CountDownLatch processedLatch;
+        private final List<Pair<Date, List<T>>> processedWork = Collections.synchronizedList(new ArrayList<Pair<Date, List<T>>>());
+
+        WorkProcessorStub(int n) {
+            processedLatch = new CountDownLatch(n);
+        }
+
+        @Override
+        public void process(Collection<T> work) {
+            logger.info("Processing work");
+            processedWork.add(new Pair<Date, List<T>>(new Date(), new ArrayList<T>(work)));
+            processedLatch.countDown();
+        }
+    }
+
+    private static class RetainingWorkProcessorStub<T> implements WorkProcessor<Collection<T>> {
+
+        private final CountDownLatch processedLatch;
+        private final List<Collection<T>> processedWork = Collections.synchronizedList(new ArrayList<Collection<T>>());
+
+        RetainingWorkProcessorStub(int n) {
+            processedLatch = new CountDownLatch(n);
+        }
+
+        @Override
+        public void process(Collection<T> work) {
+            processedWork.add(work);
+            processedLatch.countDown();
+        }
+    }
+
+    private static class AsyncWorkProcessorStub<T> implements AsyncWorkProcessor<Collection<T>> {
+
+        private final List<CompletionCallback> callbacks = Collections.synchronizedList(new ArrayList<CompletionCallback>());
+
+        @Override
+        public void process(Collection<T> work, CompletionCallback callback) {
+            callbacks.add(callback);
+        }
+    }
+
+    private static class IntegerWeigher implements Weigher<Integer> {
+
+        @Override
+        public int weigh(Integer item) {
+            return item;
         }
     }
 
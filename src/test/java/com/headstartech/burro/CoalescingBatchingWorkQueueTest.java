@@ -0,0 +1,178 @@
+package com.headstartech.burro;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CoalescingBatchingWorkQueueTest {
+
+    @Test
+    public void testLastWriteWins() {
+        // given
+        BatchingWorkQueueConfiguration configuration = new MutableBatchingWorkQueueConfiguration("test-queue", 100, 100, 0, 60000, true, 10);
+        CounterProcessor processor = new CounterProcessor();
+        CoalescingBatchingWorkQueue<Counter, String> workQueue = new CoalescingBatchingWorkQueue<Counter, String>(configuration, 100, new CounterKeyExtractor(), processor);
+        workQueue.add(new Counter("a", 1));
+        workQueue.add(new Counter("b", 1));
+        workQueue.add(new Counter("a", 2));
+
+        // when
+        workQueue.start();
+        workQueue.shutdown();  // processes the remaining items
+
+        // then
+        assertEquals(1, processor.batches.size());
+        List<Counter> batch = processor.batches.get(0);
+        assertEquals(2, batch.size());
+        assertEquals("a", batch.get(0).key);  // keeps the position of the first item
+        assertEquals(2, batch.get(0).value);
+        assertEquals("b", batch.get(1).key);
+        assertEquals(1, batch.get(1).value);
+    }
+
+    @Test
+    public void testMergeWhenFull() {
+        // given
+        BatchingWorkQueueConfiguration configuration = new MutableBatchingWorkQueueConfiguration("test-queue", 1, 10, 0, 100, true, 10);
+        CoalescingBatchingWorkQueue<Counter, String> workQueue = new CoalescingBatchingWorkQueue<Counter, String>(configuration, 1, new CounterKeyExtractor(), new SumMerger(), new CounterProcessor());
+
+        // when
+        boolean firstAdded = workQueue.add(new Counter("a", 1));
+        boolean otherKeyAdded = workQueue.add(new Counter("b", 1));
+        boolean sameKeyAdded = workQueue.add(new Counter("a", 1));
+
+        // then
+        assertTrue(firstAdded);
+        assertFalse(otherKeyAdded);
+        assertTrue(sameKeyAdded);
+        assertEquals(1, workQueue.getStatistics().getQueueSize());
+    }
+
+    @Test
+    public void testConcurrentMerge() throws InterruptedException {
+        // given
+        final int producerCount = 4;
+        final int addsPerProducer = 10000;
+        MutableBatchingWorkQueueConfiguration configuration = new MutableBatchingWorkQueueConfiguration("test-queue", 10, 10, 0, 5, true, 10);
+        configuration.setSignalOnAdd(true);
+        CounterProcessor processor = new CounterProcessor();
+        final CoalescingBatchingWorkQueue<Counter, String> workQueue = new CoalescingBatchingWorkQueue<Counter, String>(configuration, 100, new CounterKeyExtractor(), new SumMerger(), processor);
+        workQueue.start();
+        final CountDownLatch producersDone = new CountDownLatch(producerCount);
+
+        // when
+        for (int i = 0; i < producerCount; ++i) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < addsPerProducer; ++j) {
+                        while (!workQueue.add(new Counter("key-" + (j % 20), 1))) {
+                            Thread.yield();
+                        }
+                    }
+                    producersDone.countDown();
+                }
+            }).start();
+        }
+        producersDone.await();
+        workQueue.shutdown();
+
+        // then
+        long total = 0;
+        for (List<Counter> batch : processor.batches) {
+            for (Counter counter : batch) {
+                total += counter.value;
+            }
+        }
+        assertEquals(producerCount * addsPerProducer, total);
+        assertTrue(processor.itemCount.get() < producerCount * addsPerProducer);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testTrackingNotSupported() {
+        // given
+        BatchingWorkQueueConfiguration configuration = new MutableBatchingWorkQueueConfiguration("test-queue", 1, 10, 0, 100, true, 10);
+        CoalescingBatchingWorkQueue<Counter, String> workQueue = new CoalescingBatchingWorkQueue<Counter, String>(configuration, 100, new CounterKeyExtractor(), new CounterProcessor());
+
+        // when
+        workQueue.addAndTrack(new Counter("a", 1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParallelismNotSupported() {
+        // given
+        MutableBatchingWorkQueueConfiguration configuration = new MutableBatchingWorkQueueConfiguration("test-queue", 1, 10, 0, 100, true, 10);
+        configuration.setParallelism(2);
+
+        // when
+        new CoalescingBatchingWorkQueue<Counter, String>(configuration, 100, new CounterKeyExtractor(), new CounterProcessor());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRetriesNotSupported() {
+        // given
+        MutableBatchingWorkQueueConfiguration configuration = new MutableBatchingWorkQueueConfiguration("test-queue", 1, 10, 0, 100, true, 10);
+        configuration.setMaxRetries(3);
+
+        // when
+        new CoalescingBatchingWorkQueue<Counter, String>(configuration, 100, new CounterKeyExtractor(), new CounterProcessor());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSplittingFailedBatchesNotSupported() {
+        // given
+        MutableBatchingWorkQueueConfiguration configuration = new MutableBatchingWorkQueueConfiguration("test-queue", 1, 10, 0, 100, true, 10);
+        configuration.setSplitFailedBatches(true);
+
+        // when
+        new CoalescingBatchingWorkQueue<Counter, String>(configuration, 100, new CounterKeyExtractor(), new CounterProcessor());
+    }
+
+    private static class Counter {
+
+        private final String key;
+        private final long value;
+
+        Counter(String key, long value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    private static class CounterKeyExtractor implements KeyExtractor<Counter, String> {
+
+        @Override
+        public String getKey(Counter item) {
+            return item.key;
+        }
+    }
+
+    private static class SumMerger implements ItemMerger<Counter> {
+
+        @Override
+        public Counter merge(Counter pending, Counter added) {
+            return new Counter(pending.key, pending.value + added.value);
+        }
+    }
+
+    private static class CounterProcessor implements WorkProcessor<Collection<Counter>> {
+
+        private final List<List<Counter>> batches = Collections.synchronizedList(new ArrayList<List<Counter>>());
+        private final AtomicLong itemCount = new AtomicLong();
+
+        @Override
+        public void process(Collection<Counter> work) {
+            batches.add(new ArrayList<Counter>(work));
+            itemCount.addAndGet(work.size());
+        }
+    }
+}
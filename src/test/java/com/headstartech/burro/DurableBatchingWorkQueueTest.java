@@ -0,0 +1,263 @@
+package com.headstartech.burro;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DurableBatchingWorkQueueTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testReplayUnprocessedItems() throws Exception {
+        // given
+        File directory = temporaryFolder.newFolder();
+        BatchingWorkQueueConfiguration configuration = new MutableBatchingWorkQueueConfiguration("test-queue", 10, 10, 0, 100, true, 10);
+        StringProcessor notStartedProcessor = new StringProcessor(1);
+        DurableBatchingWorkQueue<String> workQueue = new DurableBatchingWorkQueue<String>(configuration, 100, directory, 1024, 10, new StringSerializer(), notStartedProcessor);
+        workQueue.add("a");
+        workQueue.add("b");
+        workQueue.add("c");
+        workQueue.shutdown();  // never started, simulates a crash before processing
+
+        // when
+        StringProcessor processor = new StringProcessor(1);
+        DurableBatchingWorkQueue<String> recoveredWorkQueue = new DurableBatchingWorkQueue<String>(configuration, 100, directory, 1024, 10, new StringSerializer(), processor);
+        try {
+            recoveredWorkQueue.start();
+
+            // then
+            assertTrue(processor.processedLatch.await(5000, TimeUnit.MILLISECONDS));
+            assertEquals(Collections.emptyList(), notStartedProcessor.processed);
+            assertEquals(3, processor.processed.size());
+            assertEquals("a", processor.processed.get(0));
+            assertEquals("c", processor.processed.get(2));
+        } finally {
+            recoveredWorkQueue.shutdown();
+        }
+    }
+
+    @Test
+    public void testProcessedItemsNotReplayed() throws Exception {
+        // given
+        File directory = temporaryFolder.newFolder();
+        BatchingWorkQueueConfiguration configuration = new MutableBatchingWorkQueueConfiguration("test-queue", 2, 2, 0, 100, true, 10);
+        StringProcessor processor = new StringProcessor(2);
+        DurableBatchingWorkQueue<String> workQueue = new DurableBatchingWorkQueue<String>(configuration, 100, directory, 64, 10, new StringSerializer(), processor);
+        workQueue.start();
+        for (int i = 0; i < 20; ++i) {
+            workQueue.add("item-" + i);  // several segments
+        }
+        workQueue.shutdown();
+        assertEquals(20, processor.processed.size());
+
+        // when
+        StringProcessor recoveredProcessor = new StringProcessor(1);
+        DurableBatchingWorkQueue<String> recoveredWorkQueue = new DurableBatchingWorkQueue<String>(configuration, 100, directory, 64, 10, new StringSerializer(), recoveredProcessor);
+        try {
+            recoveredWorkQueue.start();
+            recoveredWorkQueue.add("new");
+
+            // then
+            assertTrue(recoveredProcessor.processedLatch.await(5000, TimeUnit.MILLISECONDS));
+            assertEquals(Collections.singletonList("new"), recoveredProcessor.processed);
+        } finally {
+            recoveredWorkQueue.shutdown();
+        }
+    }
+
+    @Test
+    public void testTrackedItemsLogged() throws Exception {
+        // given
+        File directory = temporaryFolder.newFolder();
+        BatchingWorkQueueConfiguration configuration = new MutableBatchingWorkQueueConfiguration("test-queue", 2, 2, 0, 100, true, 10);
+        StringProcessor processor = new StringProcessor(1);
+        DurableBatchingWorkQueue<String> workQueue = new DurableBatchingWorkQueue<String>(configuration, 100, directory, 1024, 10, new StringSerializer(), processor);
+        workQueue.start();
+        workQueue.add("a");
+        CompletionHandle handle = workQueue.addAndTrack("b");
+        handle.get(5000, TimeUnit.MILLISECONDS);
+        workQueue.addAndTrack("c");
+        workQueue.shutdown();  // processed before shutdown returns
+        assertEquals(Arrays.asList("a", "b", "c"), processor.processed);
+
+        // when
+        StringProcessor recoveredProcessor = new StringProcessor(1);
+        DurableBatchingWorkQueue<String> recoveredWorkQueue = new DurableBatchingWorkQueue<String>(configuration, 100, directory, 1024, 10, new StringSerializer(), recoveredProcessor);
+        try {
+            recoveredWorkQueue.start();
+            recoveredWorkQueue.add("new");
+
+            // then
+            assertTrue(recoveredProcessor.processedLatch.await(5000, TimeUnit.MILLISECONDS));
+            assertEquals(Collections.singletonList("new"), recoveredProcessor.processed);
+            assertFalse(handle.isCompletedExceptionally());
+        } finally {
+            recoveredWorkQueue.shutdown();
+        }
+    }
+
+    @Test
+    public void testTrackedItemsReplayed() throws Exception {
+        // given
+        File directory = temporaryFolder.newFolder();
+        BatchingWorkQueueConfiguration configuration = new MutableBatchingWorkQueueConfiguration("test-queue", 10, 10, 0, 100, true, 10);
+        StringProcessor notStartedProcessor = new StringProcessor(1);
+        DurableBatchingWorkQueue<String> workQueue = new DurableBatchingWorkQueue<String>(configuration, 100, directory, 1024, 10, new StringSerializer(), notStartedProcessor);
+        workQueue.add("a");
+        workQueue.addAndTrack("b");
+        workQueue.shutdown();  // never started, simulates a crash before processing
+
+        // when
+        StringProcessor processor = new StringProcessor(1);
+        DurableBatchingWorkQueue<String> recoveredWorkQueue = new DurableBatchingWorkQueue<String>(configuration, 100, directory, 1024, 10, new StringSerializer(), processor);
+        try {
+            recoveredWorkQueue.start();
+
+            // then
+            assertTrue(processor.processedLatch.await(5000, TimeUnit.MILLISECONDS));
+            assertEquals(Arrays.asList("a", "b"), processor.processed);
+        } finally {
+            recoveredWorkQueue.shutdown();
+        }
+    }
+
+    @Test
+    public void testFailedBatchReplayed() throws Exception {
+        // given
+        File directory = temporaryFolder.newFolder();
+        BatchingWorkQueueConfiguration configuration = new MutableBatchingWorkQueueConfiguration("test-queue", 1, 1, 0, 100, true, 10);
+        DurableBatchingWorkQueue<String> workQueue = new DurableBatchingWorkQueue<String>(configuration, 100, directory, 1024, 10, new StringSerializer(), new FailingStringProcessor("b"));
+        workQueue.start();
+        workQueue.add("a");
+        workQueue.add("b");
+        workQueue.add("c");
+        workQueue.shutdown();
+
+        // when
+        StringProcessor recoveredProcessor = new StringProcessor(2);
+        DurableBatchingWorkQueue<String> recoveredWorkQueue = new DurableBatchingWorkQueue<String>(configuration, 100, directory, 1024, 10, new StringSerializer(), recoveredProcessor);
+        try {
+            recoveredWorkQueue.start();
+
+            // then
+            assertTrue(recoveredProcessor.processedLatch.await(5000, TimeUnit.MILLISECONDS));
+            assertEquals(Arrays.asList("b", "c"), recoveredProcessor.processed);
+        } finally {
+            recoveredWorkQueue.shutdown();
+        }
+    }
+
+    @Test
+    public void testDeadLetteredBatchNotReplayed() throws Exception {
+        // given
+        File directory = temporaryFolder.newFolder();
+        BatchingWorkQueueConfiguration configuration = new MutableBatchingWorkQueueConfiguration("test-queue", 1, 1, 0, 100, true, 10);
+        DurableBatchingWorkQueue<String> workQueue = new DurableBatchingWorkQueue<String>(configuration, 100, directory, 1024, 10, new StringSerializer(), new FailingStringProcessor("b"));
+        StringProcessor deadLetterProcessor = new StringProcessor(1);
+        workQueue.setDeadLetterProcessor(deadLetterProcessor);
+        workQueue.start();
+        workQueue.add("a");
+        workQueue.add("b");
+        workQueue.add("c");
+        workQueue.shutdown();
+        assertEquals(Collections.singletonList("b"), deadLetterProcessor.processed);
+
+        // when
+        StringProcessor recoveredProcessor = new StringProcessor(1);
+        DurableBatchingWorkQueue<String> recoveredWorkQueue = new DurableBatchingWorkQueue<String>(configuration, 100, directory, 1024, 10, new StringSerializer(), recoveredProcessor);
+        try {
+            recoveredWorkQueue.start();
+            recoveredWorkQueue.add("new");
+
+            // then
+            assertTrue(recoveredProcessor.processedLatch.await(5000, TimeUnit.MILLISECONDS));
+            assertEquals(Collections.singletonList("new"), recoveredProcessor.processed);
+        } finally {
+            recoveredWorkQueue.shutdown();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParallelismNotSupported() throws IOException {
+        // given
+        MutableBatchingWorkQueueConfiguration configuration = new MutableBatchingWorkQueueConfiguration("test-queue", 1, 10, 0, 100, true, 10);
+        configuration.setParallelism(2);
+
+        // when
+        new DurableBatchingWorkQueue<String>(configuration, 100, temporaryFolder.newFolder(), new StringSerializer(), new StringProcessor(1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRetriesNotSupported() throws IOException {
+        // given
+        MutableBatchingWorkQueueConfiguration configuration = new MutableBatchingWorkQueueConfiguration("test-queue", 1, 10, 0, 100, true, 10);
+        configuration.setMaxRetries(3);
+
+        // when
+        new DurableBatchingWorkQueue<String>(configuration, 100, temporaryFolder.newFolder(), new StringSerializer(), new StringProcessor(1));
+    }
+
+    private static class StringSerializer implements ItemSerializer<String> {
+
+        @Override
+        public byte[] serialize(String item) {
+            return item.getBytes(UTF_8);
+        }
+
+        @Override
+        public String deserialize(byte[] bytes) {
+            return new String(bytes, UTF_8);
+        }
+    }
+
+    private static class FailingStringProcessor implements WorkProcessor<Collection<String>> {
+
+        private final String failing;
+
+        FailingStringProcessor(String failing) {
+            this.failing = failing;
+        }
+
+        @Override
+        public void process(Collection<String> work) {
+            if (work.contains(failing)) {
+                throw new IllegalStateException("failing batch");
+            }
+        }
+    }
+
+    private static class StringProcessor implements WorkProcessor<Collection<String>> {
+
+        private final CountDownLatch processedLatch;
+        private final List<String> processed = Collections.synchronizedList(new ArrayList<String>());
+
+        StringProcessor(int n) {
+            processedLatch = new CountDownLatch(n);
+        }
+
+        @Override
+        public void process(Collection<String> work) {
+            processed.addAll(work);
+            processedLatch.countDown();
+        }
+    }
+}
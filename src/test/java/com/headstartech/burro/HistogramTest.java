@@ -0,0 +1,74 @@
+package com.headstartech.burro;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HistogramTest {
+
+    @Test
+    public void testEmpty() {
+        // given
+        Histogram histogram = new Histogram();
+
+        // when
+        HistogramSnapshot snapshot = histogram.snapshot();
+
+        // then
+        assertEquals(0, snapshot.getCount());
+        assertEquals(0, snapshot.getMin());
+        assertEquals(0, snapshot.getMax());
+        assertEquals(0, snapshot.getPercentile(99));
+    }
+
+    @Test
+    public void testSmallValuesExact() {
+        // given
+        Histogram histogram = new Histogram();
+        for (int i = 1; i <= 8; ++i) {
+            histogram.record(i);
+        }
+
+        // when
+        HistogramSnapshot snapshot = histogram.snapshot();
+
+        // then
+        assertEquals(8, snapshot.getCount());
+        assertEquals(1, snapshot.getMin());
+        assertEquals(8, snapshot.getMax());
+        assertEquals(4.5, snapshot.getMean(), 0.001);
+        assertEquals(4, snapshot.getPercentile(50));
+        assertEquals(8, snapshot.getPercentile(100));
+    }
+
+    @Test
+    public void testPercentileAccuracy() {
+        // given
+        Histogram histogram = new Histogram();
+        for (int i = 1; i <= 100000; ++i) {
+            histogram.record(i);
+        }
+
+        // when
+        HistogramSnapshot snapshot = histogram.snapshot();
+
+        // then
+        long p50 = snapshot.getPercentile(50);
+        long p99 = snapshot.getPercentile(99);
+        assertTrue(p50 >= 50000 && p50 <= 50000 * 1.125);
+        assertTrue(p99 >= 99000 && p99 <= 100000);
+        assertEquals(100000, snapshot.getMax());
+    }
+
+    @Test
+    public void testBucketBounds() {
+        for (long value : new long[]{0, 1, 7, 8, 9, 15, 16, 17, 1000, 123456789, Long.MAX_VALUE}) {
+            int index = Histogram.bucketIndex(value);
+            assertTrue(value <= Histogram.bucketUpperBound(index));
+            if (index > 0) {
+                assertTrue(value > Histogram.bucketUpperBound(index - 1));
+            }
+        }
+    }
+}
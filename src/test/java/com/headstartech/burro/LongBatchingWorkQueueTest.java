@@ -0,0 +1,103 @@
+package com.headstartech.burro;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LongBatchingWorkQueueTest {
+
+    @Test
+    public void testMinBatchSize() throws InterruptedException {
+        LongBatchingWorkQueue workQueue = null;
+        try {
+            // given
+            BatchingWorkQueueConfiguration configuration = new MutableBatchingWorkQueueConfiguration("test-queue", 3, 3, 0, 60000, true, 10);
+            RecordingProcessor processor = new RecordingProcessor(2);
+            workQueue = new LongBatchingWorkQueue(configuration, 100, processor);
+            workQueue.start();
+
+            // when
+            for (long i = 0; i < 6; ++i) {
+                workQueue.add(i);
+            }
+
+            // then
+            assertTrue(processor.latch.await(5000, TimeUnit.MILLISECONDS));
+            assertEquals(Arrays.asList(Arrays.asList(0L, 1L, 2L), Arrays.asList(3L, 4L, 5L)), processor.batches);
+        } finally {
+            if (workQueue != null) {
+                workQueue.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void testMaxWriteDelay() throws InterruptedException {
+        LongBatchingWorkQueue workQueue = null;
+        try {
+            // given
+            BatchingWorkQueueConfiguration configuration = new MutableBatchingWorkQueueConfiguration("test-queue", 100, 100, 0, 50, true, 10);
+            RecordingProcessor processor = new RecordingProcessor(1);
+            workQueue = new LongBatchingWorkQueue(configuration, 100, processor);
+            workQueue.start();
+
+            // when
+            workQueue.add(Long.valueOf(42));
+
+            // then
+            assertTrue(processor.latch.await(5000, TimeUnit.MILLISECONDS));
+            assertEquals(Collections.singletonList(Collections.singletonList(42L)), processor.batches);
+        } finally {
+            if (workQueue != null) {
+                workQueue.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void testAddAllWhenNearlyFull() {
+        // given
+        BatchingWorkQueueConfiguration configuration = new MutableBatchingWorkQueueConfiguration("test-queue", 2, 2, 0, 60000, true, 10);
+        RecordingProcessor processor = new RecordingProcessor(3);
+        LongBatchingWorkQueue workQueue = new LongBatchingWorkQueue(configuration, 5, processor);
+        workQueue.add(-1L);
+
+        // when
+        int added = workQueue.addAll(new long[] {0, 1, 2, 3, 4, 5, 6}, 1, 6);
+        workQueue.start();
+        workQueue.shutdown();
+
+        // then
+        assertEquals(4, added);
+        assertEquals(Arrays.asList(Arrays.asList(-1L, 1L), Arrays.asList(2L, 3L), Collections.singletonList(4L)), processor.batches);
+        assertEquals(2, workQueue.getStatistics().getRejectedCount());
+    }
+
+    private static class RecordingProcessor implements LongWorkProcessor {
+
+        private final CountDownLatch latch;
+        private final List<List<Long>> batches = Collections.synchronizedList(new ArrayList<List<Long>>());
+
+        RecordingProcessor(int n) {
+            latch = new CountDownLatch(n);
+        }
+
+        @Override
+        public void process(long[] values, int length) {
+            List<Long> batch = new ArrayList<Long>(length);
+            for (int i = 0; i < length; ++i) {
+                batch.add(values[i]);
+            }
+            batches.add(batch);
+            latch.countDown();
+        }
+    }
+}
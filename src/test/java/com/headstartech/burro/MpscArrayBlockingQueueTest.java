@@ -0,0 +1,177 @@
+package com.headstartech.burro;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MpscArrayBlockingQueueTest {
+
+    @Test
+    public void testOfferWhenFull() {
+        // given
+        MpscArrayBlockingQueue<Integer> queue = new MpscArrayBlockingQueue<Integer>(3);
+        assertTrue(queue.offer(1));
+        assertTrue(queue.offer(2));
+        assertTrue(queue.offer(3));
+
+        // when
+        boolean res = queue.offer(4);
+
+        // then
+        assertFalse(res);
+        assertEquals(3, queue.size());
+        assertEquals(0, queue.remainingCapacity());
+    }
+
+    @Test
+    public void testPollInOrder() {
+        // given
+        MpscArrayBlockingQueue<Integer> queue = new MpscArrayBlockingQueue<Integer>(3);
+        for (int i = 0; i < 10; ++i) {
+            queue.offer(i);
+
+            // when
+            Integer item = queue.poll();
+
+            // then
+            assertEquals(Integer.valueOf(i), item);
+        }
+        assertNull(queue.poll());
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void testDrainToMaxElements() {
+        // given
+        MpscArrayBlockingQueue<Integer> queue = new MpscArrayBlockingQueue<Integer>(10);
+        for (int i = 0; i < 5; ++i) {
+            queue.offer(i);
+        }
+        List<Integer> items = new ArrayList<Integer>();
+
+        // when
+        int n = queue.drainTo(items, 3);
+
+        // then
+        assertEquals(3, n);
+        assertEquals(3, items.size());
+        assertEquals(Integer.valueOf(0), items.get(0));
+        assertEquals(Integer.valueOf(2), items.get(2));
+        assertEquals(2, queue.size());
+        assertEquals(8, queue.remainingCapacity());
+    }
+
+    @Test
+    public void testDrainToWithEnqueueTimes() {
+        // given
+        MpscArrayBlockingQueue<Integer> queue = new MpscArrayBlockingQueue<Integer>(4);
+        long before = System.nanoTime();
+        queue.offer(1);
+        queue.offer(2);
+        queue.offer(3);
+        long after = System.nanoTime();
+        assertEquals(after + 1, new MpscArrayBlockingQueue<Integer>(1).oldestEnqueueTime(after + 1));
+
+        // when
+        long oldest = queue.oldestEnqueueTime(after + 1);
+        List<Integer> items = new ArrayList<Integer>();
+        long[] enqueueTimes = new long[2];
+        int drained = queue.drainTo(items, 2, enqueueTimes, null);
+
+        // then
+        assertEquals(2, drained);
+        assertEquals(oldest, enqueueTimes[0]);
+        assertTrue(before <= enqueueTimes[0] && enqueueTimes[0] <= enqueueTimes[1] && enqueueTimes[1] <= after);
+        assertTrue(queue.oldestEnqueueTime(after + 1) >= enqueueTimes[1]);
+        assertEquals(Integer.valueOf(3), queue.poll());
+    }
+
+    @Test
+    public void testOfferAllWhenNearlyFull() {
+        // given
+        MpscArrayBlockingQueue<Integer> queue = new MpscArrayBlockingQueue<Integer>(4);
+        assertTrue(queue.offer(0));
+
+        // when
+        int added = queue.offerAll(Arrays.asList(1, 2, 3, 4, 5), 0);
+
+        // then
+        assertEquals(3, added);
+        assertEquals(0, queue.offerAll(Arrays.asList(1, 2, 3, 4, 5), added));
+        List<Integer> items = new ArrayList<Integer>();
+        assertEquals(4, queue.drainTo(items));
+        assertEquals(Arrays.asList(0, 1, 2, 3), items);
+        assertEquals(2, queue.offerAll(Arrays.asList(1, 2, 3, 4, 5), added));
+        assertEquals(Integer.valueOf(4), queue.poll());
+        assertEquals(Integer.valueOf(5), queue.poll());
+    }
+
+    @Test
+    public void testOfferWithTimeoutWhenFull() throws InterruptedException {
+        // given
+        MpscArrayBlockingQueue<Integer> queue = new MpscArrayBlockingQueue<Integer>(1);
+        queue.offer(1);
+
+        // when
+        long start = System.nanoTime();
+        boolean res = queue.offer(2, 50, TimeUnit.MILLISECONDS);
+
+        // then
+        assertFalse(res);
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+    }
+
+    @Test
+    public void testConcurrentProducers() throws InterruptedException {
+        // given
+        final int producerCount = 8;
+        final int itemsPerProducer = 100000;
+        final MpscArrayBlockingQueue<int[]> queue = new MpscArrayBlockingQueue<int[]>(1024);
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        for (int p = 0; p < producerCount; ++p) {
+            final int producer = p;
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        startLatch.await();
+                        for (int i = 0; i < itemsPerProducer; ++i) {
+                            queue.put(new int[]{producer, i});
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        // when
+        startLatch.countDown();
+        int[] nextSequence = new int[producerCount];
+        List<int[]> items = new ArrayList<int[]>();
+        int received = 0;
+        long deadline = System.currentTimeMillis() + 30000;
+        while (received < producerCount * itemsPerProducer && System.currentTimeMillis() < deadline) {
+            items.clear();
+            queue.drainTo(items, 100);
+            for (int[] item : items) {
+                // then ...items of each producer in order
+                assertEquals(nextSequence[item[0]]++, item[1]);
+            }
+            received += items.size();
+        }
+        assertEquals(producerCount * itemsPerProducer, received);
+        assertTrue(queue.isEmpty());
+    }
+}
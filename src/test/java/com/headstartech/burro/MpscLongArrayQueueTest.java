@@ -0,0 +1,49 @@
+package com.headstartech.burro;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MpscLongArrayQueueTest {
+
+    @Test
+    public void testOfferWhenFull() {
+        // given
+        MpscLongArrayQueue queue = new MpscLongArrayQueue(3);
+        assertEquals(3, queue.offerAll(new long[] {1, 2, 3}, 0, 3));
+
+        // when
+        boolean res = queue.offer(4);
+
+        // then
+        assertFalse(res);
+        assertEquals(3, queue.size());
+        assertEquals(0, queue.remainingCapacity());
+    }
+
+    @Test
+    public void testDrainToWrapsAround() {
+        // given
+        MpscLongArrayQueue queue = new MpscLongArrayQueue(3);
+        long[] values = new long[3];
+        long[] enqueueTimes = new long[3];
+        for (long i = 0; i < 10; ++i) {
+            long before = System.nanoTime();
+            assertTrue(queue.offer(i));
+            assertTrue(queue.offer(-i));
+
+            // when
+            int n = queue.drainTo(values, enqueueTimes, 3);
+
+            // then
+            assertEquals(2, n);
+            assertEquals(i, values[0]);
+            assertEquals(-i, values[1]);
+            assertTrue(enqueueTimes[0] - before >= 0);
+        }
+        assertTrue(queue.isEmpty());
+        assertEquals(0, queue.drainTo(values, enqueueTimes, 3));
+    }
+}
@@ -0,0 +1,194 @@
+package com.headstartech.burro;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class OffHeapBatchingWorkQueueTest {
+
+    private static final int ID = 0;
+    private static final int VALUE = 8;
+    private static final int RECORD_SIZE = 16;
+
+    @Test
+    public void testClaimAndCommit() throws InterruptedException {
+        OffHeapBatchingWorkQueue workQueue = null;
+        try {
+            // given
+            BatchingWorkQueueConfiguration configuration = new MutableBatchingWorkQueueConfiguration("test-queue", 3, 3, 0, 60000, true, 10);
+            RecordingProcessor processor = new RecordingProcessor(3);
+            workQueue = new OffHeapBatchingWorkQueue(configuration, 100, RECORD_SIZE, processor);
+            workQueue.start();
+
+            // when
+            for (long i = 0; i < 3; ++i) {
+                workQueue.claim().putLong(ID, i).putDouble(VALUE, i * 0.5).commit();
+            }
+
+            // then
+            assertTrue(processor.latch.await(5000, TimeUnit.MILLISECONDS));
+            assertEquals(Collections.singletonList(Arrays.asList(0L, 1L, 2L)), processor.batches);
+            assertEquals(Arrays.asList(0.0, 0.5, 1.0), processor.values);
+            assertEquals(3, workQueue.getStatistics().getAddedCount());
+        } finally {
+            if (workQueue != null) {
+                workQueue.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void testClaimWhenFull() {
+        // given
+        BatchingWorkQueueConfiguration configuration = new MutableBatchingWorkQueueConfiguration("test-queue", 1, 10, 0, 60000, true, 10);
+        RecordingProcessor processor = new RecordingProcessor(1);
+        OffHeapBatchingWorkQueue workQueue = new OffHeapBatchingWorkQueue(configuration, 2, RECORD_SIZE, processor);
+        workQueue.claim().putLong(ID, 1).putDouble(VALUE, 0).commit();
+        workQueue.claim().putLong(ID, 2).putDouble(VALUE, 0).commit();
+
+        // when
+        RecordWriter writer = workQueue.claim();
+        workQueue.start();
+        workQueue.shutdown();
+
+        // then
+        assertNull(writer);
+        assertEquals(1, workQueue.getStatistics().getRejectedCount());
+        assertEquals(Collections.singletonList(Arrays.asList(1L, 2L)), processor.batches);
+    }
+
+    @Test
+    public void testBatchEndsAtEndOfBuffer() throws InterruptedException {
+        OffHeapBatchingWorkQueue workQueue = null;
+        try {
+            // given
+            BatchingWorkQueueConfiguration configuration = new MutableBatchingWorkQueueConfiguration("test-queue", 3, 3, 0, 50, true, 10);
+            RecordingProcessor processor = new RecordingProcessor(6);
+            workQueue = new OffHeapBatchingWorkQueue(configuration, 4, RECORD_SIZE, processor);
+            workQueue.start();
+
+            // when
+            for (long i = 0; i < 6; ++i) {
+                workQueue.claim(5000, TimeUnit.MILLISECONDS).putLong(ID, i).putDouble(VALUE, 0).commit();
+            }
+
+            // then
+            assertTrue(processor.latch.await(5000, TimeUnit.MILLISECONDS));
+            List<Long> ids = new ArrayList<Long>();
+            for (List<Long> batch : processor.batches) {
+                // records 3 and 4 are at the end and the start of the buffer
+                assertTrue(!batch.contains(3L) || !batch.contains(4L));
+                ids.addAll(batch);
+            }
+            assertEquals(Arrays.asList(0L, 1L, 2L, 3L, 4L, 5L), ids);
+        } finally {
+            if (workQueue != null) {
+                workQueue.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void testAddByteBuffer() {
+        // given
+        BatchingWorkQueueConfiguration configuration = new MutableBatchingWorkQueueConfiguration("test-queue", 1, 10, 0, 60000, true, 10);
+        RecordingProcessor processor = new RecordingProcessor(1);
+        OffHeapBatchingWorkQueue workQueue = new OffHeapBatchingWorkQueue(configuration, 10, RECORD_SIZE, processor);
+        ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE).order(ByteOrder.nativeOrder());
+        record.putLong(ID, 7).putDouble(VALUE, 1.5);
+
+        // when
+        boolean added = workQueue.add(record);
+        workQueue.start();
+        workQueue.shutdown();
+
+        // then
+        assertTrue(added);
+        assertEquals(0, record.position());
+        assertEquals(Collections.singletonList(Collections.singletonList(7L)), processor.batches);
+        assertEquals(Collections.singletonList(1.5), processor.values);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testClaimBeforeCommit() {
+        // given
+        BatchingWorkQueueConfiguration configuration = new MutableBatchingWorkQueueConfiguration("test-queue", 1, 10, 0, 60000, true, 10);
+        OffHeapBatchingWorkQueue workQueue = new OffHeapBatchingWorkQueue(configuration, 10, RECORD_SIZE, new RecordingProcessor(1));
+        workQueue.claim().putLong(ID, 1);
+
+        // when
+        workQueue.claim();
+    }
+
+    @Test
+    public void testAbort() {
+        // given
+        BatchingWorkQueueConfiguration configuration = new MutableBatchingWorkQueueConfiguration("test-queue", 1, 10, 0, 60000, true, 10);
+        RecordingProcessor processor = new RecordingProcessor(2);
+        OffHeapBatchingWorkQueue workQueue = new OffHeapBatchingWorkQueue(configuration, 10, RECORD_SIZE, processor);
+        workQueue.claim().putLong(ID, 1).putDouble(VALUE, 0).commit();
+
+        // when
+        workQueue.claim().putLong(ID, 2).abort();
+        workQueue.claim().putLong(ID, 3).putDouble(VALUE, 0).commit();
+        workQueue.start();
+        workQueue.shutdown();
+
+        // then
+        assertEquals(Collections.singletonList(Arrays.asList(1L, 3L)), processor.batches);
+        assertEquals(2, workQueue.getStatistics().getAddedCount());
+    }
+
+    @Test
+    public void testShutdownWithRecordNotCommitted() {
+        // given
+        BatchingWorkQueueConfiguration configuration = new MutableBatchingWorkQueueConfiguration("test-queue", 1, 10, 0, 60000, true, 10);
+        RecordingProcessor processor = new RecordingProcessor(1);
+        OffHeapBatchingWorkQueue workQueue = new OffHeapBatchingWorkQueue(configuration, 10, RECORD_SIZE, processor);
+        workQueue.claim().putLong(ID, 1).putDouble(VALUE, 0).commit();
+        workQueue.claim().putLong(ID, 2);
+
+        // when
+        workQueue.start();
+        workQueue.shutdown();
+
+        // then
+        assertEquals(Collections.singletonList(Collections.singletonList(1L)), processor.batches);
+    }
+
+    private static class RecordingProcessor implements RecordWorkProcessor {
+
+        // counted down for each record
+        private final CountDownLatch latch;
+        private final List<List<Long>> batches = Collections.synchronizedList(new ArrayList<List<Long>>());
+        private final List<Double> values = Collections.synchronizedList(new ArrayList<Double>());
+
+        RecordingProcessor(int n) {
+            latch = new CountDownLatch(n);
+        }
+
+        @Override
+        public void process(RecordCursor batch) {
+            List<Long> ids = new ArrayList<Long>(batch.size());
+            while (batch.next()) {
+                ids.add(batch.getLong(ID));
+                values.add(batch.getDouble(VALUE));
+            }
+            batches.add(ids);
+            for (int i = 0; i < ids.size(); ++i) {
+                latch.countDown();
+            }
+        }
+    }
+}
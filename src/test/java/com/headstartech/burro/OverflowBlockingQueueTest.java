@@ -0,0 +1,145 @@
+package com.headstartech.burro;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class OverflowBlockingQueueTest {
+
+    @Test
+    public void testOverflowWhenPrimaryFull() {
+        // given
+        OverflowBlockingQueue<Integer> queue = new OverflowBlockingQueue<Integer>(new ArrayBlockingQueue<Integer>(2), new IntegerSerializer(), 1024, 32);
+
+        // when
+        for (int i = 0; i < 10; ++i) {
+            assertTrue(queue.offer(i));
+        }
+
+        // then
+        assertEquals(10, queue.size());
+        assertEquals(8, queue.overflowSize());
+        assertEquals(Integer.valueOf(0), queue.peek());
+    }
+
+    @Test
+    public void testFifoAcrossChunks() {
+        // given
+        OverflowBlockingQueue<Integer> queue = new OverflowBlockingQueue<Integer>(new ArrayBlockingQueue<Integer>(2), new IntegerSerializer(), 1024, 32);  // 4 items per chunk
+        for (int i = 0; i < 20; ++i) {
+            queue.offer(i);
+        }
+
+        // when
+        List<Integer> drained = new ArrayList<Integer>();
+        assertEquals(1, queue.drainTo(drained, 1));
+        drained.add(queue.poll());
+        queue.offer(20);  // overflow not empty, must not overtake
+        assertEquals(19, queue.drainTo(drained));
+
+        // then
+        assertEquals(21, drained.size());
+        for (int i = 0; i < drained.size(); ++i) {
+            assertEquals(Integer.valueOf(i), drained.get(i));
+        }
+        assertTrue(queue.isEmpty());
+        assertEquals(0, queue.overflowSize());
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void testRemainingCapacity() {
+        // given
+        OverflowBlockingQueue<Integer> queue = new OverflowBlockingQueue<Integer>(new ArrayBlockingQueue<Integer>(2), new IntegerSerializer(), 64, 32);
+        assertEquals(2, queue.remainingCapacity());
+
+        // when
+        for (int i = 0; i < 3; ++i) {
+            assertTrue(queue.offer(i));
+        }
+
+        // then
+        assertEquals(7, queue.remainingCapacity());  // 56 free overflow bytes, 8 bytes per item
+    }
+
+    @Test
+    public void testOverflowFull() {
+        // given
+        OverflowBlockingQueue<Integer> queue = new OverflowBlockingQueue<Integer>(new ArrayBlockingQueue<Integer>(1), new IntegerSerializer(), 64, 32);
+        for (int i = 0; i < 9; ++i) {
+            assertTrue(queue.offer(i));
+        }
+
+        // when
+        boolean added = queue.offer(9);
+
+        // then
+        assertFalse(added);
+        assertEquals(0, queue.remainingCapacity());
+        for (int i = 0; i < 5; ++i) {
+            assertEquals(Integer.valueOf(i), queue.poll());
+        }
+        assertTrue(queue.offer(9));  // the first chunk has been read and is reused
+        assertEquals(5, queue.overflowSize());
+    }
+
+    @Test
+    public void testBatchingWorkQueueWithOverflow() throws InterruptedException {
+        BatchingWorkQueue<Integer> workQueue = null;
+        try {
+            // given
+            BatchingWorkQueueConfiguration configuration = new MutableBatchingWorkQueueConfiguration("test-queue", 100, 100, 0, 60000, true, 10);
+            final List<Integer> processed = new ArrayList<Integer>();
+            final CountDownLatch processedLatch = new CountDownLatch(1);
+            workQueue = new BatchingWorkQueue<Integer>(configuration, new OverflowBlockingQueue<Integer>(new ArrayBlockingQueue<Integer>(10), new IntegerSerializer(), 1024 * 1024),
+                    new WorkProcessor<Collection<Integer>>() {
+                        @Override
+                        public void process(Collection<Integer> work) {
+                            processed.addAll(work);
+                            processedLatch.countDown();
+                        }
+                    });
+            workQueue.start();
+
+            // when
+            for (int i = 0; i < 100; ++i) {
+                assertTrue(workQueue.add(i));
+            }
+
+            // then
+            assertTrue(processedLatch.await(5000, TimeUnit.MILLISECONDS));
+            assertEquals(100, processed.size());
+            for (int i = 0; i < 100; ++i) {
+                assertEquals(Integer.valueOf(i), processed.get(i));
+            }
+        } finally {
+            if (workQueue != null) {
+                workQueue.shutdown();
+            }
+        }
+    }
+
+    private static class IntegerSerializer implements ItemSerializer<Integer> {
+
+        @Override
+        public byte[] serialize(Integer item) {
+            return ByteBuffer.allocate(4).putInt(item).array();
+        }
+
+        @Override
+        public Integer deserialize(byte[] bytes) {
+            return ByteBuffer.wrap(bytes).getInt();
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.headstartech.burro;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PartitionedBatchingWorkQueueTest {
+
+    @Test
+    public void testBatchesGroupedByKeyInOrder() throws InterruptedException {
+        PartitionedBatchingWorkQueue<KeyedItem, String> workQueue = null;
+        try {
+            // given
+            BatchingWorkQueueConfiguration configuration = new MutableBatchingWorkQueueConfiguration("test-queue",
+                    10,  // min batch
+                    10,  // max batch
+                    0, 100,
+                    true, 10);
+            KeyedWorkProcessorStub workProcessorStub = new KeyedWorkProcessorStub(30);
+            workQueue = new PartitionedBatchingWorkQueue<KeyedItem, String>(configuration, 4, 100, new KeyedItemKeyExtractor(), workProcessorStub);
+
+            // when
+            workQueue.start();
+            for (int i = 0; i < 10; ++i) {
+                workQueue.add(new KeyedItem("a", i));
+                workQueue.add(new KeyedItem("b", i));
+                workQueue.add(new KeyedItem("c", i));
+            }
+
+            // then
+            assertTrue(workProcessorStub.processedLatch.await(10000, TimeUnit.MILLISECONDS));
+            Map<String, List<Integer>> sequencesByKey = new HashMap<String, List<Integer>>();
+            for (List<KeyedItem> batch : workProcessorStub.processedWork) {
+                String key = batch.get(0).key;
+                for (KeyedItem item : batch) {
+                    assertEquals(key, item.key);  // a single key per batch
+                    List<Integer> sequences = sequencesByKey.get(key);
+                    if (sequences == null) {
+                        sequences = new ArrayList<Integer>();
+                        sequencesByKey.put(key, sequences);
+                    }
+                    sequences.add(item.sequence);
+                }
+            }
+            assertEquals(3, sequencesByKey.size());
+            for (List<Integer> sequences : sequencesByKey.values()) {
+                assertEquals(10, sequences.size());
+                for (int i = 0; i < sequences.size(); ++i) {
+                    assertEquals(Integer.valueOf(i), sequences.get(i));
+                }
+            }
+        } finally {
+            if(workQueue != null) {
+                workQueue.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void testRemainingCapacity() {
+        // given
+        BatchingWorkQueueConfiguration configuration = new MutableBatchingWorkQueueConfiguration("test-queue",
+                10, 10, 0, 100, true, 10);
+        PartitionedBatchingWorkQueue<KeyedItem, String> workQueue = new PartitionedBatchingWorkQueue<KeyedItem, String>(configuration, 4, 10, new KeyedItemKeyExtractor(), new KeyedWorkProcessorStub(0));
+        workQueue.add(new KeyedItem("a", 0));
+
+        // when
+        int remainingCapacity = workQueue.remainingCapacity();
+
+        // then
+        assertEquals(39, remainingCapacity);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRetriesNotSupported() {
+        // given
+        MutableBatchingWorkQueueConfiguration configuration = new MutableBatchingWorkQueueConfiguration("test-queue",
+                10, 10, 0, 100, true, 10);
+        configuration.setMaxRetries(3);
+
+        // when
+        new PartitionedBatchingWorkQueue<KeyedItem, String>(configuration, 4, 10, new KeyedItemKeyExtractor(), new KeyedWorkProcessorStub(0));
+    }
+
+    private static class KeyedItem {
+
+        private final String key;
+        private final int sequence;
+
+        KeyedItem(String key, int sequence) {
+            this.key = key;
+            this.sequence = sequence;
+        }
+    }
+
+    private static class KeyedItemKeyExtractor implements KeyExtractor<KeyedItem, String> {
+
+        @Override
+        public String getKey(KeyedItem item) {
+            return item.key;
+        }
+    }
+
+    private static class KeyedWorkProcessorStub implements WorkProcessor<Collection<KeyedItem>> {
+
+        private final CountDownLatch processedLatch;
+        private final List<List<KeyedItem>> processedWork = Collections.synchronizedList(new ArrayList<List<KeyedItem>>());
+
+        KeyedWorkProcessorStub(int n) {
+            processedLatch = new CountDownLatch(n);
+        }
+
+        @Override
+        public void process(Collection<KeyedItem> work) {
+            processedWork.add(new ArrayList<KeyedItem>(work));
+            for (int i = 0; i < work.size(); ++i) {
+                processedLatch.countDown();
+            }
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.headstartech.burro;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class PendingItemsTest {
+
+    private static final long MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    public void testOldestItemTimeAfterPartialRemoval() {
+        // given
+        PendingItems pendingItems = new PendingItems(true);
+        long start = System.nanoTime();
+        pendingItems.added(start, 3);
+        pendingItems.added(start + 10 * MILLI, 2);
+
+        // when
+        pendingItems.removed(3);
+
+        // then
+        assertEquals(2, pendingItems.count());
+        assertEquals(start + 10 * MILLI, pendingItems.oldestItemTime(start + 20 * MILLI));
+    }
+
+    @Test
+    public void testOldestItemTimeAfterEmptied() {
+        // given
+        PendingItems pendingItems = new PendingItems(true);
+        long start = System.nanoTime();
+        pendingItems.added(start, 2);
+        pendingItems.removed(2);
+
+        // when
+        pendingItems.added(start + 10 * MILLI, 1);
+
+        // then
+        assertEquals(start + 10 * MILLI, pendingItems.oldestItemTime(start + 20 * MILLI));
+    }
+
+    @Test
+    public void testItemsWithinGranularityShareMark() {
+        // given
+        PendingItems pendingItems = new PendingItems(true);
+        long start = System.nanoTime();
+        pendingItems.added(start, 1);
+        pendingItems.added(start + MILLI / 2, 1);
+
+        // when
+        pendingItems.removed(1);
+
+        // then
+        assertEquals(start, pendingItems.oldestItemTime(start + MILLI));
+    }
+}
@@ -0,0 +1,149 @@
+package com.headstartech.burro;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PipelineTest {
+
+    @Test
+    public void testStages() throws InterruptedException {
+        // given
+        final List<String> written = Collections.synchronizedList(new ArrayList<String>());
+        Pipeline<Integer> pipeline = PipelineBuilder.<Integer>create("test-pipeline")
+                .filter(new ItemFilter<Integer>() {
+                    @Override
+                    public boolean accept(Integer item) {
+                        return item % 2 == 0;
+                    }
+                })
+                .stage(configuration("enrich"), 100, new BatchTransformer<Integer, Integer>() {
+                    @Override
+                    public Collection<Integer> transform(Collection<Integer> batch) {
+                        List<Integer> enriched = new ArrayList<Integer>();
+                        for (Integer item : batch) {
+                            enriched.add(item * 10);
+                        }
+                        return enriched;
+                    }
+                })
+                .map(new ItemMapper<Integer, String>() {
+                    @Override
+                    public String map(Integer item) {
+                        return String.valueOf(item);
+                    }
+                })
+                .build(configuration("write"), 100, new WorkProcessor<Collection<String>>() {
+                    @Override
+                    public void process(Collection<String> work) {
+                        written.addAll(work);
+                    }
+                });
+        pipeline.start();
+
+        // when
+        assertEquals(6, pipeline.addAll(Arrays.asList(0, 1, 2, 3, 4, 5)));
+        assertTrue(pipeline.add(6));
+        assertTrue(pipeline.add(7));
+        pipeline.shutdown();
+
+        // then
+        assertEquals(Arrays.asList("0", "20", "40", "60"), written);
+        assertEquals(2, pipeline.getStageStatistics().size());
+        assertEquals(8, pipeline.getStatistics().getAddedCount());
+    }
+
+    @Test
+    public void testBackpressure() throws InterruptedException {
+        // given
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<Integer> written = Collections.synchronizedList(new ArrayList<Integer>());
+        Pipeline<Integer> pipeline = PipelineBuilder.<Integer>create("test-pipeline")
+                .stage(configuration("first"), 10, new BatchTransformer<Integer, Integer>() {
+                    @Override
+                    public Collection<Integer> transform(Collection<Integer> batch) {
+                        return batch;
+                    }
+                })
+                .build(configuration("last"), 10, new WorkProcessor<Collection<Integer>>() {
+                    @Override
+                    public void process(Collection<Integer> work) {
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        written.addAll(work);
+                    }
+                });
+        pipeline.start();
+
+        // when
+        int added = 0;
+        long deadline = System.currentTimeMillis() + 5000;
+        while (System.currentTimeMillis() < deadline && pipeline.add(added)) {
+            ++added;
+            Thread.sleep(1);
+        }
+
+        // then
+        assertTrue(added >= 20);  // both queues full
+        assertEquals(0, pipeline.remainingCapacity());
+        assertFalse(pipeline.add(added));
+        release.countDown();
+        pipeline.shutdown();
+        assertEquals(added, written.size());
+        for (int i = 0; i < added; ++i) {
+            assertEquals(Integer.valueOf(i), written.get(i));
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testBuilderContinuedTwice() {
+        // given
+        PipelineBuilder<Integer, Integer> builder = PipelineBuilder.<Integer>create("test-pipeline");
+        builder.build(configuration("first"), 10, new WorkProcessor<Collection<Integer>>() {
+            @Override
+            public void process(Collection<Integer> work) {
+            }
+        });
+
+        // when
+        builder.build(configuration("second"), 10, new WorkProcessor<Collection<Integer>>() {
+            @Override
+            public void process(Collection<Integer> work) {
+            }
+        });
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRetriesNotSupportedBeforeLastStage() {
+        // given
+        MutableBatchingWorkQueueConfiguration configuration = configuration("first");
+        configuration.setMaxRetries(3);
+
+        // when
+        PipelineBuilder.<Integer>create("test-pipeline").stage(configuration, 10, new BatchTransformer<Integer, Integer>() {
+            @Override
+            public Collection<Integer> transform(Collection<Integer> batch) {
+                return batch;
+            }
+        });
+    }
+
+    private static MutableBatchingWorkQueueConfiguration configuration(String queueName) {
+        MutableBatchingWorkQueueConfiguration configuration = new MutableBatchingWorkQueueConfiguration(queueName, 5, 10, 0, 10, true, 10);
+        configuration.setSignalOnAdd(true);
+        return configuration;
+    }
+}
@@ -0,0 +1,173 @@
+package com.headstartech.burro;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PriorityBatchingWorkQueueTest {
+
+    @Test
+    public void testHighPriorityNotHeldBehindBulk() throws InterruptedException {
+        PriorityBatchingWorkQueue<String> workQueue = null;
+        try {
+            // given
+            BatchingWorkQueueConfiguration configuration = new MutableBatchingWorkQueueConfiguration("test-queue", 1, 10, 0, 100, true, 10);
+            List<PriorityLane> lanes = Arrays.asList(
+                    new PriorityLane(new MutableBatchingWorkQueueConfiguration("test-queue-high", 1, 10, 0, 10, true, 10), 100, 1),
+                    new PriorityLane(new MutableBatchingWorkQueueConfiguration("test-queue-bulk", 1000, 1000, 0, 60000, true, 10), 1000, 1));
+            RecordingProcessor processor = new RecordingProcessor(1);
+            workQueue = new PriorityBatchingWorkQueue<String>(configuration, lanes, processor);
+            workQueue.start();
+
+            // when
+            for (int i = 0; i < 500; ++i) {
+                workQueue.add("bulk");
+            }
+            workQueue.add("high", 0);
+
+            // then
+            assertTrue(processor.latch.await(5000, TimeUnit.MILLISECONDS));
+            assertEquals(Collections.singletonList("high"), processor.batches.get(0));
+            assertEquals(500, workQueue.getStatistics().getQueueSize());
+        } finally {
+            if (workQueue != null) {
+                workQueue.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void testWeightedFairScheduling() throws InterruptedException {
+        PriorityBatchingWorkQueue<String> workQueue = null;
+        try {
+            // given
+            BatchingWorkQueueConfiguration configuration = new MutableBatchingWorkQueueConfiguration("test-queue", 1, 10, 0, 100, true, 10);
+            List<PriorityLane> lanes = Arrays.asList(
+                    new PriorityLane(new MutableBatchingWorkQueueConfiguration("test-queue-high", 1, 1, 0, 100, true, 10), 100, 3),
+                    new PriorityLane(new MutableBatchingWorkQueueConfiguration("test-queue-low", 1, 1, 0, 100, true, 10), 100, 1));
+            RecordingProcessor processor = new RecordingProcessor(16);
+            workQueue = new PriorityBatchingWorkQueue<String>(configuration, lanes, processor);
+            for (int i = 0; i < 20; ++i) {
+                workQueue.add("high", 0);
+                workQueue.add("low", 1);
+            }
+
+            // when
+            workQueue.start();
+
+            // then
+            assertTrue(processor.latch.await(5000, TimeUnit.MILLISECONDS));
+            List<String> order = new ArrayList<String>();
+            // copied, the worker keeps processing
+            for (List<String> batch : new ArrayList<List<String>>(processor.batches).subList(0, 8)) {
+                order.addAll(batch);
+            }
+            assertEquals(Arrays.asList("high", "high", "low", "high", "high", "high", "low", "high"), order);
+        } finally {
+            if (workQueue != null) {
+                workQueue.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void testAddWithoutPriority() throws InterruptedException {
+        // given
+        BatchingWorkQueueConfiguration configuration = new MutableBatchingWorkQueueConfiguration("test-queue", 1, 10, 0, 100, true, 10);
+        List<PriorityLane> lanes = Arrays.asList(
+                new PriorityLane(new MutableBatchingWorkQueueConfiguration("test-queue-high", 1, 10, 0, 100, true, 10), 1, 1),
+                new PriorityLane(new MutableBatchingWorkQueueConfiguration("test-queue-low", 1, 10, 0, 100, true, 10), 1, 1));
+        RecordingProcessor processor = new RecordingProcessor(2);
+        PriorityBatchingWorkQueue<String> workQueue = new PriorityBatchingWorkQueue<String>(configuration, lanes, processor);
+
+        // when
+        boolean lowAdded = workQueue.add("low");
+        boolean lowFullAdded = workQueue.add("low");
+        boolean highAdded = workQueue.add("high", 0);
+        workQueue.start();
+        workQueue.shutdown();
+
+        // then
+        assertTrue(lowAdded);
+        assertEquals(false, lowFullAdded);
+        assertTrue(highAdded);
+        assertEquals(Arrays.asList(Collections.singletonList("high"), Collections.singletonList("low")), processor.batches);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidPriority() {
+        // given
+        BatchingWorkQueueConfiguration configuration = new MutableBatchingWorkQueueConfiguration("test-queue", 1, 10, 0, 100, true, 10);
+        PriorityBatchingWorkQueue<String> workQueue = new PriorityBatchingWorkQueue<String>(configuration,
+                Collections.singletonList(new PriorityLane(configuration, 10, 1)), new RecordingProcessor(1));
+
+        // when
+        workQueue.add("item", 1);
+    }
+
+    @Test
+    public void testProcessorThrowingError() throws Exception {
+        PriorityBatchingWorkQueue<String> workQueue = null;
+        try {
+            // given
+            BatchingWorkQueueConfiguration configuration = new MutableBatchingWorkQueueConfiguration("test-queue", 1, 10, 0, 100, true, 10);
+            final RecordingProcessor processor = new RecordingProcessor(1);
+            workQueue = new PriorityBatchingWorkQueue<String>(configuration,
+                    Collections.singletonList(new PriorityLane(configuration, 10, 1)), new WorkProcessor<Collection<String>>() {
+                        @Override
+                        public void process(Collection<String> work) {
+                            if (work.contains("error")) {
+                                throw new Error("failing batch");
+                            }
+                            processor.process(work);
+                        }
+                    });
+            workQueue.start();
+
+            // when
+            CompletionHandle handle = workQueue.addAndTrack("error");
+            try {
+                handle.get(5000, TimeUnit.MILLISECONDS);
+                fail("expected the handle to fail");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof Error);
+            }
+            workQueue.add("item");
+
+            // then
+            assertTrue(processor.latch.await(5000, TimeUnit.MILLISECONDS));
+            assertEquals(Collections.singletonList(Collections.singletonList("item")), processor.batches);
+        } finally {
+            if (workQueue != null) {
+                workQueue.shutdown();
+            }
+        }
+    }
+
+    private static class RecordingProcessor implements WorkProcessor<Collection<String>> {
+
+        private final CountDownLatch latch;
+        private final List<List<String>> batches = Collections.synchronizedList(new ArrayList<List<String>>());
+
+        RecordingProcessor(int n) {
+            latch = new CountDownLatch(n);
+        }
+
+        @Override
+        public void process(Collection<String> work) {
+            batches.add(new ArrayList<String>(work));
+            latch.countDown();
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.headstartech.burro;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class WriteAheadLogTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testRecoverUnacknowledged() throws IOException {
+        // given
+        File directory = temporaryFolder.newFolder();
+        WriteAheadLog log = new WriteAheadLog(directory, 1024);
+        for (int i = 0; i < 5; ++i) {
+            log.append(("item-" + i).getBytes("UTF-8"));
+        }
+        log.acknowledge(2);
+        log.close();
+
+        // when
+        WriteAheadLog reopened = new WriteAheadLog(directory, 1024);
+
+        // then
+        List<byte[]> recovered = reopened.getRecoveredRecords();
+        assertEquals(3, recovered.size());
+        assertEquals("item-2", new String(recovered.get(0), "UTF-8"));
+        assertEquals("item-4", new String(recovered.get(2), "UTF-8"));
+        reopened.close();
+    }
+
+    @Test
+    public void testSegmentRoll() throws IOException {
+        // given
+        File directory = temporaryFolder.newFolder();
+        WriteAheadLog log = new WriteAheadLog(directory, 64);
+        for (int i = 0; i < 20; ++i) {
+            log.append(("item-" + i).getBytes("UTF-8"));  // 14 or 15 bytes with header, 4 records per segment
+        }
+
+        // when
+        log.acknowledge(10);
+        log.close();
+        WriteAheadLog reopened = new WriteAheadLog(directory, 64);
+
+        // then
+        List<byte[]> recovered = reopened.getRecoveredRecords();
+        assertEquals(10, recovered.size());
+        for (int i = 0; i < 10; ++i) {
+            assertEquals("item-" + (i + 10), new String(recovered.get(i), "UTF-8"));
+        }
+        assertEquals(3, segmentCount(directory));  // segments with acknowledged records only are deleted
+        reopened.close();
+    }
+
+    @Test
+    public void testAppendAfterRecovery() throws IOException {
+        // given
+        File directory = temporaryFolder.newFolder();
+        WriteAheadLog log = new WriteAheadLog(directory, 64);
+        for (int i = 0; i < 3; ++i) {
+            log.append(("item-" + i).getBytes("UTF-8"));
+        }
+        log.close();
+        WriteAheadLog reopened = new WriteAheadLog(directory, 64);
+
+        // when
+        for (int i = 3; i < 6; ++i) {
+            reopened.append(("item-" + i).getBytes("UTF-8"));
+        }
+        reopened.acknowledge(4);
+        reopened.close();
+
+        // then
+        List<byte[]> recovered = new WriteAheadLog(directory, 64).getRecoveredRecords();
+        assertEquals(2, recovered.size());
+        assertEquals("item-4", new String(recovered.get(0), "UTF-8"));
+        assertEquals("item-5", new String(recovered.get(1), "UTF-8"));
+    }
+
+    @Test
+    public void testCorruptRecord() throws IOException {
+        // given
+        File directory = temporaryFolder.newFolder();
+        WriteAheadLog log = new WriteAheadLog(directory, 1024);
+        for (int i = 0; i < 3; ++i) {
+            log.append(("item-" + i).getBytes("UTF-8"));
+        }
+        log.close();
+        RandomAccessFile segment = new RandomAccessFile(new File(directory, String.format("segment-%020d.log", 0)), "rw");
+        try {
+            segment.seek(14 + 8);  // payload of the second record
+            segment.write('X');
+        } finally {
+            segment.close();
+        }
+
+        // when
+        WriteAheadLog reopened = new WriteAheadLog(directory, 1024);
+
+        // then
+        List<byte[]> recovered = reopened.getRecoveredRecords();
+        assertEquals(1, recovered.size());
+        assertEquals("item-0", new String(recovered.get(0), "UTF-8"));
+        reopened.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPayloadLargerThanSegment() throws IOException {
+        // given
+        WriteAheadLog log = new WriteAheadLog(temporaryFolder.newFolder(), 64);
+        try {
+            // when
+            log.append(new byte[64]);
+        } finally {
+            log.close();
+        }
+    }
+
+    private static int segmentCount(File directory) {
+        int count = 0;
+        String[] names = directory.list();
+        assertTrue(names != null);
+        for (String name : names) {
+            if (name.startsWith("segment-")) {
+                ++count;
+            }
+        }
+        return count;
+    }
+}